@@ -69,6 +69,12 @@ class AnalyzeSnzData implements Callable<Integer> {
 	@CommandLine.Option(names = "--output", defaultValue = "output")
 	private Path outputFolder;
 
+	@CommandLine.Option(names = "--incremental", defaultValue = "false", description = "Append only new days to existing daily outputs.")
+	private boolean incremental;
+
+	@CommandLine.Option(names = "--store", description = "Read days from a store created by CreateSnzMobilityStore instead of the input files.")
+	private Path store;
+
 	public static void main(String[] args) {
 		System.exit(new CommandLine(new AnalyzeSnzData()).execute(args));
 	}
@@ -106,6 +112,9 @@ class AnalyzeSnzData implements Callable<Integer> {
 						   Set<String> datesToIgnore) throws IOException {
 		CreateRestrictionsFromSnz snz = new CreateRestrictionsFromSnz();
 		snz.setInput(inputFolder);
+		snz.setIncremental(incremental);
+		if (store != null)
+			snz.setStore(store);
 		List<String> baseDays = Arrays.asList();
 		String outputOption = null;
 
@@ -229,20 +238,11 @@ class AnalyzeSnzData implements Callable<Integer> {
 				break;
 			case UpdateMobilityDashboardData:
 				datesToIgnore.clear();
-				outputFolder = Path.of("../public-svn/matsim/scenarios/countries/de/episim/mobilityData/bundeslaender/");
-				outputOption = "weekly";
-				snz.writeBundeslandDataForPublic(outputFolder, outputOption, startDateStillUsingBaseDays, datesToIgnore);
-				outputOption = "weekdays";
-				snz.writeBundeslandDataForPublic(outputFolder, outputOption, startDateStillUsingBaseDays, datesToIgnore);
-				outputOption = "weekends";
-				snz.writeBundeslandDataForPublic(outputFolder, outputOption, startDateStillUsingBaseDays, datesToIgnore);
-				outputFolder = Path.of("../public-svn/matsim/scenarios/countries/de/episim/mobilityData/landkreise/");
-				outputOption = "weekly";
-				snz.writeLandkreisDataForPublic(outputFolder, outputOption, startDateStillUsingBaseDays, datesToIgnore);
-				outputOption = "weekdays";
-				snz.writeLandkreisDataForPublic(outputFolder, outputOption, startDateStillUsingBaseDays, datesToIgnore);
-				outputOption = "weekends";
-				snz.writeLandkreisDataForPublic(outputFolder, outputOption, startDateStillUsingBaseDays, datesToIgnore);
+				// all Bundeslaender and Landkreise are written with one pass over the data
+				snz.writeGermanyDataForPublic(
+						Path.of("../public-svn/matsim/scenarios/countries/de/episim/mobilityData/bundeslaender/"),
+						Path.of("../public-svn/matsim/scenarios/countries/de/episim/mobilityData/landkreise/"),
+						List.of("weekly", "weekdays", "weekends"), startDateStillUsingBaseDays, datesToIgnore);
 				break;
 			default:
 				break;
@@ -23,6 +23,7 @@ package org.matsim.episim.analysis;
 import com.google.common.base.Joiner;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import org.apache.commons.csv.CSVFormat;
@@ -31,6 +32,7 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.core.utils.io.IOUtils;
+import org.matsim.episim.model.input.SnzMobilityStore;
 import picocli.CommandLine;
 
 import java.io.BufferedWriter;
@@ -39,6 +41,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.Map.Entry;
@@ -63,6 +66,9 @@ class AnalyzeSnzDataPersonsStat implements Callable<Integer> {
 	@CommandLine.Option(names = "--output", defaultValue = "output")
 	private Path outputFolder;
 
+	@CommandLine.Option(names = "--store", description = "Read days from a store created by CreateSnzMobilityStore instead of the input files.")
+	private Path store;
+
 	public static void main(String[] args) {
 		System.exit(new CommandLine(new AnalyzeSnzDataPersonsStat()).execute(args));
 	}
@@ -159,6 +165,10 @@ class AnalyzeSnzDataPersonsStat implements Callable<Integer> {
 
 		Path outputFile = outputFolder.resolve(area + "SnzDataPersonStats_until.csv");
 
+		SnzMobilityStore personStats = null;
+		if (store != null)
+			personStats = SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.personStats.name()));
+
 		BufferedWriter writer = IOUtils.getBufferedWriter(outputFile.toString());
 		try {
 
@@ -175,22 +185,36 @@ class AnalyzeSnzDataPersonsStat implements Callable<Integer> {
 				Object2IntOpenHashMap<String> sums = new Object2IntOpenHashMap<>();
 
 				dateString = file.getName().split("_")[0];
+				LocalDate date = LocalDate.parse(dateString, FMT);
+
+				if (personStats != null && personStats.contains(date)) {
+					Object2DoubleMap<String> stats = personStats.sum(date, zipCodes);
+					int nStayHome = (int) Math.round(stats.getDouble("nStayHomes"));
+					int nMobilePersons = (int) Math.round(stats.getDouble("nMobilePersons"));
+
+					sums.put("shareStayHome", nStayHome);
+					sums.put("shareMobilePersons", nMobilePersons);
+					sums.put("nPersons", nStayHome + nMobilePersons);
+				} else {
+					if (personStats != null)
+						log.warn("Date " + dateString + " is not in the store, reading " + file);
 
-				CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader()
-						.parse(IOUtils.getBufferedReader(file.toString()));
+					CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader()
+							.parse(IOUtils.getBufferedReader(file.toString()));
 
-				for (CSVRecord record : parse) {
-					if (!record.get("zipCode").contains("NULL")) {
-						int zipCode = Integer.parseInt(record.get("zipCode"));
-						if (zipCodes.contains(zipCode)) {
+					for (CSVRecord record : parse) {
+						if (!record.get("zipCode").contains("NULL")) {
+							int zipCode = Integer.parseInt(record.get("zipCode"));
+							if (zipCodes.contains(zipCode)) {
 
-							int nStayHome = Integer.parseInt(record.get("nStayHomes"));
-							int nMobilePersons = Integer.parseInt(record.get("nMobilePersons"));
+								int nStayHome = Integer.parseInt(record.get("nStayHomes"));
+								int nMobilePersons = Integer.parseInt(record.get("nMobilePersons"));
 
-							sums.mergeInt("shareStayHome", nStayHome, Integer::sum);
-							sums.mergeInt("shareMobilePersons", nMobilePersons, Integer::sum);
-							sums.mergeInt("nPersons", nStayHome + nMobilePersons, Integer::sum);
+								sums.mergeInt("shareStayHome", nStayHome, Integer::sum);
+								sums.mergeInt("shareMobilePersons", nMobilePersons, Integer::sum);
+								sums.mergeInt("nPersons", nStayHome + nMobilePersons, Integer::sum);
 
+							}
 						}
 					}
 				}
@@ -221,6 +245,9 @@ class AnalyzeSnzDataPersonsStat implements Callable<Integer> {
 			log.info("Write analyze of " + countingDays + " is writen to " + finalPath);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (personStats != null)
+				personStats.close();
 		}
 	}
 
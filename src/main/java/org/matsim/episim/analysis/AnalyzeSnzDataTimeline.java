@@ -33,6 +33,10 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.core.utils.io.IOUtils;
+import org.matsim.episim.model.input.CreateRestrictionsFromSnz;
+import org.matsim.episim.model.input.ParallelDayReader;
+import org.matsim.episim.model.input.SnzMobilityStore;
+import org.matsim.episim.model.input.ZipCodeIndex;
 
 import picocli.CommandLine;
 
@@ -48,7 +52,6 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
@@ -66,6 +69,9 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 	private static final DateTimeFormatter FMT_holiday = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 	private static final Joiner JOIN = Joiner.on(";");
 
+	private static final List<String> HOURS_22_5 = Arrays.asList("<0h", "0-1h", "1-2h", "2-3h", "3-4h", "4-5h",
+			"22-23h", "23-24h", "24-25h", "25-26h", "26-27h");
+
 	private enum AnalyseOptions {
 		onlyWeekdays, onlySaturdays, onlySundays, weeklyResultsOfAllDays, onlyWeekends, dailyResults, Mo_Do, Fr_Sa
 	};
@@ -85,6 +91,12 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 	@CommandLine.Option(names = "--output", defaultValue = "output")
 	private Path outputFolder;
 
+	@CommandLine.Option(names = "--threads", description = "Number of threads for reading the day files.")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@CommandLine.Option(names = "--store", description = "Read days from a store created by CreateSnzMobilityStore instead of the input files.")
+	private Path store;
+
 	public static void main(String[] args) {
 		System.exit(new CommandLine(new AnalyzeSnzDataTimeline()).execute(args));
 	}
@@ -256,7 +268,7 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 				outputFile = outputFolder.resolve("Timeline_until.csv");
 		}
 		HashMap<String, Set<LocalDate>> allHolidays = readBankHolidays();
-		HashMap<String, Set<String>> lkAssignemt = createLKAssignmentToBL();
+		ZipCodeIndex index = ZipCodeIndex.create(zipCodes, createLKAssignmentToBL());
 
 		startDateStillUsingBaseDays = findNextDateToContinueFile(startDateStillUsingBaseDays, filesWithData, finalPath);
 
@@ -320,140 +332,150 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 			int countingDays = 1;
 			boolean reachedStartDate = false;
 			HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod = new HashMap<String, Integer>();
-			Map<String, Integer> personsInThisArea = getPersonsInThisZIPCodes(zipCodes, inputFolder.toFile());
+			Map<String, Integer> personsInThisArea = CreateRestrictionsFromSnz.getPersonsInThisZIPCodes(index, inputFolder.toFile());
 
 			// will contain the last parsed date
 			String dateString = "";
 
-			for (File file : filesWithData) {
-
-				dateString = file.getName().split("_")[0];
-				LocalDate date = LocalDate.parse(dateString, FMT);
-				DayOfWeek day = date.getDayOfWeek();
-
-				if (startDateStillUsingBaseDays.equals("") || dateString.equals(startDateStillUsingBaseDays))
-					reachedStartDate = true;
-
-				if (reachedStartDate) {
+			// days are parsed in parallel, but aggregated in order
+			String startDate = startDateStillUsingBaseDays;
+			try (SnzMobilityStore activities = store == null ? null
+					: SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.activities.name()));
+				 ParallelDayReader<DayData> reader = new ParallelDayReader<>(filesWithData,
+					ParallelDayReader.dayFilter(selectedOptionForAnalyse.name(), FMT, datesToIgnore, startDate),
+					file -> parseDataOfTheDay(index, zipCodes, activities, file), threads)) {
+
+				for (File file : filesWithData) {
+
+					DayData data = reader.next();
+
+					dateString = file.getName().split("_")[0];
+					LocalDate date = LocalDate.parse(dateString, FMT);
+					DayOfWeek day = date.getDayOfWeek();
+
+					if (startDateStillUsingBaseDays.equals("") || dateString.equals(startDateStillUsingBaseDays))
+						reachedStartDate = true;
+
+					if (reachedStartDate) {
+
+						switch (selectedOptionForAnalyse) {
+						case weeklyResultsOfAllDays:
+							if (!datesToIgnore.contains(dateString))
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, null, anaylzedDaysPerAreaAndPeriod);
+							if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case onlyWeekdays:
+							if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
+									&& !datesToIgnore.contains(dateString)) {
+								List<String> areasWithBankHoliday = new ArrayList<>();
+								getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod);
+							}
+							if (day.equals(DayOfWeek.FRIDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case onlySaturdays:
+							if (day.equals(DayOfWeek.SATURDAY) && !datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, null, anaylzedDaysPerAreaAndPeriod);
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case onlySundays:
+							if (day.equals(DayOfWeek.SUNDAY) && !datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, null, anaylzedDaysPerAreaAndPeriod);
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case onlyWeekends:
+							if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.SUNDAY))
+									&& !datesToIgnore.contains(dateString))
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, null, anaylzedDaysPerAreaAndPeriod);
+							if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case dailyResults:
+							if (!datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, null, anaylzedDaysPerAreaAndPeriod);
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case Mo_Do:
+							if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
+									&& !day.equals(DayOfWeek.FRIDAY) && !datesToIgnore.contains(dateString)) {
+								List<String> areasWithBankHoliday = new ArrayList<>();
+								getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod);
+							}
+							if (day.equals(DayOfWeek.THURSDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						case Fr_Sa:
+							if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.FRIDAY))
+									&& !datesToIgnore.contains(dateString)) {
 
-					switch (selectedOptionForAnalyse) {
-					case weeklyResultsOfAllDays:
-						if (!datesToIgnore.contains(dateString))
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case onlyWeekdays:
-						if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
-								&& !datesToIgnore.contains(dateString)) {
-							List<String> areasWithBankHoliday = new ArrayList<>();
-							getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						}
-						if (day.equals(DayOfWeek.FRIDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case onlySaturdays:
-						if (day.equals(DayOfWeek.SATURDAY) && !datesToIgnore.contains(dateString)) {
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case onlySundays:
-						if (day.equals(DayOfWeek.SUNDAY) && !datesToIgnore.contains(dateString)) {
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case onlyWeekends:
-						if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.SUNDAY))
-								&& !datesToIgnore.contains(dateString))
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case dailyResults:
-						if (!datesToIgnore.contains(dateString)) {
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case Mo_Do:
-						if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
-								&& !day.equals(DayOfWeek.FRIDAY) && !datesToIgnore.contains(dateString)) {
-							List<String> areasWithBankHoliday = new ArrayList<>();
-							getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						}
-						if (day.equals(DayOfWeek.THURSDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
-						}
-						break;
-					case Fr_Sa:
-						if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.FRIDAY))
-								&& !datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										data, null, anaylzedDaysPerAreaAndPeriod);
+							}
+							if (day.equals(DayOfWeek.SATURDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
+										writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
+										sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
+								clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
+										anaylzedDaysPerAreaAndPeriod);
+							}
+							break;
+						default:
+							break;
 
-							readDataOfTheDay(zipCodes, sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						}
-						if (day.equals(DayOfWeek.SATURDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(getPercentageResults, outputShareOutdoor, selectedOutputData, writer,
-									writerShare, anaylzedDaysPerAreaAndPeriod, header, baseForAreas, dateString,
-									sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd, personsInThisArea);
-							clearSums(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart, sumsNonHomeEnd,
-									anaylzedDaysPerAreaAndPeriod);
 						}
-						break;
-					default:
-						break;
-
 					}
-				}
-				if (countingDays % 7 == 0)
-					log.info("Finished week " + countingDays / 7 + " of "
-							+ (int) Math.floor((double) filesWithData.size() / 7) + " weeks");
+					if (countingDays % 7 == 0)
+						log.info("Finished week " + countingDays / 7 + " of "
+								+ (int) Math.floor((double) filesWithData.size() / 7) + " weeks");
 
-				countingDays++;
+					countingDays++;
+				}
 			}
-
 			writer.close();
 			if (outputShareOutdoor)
 				writerShare.close();
@@ -570,65 +592,189 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 	}
 
 	/**
-	 * Reads the data and saves the data in the different sums types
+	 * Reads the data of one day for all areas of the index.
 	 * 
 	 * @param file
 	 * @throws IOException
+	 */
+	private static DayData parseDataOfTheDay(ZipCodeIndex index, File file) throws IOException {
+
+		try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader().parse(reader);
+
+			List<String> hours = new ArrayList<>();
+			for (String string : parse.getHeaderNames()) {
+				if (!string.contains("date") && !string.contains("type") && !string.contains("area")
+						&& !string.contains("zipCode"))
+					hours.add(string);
+			}
+
+			boolean[] isNight = new boolean[hours.size()];
+			for (int h = 0; h < hours.size(); h++)
+				isNight[h] = HOURS_22_5.contains(hours.get(h));
+
+			DayData data = new DayData(hours.toArray(new String[0]), index.size());
+			double[] values = new double[hours.size()];
+
+			for (CSVRecord record : parse) {
+
+				int[] areas = index.areas(record.get("zipCode"));
+				if (areas.length == 0)
+					continue;
+
+				int type = DayData.type(record.get("type"));
+				if (type == -1)
+					continue;
+
+				double night = 0;
+				for (int h = 0; h < values.length; h++) {
+					values[h] = Integer.parseInt(record.get(data.hours[h]));
+					if (isNight[h])
+						night += values[h];
+				}
+
+				for (int area : areas) {
+					double[] v = data.counts[area][type];
+					if (v == null)
+						v = data.counts[area][type] = new double[values.length + 1];
+
+					for (int h = 0; h < values.length; h++)
+						v[h] += values[h];
+
+					v[values.length] += night;
+				}
+			}
+
+			return data;
+		}
+	}
+
+	/**
+	 * Reads the data of one day from the store, or from the file if there is no store or the store does not contain
+	 * the day. Types without any activities of an area in the store are treated as without data.
+	 *
+	 * @see #parseDataOfTheDay(ZipCodeIndex, File)
+	 */
+	private static DayData parseDataOfTheDay(ZipCodeIndex index, Map<String, IntSet> zipCodes,
+			SnzMobilityStore activities, File file) throws IOException {
+
+		String dateString = file.getName().split("_")[0];
+		LocalDate date = LocalDate.parse(dateString, FMT);
+		if (activities == null || !activities.contains(date)) {
+			if (activities != null)
+				log.warn("Date " + dateString + " is not in the store, reading " + file);
+
+			return parseDataOfTheDay(index, file);
+		}
+
+		// measures are stored as type:hour
+		List<String> hours = new ArrayList<>();
+		for (String measure : activities.getMeasures()) {
+			String hour = measure.substring(measure.indexOf(':') + 1);
+			if (!hours.contains(hour))
+				hours.add(hour);
+		}
+
+		DayData data = new DayData(hours.toArray(new String[0]), index.size());
+
+		for (int area = 0; area < index.size(); area++) {
+			Object2DoubleMap<String> sums = activities.sum(date, zipCodes.get(index.getArea(area)));
+			for (Object2DoubleMap.Entry<String> e : sums.object2DoubleEntrySet()) {
+				if (e.getDoubleValue() == 0)
+					continue;
+
+				String measure = e.getKey();
+				int type = DayData.type(measure.substring(0, measure.indexOf(':')));
+				if (type == -1)
+					continue;
+
+				double[] v = data.counts[area][type];
+				if (v == null)
+					v = data.counts[area][type] = new double[hours.size() + 1];
+
+				String hour = measure.substring(measure.indexOf(':') + 1);
+				v[hours.indexOf(hour)] += e.getDoubleValue();
+				if (HOURS_22_5.contains(hour))
+					v[hours.size()] += e.getDoubleValue();
+			}
+		}
+
+		return data;
+	}
+
+	/**
+	 * Adds the data of one day to the different sums types of all areas without bank holiday.
 	 * 
+	 * @param data parsed by {@link #parseDataOfTheDay(ZipCodeIndex, File)}
 	 */
-	private void readDataOfTheDay(HashMap<String, IntSet> zipCodesOfAreas,
+	private void readDataOfTheDay(ZipCodeIndex index,
 			Map<String, Object2DoubleMap<String>> sumsHomeStart, Map<String, Object2DoubleMap<String>> sumsHomeEnd,
 			Map<String, Object2DoubleMap<String>> sumsNonHomeStart,
-			Map<String, Object2DoubleMap<String>> sumsNonHomeEnd, File file, List<String> areasWithBankHoliday,
-			HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod, HashMap<String, Set<String>> lkAssignemt)
-			throws IOException {
+			Map<String, Object2DoubleMap<String>> sumsNonHomeEnd, DayData data, List<String> areasWithBankHoliday,
+			HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod) {
 
 		if (anaylzedDaysPerAreaAndPeriod.isEmpty())
-			for (String nameArea : zipCodesOfAreas.keySet()) {
+			for (String nameArea : index.getAreas()) {
 				anaylzedDaysPerAreaAndPeriod.put(nameArea, 0);
 			}
 
-		for (String area : anaylzedDaysPerAreaAndPeriod.keySet())
-			if (areasWithBankHoliday == null || !areasWithBankHoliday.contains(getRelatedBundesland(area, lkAssignemt)))
-				anaylzedDaysPerAreaAndPeriod.put(area, anaylzedDaysPerAreaAndPeriod.get(area) + 1);
-		List<String> hours22_5 = Arrays.asList("<0h", "0-1h", "1-2h", "2-3h", "3-4h", "4-5h", "22-23h", "23-24h",
-				"24-25h", "25-26h", "26-27h");
-		CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader()
-				.parse(IOUtils.getBufferedReader(file.toString()));
-		for (CSVRecord record : parse) {
-			for (String certainArea : zipCodesOfAreas.keySet()) {
-				if (areasWithBankHoliday == null
-						|| !areasWithBankHoliday.contains(getRelatedBundesland(certainArea, lkAssignemt))) {
-					if (!record.get("zipCode").contains("NULL")) {
-						int zipCode = Integer.parseInt(record.get("zipCode"));
-						if (zipCodesOfAreas.get(certainArea).contains(zipCode)) {
-							for (String string : record.getParser().getHeaderNames()) {
-								if (!string.contains("date") && !string.contains("type") && !string.contains("area")
-										&& !string.contains("zipCode")) {
-									if (record.get("type").contains("startHomeActs"))
-										sumsHomeStart.get(certainArea).mergeDouble(string,
-												Integer.parseInt(record.get(string)), Double::sum);
-									if (record.get("type").contains("endHomeActs"))
-										sumsHomeEnd.get(certainArea).mergeDouble(string,
-												Integer.parseInt(record.get(string)), Double::sum);
-									if (record.get("type").contains("startNonHomeActs"))
-										sumsNonHomeStart.get(certainArea).mergeDouble(string,
-												Integer.parseInt(record.get(string)), Double::sum);
-									if (record.get("type").contains("endNonHomeActs"))
-										sumsNonHomeEnd.get(certainArea).mergeDouble(string,
-												Integer.parseInt(record.get(string)), Double::sum);
-									if (record.get("type").contains("endNonHomeActs") && hours22_5.contains(string))
-										sumsNonHomeEnd.get(certainArea).mergeDouble("22-5",
-												Integer.parseInt(record.get(string)), Double::sum);
-								}
-							}
-						}
-					}
-				}
+		boolean[] excluded = index.holidayMask(areasWithBankHoliday);
+		for (int i = 0; i < index.size(); i++)
+			if (!excluded[i])
+				anaylzedDaysPerAreaAndPeriod.merge(index.getArea(i), 1, Integer::sum);
+
+		List<Map<String, Object2DoubleMap<String>>> sums = List.of(sumsHomeStart, sumsHomeEnd, sumsNonHomeStart,
+				sumsNonHomeEnd);
+
+		for (int area = 0; area < data.counts.length; area++) {
+			if (excluded[area])
+				continue;
+
+			String certainArea = index.getArea(area);
+			for (int type = 0; type < DayData.TYPES.length; type++) {
+				double[] v = data.counts[area][type];
+				if (v == null)
+					continue;
+
+				Object2DoubleMap<String> sumsOfType = sums.get(type).get(certainArea);
+				for (int h = 0; h < data.hours.length; h++)
+					sumsOfType.mergeDouble(data.hours[h], v[h], Double::sum);
+
+				if (type == DayData.END_NON_HOME)
+					sumsOfType.mergeDouble("22-5", v[data.hours.length], Double::sum);
 			}
 		}
 	}
 
+	/**
+	 * Activity counts of one day for each area, type and hour.
+	 */
+	private static final class DayData {
+
+		private static final String[] TYPES = { "startHomeActs", "endHomeActs", "startNonHomeActs", "endNonHomeActs" };
+		private static final int END_NON_HOME = 3;
+
+		private final String[] hours;
+
+		/**
+		 * Counts by area, type and hour, with the sum of 22-5h as last entry. Null if an area has no data of a type.
+		 */
+		private final double[][][] counts;
+
+		private DayData(String[] hours, int areas) {
+			this.hours = hours;
+			this.counts = new double[areas][TYPES.length][];
+		}
+
+		private static int type(String type) {
+			for (int i = 0; i < TYPES.length; i++)
+				if (type.contains(TYPES[i]))
+					return i;
+
+			return -1;
+		}
+	}
+
 	/**
 	 * Writes the output of the analyzed time period.
 	 * 
@@ -980,40 +1126,6 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 		return startDateStillUsingBaseDays;
 	}
 
-	/**
-	 * Searches the number of persons in all the different areas
-	 * 
-	 * @param zipCodesForAreas
-	 * @param inputPulder
-	 * @return
-	 */
-	static Map<String, Integer> getPersonsInThisZIPCodes(HashMap<String, IntSet> zipCodesForAreas, File inputPulder) {
-		File fileWithPersonData = findPersonStatInputFile(inputPulder);
-		Map<String, Integer> personsPerArea = new HashMap<>();
-		for (String area : zipCodesForAreas.keySet()) {
-			personsPerArea.put(area, 0);
-		}
-		CSVParser parse;
-		try {
-			parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader()
-					.parse(IOUtils.getBufferedReader(fileWithPersonData.toString()));
-			for (CSVRecord record : parse) {
-				for (Entry<String, IntSet> certainArea : zipCodesForAreas.entrySet()) {
-					if (!record.get("zipCode").contains("NULL")) {
-						String nameArea = certainArea.getKey();
-						int readZipCode = Integer.parseInt(record.get("zipCode"));
-						if (certainArea.getValue().contains(readZipCode))
-							personsPerArea.put(nameArea,
-									personsPerArea.get(nameArea) + Integer.parseInt(record.get("nPersons")));
-					}
-				}
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return personsPerArea;
-	}
-
 	/**
 	 * Creates an assignment of the landkreise to the Bundeslaender
 	 * 
@@ -1042,24 +1154,6 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 		return lKAssignment;
 	}
 
-	/**
-	 * Returns the Bundesland where is Landkreis is located
-	 * 
-	 * @param area
-	 * @param lKAssignment
-	 * @return
-	 */
-	private static String getRelatedBundesland(String area, HashMap<String, Set<String>> lKAssignment) {
-
-		if (lKAssignment.containsKey(area))
-			return area;
-
-		for (String bundesland : lKAssignment.keySet())
-			if (lKAssignment.get(bundesland).contains(area))
-				return bundesland;
-		return null;
-	}
-
 	/**
 	 * Reads all bank holidays for Germany and each Bundesland
 	 * 
@@ -1111,27 +1205,6 @@ class AnalyzeSnzDataTimeline implements Callable<Integer> {
 		}
 	}
 
-	/**
-	 * This method searches a files with personStat.
-	 */
-	static File findPersonStatInputFile(File inputFolder) {
-		File personStatFile = null;
-		for (File folder : Objects.requireNonNull(inputFolder.listFiles())) {
-			if (folder.isDirectory()) {
-				for (File file : Objects.requireNonNull(folder.listFiles())) {
-					String string = file.getName().split("_")[0];
-					if (file.getName().contains("_personStats.csv.gz") && string.contains("20210531")) {
-						personStatFile = file;
-						break;
-					}
-				}
-			}
-			if (personStatFile != null)
-				break;
-		}
-		return personStatFile;
-	}
-
 	/**
 	 * Rounds the number 2 places after the comma
 	 * 
@@ -33,6 +33,9 @@ import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.core.utils.io.IOUtils;
+import org.matsim.episim.model.input.ParallelDayReader;
+import org.matsim.episim.model.input.SnzMobilityStore;
+import org.matsim.episim.model.input.ZipCodeIndex;
 
 import picocli.CommandLine;
 
@@ -80,6 +83,12 @@ class AnalyzeSnzRange implements Callable<Integer> {
 	@CommandLine.Option(names = "--output", defaultValue = "output")
 	private Path outputFolder;
 
+	@CommandLine.Option(names = "--threads", description = "Number of threads for reading the day files.")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@CommandLine.Option(names = "--store", description = "Read days from a store created by CreateSnzMobilityStore instead of the input files.")
+	private Path store;
+
 	public static void main(String[] args) {
 		System.exit(new CommandLine(new AnalyzeSnzRange()).execute(args));
 	}
@@ -261,7 +270,7 @@ class AnalyzeSnzRange implements Callable<Integer> {
 				outputFile = outputFolder.resolve("Range_until.csv");
 		}
 		HashMap<String, Set<LocalDate>> allHolidays = readBankHolidays();
-		HashMap<String, Set<String>> lkAssignemt = createLKAssignmentToBL();
+		ZipCodeIndex index = ZipCodeIndex.create(zipCodes, createLKAssignmentToBL());
 
 		startDateStillUsingBaseDays = findNextDateToContinueFile(startDateStillUsingBaseDays, filesWithData, finalPath);
 
@@ -286,108 +295,117 @@ class AnalyzeSnzRange implements Callable<Integer> {
 			// will contain the last parsed date
 			String dateString = "";
 
-			// Analyzes all files with the mobility data
-			for (File file : filesWithData) {
-
-				dateString = file.getName().split("_")[0];
-				LocalDate date = LocalDate.parse(dateString, FMT);
-				DayOfWeek day = date.getDayOfWeek();
-
-				if (startDateStillUsingBaseDays.equals("") || dateString.equals(startDateStillUsingBaseDays))
-					reachedStartDate = true;
-
-				if (reachedStartDate) {
+			// days are parsed in parallel, but aggregated in order
+			String startDate = startDateStillUsingBaseDays;
+			try (SnzMobilityStore personStats = store == null ? null
+					: SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.personStats.name()));
+				 ParallelDayReader<double[][]> reader = new ParallelDayReader<>(filesWithData,
+					ParallelDayReader.dayFilter(selectedOptionForAnalyse.name(), FMT, datesToIgnore, startDate),
+					file -> parseDataOfTheDay(index, zipCodes, personStats, file), threads)) {
+
+				// Analyzes all files with the mobility data
+				for (File file : filesWithData) {
+
+					double[][] data = reader.next();
+
+					dateString = file.getName().split("_")[0];
+					LocalDate date = LocalDate.parse(dateString, FMT);
+					DayOfWeek day = date.getDayOfWeek();
+
+					if (startDateStillUsingBaseDays.equals("") || dateString.equals(startDateStillUsingBaseDays))
+						reachedStartDate = true;
+
+					if (reachedStartDate) {
+
+						switch (selectedOptionForAnalyse) {
+						case weeklyResultsOfAllDays:
+							if (!datesToIgnore.contains(dateString))
+								readDataOfTheDay(index, sums, data, null, anaylzedDaysPerAreaAndPeriod);
+							if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+							}
+							break;
+						case onlyWeekdays:
+							if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
+									&& !datesToIgnore.contains(dateString)) {
+								List<String> areasWithBankHoliday = new ArrayList<>();
+								getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
+								readDataOfTheDay(index, sums, data, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod);
+							}
+							if (day.equals(DayOfWeek.FRIDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+							}
+							break;
+						case onlySaturdays:
+							if (day.equals(DayOfWeek.SATURDAY) && !datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sums, data, null, anaylzedDaysPerAreaAndPeriod);
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+							}
+							break;
+						case onlySundays:
+							if (day.equals(DayOfWeek.SUNDAY) && !datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sums, data, null, anaylzedDaysPerAreaAndPeriod);
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+							}
+							break;
+						case onlyWeekends:
+							if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.SUNDAY))
+									&& !datesToIgnore.contains(dateString))
+								readDataOfTheDay(index, sums, data, null, anaylzedDaysPerAreaAndPeriod);
+							if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+								;
+							}
+							break;
+						case dailyResults:
+							if (!datesToIgnore.contains(dateString)) {
+								readDataOfTheDay(index, sums, data, null, anaylzedDaysPerAreaAndPeriod);
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+							}
+							break;
+						case Mo_Do:
+							if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
+									&& !day.equals(DayOfWeek.FRIDAY) && !datesToIgnore.contains(dateString)) {
+								List<String> areasWithBankHoliday = new ArrayList<>();
+								getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
+								readDataOfTheDay(index, sums, data, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod);
+							}
+							if (day.equals(DayOfWeek.THURSDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
+								writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
+										sums);
+								for (String area : sums.keySet())
+									sums.get(area).clear();
+							}
+							break;
+						default:
+							break;
 
-					switch (selectedOptionForAnalyse) {
-					case weeklyResultsOfAllDays:
-						if (!datesToIgnore.contains(dateString))
-							readDataOfTheDay(zipCodes, sums, file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
-						}
-						break;
-					case onlyWeekdays:
-						if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
-								&& !datesToIgnore.contains(dateString)) {
-							List<String> areasWithBankHoliday = new ArrayList<>();
-							getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
-							readDataOfTheDay(zipCodes, sums, file, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod,
-									lkAssignemt);
-						}
-						if (day.equals(DayOfWeek.FRIDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
-						}
-						break;
-					case onlySaturdays:
-						if (day.equals(DayOfWeek.SATURDAY) && !datesToIgnore.contains(dateString)) {
-							readDataOfTheDay(zipCodes, sums, file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
-						}
-						break;
-					case onlySundays:
-						if (day.equals(DayOfWeek.SUNDAY) && !datesToIgnore.contains(dateString)) {
-							readDataOfTheDay(zipCodes, sums, file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
 						}
-						break;
-					case onlyWeekends:
-						if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.SUNDAY))
-								&& !datesToIgnore.contains(dateString))
-							readDataOfTheDay(zipCodes, sums, file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						if (day.equals(DayOfWeek.SUNDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
-							;
-						}
-						break;
-					case dailyResults:
-						if (!datesToIgnore.contains(dateString)) {
-							readDataOfTheDay(zipCodes, sums, file, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
-						}
-						break;
-					case Mo_Do:
-						if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
-								&& !day.equals(DayOfWeek.FRIDAY) && !datesToIgnore.contains(dateString)) {
-							List<String> areasWithBankHoliday = new ArrayList<>();
-							getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
-							readDataOfTheDay(zipCodes, sums, file, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod,
-									lkAssignemt);
-						}
-						if (day.equals(DayOfWeek.THURSDAY) && !anaylzedDaysPerAreaAndPeriod.values().isEmpty()) {
-							writeOutput(selectedOptionForAnalyse, writer, anaylzedDaysPerAreaAndPeriod, dateString,
-									sums);
-							for (String area : sums.keySet())
-								sums.get(area).clear();
-						}
-						break;
-					default:
-						break;
-
 					}
-				}
-				if (countingDays % 7 == 0)
-					log.info("Finished week " + countingDays / 7 + " of "
-							+ (int) Math.floor((double) filesWithData.size() / 7) + " weeks");
+					if (countingDays % 7 == 0)
+						log.info("Finished week " + countingDays / 7 + " of "
+								+ (int) Math.floor((double) filesWithData.size() / 7) + " weeks");
 
-				countingDays++;
+					countingDays++;
+				}
 			}
 			writer.close();
 			if (finalPath == null) {
@@ -582,71 +600,106 @@ class AnalyzeSnzRange implements Callable<Integer> {
 	}
 
 	/**
-	 * Returns the Bundesland where is Landkreis is located
+	 * Reads the file with the person statistics of one day for all areas of the index.
 	 * 
-	 * @param area
-	 * @param lKAssignment
-	 * @return
+	 * @return nStayHomes, nMobilePersons, nPersons and dailyRangeSum for each area, or null if an area has no data
+	 * @throws IOException
 	 */
-	private static String getRelatedBundesland(String area, HashMap<String, Set<String>> lKAssignment) {
+	private static double[][] parseDataOfTheDay(ZipCodeIndex index, File file) throws IOException {
+
+		double[][] acc = new double[index.size()][];
+
+		try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader().parse(reader);
+
+			for (CSVRecord record : parse) {
+
+				int[] areas = index.areas(record.get("zipCode"));
+				if (areas.length == 0)
+					continue;
 
-		if (lKAssignment.containsKey(area))
-			return area;
+				int nPersons = Integer.parseInt(record.get("nPersons"));
+				double dailyRangeSum = Double.parseDouble(record.get("dailyRangeSum"));
+				int nStayHome = Integer.parseInt(record.get("nStayHomes"));
+				int nMobilePersons = Integer.parseInt(record.get("nMobilePersons"));
 
-		for (String bundesland : lKAssignment.keySet())
-			if (lKAssignment.get(bundesland).contains(area))
-				return bundesland;
-		return null;
+				for (int area : areas) {
+					if (acc[area] == null)
+						acc[area] = new double[4];
+
+					acc[area][0] += nStayHome;
+					acc[area][1] += nMobilePersons;
+					acc[area][2] += nPersons;
+					acc[area][3] += dailyRangeSum;
+				}
+			}
+		}
+
+		return acc;
 	}
 
 	/**
-	 * Reads the file with the person statistics for all lists of zip Codes and
-	 * saves the result in separate sums
+	 * Reads the person statistics of one day from the store, or from the file if there is no store or the store does
+	 * not contain the day. Areas without any persons in the store are treated as without data.
+	 *
+	 * @see #parseDataOfTheDay(ZipCodeIndex, File)
+	 */
+	private static double[][] parseDataOfTheDay(ZipCodeIndex index, Map<String, IntSet> zipCodes,
+			SnzMobilityStore personStats, File file) throws IOException {
+
+		String dateString = file.getName().split("_")[0];
+		LocalDate date = LocalDate.parse(dateString, FMT);
+		if (personStats == null || !personStats.contains(date)) {
+			if (personStats != null)
+				log.warn("Date " + dateString + " is not in the store, reading " + file);
+
+			return parseDataOfTheDay(index, file);
+		}
+
+		double[][] acc = new double[index.size()][];
+		for (int area = 0; area < index.size(); area++) {
+			Object2DoubleMap<String> stats = personStats.sum(date, zipCodes.get(index.getArea(area)));
+
+			double[] values = { stats.getDouble("nStayHomes"), stats.getDouble("nMobilePersons"),
+					stats.getDouble("nPersons"), stats.getDouble("dailyRangeSum") };
+			if (values[0] > 0 || values[1] > 0 || values[2] > 0)
+				acc[area] = values;
+		}
+
+		return acc;
+	}
+
+	/**
+	 * Adds the person statistics of one day to the sums of all areas without bank holiday.
 	 * 
-	 * @param zipCodesForAreas
-	 * @param sums2
-	 * @param file
+	 * @param index
+	 * @param sums
+	 * @param data                         parsed by {@link #parseDataOfTheDay(ZipCodeIndex, File)}
 	 * @param areasWithBankHoliday
-	 * @param lkAssignemt
 	 * @param anaylzedDaysPerAreaAndPeriod
-	 * @throws IOException
 	 */
-	private void readDataOfTheDay(HashMap<String, IntSet> zipCodesOfAreas, Map<String, Object2DoubleMap<String>> sums,
-			File file, List<String> areasWithBankHoliday, HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod,
-			HashMap<String, Set<String>> lkAssignemt) throws IOException {
+	private void readDataOfTheDay(ZipCodeIndex index, Map<String, Object2DoubleMap<String>> sums,
+			double[][] data, List<String> areasWithBankHoliday, HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod) {
 
 		if (anaylzedDaysPerAreaAndPeriod.isEmpty())
-			for (String nameArea : zipCodesOfAreas.keySet()) {
+			for (String nameArea : index.getAreas()) {
 				anaylzedDaysPerAreaAndPeriod.put(nameArea, 0);
 			}
 
-		for (String area : anaylzedDaysPerAreaAndPeriod.keySet())
-			if (areasWithBankHoliday == null || !areasWithBankHoliday.contains(getRelatedBundesland(area, lkAssignemt)))
-				anaylzedDaysPerAreaAndPeriod.put(area, anaylzedDaysPerAreaAndPeriod.get(area) + 1);
-		CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader()
-				.parse(IOUtils.getBufferedReader(file.toString()));
-
-		for (CSVRecord record : parse) {
-			for (String certainArea : zipCodesOfAreas.keySet()) {
-				if (areasWithBankHoliday == null
-						|| !areasWithBankHoliday.contains(getRelatedBundesland(certainArea, lkAssignemt))) {
-					if (!record.get("zipCode").contains("NULL")) {
-						int zipCode = Integer.parseInt(record.get("zipCode"));
-						if (zipCodesOfAreas.get(certainArea).contains(zipCode)) {
-
-							int nPersons = Integer.parseInt(record.get("nPersons"));
-							double dailyRangeSum = Double.parseDouble(record.get("dailyRangeSum"));
-							int nStayHome = Integer.parseInt(record.get("nStayHomes"));
-							int nMobilePersons = Integer.parseInt(record.get("nMobilePersons"));
-
-							sums.get(certainArea).mergeDouble("nStayHomes", nStayHome, Double::sum);
-							sums.get(certainArea).mergeDouble("nMobilePersons", nMobilePersons, Double::sum);
-							sums.get(certainArea).mergeDouble("nPersons", nPersons, Double::sum);
-							sums.get(certainArea).mergeDouble("dailyRangeSum", dailyRangeSum, Double::sum);
-						}
-					}
-				}
-			}
+		boolean[] excluded = index.holidayMask(areasWithBankHoliday);
+		for (int i = 0; i < index.size(); i++)
+			if (!excluded[i])
+				anaylzedDaysPerAreaAndPeriod.merge(index.getArea(i), 1, Integer::sum);
+
+		for (int area = 0; area < data.length; area++) {
+			if (data[area] == null || excluded[area])
+				continue;
+
+			Object2DoubleMap<String> sumsOfArea = sums.get(index.getArea(area));
+			sumsOfArea.mergeDouble("nStayHomes", data[area][0], Double::sum);
+			sumsOfArea.mergeDouble("nMobilePersons", data[area][1], Double::sum);
+			sumsOfArea.mergeDouble("nPersons", data[area][2], Double::sum);
+			sumsOfArea.mergeDouble("dailyRangeSum", data[area][3], Double::sum);
 		}
 	}
 
@@ -0,0 +1,248 @@
+package org.matsim.episim.analysis;
+
+import com.google.common.base.Joiner;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import picocli.CommandLine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares two versions of the daily mobility data written by {@link org.matsim.episim.model.input.CreateRestrictionsFromSnz}
+ * and reports the days and activities that changed, together with the battery runs that use this input.
+ * <p>
+ * Values of the input are percent changes to the baseline, they are compared as activity levels, i.e. {@code 100 + value}.
+ * <p>
+ * Runs are found by the name of the input in their config files, where the date after <em>until</em> is ignored,
+ * so that runs with an older version of the same input are found as well. A run is only affected if a flagged day is within
+ * its simulated days, which start at the start date of its config.
+ */
+@CommandLine.Command(
+		name = "compareMobilityInputs",
+		description = "Compare two versions of the daily snz mobility data and find affected runs."
+)
+public class CompareMobilityInputs implements Callable<Integer> {
+
+	private static final Logger log = LogManager.getLogger(CompareMobilityInputs.class);
+
+	private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("yyyyMMdd");
+	private static final Joiner TSV = Joiner.on("\t");
+
+	@CommandLine.Parameters(index = "0", paramLabel = "OLD", description = "Previous version of the *SnzData_daily*.csv")
+	private Path oldInput;
+
+	@CommandLine.Parameters(index = "1", paramLabel = "NEW", description = "New version of the *SnzData_daily*.csv")
+	private Path newInput;
+
+	@CommandLine.Option(names = "--threshold", defaultValue = "0.1", description = "Relative change of an activity level (100 + percent change) that is flagged.")
+	private double threshold;
+
+	@CommandLine.Option(names = "--min-delta", defaultValue = "1", description = "Minimum change in percentage points that is flagged, to ignore rounding.")
+	private double minDelta;
+
+	@CommandLine.Option(names = "--iterations", defaultValue = "360", description = "Number of days simulated by the runs.")
+	private int iterations;
+
+	@CommandLine.Option(names = "--batteries", split = ",", description = "Directories of batteries that are searched for affected runs.")
+	private List<Path> batteries = new ArrayList<>();
+
+	@CommandLine.Option(names = "--output", defaultValue = "output/mobilityInputChanges")
+	private Path output;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new CompareMobilityInputs()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		NavigableMap<LocalDate, Map<String, Double>> before = read(oldInput);
+		NavigableMap<LocalDate, Map<String, Double>> after = read(newInput);
+
+		Files.createDirectories(output);
+
+		NavigableSet<LocalDate> flagged = new TreeSet<>();
+		int changed = 0;
+
+		try (BufferedWriter writer = Files.newBufferedWriter(output.resolve("_inputChanges.tsv"))) {
+
+			writer.write(TSV.join("date", "activity", "old", "new", "delta", "relativeChange", "flagged"));
+			writer.newLine();
+
+			Set<LocalDate> dates = new TreeSet<>(before.keySet());
+			dates.addAll(after.keySet());
+
+			for (LocalDate date : dates) {
+
+				Map<String, Double> o = before.getOrDefault(date, Map.of());
+				Map<String, Double> n = after.getOrDefault(date, Map.of());
+
+				Set<String> activities = new TreeSet<>(o.keySet());
+				activities.addAll(n.keySet());
+
+				for (String act : activities) {
+
+					Double v0 = o.get(act);
+					Double v1 = n.get(act);
+
+					// days that were added or removed are always flagged
+					boolean flag;
+					double delta = Double.NaN, rel = Double.NaN;
+					if (v0 == null || v1 == null)
+						flag = true;
+					else {
+						delta = v1 - v0;
+						if (delta == 0)
+							continue;
+
+						rel = relativeChange(v0, v1);
+						flag = Math.abs(delta) >= minDelta && rel > threshold;
+					}
+
+					changed++;
+					if (flag)
+						flagged.add(date);
+
+					writer.write(TSV.join(date, act, v0 == null ? "" : v0, v1 == null ? "" : v1,
+							Double.isNaN(delta) ? "" : delta, Double.isNaN(rel) ? "" : rel, flag));
+					writer.newLine();
+				}
+			}
+		}
+
+		log.info("Found {} changed values, {} days are flagged", changed, flagged.size());
+
+		if (flagged.isEmpty())
+			return 0;
+
+		log.info("First flagged day is {}", flagged.first());
+
+		findAffectedRuns(flagged);
+
+		return 0;
+	}
+
+	/**
+	 * Relative change of the activity level, values are percent changes to the baseline.
+	 */
+	static double relativeChange(double before, double after) {
+		return Math.abs(after - before) / Math.max(100 + before, 1);
+	}
+
+	/**
+	 * Flagged days that are simulated by a run.
+	 *
+	 * @param start first simulated day
+	 */
+	static NavigableSet<LocalDate> simulatedDays(NavigableSet<LocalDate> flagged, LocalDate start, int iterations) {
+		return flagged.subSet(start, true, start.plusDays(iterations - 1), true);
+	}
+
+	/**
+	 * Write all configs that reference the input and simulate a flagged day into {@code _affectedRuns.tsv}.
+	 */
+	private void findAffectedRuns(NavigableSet<LocalDate> flagged) throws IOException {
+
+		String name = newInput.getFileName().toString();
+		String reference = name.contains("until") ? name.substring(0, name.indexOf("until") + "until".length()) : name;
+
+		int affected = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(output.resolve("_affectedRuns.tsv"))) {
+
+			writer.write(TSV.join("battery", "config", "input", "firstFlaggedDay", "flaggedDays"));
+			writer.newLine();
+
+			for (Path battery : batteries) {
+
+				List<Path> configs;
+				try (Stream<Path> stream = Files.walk(battery)) {
+					configs = stream.filter(p -> {
+						String f = p.getFileName().toString();
+						return f.endsWith(".xml") && f.contains("config");
+					}).sorted().collect(Collectors.toList());
+				}
+
+				for (Path config : configs) {
+
+					Optional<String> input = findReference(config, reference);
+					if (input.isEmpty())
+						continue;
+
+					Optional<LocalDate> start = findStartDate(config);
+					if (start.isEmpty())
+						log.warn("Config {} has no start date, assuming it simulates all flagged days", config);
+
+					NavigableSet<LocalDate> days = start.map(s -> simulatedDays(flagged, s, iterations)).orElse(flagged);
+					if (days.isEmpty())
+						continue;
+
+					affected++;
+					writer.write(TSV.join(battery, battery.relativize(config), input.get(), days.first(), days.size()));
+					writer.newLine();
+				}
+			}
+		}
+
+		log.info("Found {} configs using {} that simulate a flagged day", affected, reference);
+	}
+
+	/**
+	 * Start date of the episim config group.
+	 */
+	static Optional<LocalDate> findStartDate(Path config) throws IOException {
+		try (Stream<String> lines = Files.lines(config)) {
+			return lines.filter(l -> l.contains("name=\"startDate\"")).findFirst().map(l -> {
+				int start = l.indexOf("value=\"") + "value=\"".length();
+				return LocalDate.parse(l.substring(start, l.indexOf('"', start)));
+			});
+		}
+	}
+
+	/**
+	 * Returns the referenced input, if the config contains a reference.
+	 */
+	private static Optional<String> findReference(Path config, String reference) throws IOException {
+		try (Stream<String> lines = Files.lines(config)) {
+			return lines.filter(l -> l.contains(reference)).findFirst().map(l -> {
+				int start = l.lastIndexOf('"', l.indexOf(reference)) + 1;
+				int end = l.indexOf('"', start);
+				return end > start ? l.substring(start, end) : reference;
+			});
+		}
+	}
+
+	/**
+	 * Read values of each activity by date.
+	 */
+	static NavigableMap<LocalDate, Map<String, Double>> read(Path file) throws IOException {
+
+		List<String> lines = Files.readAllLines(file);
+		String[] header = lines.get(0).split("\t");
+
+		NavigableMap<LocalDate, Map<String, Double>> result = new TreeMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.isBlank())
+				continue;
+
+			String[] row = line.split("\t", -1);
+			Map<String, Double> values = new HashMap<>();
+			for (int i = 1; i < header.length && i < row.length; i++) {
+				if (!row[i].isBlank())
+					values.put(header[i], Double.parseDouble(row[i]));
+			}
+
+			result.put(LocalDate.parse(row[0], FMT), values);
+		}
+
+		return result;
+	}
+}
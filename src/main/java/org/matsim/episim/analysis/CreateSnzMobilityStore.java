@@ -0,0 +1,81 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * Controler.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2007 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.episim.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.episim.model.input.SnzMobilityStore;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Parses the SENOZON day files once and writes them into a {@link SnzMobilityStore} for each source.
+ * The store can then be used by the analysis with the {@code --store} option of {@code analyzeSnzData},
+ * {@code AnalyzeSnzTimeline}, {@code analyzeSnzRange} and {@code AnalyzeSnzPersonsStat}.
+ */
+@CommandLine.Command(name = "createSnzMobilityStore", description = "Create columnar store of the snz mobility data.")
+class CreateSnzMobilityStore implements Callable<Integer> {
+
+	private static final Logger log = LogManager.getLogger(CreateSnzMobilityStore.class);
+
+	@CommandLine.Parameters(defaultValue = "../shared-svn/projects/episim/data/Bewegungsdaten/")
+	private Path inputFolder;
+
+	@CommandLine.Option(names = "--output", defaultValue = "output/snzStore")
+	private Path output;
+
+	@CommandLine.Option(names = "--source", description = "Sources to ingest: ${COMPLETION-CANDIDATES}", split = ",",
+			defaultValue = "durations,activities,personStats")
+	private Set<SnzMobilityStore.Source> sources;
+
+	@CommandLine.Option(names = "--threads", description = "Number of threads for parsing the input files.")
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new CreateSnzMobilityStore()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		List<File> files = new ArrayList<>();
+		for (File folder : Objects.requireNonNull(inputFolder.toFile().listFiles())) {
+			if (folder.isDirectory())
+				files.addAll(List.of(Objects.requireNonNull(folder.listFiles())));
+		}
+
+		log.info("Found {} files in {}", files.size(), inputFolder);
+
+		for (SnzMobilityStore.Source source : sources) {
+			log.info("Ingesting {}", source);
+			SnzMobilityStore.ingest(source, files, output.resolve(source.name()), threads);
+		}
+
+		return 0;
+	}
+}
@@ -22,36 +22,16 @@ package org.matsim.episim.analysis;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.geotools.data.FeatureReader;
-import org.geotools.data.FileDataStoreFactorySpi;
-import org.geotools.data.shapefile.ShapefileDataStore;
-import org.geotools.data.shapefile.ShapefileDataStoreFactory;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.MultiPolygon;
-import org.locationtech.jts.index.strtree.STRtree;
-import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.population.PopulationUtils;
-import org.matsim.core.utils.geometry.CoordinateTransformation;
-import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.geometry.transformations.TransformationFactory;
-import org.opengis.feature.simple.SimpleFeature;
-import org.opengis.feature.simple.SimpleFeatureType;
+import org.matsim.scenarioCreation.DistrictLookup.Index;
 import picocli.CommandLine;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Preprocessing step that takes the home ids of each person in a population and looks up their district from a shape file.
@@ -96,28 +76,34 @@ public class DistrictLookup implements Callable<Integer> {
 		Population population = PopulationUtils.readPopulation(input.toString());
 		String crs = inputCRS.equals("null") ? (String) population.getAttributes().getAttribute("coordinateReferenceSystem") : inputCRS;
 
-		CoordinateTransformation ct = TransformationFactory.getCoordinateTransformation(crs, shapeCRS);
+		Index index = new Index(shapeFile.toFile(), crs, shapeCRS, attr);
 
-		Index index = new Index(shapeFile.toFile(), ct, attr);
+		List<Person> persons = new ArrayList<>(population.getPersons().values());
+		double[] xs = new double[persons.size()];
+		double[] ys = new double[persons.size()];
 
-		// Count errors
-		AtomicInteger unknown = new AtomicInteger(0);
+		for (int i = 0; i < persons.size(); i++) {
+			Object x = persons.get(i).getAttributes().getAttribute("homeX");
+			Object y = persons.get(i).getAttributes().getAttribute("homeY");
 
-		population.getPersons().values().parallelStream().forEach(p -> {
-			try {
-				double x = (double) p.getAttributes().getAttribute("homeX");
-				double y = (double) p.getAttributes().getAttribute("homeY");
+			// persons without home are not located
+			xs[i] = x instanceof Double ? (double) x : Double.NaN;
+			ys[i] = y instanceof Double ? (double) y : Double.NaN;
+		}
 
-				String district = index.query(x, y);
+		String[] districts = index.query(xs, ys);
 
-				p.getAttributes().putAttribute("district", district);
-			} catch (RuntimeException e) {
-				unknown.incrementAndGet();
-			}
-		});
+		// Count errors
+		int unknown = 0;
+		for (int i = 0; i < persons.size(); i++) {
+			if (districts[i] == null)
+				unknown++;
+			else
+				persons.get(i).getAttributes().putAttribute("district", districts[i]);
+		}
 
 		// Simple check if the lookup might be wrong
-		if (unknown.get() >= population.getPersons().size() * 0.5) {
+		if (unknown >= population.getPersons().size() * 0.5) {
 			log.error("District lookup failed for {} out of {} persons.", unknown, population.getPersons().size());
 			return 1;
 		}
@@ -128,96 +114,4 @@ public class DistrictLookup implements Callable<Integer> {
 
 		return 0;
 	}
-
-	/**
-	 * Helper class to provide an index for a shapefile lookup.
-	 */
-	public static final class Index {
-
-		private final STRtree index = new STRtree();
-		private final CoordinateTransformation ct;
-		private final String attr;
-
-		/**
-		 * Constructor.
-		 *
-		 * @param ct   coordinate transform from query to target crs
-		 * @param attr attribute for the result of {@link #query(double, double)}
-		 */
-		public Index(File shapeFile, CoordinateTransformation ct, String attr)
-				throws IOException {
-			ShapefileDataStore ds = openDataStore(shapeFile.toPath());
-			ds.setCharset(StandardCharsets.UTF_8);
-
-			FeatureReader<SimpleFeatureType, SimpleFeature> it = ds.getFeatureReader();
-			while (it.hasNext()) {
-				SimpleFeature ft = it.next();
-				MultiPolygon polygon = (MultiPolygon) ft.getDefaultGeometry();
-
-				Envelope env = polygon.getEnvelopeInternal();
-				index.insert(env, ft);
-			}
-
-			it.close();
-			ds.dispose();
-
-			log.info("Created index with size: {}, depth: {}", index.size(), index.depth());
-
-			this.ct = ct;
-			this.attr = attr;
-		}
-
-		/**
-		 * Query the index for first feature including a certain point.
-		 *
-		 * @throws NoSuchElementException when no entry matched the query.
-		 */
-		@SuppressWarnings("unchecked")
-		public String query(double x, double y) {
-			Coord coord = new Coord(x, y);
-
-			// Because we can not easily transform the feature geometry with MATSim we have to do it the other way around...
-			Coordinate p = MGC.coord2Coordinate(ct.transform(coord));
-
-			List<SimpleFeature> result = index.query(new Envelope(p));
-			for (SimpleFeature ft : result) {
-				MultiPolygon polygon = (MultiPolygon) ft.getDefaultGeometry();
-				if (polygon.contains(MGC.coordinate2Point(p)))
-					return (String) ft.getAttribute(attr);
-			}
-
-			throw new NoSuchElementException(String.format("No matching entry found for x:%f y:%f %s", x, y, p));
-		}
-	}
-
-	/**
-	 * Opens datastore to a shape-file.
-	 */
-	private static ShapefileDataStore openDataStore(Path shp) throws IOException {
-
-		FileDataStoreFactorySpi factory = new ShapefileDataStoreFactory();
-
-		ShapefileDataStore ds;
-		if (shp.toString().endsWith(".shp"))
-			ds = (ShapefileDataStore) factory.createDataStore(shp.toUri().toURL());
-		else if (shp.toString().endsWith(".zip")) {
-
-			FileSystem fs = FileSystems.newFileSystem(shp, ClassLoader.getSystemClassLoader());
-			Optional<Path> match = Files.walk(fs.getPath("/"))
-					.filter(p -> p.toString().endsWith(".shp"))
-					.findFirst();
-
-			if (match.isEmpty())
-				throw new IllegalArgumentException("No .shp file found in the zip.");
-
-			log.info("Using {} from {}", match.get(), shp);
-			ds = (ShapefileDataStore) factory.createDataStore(match.get().toUri().toURL());
-		} else {
-			throw new IllegalArgumentException("Shape file must either be .zip or .shp, but was: " + shp);
-		}
-
-		return ds;
-	}
-
-
 }
@@ -0,0 +1,65 @@
+package org.matsim.episim.model;
+
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.matsim.core.config.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Provides random streams for model components, which are aligned between runs with the same seed (common random numbers).
+ * When enabled, each component draws from its own stream derived from the run seed, the stream name and the iteration, so that
+ * runs with different parameters but the same seed see the same random numbers, independent of how much randomness other components consumed.
+ * <p>
+ * The mode is disabled by default, in which case the shared simulation stream is used and results are unchanged.
+ * It is enabled per simulation by binding an enabled instance, e.g. by {@link org.matsim.run.RunParallel} with <em>--common-random-numbers</em>.
+ */
+@Singleton
+public final class CommonRandomNumbers {
+
+	private final long seed;
+	private final boolean enabled;
+
+	@Inject
+	CommonRandomNumbers(Config config) {
+		this(config.global().getRandomSeed(), false);
+	}
+
+	/**
+	 * @param seed    random seed of the run
+	 * @param enabled whether separate streams are used
+	 */
+	public CommonRandomNumbers(long seed, boolean enabled) {
+		this.seed = seed;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Whether separate streams are used.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Random stream of a component for one iteration.
+	 *
+	 * @param shared    stream shared by the whole simulation, which is returned if the mode is disabled
+	 * @param name      name of the stream, must be unique within the simulation
+	 * @param iteration iteration the stream is used in
+	 */
+	public SplittableRandom stream(SplittableRandom shared, String name, int iteration) {
+		if (!enabled)
+			return shared;
+
+		long s = Hashing.murmur3_128().newHasher()
+				.putLong(seed)
+				.putString(name, StandardCharsets.UTF_8)
+				.putInt(iteration)
+				.hash().asLong();
+
+		return new SplittableRandom(s);
+	}
+}
@@ -1,15 +1,11 @@
 package org.matsim.episim.model.input;
 
 import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.objects.Object2DoubleLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
-import org.matsim.core.utils.io.IOUtils;
 import org.matsim.episim.policy.FixedPolicy;
 
-import java.io.BufferedReader;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
@@ -21,10 +17,14 @@ import java.util.*;
  */
 public class CreateRestrictionsFromMobilityData implements RestrictionInput {
 
-	private static final String MARKER = "_percent_change_from_baseline";
-
 	private Path input;
 
+	/**
+	 * Country code of the region to read, or null if the input contains only one region.
+	 */
+	private String region;
+	private String subRegion;
+
 	private final static Map<String, List<String>> MAPPING = Map.of(
 			"grocery_and_pharmacy", List.of("shop_daily", "errands"),
 			"parks", List.of(""),
@@ -39,27 +39,23 @@ public class CreateRestrictionsFromMobilityData implements RestrictionInput {
 	 */
 	private NavigableMap<String, Object2DoubleMap<LocalDate>> readChanges() {
 
-		try (BufferedReader reader = IOUtils.getBufferedReader(input.toString())) {
-			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withCommentMarker('#').withFirstRecordAsHeader()
-					.parse(reader);
+		try {
+			GoogleMobilityReport report = GoogleMobilityReport.read(input, region, subRegion);
 
 			NavigableMap<String, Object2DoubleMap<LocalDate>> result = new TreeMap<>();
 
-			for (CSVRecord record : parse.getRecords()) {
-
-				LocalDate date = LocalDate.parse(record.get("date"));
-
-				for (String header : parse.getHeaderNames()) {
-					if (header.endsWith(MARKER)) {
-						// some entries are blank
-						if (!record.get(header).isBlank()) {
-							String type = header.substring(0, header.indexOf(MARKER));
+			for (String type : report.getCategories()) {
 
-							Object2DoubleMap<LocalDate> map = result.computeIfAbsent(type, (k) -> new Object2DoubleOpenHashMap<>());
-							map.put(date, Double.parseDouble(record.get(header)));
-						}
-					}
+				// ordered by date, so that the first key is the start
+				Object2DoubleMap<LocalDate> map = new Object2DoubleLinkedOpenHashMap<>();
+				double[] series = report.getSeries(type);
+				for (int day = 0; day < series.length; day++) {
+					if (!Double.isNaN(series[day]))
+						map.put(report.getStart().plusDays(day), series[day]);
 				}
+
+				if (!map.isEmpty())
+					result.put(type, map);
 			}
 
 			return result;
@@ -101,4 +97,17 @@ public class CreateRestrictionsFromMobilityData implements RestrictionInput {
 		this.input = input;
 		return this;
 	}
+
+	/**
+	 * Use only one region of the input, which may then be the global report.
+	 * The rows of the region are extracted once and cached next to the input, if its directory is writable.
+	 *
+	 * @param region    country code, e.g. DE
+	 * @param subRegion iso code of the sub-region, e.g. DE-BE, or null to use only the rows of the whole country
+	 */
+	public CreateRestrictionsFromMobilityData setRegion(String region, @Nullable String subRegion) {
+		this.region = region;
+		this.subRegion = subRegion;
+		return this;
+	}
 }
@@ -1,10 +1,14 @@
 package org.matsim.episim.model.input;
 
 import com.google.common.base.Joiner;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -24,8 +28,9 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Class for reading and analyzing snz activity data.
@@ -53,6 +58,16 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 	 */
 	private IntSet areaCodes;
 
+	/**
+	 * Continue existing output files instead of creating them from scratch.
+	 */
+	private boolean incremental;
+
+	/**
+	 * Directory of the {@link SnzMobilityStore}, which is used instead of parsing the day files.
+	 */
+	private Path store;
+
 	public void setDelegate(CreateRestrictionsFromCSV delegate) {
 		this.delegate = delegate;
 	}
@@ -67,6 +82,22 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 		this.areaCodes = areaCodes;
 	}
 
+	/**
+	 * If enabled, {@link #writeDataForCertainArea(Path, IntSet, boolean, List, Set)} appends only days that are newer than
+	 * the existing output. The base activity levels are persisted next to the output, so they don't need to be recomputed.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Read the daily values from a {@link SnzMobilityStore} in {@code store}, which must contain the
+	 * {@link SnzMobilityStore.Source#durations} and {@link SnzMobilityStore.Source#activities} of the input folder.
+	 */
+	public void setStore(Path store) {
+		this.store = store;
+	}
+
 	@Override
 	public FixedPolicy.ConfigBuilder createPolicy() throws IOException {
 
@@ -126,29 +157,36 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 	 * @return
 	 */
 	static Map<String, Integer> getPersonsInThisZIPCodes(HashMap<String, IntSet> zipCodesForAreas, File inputPulder) {
-		File fileWithPersonData = findPersonStatInputFile(inputPulder);
-		Map<String, Integer> personsPerArea = new HashMap<>();
-		for (String area : zipCodesForAreas.keySet()) {
-			personsPerArea.put(area, 0);
-		}
-		CSVParser parse;
-		try {
-			parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader()
-					.parse(IOUtils.getBufferedReader(fileWithPersonData.toString()));
+		return getPersonsInThisZIPCodes(ZipCodeIndex.create(zipCodesForAreas, null), inputPulder);
+	}
+
+	/**
+	 * Searches the number of persons in all areas of the index. The person statistics are read once and each row is
+	 * added to the areas containing its zip code.
+	 */
+	public static Map<String, Integer> getPersonsInThisZIPCodes(ZipCodeIndex index, File inputFolder) {
+		File fileWithPersonData = findPersonStatInputFile(inputFolder);
+		int[] persons = new int[index.size()];
+
+		try (BufferedReader reader = IOUtils.getBufferedReader(fileWithPersonData.toString())) {
+			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader().parse(reader);
 			for (CSVRecord record : parse) {
-				for (Entry<String, IntSet> certainArea : zipCodesForAreas.entrySet()) {
-					if (!record.get("zipCode").contains("NULL")) {
-						String nameArea = certainArea.getKey();
-						int readZipCode = Integer.parseInt(record.get("zipCode"));
-						if (certainArea.getValue().contains(readZipCode))
-							personsPerArea.put(nameArea,
-									personsPerArea.get(nameArea) + Integer.parseInt(record.get("nPersons")));
-					}
-				}
+				int[] areas = index.areas(record.get("zipCode"));
+				if (areas.length == 0)
+					continue;
+
+				int nPersons = Integer.parseInt(record.get("nPersons"));
+				for (int area : areas)
+					persons[area] += nPersons;
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+
+		Map<String, Integer> personsPerArea = new HashMap<>();
+		for (int i = 0; i < persons.length; i++)
+			personsPerArea.put(index.getArea(i), persons[i]);
+
 		return personsPerArea;
 	}
 
@@ -181,66 +219,144 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 	}
 
 	/**
-	 * Read durations from a single input file for different areas for a day.
+	 * Read durations from a single input file for different areas for a day. Each row is parsed once and added
+	 * to the areas containing its zip code.
 	 *
 	 * @param allSums
 	 * @param areasWithBankHoliday
 	 * @param anaylzedDaysPerAreaAndPeriod
-	 * @param lkAssignemt
 	 */
-	static HashMap<String, Object2DoubleMap<String>> readDurations(File file, HashMap<String, IntSet> zipCodesForAreas,
+	static HashMap<String, Object2DoubleMap<String>> readDurations(File file, ZipCodeIndex index,
 			HashMap<String, Object2DoubleMap<String>> allSums, List<String> areasWithBankHoliday,
-			HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod, HashMap<String, Set<String>> lkAssignemt)
-			throws IOException {
+			HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod) throws IOException {
+		return addDurations(parseDurations(file), index, allSums, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod);
+	}
+
+	/**
+	 * Parse the durations of a day file, independent of any area.
+	 */
+	static DurationsOfDay parseDurations(File file) throws IOException {
+
+		DurationsOfDay day = new DurationsOfDay();
+		Object2IntMap<String> keyIndex = new Object2IntOpenHashMap<>();
+		keyIndex.defaultReturnValue(-1);
+		for (int k = 0; k < day.keys.size(); k++)
+			keyIndex.put(day.keys.get(k), k);
+
+		try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader().parse(reader);
+
+			for (CSVRecord record : parse) {
+
+				int zip = ZipCodeIndex.parseZip(record.get("zipCode"));
+				if (zip < 0)
+					continue;
+
+				String actType = record.get("actType");
+				int k = keyIndex.getInt(actType);
+				if (k == -1) {
+					k = day.keys.size();
+					day.keys.add(actType);
+					keyIndex.put(actType, k);
+				}
+
+				day.zips.add(zip);
+				day.types.add(k);
+				day.durations.add(Double.parseDouble(record.get("durationSum")));
+			}
+		}
+
+		return day;
+	}
+
+	/**
+	 * Add the parsed durations of a day to the sums of all areas in the index.
+	 *
+	 * @see #readDurations(File, ZipCodeIndex, HashMap, List, HashMap)
+	 */
+	static HashMap<String, Object2DoubleMap<String>> addDurations(DurationsOfDay day, ZipCodeIndex index,
+			HashMap<String, Object2DoubleMap<String>> allSums, List<String> areasWithBankHoliday,
+			HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod) {
 
 		if (allSums.isEmpty())
-			for (String nameArea : zipCodesForAreas.keySet()) {
+			for (String nameArea : index.getAreas()) {
 				Object2DoubleMap<String> sums = new Object2DoubleOpenHashMap<>();
 				allSums.put(nameArea, sums);
 			}
 		if (anaylzedDaysPerAreaAndPeriod.isEmpty())
-			for (String nameArea : zipCodesForAreas.keySet()) {
+			for (String nameArea : index.getAreas()) {
 				anaylzedDaysPerAreaAndPeriod.put(nameArea, 0);
 			}
-		for (String area : anaylzedDaysPerAreaAndPeriod.keySet())
-			if (areasWithBankHoliday == null || !areasWithBankHoliday.contains(getRelatedBundesland(area, lkAssignemt)))
-				anaylzedDaysPerAreaAndPeriod.put(area, anaylzedDaysPerAreaAndPeriod.get(area) + 1);
 
-		try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
-			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader().parse(reader);
+		boolean[] excluded = index.holidayMask(areasWithBankHoliday);
+		for (int i = 0; i < index.size(); i++)
+			if (!excluded[i])
+				anaylzedDaysPerAreaAndPeriod.merge(index.getArea(i), 1, Integer::sum);
+
+		List<String> keys = day.keys;
+		boolean[] notAtHome = new boolean[keys.size()];
+		boolean[] notEdu = new boolean[keys.size()];
+		boolean[] notLeisureAndEdu = new boolean[keys.size()];
+		for (int k = DurationsOfDay.AGGREGATED; k < keys.size(); k++) {
+			String actType = keys.get(k);
+			notAtHome[k] = !actType.equals("home");
+			notEdu[k] = notAtHome[k] && !actType.equals("education");
+			notLeisureAndEdu[k] = notEdu[k] && !actType.startsWith("leis");
+		}
 
-			for (CSVRecord record : parse) {
-				for (Entry<String, IntSet> certainArea : zipCodesForAreas.entrySet()) {
-					if (areasWithBankHoliday == null || !areasWithBankHoliday
-							.contains(getRelatedBundesland(certainArea.getKey(), lkAssignemt))) {
-						if (!record.get("zipCode").contains("NULL")) {
-							String nameArea = certainArea.getKey();
-							int zipCode = Integer.parseInt(record.get("zipCode"));
-							if (certainArea.getValue().contains(zipCode)) {
-								Object2DoubleMap<String> sums = allSums.get(nameArea);
-								double duration = Double.parseDouble(record.get("durationSum"));
-								String actType = record.get("actType");
-
-								sums.mergeDouble(actType, duration, Double::sum);
-
-								if (!actType.equals("home")) {
-
-									sums.mergeDouble("notAtHome", duration, Double::sum);
-
-									if (!actType.equals("education") && !actType.startsWith("leis")) {
-										sums.mergeDouble("notAtHomeExceptLeisureAndEdu", duration, Double::sum);
-									}
-									if (!actType.equals("education")) {
-										sums.mergeDouble("notAtHomeExceptEdu", duration, Double::sum);
-									}
-								}
-								allSums.put(nameArea, sums);
-							}
-						}
-					}
+		double[][] acc = new double[index.size()][];
+
+		// keys are only added to the sums of an area if a row of the area contributed to them, as done when reading each area separately
+		boolean[][] seen = new boolean[index.size()][];
+
+		for (int i = 0; i < day.zips.size(); i++) {
+
+			int[] areas = index.areas(day.zips.getInt(i));
+			if (areas.length == 0)
+				continue;
+
+			int k = day.types.getInt(i);
+			double duration = day.durations.getDouble(i);
+
+			for (int area : areas) {
+				if (excluded[area])
+					continue;
+
+				double[] v = acc[area];
+				boolean[] b = seen[area];
+				if (v == null) {
+					v = acc[area] = new double[keys.size()];
+					b = seen[area] = new boolean[keys.size()];
+				}
+
+				v[k] += duration;
+				b[k] = true;
+				if (notAtHome[k]) {
+					v[0] += duration;
+					b[0] = true;
+				}
+				if (notLeisureAndEdu[k]) {
+					v[1] += duration;
+					b[1] = true;
+				}
+				if (notEdu[k]) {
+					v[2] += duration;
+					b[2] = true;
 				}
 			}
 		}
+
+		for (int area = 0; area < acc.length; area++) {
+			double[] v = acc[area];
+			if (v == null)
+				continue;
+
+			Object2DoubleMap<String> sums = allSums.get(index.getArea(area));
+			for (int k = 0; k < keys.size(); k++)
+				if (seen[area][k])
+					sums.mergeDouble(keys.get(k), v[k], Double::sum);
+		}
+
 		return allSums;
 	}
 
@@ -311,6 +427,53 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 		return sums;
 	}
 
+	/**
+	 * Same values as {@link #readDurations(File, IntSet)} and {@link #readActivitiesCounts(File, IntSet)}, but read from the stores.
+	 * As there, aggregated keys are only contained if a record of the zip codes contributed to them.
+	 *
+	 * @throws IllegalArgumentException if the date is not in the stores
+	 */
+	static Object2DoubleMap<String> readFromStore(SnzMobilityStore durations, SnzMobilityStore activities, LocalDate date, IntSet zipCodes) {
+
+		Object2DoubleMap<String> sums = durations.sum(date, zipCodes);
+
+		// the store only contains activity types with records in the zip codes
+		Object2DoubleMap<String> aggregated = new Object2DoubleOpenHashMap<>();
+		for (Object2DoubleMap.Entry<String> e : sums.object2DoubleEntrySet()) {
+			String actType = e.getKey();
+			if (actType.equals("home"))
+				continue;
+
+			aggregated.mergeDouble("notAtHome", e.getDoubleValue(), Double::sum);
+			if (!actType.equals("education") && !actType.startsWith("leis"))
+				aggregated.mergeDouble("notAtHomeExceptLeisureAndEdu", e.getDoubleValue(), Double::sum);
+			if (!actType.equals("education"))
+				aggregated.mergeDouble("notAtHomeExceptEdu", e.getDoubleValue(), Double::sum);
+		}
+
+		String prefix = "endNonHomeActs:";
+		for (Object2DoubleMap.Entry<String> e : activities.sum(date, zipCodes).object2DoubleEntrySet()) {
+			if (e.getKey().startsWith(prefix) && isLateHour(e.getKey().substring(prefix.length())))
+				aggregated.mergeDouble("notAtHome_22", e.getDoubleValue(), Double::sum);
+		}
+
+		sums.putAll(aggregated);
+		return sums;
+	}
+
+	/**
+	 * Whether an hour column of the activity data, e.g. {@code 22-23h} or {@code >30h}, starts at 22h or later.
+	 * These are the columns summed by {@link #readActivitiesCounts(File, IntSet)}.
+	 */
+	static boolean isLateHour(String hour) {
+		if (hour.startsWith(">"))
+			return true;
+		if (hour.startsWith("<"))
+			return false;
+
+		return Integer.parseInt(hour.substring(0, hour.indexOf('-'))) >= 22;
+	}
+
 	/**
 	 * Read in all durations from input folder.
 	 */
@@ -335,9 +498,25 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 	public void writeDataForCertainArea(Path outputFile, IntSet zipCodes, boolean getPercentageResults,
 			List<String> baseDays, Set<String> datesToIgnore) throws IOException {
 
-		List<File> filesWithData = findInputFiles(inputFolder.toFile());
 		HashMap<String, Set<String>> lkAssignemt = createLKAssignmentToBL();
 
+		HashMap<String, Set<LocalDate>> allHolidays = readBankHolidays();
+		Set<LocalDate> holidays = allHolidays
+				.get(getRelatedBundesland(outputFile.getFileName().toString().split("Snz")[0], lkAssignemt));
+		if (holidays == null)
+			holidays = allHolidays.get("Germany");
+
+		writeDataForCertainArea(outputFile, zipCodes, getPercentageResults, baseDays, datesToIgnore, holidays);
+	}
+
+	/**
+	 * Analyze data and write result to {@code outputFile}, using the given bank {@code holidays} of the area.
+	 */
+	void writeDataForCertainArea(Path outputFile, IntSet zipCodes, boolean getPercentageResults,
+			List<String> baseDays, Set<String> datesToIgnore, Set<LocalDate> holidays) throws IOException {
+
+		List<File> filesWithData = findInputFiles(inputFolder.toFile());
+
 		int nPersons = 0;
 		if (!getPercentageResults)
 			nPersons = getPersonsInThisZIPCode(zipCodes, inputFolder.toFile());
@@ -345,16 +524,36 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 		log.info("Searching for files in the folder: " + inputFolder);
 		log.info("Amount of found files: " + filesWithData.size());
 
-		HashMap<String, Set<LocalDate>> allHolidays = readBankHolidays();
-		Set<LocalDate> holidays = allHolidays
-				.get(getRelatedBundesland(outputFile.getFileName().toString().split("Snz")[0], lkAssignemt));
-		if (holidays == null)
-			holidays = allHolidays.get("Germany");
+		// last date of the output, which is continued
+		String lastDate = null;
+		Path existing = null;
+		Path statePath = incremental ? getStatePath(outputFile, getPercentageResults, baseDays) : null;
+		if (incremental) {
+			existing = findExistingOutput(outputFile, getPercentageResults, baseDays);
+			if (existing != null && Files.exists(statePath)) {
+				List<String> lines = Files.readAllLines(existing);
+				lastDate = lines.get(lines.size() - 1).split("\t")[0];
+				Files.copy(existing, outputFile, StandardCopyOption.REPLACE_EXISTING);
+				log.info("Continuing " + existing + " after " + lastDate);
+			} else
+				log.info("No existing output to continue, processing all days");
+		}
+
+		SnzMobilityStore durationStore = null;
+		SnzMobilityStore activityStore = null;
+		if (store != null) {
+			durationStore = SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.durations.name()));
+			activityStore = SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.activities.name()));
+			log.info("Reading days from store " + store);
+		}
+
 		BufferedWriter writer = IOUtils.getBufferedWriter(outputFile.toUri().toURL(), StandardCharsets.UTF_8, true);
 		try {
 
-			JOIN.appendTo(writer, Types.values());
-			writer.write("\n");
+			if (lastDate == null) {
+				JOIN.appendTo(writer, Types.values());
+				writer.write("\n");
+			}
 
 			// base activity level for different days
 			Object2DoubleMap<String> wd = new Object2DoubleOpenHashMap<>();
@@ -377,7 +576,9 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 			// will contain the last parsed date
 			String dateString = "";
 
-			if (!baseDays.isEmpty()) {
+			if (lastDate != null) {
+				readBase(statePath, base);
+			} else if (!baseDays.isEmpty()) {
 				Path baseFile = null;
 				if (baseDays.iterator().next().contains("2018"))
 					baseFile = Paths.get("../shared-svn/projects/episim/data/Bewegungsdaten/Vergelich2017/");
@@ -415,13 +616,21 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 				dateString = file.getName().split("_")[0];
 				if (datesToIgnore.contains(dateString))
 					continue;
-				Object2DoubleMap<String> sums = readDurations(file, zipCodes);
+				if (lastDate != null && dateString.compareTo(lastDate) <= 0)
+					continue;
+				LocalDate date = LocalDate.parse(dateString, FMT);
 
-				File temporal = new File(file.toString().replace("zipCode", "tagesgang"));
-				sums.putAll(readActivitiesCounts(temporal, zipCodes));
+				Object2DoubleMap<String> sums;
+				if (durationStore != null && durationStore.contains(date) && activityStore.contains(date))
+					sums = readFromStore(durationStore, activityStore, date, zipCodes);
+				else {
+					if (durationStore != null)
+						log.warn("Date " + dateString + " is not in the store, reading " + file);
 
-				dateString = file.getName().split("_")[0];
-				LocalDate date = LocalDate.parse(dateString, FMT);
+					sums = readDurations(file, zipCodes);
+					File temporal = new File(file.toString().replace("zipCode", "tagesgang"));
+					sums.putAll(readActivitiesCounts(temporal, zipCodes));
+				}
 
 				DayOfWeek day = date.getDayOfWeek();
 
@@ -461,22 +670,98 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 				countingDays++;
 			}
 			writer.close();
-			Path finalPath = null;
-			if (!getPercentageResults)
-				finalPath = Path.of(outputFile.toString().replace("until", "until" + dateString + "_duration"));
-			else {
-				if (baseDays.isEmpty())
-					finalPath = Path.of(outputFile.toString().replace("until", "until" + dateString));
-				else if (baseDays.iterator().next().contains("2018"))
-					finalPath = Path.of(outputFile.toString().replace("until", "until" + dateString + "_base2018"));
-				else if (baseDays.iterator().next().contains("202009"))
-					finalPath = Path.of(outputFile.toString().replace("until", "until" + dateString + "_baseSep20"));
-			}
+			Path finalPath = getFinalPath(outputFile, dateString, getPercentageResults, baseDays);
 			Files.move(outputFile, finalPath, StandardCopyOption.REPLACE_EXISTING);
 
+			if (incremental) {
+				writeBase(statePath, base);
+				if (existing != null && !existing.equals(finalPath))
+					Files.deleteIfExists(existing);
+			}
+
 			log.info("Write analyze of " + countingDays + " is writen to " + finalPath);
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (durationStore != null) {
+				durationStore.close();
+				activityStore.close();
+			}
+		}
+	}
+
+	/**
+	 * Path of the output after all days until {@code dateString} have been written.
+	 */
+	private static Path getFinalPath(Path outputFile, String dateString, boolean getPercentageResults, List<String> baseDays) {
+		if (!getPercentageResults)
+			return Path.of(outputFile.toString().replace("until", "until" + dateString + "_duration"));
+		else {
+			if (baseDays.isEmpty())
+				return Path.of(outputFile.toString().replace("until", "until" + dateString));
+			else if (baseDays.iterator().next().contains("2018"))
+				return Path.of(outputFile.toString().replace("until", "until" + dateString + "_base2018"));
+			else if (baseDays.iterator().next().contains("202009"))
+				return Path.of(outputFile.toString().replace("until", "until" + dateString + "_baseSep20"));
+		}
+		return null;
+	}
+
+	/**
+	 * File with the base activity levels of an output.
+	 */
+	private static Path getStatePath(Path outputFile, boolean getPercentageResults, List<String> baseDays) {
+		Path path = getFinalPath(outputFile, "", getPercentageResults, baseDays);
+		return path.resolveSibling(path.getFileName().toString().replace(".csv", "") + ".base.tsv");
+	}
+
+	/**
+	 * Finds the existing output with the latest date.
+	 *
+	 * @return path to the output or null if there is none
+	 */
+	private static Path findExistingOutput(Path outputFile, boolean getPercentageResults, List<String> baseDays)
+			throws IOException {
+
+		// the template is split at the placeholder for the date
+		String placeholder = "{date}";
+		String template = getFinalPath(outputFile, placeholder, getPercentageResults, baseDays).getFileName().toString();
+		int idx = template.indexOf(placeholder);
+		Pattern pattern = Pattern.compile(Pattern.quote(template.substring(0, idx)) + "(\\d{8})"
+				+ Pattern.quote(template.substring(idx + placeholder.length())));
+
+		Path dir = outputFile.toAbsolutePath().getParent();
+		if (!Files.isDirectory(dir))
+			return null;
+
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(p -> pattern.matcher(p.getFileName().toString()).matches())
+					.max(Comparator.comparing(p -> p.getFileName().toString()))
+					.orElse(null);
+		}
+	}
+
+	/**
+	 * Reads the base activity levels for weekdays, Saturdays and Sundays.
+	 */
+	private static void readBase(Path statePath, Map<DayOfWeek, Object2DoubleMap<String>> base) throws IOException {
+		for (String line : Files.readAllLines(statePath)) {
+			String[] row = line.split("\t");
+			base.get(DayOfWeek.valueOf(row[0])).put(row[1], Double.parseDouble(row[2]));
+		}
+	}
+
+	/**
+	 * Writes the base activity levels for weekdays, Saturdays and Sundays.
+	 */
+	private static void writeBase(Path statePath, Map<DayOfWeek, Object2DoubleMap<String>> base) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(statePath)) {
+			for (DayOfWeek day : List.of(DayOfWeek.MONDAY, DayOfWeek.SATURDAY, DayOfWeek.SUNDAY)) {
+				for (Object2DoubleMap.Entry<String> e : base.get(day).object2DoubleEntrySet()) {
+					JOIN.appendTo(writer, List.of(day, e.getKey(), e.getDoubleValue()));
+					writer.write("\n");
+				}
+			}
 		}
 	}
 
@@ -492,60 +777,11 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 			String startDateStillUsingBaseDays, Set<String> datesToIgnore) throws IOException {
 
 		List<File> filesWithData = findInputFiles(inputFolder.toFile());
+		ZipCodeIndex index = ZipCodeIndex.create(findZIPCodesForBundeslaender(), createLKAssignmentToBL());
 
-		Path finalPath = null;
-		Path thisOutputFile = outputFile.resolve("mobilityData_OverviewBL_new.csv");
-
-		if (outputFile.endsWith("mobilityData/bundeslaender/")) {
-			if (selectedOutputOption.contains("weekly"))
-				finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_weekly"));
-			else if (selectedOutputOption.contains("weekdays"))
-				finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_weekdays"));
-			else if (selectedOutputOption.contains("weekends"))
-				finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_weekends"));
-		}
-
-		Collections.sort(filesWithData);
-
-		startDateStillUsingBaseDays = findNextDateToContinueFile(startDateStillUsingBaseDays, filesWithData, finalPath);
-
-		log.info("Searching for files in the folder: " + inputFolder);
-		log.info("Amount of found files: " + filesWithData.size());
-
-		BufferedWriter writer = null;
-		if (finalPath == null)
-			writer = IOUtils.getBufferedWriter(thisOutputFile.toUri().toURL(), StandardCharsets.UTF_8, true);
-		else
-			writer = IOUtils.getBufferedWriter(finalPath.toUri().toURL(), StandardCharsets.UTF_8, true);
-		try {
-			if (finalPath == null) {
-				String[] header = new String[] { "date", "BundeslandID", "outOfHomeDuration",
-						"percentageChangeComparedToBeforeCorona" };
-				JOIN_LK.appendTo(writer, header);
-				writer.write("\n");
-			}
-			HashMap<String, IntSet> zipCodesBL = findZIPCodesForBundeslaender();
-
-			readAndWriteResultsOfAllDays(selectedOutputOption, filesWithData, writer, zipCodesBL,
-					startDateStillUsingBaseDays, datesToIgnore);
-			writer.close();
-			if (finalPath == null) {
-				if (selectedOutputOption.contains("daily"))
-					finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_daily"));
-				else if (selectedOutputOption.contains("weekly"))
-					finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_weekly"));
-				else if (selectedOutputOption.contains("weekdays"))
-					finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_weekdays"));
-				else if (selectedOutputOption.contains("weekends"))
-					finalPath = Path.of(thisOutputFile.toString().replace("BL_new", "BL_weekends"));
-
-				Files.move(thisOutputFile, finalPath, StandardCopyOption.REPLACE_EXISTING);
-			}
-			log.info("Write analyze of " + filesWithData.size() + " is writen to " + thisOutputFile);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
+		readAndWriteResultsOfAllDays(filesWithData, List.of(
+				bundeslandOutput(outputFile, selectedOutputOption, startDateStillUsingBaseDays, filesWithData, index)),
+				datesToIgnore);
 	}
 
 	/**
@@ -560,190 +796,338 @@ public class CreateRestrictionsFromSnz implements RestrictionInput {
 			String startDateStillUsingBaseDays, Set<String> datesToIgnore) throws IOException {
 
 		List<File> filesWithData = findInputFiles(inputFolder.toFile());
+		ZipCodeIndex index = ZipCodeIndex.create(findZIPCodesForLandkreise(), createLKAssignmentToBL());
 
-		Path finalPath = null;
-		Path thisOutputFile = outputFile.resolve("LK_mobilityData_new.csv");
+		readAndWriteResultsOfAllDays(filesWithData, List.of(
+				landkreisOutput(outputFile, selectedOutputOption, startDateStillUsingBaseDays, filesWithData, index)),
+				datesToIgnore);
+	}
+
+	/**
+	 * Writes the public data of all Bundeslaender and all Landkreise for each output option with one pass over the input
+	 * data. Each day file is parsed once and aggregated for all outputs concurrently.
+	 *
+	 * @param outputBundeslaender folder of the Bundesland data
+	 * @param outputLandkreise    folder of the Landkreis data
+	 * @param outputOptions       output options, e.g. weekly, weekdays, weekends
+	 */
+	public void writeGermanyDataForPublic(Path outputBundeslaender, Path outputLandkreise, List<String> outputOptions,
+			String startDateStillUsingBaseDays, Set<String> datesToIgnore) throws IOException {
+
+		List<File> filesWithData = findInputFiles(inputFolder.toFile());
+		HashMap<String, Set<String>> lkAssignment = createLKAssignmentToBL();
 
-		if (outputFile.endsWith("mobilityData/landkreise/")) {
-			if (selectedOutputOption.contains("weekly"))
-				finalPath = Path.of(thisOutputFile.toString().replace("new", "weekly"));
-			else if (selectedOutputOption.contains("weekdays"))
-				finalPath = Path.of(thisOutputFile.toString().replace("new", "weekdays"));
-			else if (selectedOutputOption.contains("weekends"))
-				finalPath = Path.of(thisOutputFile.toString().replace("new", "weekends"));
+		ZipCodeIndex indexBL = ZipCodeIndex.create(findZIPCodesForBundeslaender(), lkAssignment);
+		ZipCodeIndex indexLK = ZipCodeIndex.create(findZIPCodesForLandkreise(), lkAssignment);
+
+		List<PublicOutput> outputs = new ArrayList<>();
+		for (String option : outputOptions) {
+			outputs.add(bundeslandOutput(outputBundeslaender, option, startDateStillUsingBaseDays, filesWithData, indexBL));
+			outputs.add(landkreisOutput(outputLandkreise, option, startDateStillUsingBaseDays, filesWithData, indexLK));
 		}
 
-		startDateStillUsingBaseDays = findNextDateToContinueFile(startDateStillUsingBaseDays, filesWithData, finalPath);
+		readAndWriteResultsOfAllDays(filesWithData, outputs, datesToIgnore);
+	}
 
-		log.info("Searching for files in the folder: " + inputFolder);
-		log.info("Amount of found files: " + filesWithData.size());
+	private PublicOutput bundeslandOutput(Path outputFile, String selectedOutputOption, String startDateStillUsingBaseDays,
+			List<File> filesWithData, ZipCodeIndex index) throws IOException {
 
-		BufferedWriter writer = null;
-		if (finalPath == null)
-			writer = IOUtils.getBufferedWriter(thisOutputFile.toUri().toURL(), StandardCharsets.UTF_8, true);
-		else
-			writer = IOUtils.getBufferedWriter(finalPath.toUri().toURL(), StandardCharsets.UTF_8, true);
-		try {
-			if (finalPath == null) {
-				String[] header = new String[] { "date", "Landkreis", "outOfHomeDuration",
-						"percentageChangeComparedToBeforeCorona" };
-				JOIN_LK.appendTo(writer, header);
-				writer.write("\n");
-			}
-			HashMap<String, IntSet> zipCodesLK = findZIPCodesForLandkreise();
+		Path thisOutputFile = outputFile.resolve("mobilityData_OverviewBL_new.csv");
 
-			readAndWriteResultsOfAllDays(selectedOutputOption, filesWithData, writer, zipCodesLK,
-					startDateStillUsingBaseDays, datesToIgnore);
+		// existing files of the dashboard are continued
+		Path finalPath = null;
+		if (outputFile.endsWith("mobilityData/bundeslaender/") && !selectedOutputOption.contains("daily"))
+			finalPath = renameOutput(thisOutputFile, "BL_new", "BL_", selectedOutputOption);
 
-			writer.close();
-			if (finalPath == null) {
-				if (selectedOutputOption.contains("daily"))
-					finalPath = Path.of(thisOutputFile.toString().replace("new", "daily"));
-				else if (selectedOutputOption.contains("weekly"))
-					finalPath = Path.of(thisOutputFile.toString().replace("new", "weekly"));
-				else if (selectedOutputOption.contains("weekdays"))
-					finalPath = Path.of(thisOutputFile.toString().replace("new", "weekdays"));
-				else if (selectedOutputOption.contains("weekends"))
-					finalPath = Path.of(thisOutputFile.toString().replace("new", "weekends"));
-
-				Files.move(thisOutputFile, finalPath, StandardCopyOption.REPLACE_EXISTING);
-			}
-			log.info("Write analyze of " + filesWithData.size() + " is writen to " + finalPath);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		return new PublicOutput(selectedOutputOption, index, thisOutputFile, finalPath,
+				renameOutput(thisOutputFile, "BL_new", "BL_", selectedOutputOption),
+				findNextDateToContinueFile(startDateStillUsingBaseDays, filesWithData, finalPath),
+				new String[] { "date", "BundeslandID", "outOfHomeDuration", "percentageChangeComparedToBeforeCorona" });
+	}
+
+	private PublicOutput landkreisOutput(Path outputFile, String selectedOutputOption, String startDateStillUsingBaseDays,
+			List<File> filesWithData, ZipCodeIndex index) throws IOException {
+
+		Path thisOutputFile = outputFile.resolve("LK_mobilityData_new.csv");
+
+		// existing files of the dashboard are continued
+		Path finalPath = null;
+		if (outputFile.endsWith("mobilityData/landkreise/") && !selectedOutputOption.contains("daily"))
+			finalPath = renameOutput(thisOutputFile, "new", "", selectedOutputOption);
+
+		return new PublicOutput(selectedOutputOption, index, thisOutputFile, finalPath,
+				renameOutput(thisOutputFile, "new", "", selectedOutputOption),
+				findNextDateToContinueFile(startDateStillUsingBaseDays, filesWithData, finalPath),
+				new String[] { "date", "Landkreis", "outOfHomeDuration", "percentageChangeComparedToBeforeCorona" });
+	}
+
+	/**
+	 * Replaces {@code token} in the output file with the name of the output option.
+	 */
+	private static Path renameOutput(Path outputFile, String token, String prefix, String selectedOutputOption) {
+		for (String option : List.of("daily", "weekly", "weekdays", "weekends"))
+			if (selectedOutputOption.contains(option))
+				return Path.of(outputFile.toString().replace(token, prefix + option));
+
+		return null;
 	}
 
 	/**
 	 * Reads the data files and writes the output depending on the selected output
-	 * option.
+	 * option. Every file is parsed once for all outputs, which are then updated concurrently.
 	 *
-	 * @param selectedOutputOptions
 	 * @param filesWithData
-	 * @param allHolidays
-	 * @param writer
-	 * @param zipCodesAreas
+	 * @param outputs
 	 * @param datesToIgnore
 	 * @throws IOException
 	 */
-	private void readAndWriteResultsOfAllDays(String selectedOutputOptions, List<File> filesWithData,
-			BufferedWriter writer, HashMap<String, IntSet> zipCodesAreas, String startDateStillUsingBaseDays,
+	private void readAndWriteResultsOfAllDays(List<File> filesWithData, List<PublicOutput> outputs,
 			Set<String> datesToIgnore) throws IOException {
 
-		Map<DayOfWeek, Map<String, Object2DoubleMap<String>>> base = new EnumMap<>(DayOfWeek.class);
-		Map<String, Integer> personsPerArea = new HashMap<>();
-		HashMap<String, Set<String>> lkAssignemt = createLKAssignmentToBL();
+		log.info("Searching for files in the folder: " + inputFolder);
+		log.info("Amount of found files: " + filesWithData.size());
+
 		HashMap<String, Set<LocalDate>> allHolidays = readBankHolidays();
 
-		int countingDays = 1;
-		HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod = new HashMap<String, Integer>();
-		boolean writeOutput = false;
-		boolean reachedStartDate = false;
-		// will contain the last parsed date
-		String dateString = "";
-		HashMap<String, Object2DoubleMap<String>> allSums = new HashMap<String, Object2DoubleMap<String>>();
-		// Analyzes all files with the mobility data
+		// persons are read once for each distinct area index
+		Map<ZipCodeIndex, Map<String, Integer>> persons = new IdentityHashMap<>();
+		for (PublicOutput output : outputs)
+			output.personsPerArea = persons.computeIfAbsent(output.index, idx -> getPersonsInThisZIPCodes(idx, inputFolder.toFile()));
+
+		// the first week is needed for the base, later days only after the start date of any output
+		Set<File> needed = new HashSet<>(filesWithData.subList(0, Math.min(7, filesWithData.size())));
 		for (File file : filesWithData) {
+			String dateString = file.getName().split("_")[0];
+			for (PublicOutput output : outputs)
+				if (output.startDate.isEmpty() || dateString.compareTo(output.startDate) >= 0)
+					needed.add(file);
+		}
 
-			dateString = file.getName().split("_")[0];
-			LocalDate date = LocalDate.parse(dateString, FMT);
-			DayOfWeek day = date.getDayOfWeek();
+		try (ParallelDayReader<DurationsOfDay> reader = new ParallelDayReader<>(filesWithData,
+				file -> needed.contains(file) && !datesToIgnore.contains(file.getName().split("_")[0]),
+				CreateRestrictionsFromSnz::parseDurations, Runtime.getRuntime().availableProcessors())) {
 
-			if (dateString.equals(startDateStillUsingBaseDays) || startDateStillUsingBaseDays.equals(""))
-				reachedStartDate = true;
+			int countingDays = 1;
+			for (File file : filesWithData) {
 
-			if (countingDays <= 7 || reachedStartDate) {
+				DurationsOfDay data = reader.next();
+
+				String dateString = file.getName().split("_")[0];
+				LocalDate date = LocalDate.parse(dateString, FMT);
 
 				List<String> areasWithBankHoliday = new ArrayList<>();
 				getAreasWithBankHoliday(areasWithBankHoliday, allHolidays, date);
 
-				if (selectedOutputOptions.contains("daily")) {
-					if (!datesToIgnore.contains(dateString))
-						readDurations(file, zipCodesAreas, allSums, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
+				int currentDay = countingDays;
+				outputs.parallelStream().forEach(output -> {
+					try {
+						output.process(data, date, dateString, currentDay, areasWithBankHoliday, datesToIgnore);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+
+				if (countingDays % 7 == 0)
+					log.info("Finished week " + countingDays / 7 + " of "
+							+ (int) Math.floor((double) filesWithData.size() / 7) + " weeks");
+				countingDays++;
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			// writers are always closed, but new files are only published if all days were written
+			for (PublicOutput output : outputs)
+				output.closeQuietly();
+		}
+
+		for (PublicOutput output : outputs)
+			output.publish(filesWithData.size());
+	}
+
+	/**
+	 * Output with the public data of one group of areas for one output option. It holds the sums and base of
+	 * its areas, so that several outputs can be written with one pass over the data.
+	 */
+	private static final class PublicOutput {
+
+		private final String selectedOutputOptions;
+		private final ZipCodeIndex index;
+		private final Path thisOutputFile;
+
+		/**
+		 * Existing file that is continued, or null if a new file is written.
+		 */
+		private final Path finalPath;
+
+		/**
+		 * Target of a new file when it is complete.
+		 */
+		private final Path newPath;
+
+		private final String startDate;
+		private final BufferedWriter writer;
+
+		private final Map<DayOfWeek, Map<String, Object2DoubleMap<String>>> base = new EnumMap<>(DayOfWeek.class);
+		private final HashMap<String, Object2DoubleMap<String>> allSums = new HashMap<>();
+		private final HashMap<String, Integer> anaylzedDaysPerAreaAndPeriod = new HashMap<>();
+		private Map<String, Integer> personsPerArea;
+
+		private boolean reachedStartDate = false;
+		private boolean writeOutput = false;
+
+		private PublicOutput(String selectedOutputOptions, ZipCodeIndex index, Path thisOutputFile, Path finalPath,
+				Path newPath, String startDate, String[] header) throws IOException {
+			this.selectedOutputOptions = selectedOutputOptions;
+			this.index = index;
+			this.thisOutputFile = thisOutputFile;
+			this.finalPath = finalPath;
+			this.newPath = newPath;
+			this.startDate = startDate;
+
+			if (finalPath == null) {
+				writer = IOUtils.getBufferedWriter(thisOutputFile.toUri().toURL(), StandardCharsets.UTF_8, true);
+				JOIN_LK.appendTo(writer, header);
+				writer.write("\n");
+			} else
+				writer = IOUtils.getBufferedWriter(finalPath.toUri().toURL(), StandardCharsets.UTF_8, true);
+		}
+
+		/**
+		 * Process one day.
+		 *
+		 * @param data parsed durations, which may be null if the day is not needed
+		 */
+		private void process(DurationsOfDay data, LocalDate date, String dateString, int countingDays,
+				List<String> areasWithBankHoliday, Set<String> datesToIgnore) throws IOException {
+
+			DayOfWeek day = date.getDayOfWeek();
+
+			if (dateString.equals(startDate) || startDate.equals(""))
+				reachedStartDate = true;
+
+			if (countingDays > 7 && !reachedStartDate)
+				return;
+
+			if (selectedOutputOptions.contains("daily")) {
+				if (!datesToIgnore.contains(dateString))
+					addDurations(data, index, allSums, null, anaylzedDaysPerAreaAndPeriod);
+				writeOutput = true;
+			} else if (selectedOutputOptions.contains("weekly")) {
+				if (!datesToIgnore.contains(dateString))
+					addDurations(data, index, allSums, null, anaylzedDaysPerAreaAndPeriod);
+				if (day.equals(DayOfWeek.SUNDAY))
 					writeOutput = true;
-				} else if (selectedOutputOptions.contains("weekly")) {
-					if (!datesToIgnore.contains(dateString))
-						readDurations(file, zipCodesAreas, allSums, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
+			} else if (selectedOutputOptions.contains("weekdays")) {
+				if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
+						&& !datesToIgnore.contains(dateString)) {
+					addDurations(data, index, allSums, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod);
+					if (day.equals(DayOfWeek.FRIDAY))
+						writeOutput = true;
+				}
+			} else if (selectedOutputOptions.contains("weekends")) {
+				if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.SUNDAY))
+						&& !datesToIgnore.contains(dateString)) {
+					addDurations(data, index, allSums, null, anaylzedDaysPerAreaAndPeriod);
 					if (day.equals(DayOfWeek.SUNDAY))
 						writeOutput = true;
-				} else if (selectedOutputOptions.contains("weekdays")) {
-					if (!day.equals(DayOfWeek.SATURDAY) && !day.equals(DayOfWeek.SUNDAY)
-							&& !datesToIgnore.contains(dateString)) {
-						readDurations(file, zipCodesAreas, allSums, areasWithBankHoliday, anaylzedDaysPerAreaAndPeriod,
-								lkAssignemt);
-						if (day.equals(DayOfWeek.FRIDAY))
-							writeOutput = true;
+				}
+			}
+
+			if (!writeOutput)
+				return;
+
+			writeOutput = false;
+			if (!anaylzedDaysPerAreaAndPeriod.values().isEmpty())
+				for (String nameOfArea : allSums.keySet()) {
+					day = date.getDayOfWeek();
+
+					// mean sum of the analyzed days
+					Object2DoubleMap<String> sums = allSums.get(nameOfArea);
+					for (String activity : sums.keySet())
+						sums.put(activity, sums.getDouble(activity) / anaylzedDaysPerAreaAndPeriod.get(nameOfArea));
+
+					// set base
+					if (day != DayOfWeek.SUNDAY)
+						if (areasWithBankHoliday.contains(nameOfArea))
+							day = DayOfWeek.SUNDAY;
+
+					if (base.containsKey(day)) {
+						if (!base.get(day).containsKey(nameOfArea))
+							base.get(day).put(nameOfArea, sums);
+					} else {
+						HashMap<String, Object2DoubleMap<String>> wd = new HashMap<String, Object2DoubleMap<String>>();
+						HashMap<String, Object2DoubleMap<String>> sa = new HashMap<String, Object2DoubleMap<String>>();
+						HashMap<String, Object2DoubleMap<String>> so = new HashMap<String, Object2DoubleMap<String>>();
+						base.put(DayOfWeek.MONDAY, wd);
+						base.put(DayOfWeek.TUESDAY, wd);
+						base.put(DayOfWeek.WEDNESDAY, wd);
+						base.put(DayOfWeek.THURSDAY, wd);
+						base.put(DayOfWeek.FRIDAY, wd);
+						base.put(DayOfWeek.SATURDAY, sa);
+						base.put(DayOfWeek.SUNDAY, so);
+
+						base.get(day).put(nameOfArea, sums);
 					}
-				} else if (selectedOutputOptions.contains("weekends")) {
-					if ((day.equals(DayOfWeek.SATURDAY) || day.equals(DayOfWeek.SUNDAY))
-							&& !datesToIgnore.contains(dateString)) {
-						readDurations(file, zipCodesAreas, allSums, null, anaylzedDaysPerAreaAndPeriod, lkAssignemt);
-						if (day.equals(DayOfWeek.SUNDAY))
-							writeOutput = true;
+
+					if (reachedStartDate) {
+						List<String> row = new ArrayList<>();
+						row.add(dateString);
+						row.add(nameOfArea);
+						row.add(String.valueOf(round2Decimals(
+								sums.getDouble("notAtHome") / personsPerArea.get(nameOfArea) / 3600)));
+						row.add(String.valueOf(Math.round((sums.getDouble("notAtHome")
+								/ base.get(day).get(nameOfArea).getDouble("notAtHome") - 1) * 100)));
+						JOIN_LK.appendTo(writer, row);
+						writer.write("\n");
 					}
 				}
 
-				if (writeOutput) {
-					writeOutput = false;
-					if (!anaylzedDaysPerAreaAndPeriod.values().isEmpty())
-						for (String nameOfArea : allSums.keySet()) {
-							dateString = file.getName().split("_")[0];
-							day = date.getDayOfWeek();
-
-							// mean sum of the analyzed days
-							Object2DoubleMap<String> sums = allSums.get(nameOfArea);
-							for (String activity : sums.keySet())
-								sums.put(activity,
-										sums.getDouble(activity) / anaylzedDaysPerAreaAndPeriod.get(nameOfArea));
-
-							// set base
-							if (day != DayOfWeek.SUNDAY)
-								if (areasWithBankHoliday.contains(nameOfArea))
-									day = DayOfWeek.SUNDAY;
-
-							if (base.containsKey(day)) {
-								if (!base.get(day).containsKey(nameOfArea))
-									base.get(day).put(nameOfArea, sums);
-							} else {
-								HashMap<String, Object2DoubleMap<String>> wd = new HashMap<String, Object2DoubleMap<String>>();
-								HashMap<String, Object2DoubleMap<String>> sa = new HashMap<String, Object2DoubleMap<String>>();
-								HashMap<String, Object2DoubleMap<String>> so = new HashMap<String, Object2DoubleMap<String>>();
-								base.put(DayOfWeek.MONDAY, wd);
-								base.put(DayOfWeek.TUESDAY, wd);
-								base.put(DayOfWeek.WEDNESDAY, wd);
-								base.put(DayOfWeek.THURSDAY, wd);
-								base.put(DayOfWeek.FRIDAY, wd);
-								base.put(DayOfWeek.SATURDAY, sa);
-								base.put(DayOfWeek.SUNDAY, so);
-
-								base.get(day).put(nameOfArea, sums);
-							}
-
-							// add the number of persons in this area from data
-							if (personsPerArea.isEmpty())
-								personsPerArea = getPersonsInThisZIPCodes(zipCodesAreas, inputFolder.toFile());
-							if (reachedStartDate) {
-								List<String> row = new ArrayList<>();
-								row.add(dateString);
-								row.add(nameOfArea);
-								row.add(String.valueOf(round2Decimals(
-										sums.getDouble("notAtHome") / personsPerArea.get(nameOfArea) / 3600)));
-								row.add(String.valueOf(Math.round((sums.getDouble("notAtHome")
-										/ base.get(day).get(nameOfArea).getDouble("notAtHome") - 1) * 100)));
-								JOIN_LK.appendTo(writer, row);
-								writer.write("\n");
-							}
-						}
+			anaylzedDaysPerAreaAndPeriod.clear();
+			allSums.clear();
+		}
 
-					anaylzedDaysPerAreaAndPeriod.clear();
-					allSums.clear();
-				}
+		/**
+		 * Close the output without publishing it, e.g. after a failure.
+		 */
+		private void closeQuietly() {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.warn("Could not close " + (finalPath == null ? thisOutputFile : finalPath), e);
 			}
-			if (countingDays % 7 == 0)
-				log.info("Finished week " + countingDays / 7 + " of "
-						+ (int) Math.floor((double) filesWithData.size() / 7) + " weeks");
-			countingDays++;
 		}
+
+		/**
+		 * Close the output and move new files to their final name. Must only be called after all days were written.
+		 */
+		private void publish(int days) throws IOException {
+			writer.close();
+			if (finalPath == null) {
+				Files.move(thisOutputFile, newPath, StandardCopyOption.REPLACE_EXISTING);
+				log.info("Write analyze of " + days + " is writen to " + newPath);
+			} else
+				log.info("Write analyze of " + days + " is writen to " + finalPath);
+		}
+	}
+
+	/**
+	 * Durations of one day file by zip code and activity type, which are parsed once and can be added to any
+	 * number of area indices.
+	 */
+	static final class DurationsOfDay {
+
+		/**
+		 * Number of aggregated types at the start of {@link #keys}.
+		 */
+		static final int AGGREGATED = 3;
+
+		/**
+		 * The first keys are the aggregated types, activity types are added when they appear.
+		 */
+		private final List<String> keys = new ArrayList<>(List.of("notAtHome", "notAtHomeExceptLeisureAndEdu", "notAtHomeExceptEdu"));
+		private final IntArrayList zips = new IntArrayList();
+		private final IntArrayList types = new IntArrayList();
+		private final DoubleArrayList durations = new DoubleArrayList();
 	}
 
 	/**
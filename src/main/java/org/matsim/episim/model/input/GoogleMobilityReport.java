@@ -0,0 +1,295 @@
+package org.matsim.episim.model.input;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Changes of the google mobility report for one region, stored as dense series per category with one value per day.
+ * <p>
+ * The global report contains all countries, but usually only one region is needed. Rows are read as lines and
+ * compared with the country code by their prefix, so only rows of the region are split into columns. The rows of a
+ * region are cached as small extract next to the input, which is used as long as it is newer than the input.
+ * If the extract can not be written, e.g. because the input is in a read-only directory, the region is parsed from the input each time.
+ */
+public final class GoogleMobilityReport {
+
+	private static final Logger log = LogManager.getLogger(GoogleMobilityReport.class);
+
+	/**
+	 * Suffix of the columns with the change of each category.
+	 */
+	static final String MARKER = "_percent_change_from_baseline";
+
+	static final String COUNTRY = "country_region_code";
+	static final String SUB_REGION = "iso_3166_2_code";
+	static final String DATE = "date";
+
+	/**
+	 * Columns that are only empty for the rows of a whole country.
+	 */
+	static final List<String> SUB_REGIONS = List.of(SUB_REGION, "sub_region_1", "sub_region_2", "metro_area");
+
+	private final LocalDate start;
+	private final List<String> categories;
+
+	/**
+	 * Change for each category and day, NaN if no value is given.
+	 */
+	private final double[][] values;
+
+	private GoogleMobilityReport(LocalDate start, List<String> categories, double[][] values) {
+		this.start = start;
+		this.categories = categories;
+		this.values = values;
+	}
+
+	/**
+	 * Read the report of a region, using the cached extract if available.
+	 *
+	 * @param input     report, either global or already filtered
+	 * @param region    country code, or null if all rows should be read
+	 * @param subRegion iso code of the sub-region, or null to read the rows of the whole country
+	 */
+	public static GoogleMobilityReport read(Path input, @Nullable String region, @Nullable String subRegion) throws IOException {
+
+		if (region == null)
+			return parse(input, null, null);
+
+		Path extract = input.resolveSibling(input.getFileName() + "." + region + "_" + (subRegion == null ? "country" : subRegion) + ".csv");
+		if (Files.exists(extract) && Files.getLastModifiedTime(extract).compareTo(Files.getLastModifiedTime(input)) >= 0) {
+			log.info("Using extract {}", extract);
+			return parse(extract, null, null);
+		}
+
+		GoogleMobilityReport report = parse(input, region, subRegion);
+		try {
+			report.write(extract);
+		} catch (IOException e) {
+			log.warn("Could not write extract {}, the input will be parsed again next time", extract, e);
+		}
+
+		return report;
+	}
+
+	private static GoogleMobilityReport parse(Path input, @Nullable String region, @Nullable String subRegion) throws IOException {
+
+		List<String> categories = new ArrayList<>();
+		List<LocalDate> dates = new ArrayList<>();
+		List<double[]> rows = new ArrayList<>();
+
+		try (BufferedReader reader = IOUtils.getBufferedReader(input.toString())) {
+
+			String line;
+			String[] header = null;
+			int country = -1, sub = -1, date = -1;
+			int[] columns = null;
+			int[] subRegions = null;
+			String prefix = region + ",";
+
+			while ((line = reader.readLine()) != null) {
+
+				if (line.isBlank() || line.startsWith("#"))
+					continue;
+
+				if (header == null) {
+					header = splitLine(line);
+					List<String> names = Arrays.asList(header);
+					country = names.indexOf(COUNTRY);
+					sub = names.indexOf(SUB_REGION);
+					date = names.indexOf(DATE);
+
+					List<Integer> idx = new ArrayList<>();
+					for (int i = 0; i < header.length; i++) {
+						if (header[i].endsWith(MARKER)) {
+							categories.add(header[i].substring(0, header[i].indexOf(MARKER)));
+							idx.add(i);
+						}
+					}
+					columns = idx.stream().mapToInt(Integer::intValue).toArray();
+					subRegions = SUB_REGIONS.stream().mapToInt(names::indexOf).filter(i -> i >= 0).toArray();
+					continue;
+				}
+
+				// most rows belong to other countries and are skipped without splitting them
+				if (region != null && country == 0 && !line.startsWith(prefix))
+					continue;
+
+				String[] row = splitLine(line);
+
+				if (region != null && !region.equals(row[country]))
+					continue;
+
+				if (subRegion != null && !subRegion.equals(row[sub]))
+					continue;
+
+				// the rows of sub-regions are listed together with the country
+				if (region != null && subRegion == null && !isCountry(row, subRegions))
+					continue;
+
+				double[] v = new double[columns.length];
+				for (int i = 0; i < columns.length; i++) {
+					// some entries are blank
+					String value = columns[i] < row.length ? row[columns[i]] : "";
+					v[i] = value.isBlank() ? Double.NaN : Double.parseDouble(value);
+				}
+
+				dates.add(LocalDate.parse(row[date]));
+				rows.add(v);
+			}
+		}
+
+		if (dates.isEmpty())
+			throw new IllegalStateException("No entries found in " + input + " for region " + region + " " + subRegion);
+
+		LocalDate start = Collections.min(dates);
+		int days = (int) ChronoUnit.DAYS.between(start, Collections.max(dates)) + 1;
+
+		double[][] values = new double[categories.size()][days];
+		for (double[] v : values)
+			Arrays.fill(v, Double.NaN);
+
+		for (int r = 0; r < rows.size(); r++) {
+			int day = (int) ChronoUnit.DAYS.between(start, dates.get(r));
+			double[] v = rows.get(r);
+			for (int c = 0; c < v.length; c++) {
+				if (!Double.isNaN(v[c]))
+					values[c][day] = v[c];
+			}
+		}
+
+		log.info("Read {} rows of region {} {} from {}", rows.size(), region, subRegion, input);
+
+		return new GoogleMobilityReport(start, categories, values);
+	}
+
+	/**
+	 * Whether a row contains the values of a whole country, i.e. all sub-region columns are empty.
+	 */
+	private static boolean isCountry(String[] row, int[] subRegions) {
+		for (int i : subRegions) {
+			if (i < row.length && !row[i].isBlank())
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write the report in the format of the google report, with only the date and the categories as columns.
+	 */
+	void write(Path file) throws IOException {
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp" + ProcessHandle.current().pid());
+
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+
+				StringJoiner header = new StringJoiner(",");
+				header.add(DATE);
+				categories.forEach(c -> header.add(c + MARKER));
+				writer.write(header.toString());
+				writer.newLine();
+
+				for (int day = 0; day < getDays(); day++) {
+					StringJoiner row = new StringJoiner(",");
+					row.add(start.plusDays(day).toString());
+
+					boolean any = false;
+					for (double[] v : values) {
+						any |= !Double.isNaN(v[day]);
+						row.add(Double.isNaN(v[day]) ? "" : String.valueOf(v[day]));
+					}
+
+					if (any) {
+						writer.write(row.toString());
+						writer.newLine();
+					}
+				}
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException e) {
+			// incomplete file is removed, if it was created
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Split a line of the report into its columns, quoted columns may contain the delimiter.
+	 */
+	public static String[] splitLine(String line) {
+
+		List<String> result = new ArrayList<>();
+		StringBuilder b = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					b.append('"');
+					i++;
+				} else
+					quoted = !quoted;
+			} else if (c == ',' && !quoted) {
+				result.add(b.toString());
+				b.setLength(0);
+			} else
+				b.append(c);
+		}
+
+		result.add(b.toString());
+		return result.toArray(new String[0]);
+	}
+
+	/**
+	 * First day of the series.
+	 */
+	public LocalDate getStart() {
+		return start;
+	}
+
+	/**
+	 * Number of days in the series.
+	 */
+	public int getDays() {
+		return values.length == 0 ? 0 : values[0].length;
+	}
+
+	/**
+	 * Categories of the report, e.g. workplaces.
+	 */
+	public List<String> getCategories() {
+		return Collections.unmodifiableList(categories);
+	}
+
+	/**
+	 * Series of a category, where entry i is the change on {@code start + i} days, or NaN if not given.
+	 * The returned array must not be modified.
+	 */
+	public double[] getSeries(String category) {
+		int idx = categories.indexOf(category);
+		if (idx == -1)
+			throw new IllegalArgumentException("Unknown category " + category);
+
+		return values[idx];
+	}
+}
@@ -0,0 +1,162 @@
+package org.matsim.episim.model.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Parses the daily files of the SENOZON data concurrently, while the results are consumed in the order of the files.
+ * Parsing is independent for each day, but the aggregation (base days, holidays, continuation of files) depends on the order,
+ * so it remains sequential:
+ * <pre>
+ * try (ParallelDayReader&lt;T&gt; reader = new ParallelDayReader&lt;&gt;(files, filter, parser, threads)) {
+ *     for (File file : files) {
+ *         T day = reader.next();
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * At most a few days are parsed ahead of the consumer, so that memory stays bounded.
+ *
+ * @param <T> parsed result of one day
+ */
+public final class ParallelDayReader<T> implements AutoCloseable {
+
+	private final List<File> files;
+	private final Predicate<File> filter;
+	private final DayParser<T> parser;
+	private final ExecutorService executor;
+	private final int lookahead;
+
+	private final Deque<Future<T>> pending = new ArrayDeque<>();
+
+	/**
+	 * Index of the next file to submit.
+	 */
+	private int submitted;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param files   files in the order they will be consumed
+	 * @param filter  only files accepted by the filter are parsed, for others {@link #next()} returns null
+	 * @param parser  parser for one file, which must be thread-safe
+	 * @param threads number of threads used for parsing
+	 */
+	public ParallelDayReader(List<File> files, Predicate<File> filter, DayParser<T> parser, int threads) {
+		this.files = files;
+		this.filter = filter;
+		this.parser = parser;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "day-reader");
+			t.setDaemon(true);
+			return t;
+		});
+		this.lookahead = Math.max(1, threads) * 4;
+
+		fill();
+	}
+
+	/**
+	 * Result of the next file.
+	 *
+	 * @return parsed day, or null if the file was not accepted by the filter
+	 */
+	public T next() throws IOException {
+
+		Future<T> f = pending.poll();
+		if (f == null)
+			throw new IllegalStateException("All files have been read.");
+
+		fill();
+
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading day file", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+
+			throw new IOException(cause);
+		}
+	}
+
+	private void fill() {
+		while (pending.size() < lookahead && submitted < files.size()) {
+			File file = files.get(submitted++);
+			if (filter.test(file))
+				pending.add(executor.submit(() -> parser.parse(file)));
+			else
+				pending.add(CompletableFuture.completedFuture(null));
+		}
+	}
+
+	/**
+	 * Filter for the day files used by an analysis option of the SENOZON analyses, so that only days which are aggregated are parsed ahead.
+	 * The name of each file starts with its date, followed by an underscore.
+	 *
+	 * @param option        name of the option, e.g. <em>onlyWeekdays</em> or <em>Mo_Do</em>; unknown options read all days
+	 * @param format        format of the date in the file names
+	 * @param datesToIgnore dates that are never read
+	 * @param startDate     first date to read, or empty to read from the first file
+	 */
+	public static Predicate<File> dayFilter(String option, DateTimeFormatter format, Collection<String> datesToIgnore, String startDate) {
+		return file -> {
+			String d = file.getName().split("_")[0];
+			return !datesToIgnore.contains(d) && (startDate.isEmpty() || d.compareTo(startDate) >= 0)
+					&& isRead(option, LocalDate.parse(d, format).getDayOfWeek());
+		};
+	}
+
+	/**
+	 * Whether days of the week are read for an analysis option.
+	 */
+	static boolean isRead(String option, DayOfWeek day) {
+		switch (option) {
+		case "onlyWeekdays":
+			return day != DayOfWeek.SATURDAY && day != DayOfWeek.SUNDAY;
+		case "onlySaturdays":
+			return day == DayOfWeek.SATURDAY;
+		case "onlySundays":
+			return day == DayOfWeek.SUNDAY;
+		case "onlyWeekends":
+			return day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY;
+		case "Mo_Do":
+			return day != DayOfWeek.SATURDAY && day != DayOfWeek.SUNDAY && day != DayOfWeek.FRIDAY;
+		case "Fr_Sa":
+			return day == DayOfWeek.FRIDAY || day == DayOfWeek.SATURDAY;
+		default:
+			return true;
+		}
+	}
+
+	@Override
+	public void close() {
+		pending.forEach(f -> f.cancel(true));
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Parser for the file of one day.
+	 */
+	@FunctionalInterface
+	public interface DayParser<T> {
+		T parse(File file) throws IOException;
+	}
+}
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.episim.model.input;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigRenderOptions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.episim.policy.FixedPolicy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache for policies created by a {@link RestrictionInput}. Parsing and interpolating the activity participation is the
+ * same for every run with the same input file and settings, so the result is kept once per JVM and, if
+ * {@link #PROPERTY} is set, in a directory on disk, which can be shared by all jobs of a battery.
+ * <p>
+ * Entries are keyed by {@link #VERSION}, the class of the input, the content hash of the input file and the settings
+ * passed by the caller. All settings of the input that influence the result must be passed, otherwise a policy with
+ * other settings is returned.
+ */
+public final class RestrictionCache {
+
+	/**
+	 * System property for the cache directory. The cache is only kept in memory if it is not set or empty.
+	 */
+	public static final String PROPERTY = "EPISIM_RESTRICTION_CACHE";
+
+	/**
+	 * Part of every key, which needs to be increased when the policies created by the inputs change,
+	 * so that entries on disk written by older versions are not used anymore.
+	 */
+	static final int VERSION = 1;
+
+	private static final Logger log = LogManager.getLogger(RestrictionCache.class);
+
+	private static final Map<String, Config> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Content hashes by path, size and modification time of the input.
+	 */
+	private static final Map<String, String> HASHES = new ConcurrentHashMap<>();
+
+	private RestrictionCache() {
+	}
+
+	/**
+	 * Create the policy of an input, or return a copy of the cached one.
+	 *
+	 * @param input    restriction input, which has already been configured
+	 * @param file     input file of the restriction input
+	 * @param settings all settings of the input that influence the created policy
+	 * @return new builder, which may be modified by the caller
+	 */
+	public static FixedPolicy.ConfigBuilder createPolicy(RestrictionInput input, Path file, Object... settings) throws IOException {
+
+		String key = key(input, file, settings);
+
+		try {
+			Config config = CACHE.computeIfAbsent(key, k -> {
+				try {
+					return load(input, k);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			return FixedPolicy.parse(config);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Key of the policy created by an input.
+	 */
+	static String key(RestrictionInput input, Path file, Object... settings) throws IOException {
+		String id = VERSION + "|" + input.getClass().getName() + "|" + hash(file) + "|" + Joiner.on("|").useForNull("null").join(settings);
+		return Hashing.sha256().hashString(id, StandardCharsets.UTF_8).toString().substring(0, 16);
+	}
+
+	private static Config load(RestrictionInput input, String key) throws IOException {
+
+		String dir = System.getProperty(PROPERTY, "");
+		Path file = dir.isEmpty() ? null : Path.of(dir, "policy-" + key + ".conf");
+
+		if (file != null && Files.exists(file)) {
+			log.info("Reading cached policy {}", file);
+			return ConfigFactory.parseFile(file.toFile());
+		}
+
+		Config config = input.createPolicy().build();
+
+		if (file != null) {
+			// written to a temporary file first, because other jobs may read the cache concurrently
+			Files.createDirectories(file.getParent());
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp" + ProcessHandle.current().pid());
+			Files.writeString(tmp, config.root().render(ConfigRenderOptions.concise()));
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			log.info("Written cached policy {}", file);
+		}
+
+		return config;
+	}
+
+	/**
+	 * Content hash of a file, which is only computed again if the file changed.
+	 */
+	private static String hash(Path file) throws IOException {
+		String id = file.toAbsolutePath() + "|" + Files.size(file) + "|" + Files.getLastModifiedTime(file).toMillis();
+
+		String hash = HASHES.get(id);
+		if (hash == null) {
+			hash = MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString();
+			HASHES.put(id, hash);
+		}
+
+		return hash;
+	}
+}
@@ -0,0 +1,417 @@
+package org.matsim.episim.model.input;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Columnar store of the parsed SENOZON data, with one value per day, zip code and measure.
+ * Each measure is stored as memory-mapped file of doubles with one row per day. The zip codes are numbered in the order
+ * they appear, so rows of later days may be longer than earlier ones, and missing values are zero.
+ * <p>
+ * The store is created once from the gzipped day files with {@link #ingest(Source, List, Path, int)} and can be queried
+ * for arbitrary sets of zip codes and dates without parsing the input again.
+ */
+public final class SnzMobilityStore implements AutoCloseable {
+
+	private static final Logger log = LogManager.getLogger(SnzMobilityStore.class);
+	private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+	private static final String INDEX = "index.tsv";
+	private static final String ZIPS = "zips.txt";
+	private static final String MEASURES = "measures.tsv";
+
+	/**
+	 * Type of the day files.
+	 */
+	public enum Source {
+		/**
+		 * Duration sum of each activity type.
+		 */
+		durations("_zipCode.csv.gz"),
+		/**
+		 * Number of persons, persons staying home, mobile persons and range sum.
+		 */
+		personStats("_personStats.csv.gz"),
+		/**
+		 * Number of activities by type and hour, stored as <em>type:hour</em>.
+		 */
+		activities("_tagesgang.csv.gz");
+
+		private final String suffix;
+
+		Source(String suffix) {
+			this.suffix = suffix;
+		}
+
+		/**
+		 * Whether a file is a day file of this source.
+		 */
+		public boolean matches(File file) {
+			return file.getName().contains(suffix);
+		}
+	}
+
+	private final LocalDate[] dates;
+
+	/**
+	 * Number of zip columns of each day.
+	 */
+	private final int[] columns;
+
+	/**
+	 * Column of each zip code, or -1.
+	 */
+	private final int[] zipToColumn;
+
+	private final Map<String, Measure> measures;
+	private final List<FileChannel> channels;
+
+	private SnzMobilityStore(LocalDate[] dates, int[] columns, int[] zipToColumn, Map<String, Measure> measures, List<FileChannel> channels) {
+		this.dates = dates;
+		this.columns = columns;
+		this.zipToColumn = zipToColumn;
+		this.measures = measures;
+		this.channels = channels;
+	}
+
+	/**
+	 * Whether a complete store exists in {@code dir}.
+	 */
+	public static boolean exists(Path dir) {
+		return Files.exists(dir.resolve(INDEX));
+	}
+
+	/**
+	 * Open an existing store.
+	 */
+	public static SnzMobilityStore open(Path dir) throws IOException {
+
+		List<String> index = Files.readAllLines(dir.resolve(INDEX));
+		LocalDate[] dates = new LocalDate[index.size()];
+		int[] columns = new int[index.size()];
+		long[] start = new long[index.size() + 1];
+		for (int d = 0; d < dates.length; d++) {
+			String[] row = index.get(d).split("\t");
+			dates[d] = LocalDate.parse(row[0], FMT);
+			columns[d] = Integer.parseInt(row[1]);
+			start[d + 1] = start[d] + columns[d];
+		}
+
+		int[] zipToColumn = new int[ZipCodeIndex.MAX_ZIP];
+		Arrays.fill(zipToColumn, -1);
+		List<String> zips = Files.readAllLines(dir.resolve(ZIPS));
+		for (int i = 0; i < zips.size(); i++)
+			zipToColumn[Integer.parseInt(zips.get(i))] = i;
+
+		Map<String, Measure> measures = new LinkedHashMap<>();
+		List<FileChannel> channels = new ArrayList<>();
+		for (String line : Files.readAllLines(dir.resolve(MEASURES))) {
+			String[] row = line.split("\t");
+			int firstDay = Integer.parseInt(row[1]);
+
+			FileChannel channel = FileChannel.open(dir.resolve(row[2]), StandardOpenOption.READ);
+			channels.add(channel);
+
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+			// byte offset of each day within the file
+			int[] offsets = new int[dates.length];
+			for (int d = firstDay; d < dates.length; d++)
+				offsets[d] = Math.toIntExact((start[d] - start[firstDay]) * Double.BYTES);
+
+			measures.put(row[0], new Measure(firstDay, offsets, buffer));
+		}
+
+		return new SnzMobilityStore(dates, columns, zipToColumn, measures, channels);
+	}
+
+	/**
+	 * Create a store from day files.
+	 *
+	 * @param source  type of the files
+	 * @param files   day files, which are filtered by the source
+	 * @param dir     directory of the store
+	 * @param threads number of threads for parsing
+	 */
+	public static void ingest(Source source, List<File> files, Path dir, int threads) throws IOException {
+
+		List<File> days = new ArrayList<>();
+		for (File file : files) {
+			if (source.matches(file))
+				days.add(file);
+		}
+		days.sort(Comparator.comparing(File::getName));
+
+		Files.createDirectories(dir);
+		Files.deleteIfExists(dir.resolve(INDEX));
+
+		IntArrayList zips = new IntArrayList();
+		int[] zipToColumn = new int[ZipCodeIndex.MAX_ZIP];
+		Arrays.fill(zipToColumn, -1);
+
+		Map<String, FileChannel> out = new LinkedHashMap<>();
+		List<String> measures = new ArrayList<>();
+		List<String> index = new ArrayList<>();
+
+		try (ParallelDayReader<Map<String, Int2DoubleMap>> reader = new ParallelDayReader<>(days, f -> true, f -> parse(source, f), threads)) {
+			for (int d = 0; d < days.size(); d++) {
+
+				Map<String, Int2DoubleMap> day = reader.next();
+
+				// new zip codes are appended in sorted order
+				IntSortedSet added = new IntAVLTreeSet();
+				for (Int2DoubleMap values : day.values()) {
+					for (int zip : values.keySet())
+						if (zipToColumn[zip] < 0)
+							added.add(zip);
+				}
+				for (int zip : added) {
+					zipToColumn[zip] = zips.size();
+					zips.add(zip);
+				}
+
+				for (String measure : day.keySet()) {
+					if (!out.containsKey(measure)) {
+						String name = "m" + out.size() + ".bin";
+						out.put(measure, FileChannel.open(dir.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+								StandardOpenOption.TRUNCATE_EXISTING));
+						measures.add(String.join("\t", measure, String.valueOf(d), name));
+					}
+				}
+
+				// every measure has a row for each day after it appeared, zip codes without a record for the measure are NaN
+				ByteBuffer row = ByteBuffer.allocate(zips.size() * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				for (Map.Entry<String, FileChannel> e : out.entrySet()) {
+					row.clear();
+					Int2DoubleMap values = day.get(e.getKey());
+					for (int c = 0; c < zips.size(); c++) {
+						int zip = zips.getInt(c);
+						row.putDouble(values == null || !values.containsKey(zip) ? Double.NaN : values.get(zip));
+					}
+
+					row.flip();
+					while (row.hasRemaining())
+						e.getValue().write(row);
+				}
+
+				index.add(days.get(d).getName().split("_")[0] + "\t" + zips.size());
+
+				if ((d + 1) % 30 == 0)
+					log.info("Ingested {} of {} days", d + 1, days.size());
+			}
+		} finally {
+			for (FileChannel channel : out.values())
+				channel.close();
+		}
+
+		try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve(ZIPS))) {
+			for (int zip : zips) {
+				writer.write(String.valueOf(zip));
+				writer.newLine();
+			}
+		}
+
+		Files.write(dir.resolve(MEASURES), measures);
+
+		// index is written last and marks the store as complete
+		Files.write(dir.resolve(INDEX), index);
+
+		log.info("Created store with {} days, {} zip codes and {} measures in {}", days.size(), zips.size(), measures.size(), dir);
+	}
+
+	/**
+	 * Parse one day file into values per measure and zip code.
+	 */
+	private static Map<String, Int2DoubleMap> parse(Source source, File file) throws IOException {
+
+		// measures keep the order of the columns
+		Map<String, Int2DoubleMap> result = new LinkedHashMap<>();
+
+		try (BufferedReader reader = IOUtils.getBufferedReader(file.toString())) {
+			CSVParser parse = CSVFormat.DEFAULT.withDelimiter(',').withFirstRecordAsHeader().parse(reader);
+
+			List<String> hours = new ArrayList<>();
+			if (source == Source.activities) {
+				for (String h : parse.getHeaderNames())
+					if (!h.contains("date") && !h.contains("type") && !h.contains("area") && !h.contains("zipCode"))
+						hours.add(h);
+			}
+
+			for (CSVRecord record : parse) {
+
+				int zip = ZipCodeIndex.parseZip(record.get("zipCode"));
+				if (zip < 0 || zip >= ZipCodeIndex.MAX_ZIP)
+					continue;
+
+				switch (source) {
+					case durations:
+						add(result, record.get("actType"), zip, Double.parseDouble(record.get("durationSum")));
+						break;
+					case personStats:
+						for (String m : List.of("nPersons", "nStayHomes", "nMobilePersons", "dailyRangeSum"))
+							add(result, m, zip, Double.parseDouble(record.get(m)));
+						break;
+					case activities:
+						String type = record.get("type");
+						for (String h : hours)
+							add(result, type + ":" + h, zip, Double.parseDouble(record.get(h)));
+						break;
+					default:
+						throw new IllegalStateException("Unknown source " + source);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static void add(Map<String, Int2DoubleMap> result, String measure, int zip, double value) {
+		result.computeIfAbsent(measure, k -> new Int2DoubleOpenHashMap()).mergeDouble(zip, value, Double::sum);
+	}
+
+	/**
+	 * All dates in the store in ascending order.
+	 */
+	public List<LocalDate> getDates() {
+		return Collections.unmodifiableList(Arrays.asList(dates));
+	}
+
+	/**
+	 * Whether the store contains a date.
+	 */
+	public boolean contains(LocalDate date) {
+		return Arrays.binarySearch(dates, date) >= 0;
+	}
+
+	/**
+	 * Names of all measures.
+	 */
+	public Set<String> getMeasures() {
+		return Collections.unmodifiableSet(measures.keySet());
+	}
+
+	/**
+	 * Sum of all measures over the given zip codes for one day. Measures without a record in any of the zip codes are not contained,
+	 * as if the day file was read directly.
+	 *
+	 * @throws IllegalArgumentException if the date is not in the store
+	 * @see #contains(LocalDate)
+	 */
+	public Object2DoubleMap<String> sum(LocalDate date, IntSet zipCodes) {
+		int d = Arrays.binarySearch(dates, date);
+		if (d < 0)
+			throw new IllegalArgumentException("Date " + date + " is not in the store");
+
+		return sum(d, columns(zipCodes));
+	}
+
+	/**
+	 * Sums of all measures over the given zip codes for each day in the range.
+	 *
+	 * @param from first date (inclusive)
+	 * @param to   last date (inclusive)
+	 */
+	public NavigableMap<LocalDate, Object2DoubleMap<String>> query(IntSet zipCodes, LocalDate from, LocalDate to) {
+
+		int[] cols = columns(zipCodes);
+		NavigableMap<LocalDate, Object2DoubleMap<String>> result = new TreeMap<>();
+
+		for (int d = 0; d < dates.length; d++) {
+			if (dates[d].isBefore(from) || dates[d].isAfter(to))
+				continue;
+
+			result.put(dates[d], sum(d, cols));
+		}
+
+		return result;
+	}
+
+	private Object2DoubleMap<String> sum(int d, int[] cols) {
+
+		Object2DoubleMap<String> sums = new Object2DoubleOpenHashMap<>();
+		for (Map.Entry<String, Measure> e : measures.entrySet()) {
+			Measure m = e.getValue();
+			if (d < m.firstDay)
+				continue;
+
+			double value = 0;
+			boolean present = false;
+			for (int c : cols) {
+				// columns are sorted, later columns did not exist on this day
+				if (c >= columns[d])
+					break;
+
+				double v = m.buffer.getDouble(m.offsets[d] + c * Double.BYTES);
+				if (!Double.isNaN(v)) {
+					value += v;
+					present = true;
+				}
+			}
+
+			if (present)
+				sums.put(e.getKey(), value);
+		}
+
+		return sums;
+	}
+
+	/**
+	 * Sorted columns of the zip codes that are in the store.
+	 */
+	private int[] columns(IntSet zipCodes) {
+		IntArrayList cols = new IntArrayList();
+		for (int zip : zipCodes) {
+			if (zip >= 0 && zip < zipToColumn.length && zipToColumn[zip] >= 0)
+				cols.add(zipToColumn[zip]);
+		}
+
+		int[] result = cols.toIntArray();
+		Arrays.sort(result);
+		return result;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (FileChannel channel : channels)
+			channel.close();
+	}
+
+	private static final class Measure {
+
+		private final int firstDay;
+		private final int[] offsets;
+		private final ByteBuffer buffer;
+
+		private Measure(int firstDay, int[] offsets, ByteBuffer buffer) {
+			this.firstDay = firstDay;
+			this.offsets = offsets;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package org.matsim.episim.model.input;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Inverted index from zip code to the areas containing it. The index is a dense array over all five digit zip codes,
+ * so that each row of the SENOZON data can be assigned to its areas with one array lookup, instead of checking every area.
+ */
+public final class ZipCodeIndex {
+
+	/**
+	 * Exclusive upper bound of the zip codes.
+	 */
+	static final int MAX_ZIP = 100_000;
+
+	private static final int[] EMPTY = new int[0];
+
+	private final String[] areas;
+
+	/**
+	 * Bundesland of each area, which is used to determine bank holidays.
+	 */
+	private final String[] bundeslaender;
+
+	private final int[][] byZip;
+
+	private ZipCodeIndex(String[] areas, String[] bundeslaender, int[][] byZip) {
+		this.areas = areas;
+		this.bundeslaender = bundeslaender;
+		this.byZip = byZip;
+	}
+
+	/**
+	 * Create the index.
+	 *
+	 * @param zipCodesOfAreas zip codes of each area
+	 * @param lkAssignment    Landkreise of each Bundesland, if bank holidays need to be considered
+	 */
+	public static ZipCodeIndex create(Map<String, IntSet> zipCodesOfAreas, @Nullable Map<String, Set<String>> lkAssignment) {
+
+		String[] areas = zipCodesOfAreas.keySet().toArray(new String[0]);
+		String[] bundeslaender = new String[areas.length];
+
+		IntArrayList[] lists = new IntArrayList[MAX_ZIP];
+		for (int i = 0; i < areas.length; i++) {
+
+			if (lkAssignment != null)
+				bundeslaender[i] = getRelatedBundesland(areas[i], lkAssignment);
+
+			for (int zip : zipCodesOfAreas.get(areas[i])) {
+				if (zip < 0 || zip >= MAX_ZIP)
+					continue;
+
+				if (lists[zip] == null)
+					lists[zip] = new IntArrayList(1);
+
+				lists[zip].add(i);
+			}
+		}
+
+		int[][] byZip = new int[MAX_ZIP][];
+		for (int zip = 0; zip < MAX_ZIP; zip++)
+			byZip[zip] = lists[zip] == null ? EMPTY : lists[zip].toIntArray();
+
+		return new ZipCodeIndex(areas, bundeslaender, byZip);
+	}
+
+	/**
+	 * Parse a zip code of the input data.
+	 *
+	 * @return zip code or -1 if it is not known
+	 */
+	public static int parseZip(String zipCode) {
+		if (zipCode.contains("NULL"))
+			return -1;
+
+		return Integer.parseInt(zipCode);
+	}
+
+	/**
+	 * Number of areas.
+	 */
+	public int size() {
+		return areas.length;
+	}
+
+	/**
+	 * Name of an area.
+	 */
+	public String getArea(int id) {
+		return areas[id];
+	}
+
+	/**
+	 * Names of all areas, ordered by their id.
+	 */
+	public List<String> getAreas() {
+		return Collections.unmodifiableList(Arrays.asList(areas));
+	}
+
+	/**
+	 * Ids of all areas containing a zip code. The returned array must not be modified.
+	 */
+	public int[] areas(int zip) {
+		if (zip < 0 || zip >= MAX_ZIP)
+			return EMPTY;
+
+		return byZip[zip];
+	}
+
+	/**
+	 * Ids of all areas containing a zip code of the input data.
+	 *
+	 * @see #parseZip(String)
+	 */
+	public int[] areas(String zipCode) {
+		return areas(parseZip(zipCode));
+	}
+
+	/**
+	 * Mask of areas to exclude on a day, because their Bundesland has a bank holiday.
+	 *
+	 * @param bundeslaenderWithHoliday Bundeslaender with bank holiday, or null if no area should be excluded
+	 * @return true for every area that is excluded
+	 */
+	public boolean[] holidayMask(@Nullable Collection<String> bundeslaenderWithHoliday) {
+
+		boolean[] mask = new boolean[areas.length];
+		if (bundeslaenderWithHoliday == null || bundeslaenderWithHoliday.isEmpty())
+			return mask;
+
+		for (int i = 0; i < areas.length; i++)
+			mask[i] = bundeslaenderWithHoliday.contains(bundeslaender[i]);
+
+		return mask;
+	}
+
+	/**
+	 * Returns the Bundesland where a Landkreis is located.
+	 */
+	@Nullable
+	private static String getRelatedBundesland(String area, Map<String, Set<String>> lkAssignment) {
+
+		if (lkAssignment.containsKey(area))
+			return area;
+
+		for (Map.Entry<String, Set<String>> e : lkAssignment.entrySet())
+			if (e.getValue().contains(area))
+				return e.getKey();
+
+		return null;
+	}
+}
@@ -5,7 +5,9 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.EpisimUtils;
+import org.matsim.episim.model.CommonRandomNumbers;
 import org.matsim.episim.model.VaccinationType;
+import org.matsim.run.DateEffective;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -17,11 +19,13 @@ import java.util.stream.Collectors;
 public class VaccinationStrategy implements VaccinationModel {
 
 	private final SplittableRandom rnd;
+	private final CommonRandomNumbers crn;
 	private final Config config;
 
 	@Inject
-	public VaccinationStrategy(SplittableRandom rnd, Config config) {
+	public VaccinationStrategy(SplittableRandom rnd, CommonRandomNumbers crn, Config config) {
 		this.rnd = rnd;
+		this.crn = crn;
 		this.config = config;
 	}
 
@@ -42,7 +46,7 @@ public class VaccinationStrategy implements VaccinationModel {
 						.filter(p -> p.getNumVaccinations() > 0 ? p.daysSinceVaccination(p.getNumVaccinations() - 1, iteration) > 90 : true)
 						.collect(Collectors.toList());
 		
-				Collections.shuffle(youngCandidates, new Random(EpisimUtils.getSeed(rnd)));
+				Collections.shuffle(youngCandidates, new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategy-young", iteration))));
 				
 				int vaccinationsLeft = (int) (config.complianceYoung * youngPersons.size() / config.campaignDuration);
 
@@ -68,7 +72,7 @@ public class VaccinationStrategy implements VaccinationModel {
 						.filter(p -> p.getNumVaccinations() > 0 ? p.daysSinceVaccination(p.getNumVaccinations() - 1, iteration) > 90 : true)
 						.collect(Collectors.toList());
 		
-				Collections.shuffle(oldCanidates, new Random(EpisimUtils.getSeed(rnd)));
+				Collections.shuffle(oldCanidates, new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategy-old", iteration))));
 				
 				int vaccinationsLeft = (int) (config.complianceOld * oldPersons.size() / config.campaignDuration);
 				int n = Math.min(oldCanidates.size(), vaccinationsLeft);
@@ -90,6 +94,7 @@ public class VaccinationStrategy implements VaccinationModel {
 		/**
 		 * Start of vaccination campaign.
 		 */
+		@DateEffective
 		private final LocalDate start;
 		/**
 		 * Duration of vaccination campaign.
@@ -5,7 +5,9 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.EpisimUtils;
+import org.matsim.episim.model.CommonRandomNumbers;
 import org.matsim.episim.model.VaccinationType;
+import org.matsim.run.DateEffective;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -17,11 +19,13 @@ import java.util.stream.Collectors;
 public class VaccinationStrategy2 implements VaccinationModel {
 
 	private final SplittableRandom rnd;
+	private final CommonRandomNumbers crn;
 	private final Config config;
 
 	@Inject
-	public VaccinationStrategy2(SplittableRandom rnd, Config config) {
+	public VaccinationStrategy2(SplittableRandom rnd, CommonRandomNumbers crn, Config config) {
 		this.rnd = rnd;
+		this.crn = crn;
 		this.config = config;
 	}
 
@@ -47,7 +51,7 @@ public class VaccinationStrategy2 implements VaccinationModel {
 						.collect(Collectors.toList());
 
 				// shuffle them (can't say if this uses the same seed in every iteration or not)
-				Collections.shuffle(youngCandidates, new Random(EpisimUtils.getSeed(rnd)));
+				Collections.shuffle(youngCandidates, new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategy2-young", iteration))));
 
 				int vaccinationsLeft = (int) (0.005 * youngPersons.size());
 				
@@ -76,7 +80,7 @@ public class VaccinationStrategy2 implements VaccinationModel {
 						.filter(config.vaccinateRecovered ? p -> true : p -> p.getNumInfections() == 0)
 						.collect(Collectors.toList());
 		
-				Collections.shuffle(oldCanidates, new Random(EpisimUtils.getSeed(rnd)));
+				Collections.shuffle(oldCanidates, new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategy2-old", iteration))));
 				
 				int vaccinationsLeft = (int) (0.005 * oldPersons.size());
 				
@@ -99,6 +103,7 @@ public class VaccinationStrategy2 implements VaccinationModel {
 		/**
 		 * Start of vaccination campaign.
 		 */
+		@DateEffective
 		private final LocalDate start;
 		
 		private final boolean vaccinateRecovered;
@@ -7,7 +7,9 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.EpisimUtils;
+import org.matsim.episim.model.CommonRandomNumbers;
 import org.matsim.episim.model.VaccinationType;
+import org.matsim.run.DateEffective;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -19,11 +21,13 @@ import java.util.stream.Collectors;
 public class VaccinationStrategyBMBF0617 implements VaccinationModel {
 
 	private final SplittableRandom rnd;
+	private final CommonRandomNumbers crn;
 	private final Config config;
 
 	@Inject
-	public VaccinationStrategyBMBF0617(SplittableRandom rnd, Config config) {
+	public VaccinationStrategyBMBF0617(SplittableRandom rnd, CommonRandomNumbers crn, Config config) {
 		this.rnd = rnd;
+		this.crn = crn;
 		this.config = config;
 	}
 
@@ -81,7 +85,7 @@ public class VaccinationStrategyBMBF0617 implements VaccinationModel {
 
 					// list is shuffled to avoid eventual bias
 					if (candidatesForAge.size() > vaccinationsLeft)
-						Collections.shuffle(perAge[ageIndex], new Random(EpisimUtils.getSeed(rnd)));
+						Collections.shuffle(perAge[ageIndex], new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategyBMBF0617-" + ageIndex, iteration))));
 
 
 					int vaccinesForDayAndAgeGroup = Math.min(candidatesForAge.size(), vaccinationsLeft);
@@ -106,6 +110,7 @@ public class VaccinationStrategyBMBF0617 implements VaccinationModel {
 		/**
 		 * Start of vaccination campaign.
 		 */
+		@DateEffective
 		private final LocalDate start;
 		/**
 		 * Duration of vaccination campaign.
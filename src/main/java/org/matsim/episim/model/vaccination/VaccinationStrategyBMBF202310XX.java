@@ -6,7 +6,9 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.EpisimUtils;
+import org.matsim.episim.model.CommonRandomNumbers;
 import org.matsim.episim.model.VaccinationType;
+import org.matsim.run.DateEffective;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -18,11 +20,13 @@ import java.util.stream.Collectors;
 public class VaccinationStrategyBMBF202310XX implements VaccinationModel {
 
 	private final SplittableRandom rnd;
+	private final CommonRandomNumbers crn;
 	private final Config config;
 
 	@Inject
-	public VaccinationStrategyBMBF202310XX(SplittableRandom rnd, Config config) {
+	public VaccinationStrategyBMBF202310XX(SplittableRandom rnd, CommonRandomNumbers crn, Config config) {
 		this.rnd = rnd;
+		this.crn = crn;
 		this.config = config;
 	}
 
@@ -75,7 +79,7 @@ public class VaccinationStrategyBMBF202310XX implements VaccinationModel {
 
 					// list is shuffled to avoid eventual bias
 					if (candidatesForAge.size() > vaccinationsLeft)
-						Collections.shuffle(perAge[ageIndex], new Random(EpisimUtils.getSeed(rnd)));
+						Collections.shuffle(perAge[ageIndex], new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategyBMBF202310XX-" + ageIndex, iteration))));
 
 
 					int vaccinesForDayAndAgeGroup = Math.min(candidatesForAge.size(), vaccinationsLeft);
@@ -100,6 +104,7 @@ public class VaccinationStrategyBMBF202310XX implements VaccinationModel {
 		/**
 		 * Start of vaccination campaign.
 		 */
+		@DateEffective
 		private final LocalDate start;
 		/**
 		 * Duration of vaccination campaign.
@@ -8,6 +8,7 @@ import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.episim.EpisimPerson;
 import org.matsim.episim.EpisimUtils;
+import org.matsim.episim.model.CommonRandomNumbers;
 import org.matsim.episim.model.VaccinationType;
 
 import java.time.LocalDate;
@@ -22,6 +23,7 @@ public class VaccinationStrategyReoccurringCampaigns implements VaccinationModel
 	private final int dailyVaccinationsToBeDistributed;
 
 	private final SplittableRandom rnd;
+	private final CommonRandomNumbers crn;
 	private final Config config;
 
 	private final IdSet<Person> boostBa5Yes = new IdSet<>(Person.class);
@@ -30,15 +32,19 @@ public class VaccinationStrategyReoccurringCampaigns implements VaccinationModel
 
 
 	@Inject
-	public VaccinationStrategyReoccurringCampaigns(SplittableRandom rnd, Config config, Scenario scenario) {
+	public VaccinationStrategyReoccurringCampaigns(SplittableRandom rnd, CommonRandomNumbers crn, Config config, Scenario scenario) {
 		this.rnd = rnd;
+		this.crn = crn;
 		this.config = config;
 
 		Population population = scenario.getPopulation();
 
+		// willingness of persons is fixed for the whole run
+		SplittableRandom assignment = crn.stream(rnd, "VaccinationStrategyReoccurringCampaigns-assignment", 0);
+
 		for (Person person : population.getPersons().values()) {
 
-			double randomNum = rnd.nextDouble();
+			double randomNum = assignment.nextDouble();
 			if (randomNum < 0.5) {
 				boostBa5Yes.add(person.getId());
 			}
@@ -100,7 +106,7 @@ public class VaccinationStrategyReoccurringCampaigns implements VaccinationModel
 
 				// list is shuffled to avoid eventual bias
 				if (candidates.size() != 0)
-					Collections.shuffle(candidates, new Random(EpisimUtils.getSeed(rnd)));
+					Collections.shuffle(candidates, new Random(EpisimUtils.getSeed(crn.stream(rnd, "VaccinationStrategyReoccurringCampaigns-candidates", iteration))));
 
 				int n = Math.min(candidates.size(), vaccinationsLeft);
 				for (int i = 0; i < n; i++) {
@@ -0,0 +1,494 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.common.base.Joiner;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.BatchRun;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.EpisimUtils;
+import org.matsim.episim.PreparedRun;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Adaptive alternative to running the full grid of a {@link BatchRun}. An initial space-filling subset of the runs is simulated,
+ * afterwards a {@link GaussianProcess} is fitted to the objective of the finished runs and the runs with the highest expected improvement
+ * are simulated next, until the budget is used up.
+ * <p>
+ * The objective compares simulated and reference cumulative cases, see {@link Objective}.
+ * Runs that already have output are evaluated without simulating them again and do not count towards the budget,
+ * so the search can be continued after an interruption. Runs that differ only in their seed are not proposed, if one of them has been evaluated.
+ * <p>
+ * All rounds are simulated in this process and share the loaded scenarios.
+ *
+ * @param <T> type to match batch run and params
+ * @see RunParallel
+ */
+@CommandLine.Command(
+		name = "adaptiveSearch",
+		description = "Search the parameter space of a batch run adaptively, guided by a surrogate model.",
+		showDefaultValues = true,
+		mixinStandardHelpOptions = true
+)
+@SuppressWarnings("unchecked, rawtypes")
+public class AdaptiveSearch<T> implements Callable<Integer> {
+
+	private static final Logger log = LogManager.getLogger(AdaptiveSearch.class);
+
+	@CommandLine.Option(names = "--output", defaultValue = "${env:EPISIM_OUTPUT:-output}")
+	private Path output;
+
+	@CommandLine.Option(names = RunParallel.OPTION_SETUP, defaultValue = "${env:EPISIM_SETUP:-org.matsim.run.batch.JRBatch}")
+	private Class<? extends BatchRun<T>> setup;
+
+	@CommandLine.Option(names = RunParallel.OPTION_PARAMS, defaultValue = "${env:EPISIM_PARAMS:-org.matsim.run.batch.JRBatch$Params}")
+	private Class<T> params;
+
+	@CommandLine.Option(names = "--reference", required = true, description = "Tsv file with date column and daily reference cases")
+	private Path reference;
+
+	@CommandLine.Option(names = "--reference-column", defaultValue = "cases", description = "Column with daily cases in the reference")
+	private String referenceColumn;
+
+	@CommandLine.Option(names = "--column", defaultValue = "nShowingSymptomsCumulative", description = "Column with cumulative cases in the infections output")
+	private String column;
+
+	@CommandLine.Option(names = "--objective", defaultValue = "logRmse", description = "Objective to minimize: ${COMPLETION-CANDIDATES}")
+	private Objective objectiveType;
+
+	@CommandLine.Option(names = "--initial", defaultValue = "12", description = "Number of runs of the initial design")
+	private int initial;
+
+	@CommandLine.Option(names = "--batch", defaultValue = "4", description = "Number of runs proposed in each round")
+	private int batch;
+
+	@CommandLine.Option(names = "--budget", defaultValue = "48", description = "Maximum number of runs to simulate, runs evaluated from existing output are not counted")
+	private int budget;
+
+	@CommandLine.Option(names = "--noise", defaultValue = "0.1", description = "Relative noise of the objective, e.g. due to different seeds")
+	private double noise;
+
+	@CommandLine.Option(names = RunParallel.OPTION_TASKS, defaultValue = "4", description = "Number of simulations to start concurrently")
+	private int tasks;
+
+	@CommandLine.Option(names = RunParallel.OPTION_ITERATIONS, defaultValue = "360", description = "Maximum number of days to simulate.")
+	private int maxIterations;
+
+	@CommandLine.Option(names = RunParallel.OPTION_WARM_IMAGE, description = "Directory of warm images, passed to RunParallel")
+	private Path warmImage;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new AdaptiveSearch()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		PreparedRun prepare = BatchRun.prepare(setup, params);
+		NavigableMap<LocalDate, Double> cases = EarlyStopping.readCumulativeCases(reference, referenceColumn);
+
+		List<PreparedRun.Run> candidates = prepare.runs;
+		List<double[]> features = features(prepare);
+
+		// scenarios are loaded once for all rounds
+		ScenarioCache cache = RunParallel.createCache(prepare, warmImage);
+
+		// objective of evaluated runs by index, NaN if the run failed
+		Map<Integer, Double> objective = new LinkedHashMap<>();
+		Map<Integer, Integer> rounds = new HashMap<>();
+
+		for (int i = 0; i < candidates.size(); i++) {
+			double value = evaluate(prepare, candidates.get(i), cases);
+			if (!Double.isNaN(value)) {
+				objective.put(i, value);
+				rounds.put(i, 0);
+			}
+		}
+
+		log.info("Searching {} runs with budget of {}, {} already evaluated", candidates.size(), budget, objective.size());
+
+		int round = 1;
+		int simulated = 0;
+		while (simulated < budget && objective.size() < candidates.size()) {
+
+			int n = Math.min(objective.size() < initial ? initial - objective.size() : batch, budget - simulated);
+
+			List<Integer> selected = objective.size() < initial ?
+					spaceFilling(features, objective.keySet(), n) :
+					propose(features, objective, n, noise);
+
+			if (selected.isEmpty())
+				break;
+
+			log.info("Round {}: simulating runs {}", round, selected.stream().map(i -> candidates.get(i).id).collect(Collectors.toList()));
+
+			int code = simulate(prepare, cache, selected);
+			if (code != 0) {
+				writeResults(prepare, objective, rounds);
+				log.error("Simulating round {} failed with exit code {}", round, code);
+				return code;
+			}
+
+			simulated += selected.size();
+
+			for (int i : selected) {
+				objective.put(i, evaluate(prepare, candidates.get(i), cases));
+				rounds.put(i, round);
+			}
+
+			writeResults(prepare, objective, rounds);
+			round++;
+		}
+
+		writeResults(prepare, objective, rounds);
+
+		objective.entrySet().stream()
+				.filter(e -> !Double.isNaN(e.getValue()))
+				.min(Map.Entry.comparingByValue())
+				.ifPresent(e -> log.info("Best run {} with objective {}: {}", candidates.get(e.getKey()).id, e.getValue(), candidates.get(e.getKey()).params));
+
+		return 0;
+	}
+
+	/**
+	 * Simulate a subset of the runs with {@link RunParallel}.
+	 *
+	 * @return exit code of the command, failures of single runs are not reflected in it
+	 */
+	private int simulate(PreparedRun prepare, ScenarioCache cache, List<Integer> selected) {
+
+		List<PreparedRun.Run> runs = selected.stream().map(i -> prepare.runs.get(i)).collect(Collectors.toList());
+		List<List<Object>> combinations = runs.stream().map(r -> r.params).collect(Collectors.toList());
+
+		PreparedRun subset = new PreparedRun(prepare.setup, prepare.parameter, combinations, runs);
+
+		List<String> args = new ArrayList<>(List.of(
+				RunParallel.OPTION_TASKS, String.valueOf(Math.min(tasks, runs.size())),
+				RunParallel.OPTION_ITERATIONS, String.valueOf(maxIterations),
+				"--output", output.toString()
+		));
+
+		return new CommandLine(new RunParallel<>(subset, cache)).execute(args.toArray(new String[0]));
+	}
+
+	/**
+	 * Compute the objective of a run from its output.
+	 *
+	 * @return NaN if the output is missing or does not overlap with the reference
+	 */
+	private double evaluate(PreparedRun prepare, PreparedRun.Run run, NavigableMap<LocalDate, Double> cases) throws IOException {
+
+		Path dir = output.resolve(prepare.getOutputName(run));
+		if (!Files.isDirectory(dir))
+			return Double.NaN;
+
+		Optional<Path> file;
+		try (Stream<Path> files = Files.list(dir)) {
+			file = files.filter(p -> p.getFileName().toString().endsWith("infections.txt.csv")).findFirst();
+		}
+
+		if (file.isEmpty())
+			return Double.NaN;
+
+		double sampleSize = ConfigUtils.addOrGetModule(run.config, EpisimConfigGroup.class).getSampleSize();
+
+		DoubleList sim = new DoubleArrayList();
+		DoubleList ref = new DoubleArrayList();
+		try (Reader reader = Files.newBufferedReader(file.get());
+			 CSVParser parser = CSVFormat.DEFAULT.withDelimiter('\t').withFirstRecordAsHeader().parse(reader)) {
+
+			boolean districts = parser.getHeaderMap().containsKey("district");
+			for (CSVRecord record : parser) {
+				if (districts && !record.get("district").equals("total"))
+					continue;
+
+				Double r = cases.get(LocalDate.parse(record.get("date")));
+				if (r == null)
+					continue;
+
+				sim.add(Double.parseDouble(record.get(column)) / sampleSize);
+				ref.add(r.doubleValue());
+			}
+		}
+
+		return objectiveType.evaluate(sim.toDoubleArray(), ref.toDoubleArray());
+	}
+
+	/**
+	 * Normalized features of all runs. Numeric parameters are scaled to [0, 1], other parameters are one-hot encoded.
+	 * Seeds and parameters with only one value are ignored.
+	 */
+	static List<double[]> features(PreparedRun prepare) {
+		return features(prepare.parameter, prepare.runs.stream().map(r -> r.params).collect(Collectors.toList()));
+	}
+
+	/**
+	 * Normalized features for the parameter values of each run.
+	 *
+	 * @param parameter names of the parameters
+	 * @param params    values of the parameters for each run, in the same order as the names
+	 */
+	static List<double[]> features(List<String> parameter, List<List<Object>> params) {
+
+		List<double[]> columns = new ArrayList<>();
+
+		for (int j = 0; j < parameter.size(); j++) {
+
+			if (parameter.get(j).equals("seed"))
+				continue;
+
+			int idx = j;
+			List<Object> values = params.stream().map(r -> r.get(idx)).collect(Collectors.toList());
+			List<String> distinct = values.stream().map(EpisimUtils::asString).distinct().collect(Collectors.toList());
+
+			if (distinct.size() <= 1)
+				continue;
+
+			if (values.stream().allMatch(v -> v instanceof Number)) {
+				double min = values.stream().mapToDouble(v -> ((Number) v).doubleValue()).min().orElse(0);
+				double max = values.stream().mapToDouble(v -> ((Number) v).doubleValue()).max().orElse(1);
+				columns.add(values.stream().mapToDouble(v -> (((Number) v).doubleValue() - min) / (max - min)).toArray());
+			} else {
+				for (String d : distinct) {
+					columns.add(values.stream().mapToDouble(v -> EpisimUtils.asString(v).equals(d) ? 1 : 0).toArray());
+				}
+			}
+		}
+
+		List<double[]> features = new ArrayList<>();
+		for (int i = 0; i < params.size(); i++) {
+			double[] f = new double[columns.size()];
+			for (int j = 0; j < f.length; j++)
+				f[j] = columns.get(j)[i];
+
+			features.add(f);
+		}
+
+		return features;
+	}
+
+	/**
+	 * Greedy maximin design, which selects runs far away from the runs that are already evaluated.
+	 * Runs with the same features as a chosen run are not selected.
+	 */
+	static List<Integer> spaceFilling(List<double[]> features, Set<Integer> evaluated, int n) {
+
+		List<Integer> chosen = new ArrayList<>(evaluated);
+		List<Integer> selected = new ArrayList<>();
+
+		Set<List<Double>> taken = new HashSet<>();
+		evaluated.forEach(i -> taken.add(key(features.get(i))));
+
+		Random rnd = new Random(1);
+
+		for (int k = 0; k < n; k++) {
+
+			int best = -1;
+			double bestDist = -1;
+
+			if (chosen.isEmpty()) {
+				best = rnd.nextInt(features.size());
+			} else {
+				for (int i = 0; i < features.size(); i++) {
+					if (chosen.contains(i) || taken.contains(key(features.get(i))))
+						continue;
+
+					double min = Double.POSITIVE_INFINITY;
+					for (int c : chosen)
+						min = Math.min(min, distance(features.get(i), features.get(c)));
+
+					if (min > bestDist) {
+						bestDist = min;
+						best = i;
+					}
+				}
+			}
+
+			if (best == -1)
+				break;
+
+			chosen.add(best);
+			selected.add(best);
+			taken.add(key(features.get(best)));
+		}
+
+		return selected;
+	}
+
+	/**
+	 * Propose runs by expected improvement. Each proposed run is assumed to result in the predicted mean, so that
+	 * the following proposals of the same round explore other regions. Runs with the same features as an evaluated or proposed run,
+	 * e.g. those differing only in the seed, are not proposed.
+	 *
+	 * @param objective objective of evaluated runs by index, NaN for failed runs
+	 * @param noise     relative noise of the objective
+	 */
+	static List<Integer> propose(List<double[]> features, Map<Integer, Double> objective, int n, double noise) {
+
+		List<double[]> x = new ArrayList<>();
+		List<Double> y = new ArrayList<>();
+
+		objective.forEach((i, v) -> {
+			if (!Double.isNaN(v)) {
+				x.add(features.get(i));
+				y.add(v);
+			}
+		});
+
+		if (x.isEmpty())
+			return spaceFilling(features, objective.keySet(), n);
+
+		double best = y.stream().mapToDouble(Double::doubleValue).min().orElseThrow();
+
+		Set<List<Double>> taken = new HashSet<>();
+		objective.keySet().forEach(i -> taken.add(key(features.get(i))));
+
+		List<Integer> selected = new ArrayList<>();
+		GaussianProcess gp = new GaussianProcess(noise);
+
+		for (int k = 0; k < n; k++) {
+
+			gp.fit(x, y.stream().mapToDouble(Double::doubleValue).toArray());
+
+			int next = -1;
+			double maxEi = -1;
+			for (int i = 0; i < features.size(); i++) {
+				if (taken.contains(key(features.get(i))))
+					continue;
+
+				double ei = gp.expectedImprovement(features.get(i), best);
+				if (ei > maxEi) {
+					maxEi = ei;
+					next = i;
+				}
+			}
+
+			if (next == -1)
+				break;
+
+			selected.add(next);
+			taken.add(key(features.get(next)));
+			x.add(features.get(next));
+			y.add(gp.predict(features.get(next))[0]);
+		}
+
+		log.info("Surrogate length scale {}, best objective {}", gp.getLengthScale(), best);
+
+		return selected;
+	}
+
+	/**
+	 * Key to compare features by value.
+	 */
+	private static List<Double> key(double[] f) {
+		return Arrays.stream(f).boxed().collect(Collectors.toList());
+	}
+
+	private static double distance(double[] a, double[] b) {
+		double d = 0;
+		for (int i = 0; i < a.length; i++)
+			d += (a[i] - b[i]) * (a[i] - b[i]);
+		return Math.sqrt(d);
+	}
+
+	/**
+	 * Write all evaluated runs into <em>_search.tsv</em>.
+	 */
+	private void writeResults(PreparedRun prepare, Map<Integer, Double> objective, Map<Integer, Integer> rounds) throws IOException {
+
+		List<String> header = new ArrayList<>(List.of("round", "id", "output"));
+		header.addAll(prepare.parameter);
+		header.add("objective");
+
+		List<String> lines = new ArrayList<>();
+		lines.add(Joiner.on("\t").join(header));
+
+		for (Map.Entry<Integer, Double> e : objective.entrySet()) {
+			PreparedRun.Run run = prepare.runs.get(e.getKey());
+
+			List<String> line = new ArrayList<>(List.of(String.valueOf(rounds.get(e.getKey())), String.valueOf(run.id), prepare.getOutputName(run)));
+			line.addAll(run.params.stream().map(EpisimUtils::asString).collect(Collectors.toList()));
+			line.add(String.valueOf(e.getValue()));
+
+			lines.add(Joiner.on("\t").join(line));
+		}
+
+		Files.createDirectories(output);
+		Files.write(output.resolve("_search.tsv"), lines);
+	}
+
+	/**
+	 * Error between simulated and reference cumulative cases, which is minimized by the search.
+	 */
+	enum Objective {
+
+		/**
+		 * Root mean squared error of the logarithm of cases, which weights relative differences equally over time.
+		 */
+		logRmse,
+
+		/**
+		 * Root mean squared error of the cases, which is dominated by the days with most cases.
+		 */
+		rmse,
+
+		/**
+		 * Mean absolute error of the logarithm of cases, which is less sensitive to single days with large differences.
+		 */
+		logMae;
+
+		/**
+		 * Evaluate the objective for cases on the same days.
+		 *
+		 * @return NaN if there are no days
+		 */
+		double evaluate(double[] sim, double[] ref) {
+
+			if (sim.length == 0)
+				return Double.NaN;
+
+			double sum = 0;
+			for (int i = 0; i < sim.length; i++) {
+				double d = this == rmse ? sim[i] - ref[i] : Math.log1p(sim[i]) - Math.log1p(ref[i]);
+				sum += this == logMae ? Math.abs(d) : d * d;
+			}
+
+			return this == logMae ? sum / sim.length : Math.sqrt(sum / sim.length);
+		}
+	}
+}
@@ -35,6 +35,7 @@ import picocli.AutoComplete;
 import picocli.CommandLine;
 
 import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -58,7 +59,8 @@ import java.util.zip.GZIPInputStream;
 				CommandLine.HelpCommand.class, AutoComplete.GenerateCompletion.class,
 				RValuesFromEvents.class, ExtractInfectionsByAge.class, CreateContactGraph.class,
 				ExtractInfectionGraph.class, VaccinationEffectivenessFromPotentialInfections.class,
-				VaccinationEffectiveness.class, FilterEvents.class, HospitalNumbersFromEvents.class, SecondaryAttackRateFromEvents.class
+				VaccinationEffectiveness.class, FilterEvents.class, HospitalNumbersFromEvents.class, SecondaryAttackRateFromEvents.class,
+				CompareMobilityInputs.class
 		},
 		subcommandsRepeatable = true
 )
@@ -78,6 +80,14 @@ public class AnalysisCommand implements Runnable {
 		System.exit(new CommandLine(new AnalysisCommand()).execute(args));
 	}
 
+	/**
+	 * Record throughput metrics of reading events in the scenario directories, see {@link PostProcessingMetrics}.
+	 */
+	@CommandLine.Option(names = "--metrics", description = "Write throughput metrics of reading events to each scenario directory.")
+	void setRecordMetrics(boolean record) {
+		PostProcessingMetrics.setEnabled(record);
+	}
+
 	/**
 	 * Iterates over all output folders in a directory in parallel.
 	 *
@@ -105,6 +115,8 @@ public class AnalysisCommand implements Runnable {
 				log.error("Failed processing {}", scenario, e);
 			}
 		});
+
+		PostProcessingMetrics.summarize(output);
 	}
 
 	/**
@@ -125,6 +137,7 @@ public class AnalysisCommand implements Runnable {
 	 * @param preferReducedEvents
 	 * @param handler             handler for the events
 	 * @return list of read event files
+	 * @see PostProcessingMetrics
 	 */
 	public static List<String> forEachEvent(Path scenario, Function<String, Boolean> callback, boolean preferReducedEvents, EventHandler... handler) {
 
@@ -134,13 +147,18 @@ public class AnalysisCommand implements Runnable {
 			return List.of();
 		}
 
+		PostProcessingMetrics metrics = PostProcessingMetrics.isEnabled() ? new PostProcessingMetrics() : null;
+
 		EventsManager manager = EventsUtils.createEventsManager();
 		manager.initProcessing();
 
 		for (EventHandler h : handler) {
-			manager.addHandler(h);
+			manager.addHandler(metrics != null ? metrics.wrap(h) : h);
 		}
 
+		if (metrics != null)
+			manager.addHandler(metrics);
+
 		List<String> read = new ArrayList<>();
 
 		if (Files.isDirectory(events)) {
@@ -160,11 +178,20 @@ public class AnalysisCommand implements Runnable {
 					if (!callback.apply(name)) {
 						break;
 					}
-					new EpisimEventsReader(manager).readFile(p.toString());
+
+					if (metrics == null)
+						new EpisimEventsReader(manager).readFile(p.toString());
+					else {
+						long start = System.nanoTime();
+						try (InputStream in = metrics.countBytes(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(p))))) {
+							new EpisimEventsReader(manager).parse(in);
+						}
+						metrics.fileRead(System.nanoTime() - start);
+					}
 
 					read.add(name);
-				} catch (UncheckedIOException e) {
-					log.warn("Caught UncheckedIOException. Could not read file {}", p, e);
+				} catch (UncheckedIOException | IOException e) {
+					log.warn("Could not read file {}", p, e);
 				}
 			}
 		} else {
@@ -178,18 +205,29 @@ public class AnalysisCommand implements Runnable {
 						break;
 					}
 
-					new EpisimEventsReader(manager).parse(new NonClosingGZIPStream(ar));
+					if (metrics == null)
+						new EpisimEventsReader(manager).parse(new NonClosingGZIPStream(ar));
+					else {
+						long start = System.nanoTime();
+						new EpisimEventsReader(manager).parse(metrics.countBytes(new NonClosingGZIPStream(ar)));
+						metrics.fileRead(System.nanoTime() - start);
+					}
 
 					read.add(entry.getName());
 				}
 
-			} catch (IOException e) {
-				log.warn("Caught UncheckedIOException. Could not read file {}", events, e);
+			} catch (UncheckedIOException | IOException e) {
+				log.warn("Could not read file {}", events, e);
 			}
 		}
 
 		manager.finishProcessing();
 
+		if (metrics != null) {
+			metrics.finishProcessing();
+			metrics.write(scenario);
+		}
+
 		return read;
 	}
 
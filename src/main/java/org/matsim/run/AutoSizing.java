@@ -0,0 +1,226 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.episim.model.SimulationListener;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the number of concurrent tasks and threads per task for {@link RunParallel}.
+ * The memory of one shared scenario is measured first and reserved for every distinct input set, since entries of other input sets
+ * are loaded later by the {@link ScenarioCache}. Afterwards one task is probed alone for its first simulated days
+ * to determine how much heap a single simulation needs. As many tasks as fit into the heap are started, and the cores are divided among them.
+ */
+final class AutoSizing {
+
+	private static final Logger log = LogManager.getLogger(AutoSizing.class);
+
+	/**
+	 * Fraction of the heap that is never planned for, to leave room for the GC and the post-processing.
+	 */
+	static final double RESERVE = 0.1;
+
+	private static final long MB = 1024 * 1024;
+
+	private final double margin;
+	private final long maxHeap;
+	private final int cores;
+
+	/**
+	 * Heap used before any scenario was loaded.
+	 */
+	private long idle;
+
+	/**
+	 * Heap needed by one shared scenario and its replay events.
+	 */
+	private long entry;
+
+	/**
+	 * Heap used when the probe is started.
+	 */
+	private long current;
+
+	/**
+	 * Heap planned for shared scenarios, including those not loaded yet.
+	 */
+	private long base;
+
+	/**
+	 * Days simulated by the probe and peak heap observed at their end.
+	 */
+	private final AtomicInteger days = new AtomicInteger();
+	private final AtomicLong peak = new AtomicLong();
+
+	/**
+	 * @param margin factor applied to the probed memory per task, since memory still grows after the first days
+	 */
+	AutoSizing(double margin) {
+		this(margin, Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors());
+	}
+
+	AutoSizing(double margin, long maxHeap, int cores) {
+		this.margin = margin;
+		this.maxHeap = maxHeap;
+		this.cores = cores;
+	}
+
+	/**
+	 * Measures the used heap before the shared scenario is loaded.
+	 */
+	void measureIdle() {
+		idle = usedAfterGc();
+	}
+
+	/**
+	 * Measures the memory of the shared scenario, after it has been loaded.
+	 */
+	void measureEntry() {
+		entry = Math.max(0, usedAfterGc() - idle);
+		log.info("Shared scenario uses {} MB of {} MB heap", entry / MB, maxHeap / MB);
+	}
+
+	/**
+	 * Reserve memory for all distinct input sets, each is assumed to need as much as the measured one.
+	 * Must be called before the probe is started.
+	 *
+	 * @param inputSets number of distinct input sets used by the jobs, 0 if scenarios are not shared
+	 */
+	void plan(int inputSets) {
+		current = usedAfterGc();
+		base = Math.max(current, reserve(idle, entry, inputSets));
+		log.info("Reserving {} MB for {} input set(s)", base / MB, inputSets);
+	}
+
+	/**
+	 * Listener for the probe task, which counts simulated days and records the heap at their end.
+	 */
+	SimulationListener listener() {
+		return new SimulationListener() {
+			@Override
+			public void onIterationEnd(int iteration, LocalDate date) {
+				peak.accumulateAndGet(used(), Math::max);
+				days.incrementAndGet();
+			}
+		};
+	}
+
+	/**
+	 * Observes the heap while the probe task is running and chooses the sizing afterwards.
+	 *
+	 * @param probe     running probe task, which has the {@link #listener()} attached
+	 * @param probeDays number of simulated days to observe
+	 * @param timeout   maximum duration of probing
+	 * @param jobs      number of jobs that will be executed
+	 */
+	Result probe(Future<?> probe, int probeDays, Duration timeout, int jobs) throws InterruptedException {
+
+		long end = System.currentTimeMillis() + timeout.toMillis();
+
+		while (!probe.isDone() && days.get() < probeDays && System.currentTimeMillis() < end) {
+			peak.accumulateAndGet(used(), Math::max);
+			try {
+				probe.get(1, TimeUnit.SECONDS);
+			} catch (ExecutionException | TimeoutException e) {
+				// only waiting
+			}
+		}
+
+		if (days.get() < probeDays && !probe.isDone())
+			log.warn("Probe simulated only {} of {} days within {}", days.get(), probeDays, timeout);
+
+		// peak contains garbage as well, if possible the memory is measured after gc while the task is still running
+		long perTask = probe.isDone() ? peak.get() - current : usedAfterGc() - current;
+		perTask = Math.max(MB, (long) (perTask * margin));
+
+		return choose(perTask, jobs);
+	}
+
+	/**
+	 * Chooses the sizing for given memory per task.
+	 */
+	Result choose(long perTask, int jobs) {
+
+		long available = (long) (maxHeap * (1 - RESERVE)) - base;
+
+		int tasks = (int) Math.max(1, available / perTask);
+		tasks = Math.max(1, Math.min(tasks, Math.min(cores, jobs)));
+
+		int threads = Math.max(1, cores / tasks);
+
+		log.info("Auto sizing: {} MB per task, {} MB available, {} cores -> {} tasks with {} threads each",
+				perTask / MB, available / MB, cores, tasks, threads);
+
+		return new Result(tasks, threads);
+	}
+
+	/**
+	 * Memory needed for the shared scenarios of all input sets.
+	 */
+	static long reserve(long idle, long entry, int inputSets) {
+		return idle + entry * inputSets;
+	}
+
+	/**
+	 * Set the measured memory directly, instead of measuring the heap.
+	 */
+	void setMeasured(long idle, long entry, int inputSets) {
+		this.idle = idle;
+		this.entry = entry;
+		this.current = idle;
+		this.base = reserve(idle, entry, inputSets);
+	}
+
+	private static long used() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static long usedAfterGc() {
+		System.gc();
+		return used();
+	}
+
+	/**
+	 * Chosen number of tasks and threads per task.
+	 */
+	static final class Result {
+
+		final int tasks;
+		final int threads;
+
+		private Result(int tasks, int threads) {
+			this.tasks = tasks;
+			this.threads = threads;
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * Utility methods to find the state of a run in its output directory, used to resume batteries after a crash.
+ */
+final class Checkpoints {
+
+	private static final Logger log = LogManager.getLogger(Checkpoints.class);
+
+	/**
+	 * Marker file written after a run and its post-processing finished.
+	 */
+	static final String FINISHED = ".finished";
+
+	/**
+	 * Matches snapshots written by the episim runner, which may be prefixed with the run id.
+	 */
+	private static final Pattern SNAPSHOT = Pattern.compile("episim-snapshot-(\\d+)-.+\\.zip$");
+
+	private Checkpoints() {
+	}
+
+	/**
+	 * Whether the run in this directory is completed.
+	 */
+	static boolean isFinished(Path output) {
+		return Files.exists(output.resolve(FINISHED));
+	}
+
+	/**
+	 * Mark the run in this directory as completed.
+	 */
+	static void markFinished(Path output) {
+		try {
+			Files.writeString(output.resolve(FINISHED), "");
+		} catch (IOException e) {
+			log.warn("Could not mark {} as finished", output, e);
+		}
+	}
+
+	/**
+	 * Find all snapshots in an output directory, ordered by iteration.
+	 */
+	static List<Path> findSnapshots(Path output) {
+
+		if (!Files.isDirectory(output))
+			return List.of();
+
+		try (Stream<Path> files = Files.list(output)) {
+			return files.filter(p -> SNAPSHOT.matcher(p.getFileName().toString()).find())
+					.sorted(Comparator.comparingInt(Checkpoints::iteration))
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			log.warn("Could not list snapshots in {}", output, e);
+			return List.of();
+		}
+	}
+
+	/**
+	 * Find the latest snapshot in an output directory, that is readable. Snapshots are skipped if they were not written completely.
+	 */
+	static Optional<Path> latestSnapshot(Path output) {
+
+		List<Path> snapshots = findSnapshots(output);
+		for (int i = snapshots.size() - 1; i >= 0; i--) {
+			Path snapshot = snapshots.get(i);
+			try (ZipFile zip = new ZipFile(snapshot.toFile())) {
+				if (zip.size() > 0)
+					return Optional.of(snapshot);
+			} catch (IOException e) {
+				log.warn("Snapshot {} is corrupt and will be ignored", snapshot);
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * Iteration of a snapshot as encoded in its file name.
+	 */
+	static int iteration(Path snapshot) {
+		Matcher m = SNAPSHOT.matcher(snapshot.getFileName().toString());
+		return m.find() ? Integer.parseInt(m.group(1)) : -1;
+	}
+
+	/**
+	 * Delete all snapshots of a run.
+	 */
+	static void deleteSnapshots(Path output) {
+		for (Path snapshot : findSnapshots(output)) {
+			try {
+				Files.delete(snapshot);
+			} catch (IOException e) {
+				log.warn("Could not delete snapshot {}", snapshot, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Predicts the wall time of runs from the runtimes recorded by {@link RunParallel} in previous batteries.
+ * The cost of a run is assumed to be proportional to sample size and simulated days. The factor is fitted on the parameters of the runs,
+ * as listed in the <em>_info.txt</em> of each battery, where every parameter value contributes a multiplicative effect.
+ */
+final class CostModel {
+
+	private static final Logger log = LogManager.getLogger(CostModel.class);
+
+	/**
+	 * File in the output directory of a run with its recorded runtime.
+	 */
+	static final String RUNTIME = ".runtime";
+
+	/**
+	 * Seconds per simulated day and sample size, if nothing was recorded.
+	 */
+	private static final double DEFAULT_FACTOR = 60;
+
+	/**
+	 * Number of sweeps to fit the effects of the parameters.
+	 */
+	private static final int SWEEPS = 10;
+
+	/**
+	 * Log of the factor for a run without known parameter effects.
+	 */
+	private final double base;
+
+	/**
+	 * Effect on the log factor for each parameter and value.
+	 */
+	private final Map<String, Map<String, Double>> effects;
+
+	private CostModel(double base, Map<String, Map<String, Double>> effects) {
+		this.base = base;
+		this.effects = effects;
+	}
+
+	/**
+	 * Record the runtime of a simulation.
+	 *
+	 * @param days number of days that were actually simulated, which is less than the iterations if the run started from a snapshot or was stopped early
+	 */
+	static void record(Path output, double seconds, int days, double sampleSize, int threads) {
+		try {
+			Files.writeString(output.resolve(RUNTIME), String.join("\t", "seconds", "days", "sampleSize", "threads") + "\n" +
+					String.join("\t", String.valueOf(seconds), String.valueOf(days), String.valueOf(sampleSize), String.valueOf(threads)) + "\n");
+		} catch (IOException e) {
+			log.warn("Could not record runtime of {}", output, e);
+		}
+	}
+
+	/**
+	 * Fit the model to the runs of previous batteries. Runs are found by the output column in the <em>_info.txt</em> of each battery.
+	 */
+	static CostModel fit(List<Path> batteries) throws IOException {
+
+		// log factor and parameters of each observed run
+		DoubleArrayList observed = new DoubleArrayList();
+		List<Map<String, String>> params = new ArrayList<>();
+
+		for (Path battery : batteries) {
+
+			Path info = battery.resolve("_info.txt");
+			if (!Files.exists(info)) {
+				log.warn("Battery {} has no _info.txt", battery);
+				continue;
+			}
+
+			List<String> lines = Files.readAllLines(info);
+			if (lines.isEmpty())
+				continue;
+
+			List<String> header = Arrays.asList(lines.get(0).split(";"));
+			int outputIdx = header.indexOf("Output");
+
+			for (String line : lines.subList(1, lines.size())) {
+				String[] row = line.split(";", -1);
+
+				// outputs are either relative to the battery or directly within
+				Path runtime = battery.resolve(row[outputIdx]).resolve(RUNTIME);
+				if (!Files.exists(runtime))
+					runtime = battery.resolve(Path.of(row[outputIdx]).getFileName()).resolve(RUNTIME);
+
+				if (!Files.exists(runtime))
+					continue;
+
+				List<String> r = Files.readAllLines(runtime);
+				if (r.size() < 2)
+					continue;
+
+				String[] v = r.get(1).split("\t", -1);
+				double seconds = Double.parseDouble(v[0]);
+				int days = Integer.parseInt(v[1]);
+				double sampleSize = Double.parseDouble(v[2]);
+
+				if (days <= 0 || sampleSize <= 0)
+					continue;
+
+				// parameters are the columns after the output
+				Map<String, String> p = new HashMap<>();
+				for (int i = outputIdx + 1; i < header.size() && i < row.length; i++)
+					p.put(header.get(i), row[i]);
+
+				observed.add(Math.log(seconds / (days * sampleSize)));
+				params.add(p);
+			}
+		}
+
+		if (observed.isEmpty()) {
+			log.info("No recorded runtimes found, using default cost factor {}", DEFAULT_FACTOR);
+			return new CostModel(Math.log(DEFAULT_FACTOR), Map.of());
+		}
+
+		double base = median(observed);
+		Map<String, Map<String, Double>> effects = new HashMap<>();
+
+		// backfitting: the effect of each parameter value is the median residual of its runs, given the effects of all other parameters
+		for (int sweep = 0; sweep < SWEEPS; sweep++) {
+
+			Set<String> names = new TreeSet<>();
+			params.forEach(p -> names.addAll(p.keySet()));
+
+			for (String name : names) {
+				Map<String, DoubleArrayList> residuals = new HashMap<>();
+				for (int i = 0; i < observed.size(); i++) {
+					String value = params.get(i).get(name);
+					if (value == null)
+						continue;
+
+					double r = observed.getDouble(i) - base - effect(effects, params.get(i)) + effects.getOrDefault(name, Map.of()).getOrDefault(value, 0.0);
+					residuals.computeIfAbsent(value, k -> new DoubleArrayList()).add(r);
+				}
+
+				Map<String, Double> e = new HashMap<>();
+				residuals.forEach((value, r) -> e.put(value, median(r)));
+				effects.put(name, e);
+			}
+		}
+
+		// parameters without influence on the cost are not reported
+		effects.values().removeIf(e -> e.values().stream().allMatch(v -> Math.abs(v) < 0.05));
+
+		log.info("Fitted cost model on {} runs: {} s per day and sample size, effects of parameters {}", observed.size(), Math.exp(base), effects);
+
+		return new CostModel(base, effects);
+	}
+
+	/**
+	 * Predicted wall time of a run in seconds.
+	 *
+	 * @param params values of the parameters of the run, values that were not observed have no effect
+	 */
+	double predict(double sampleSize, int days, Map<String, String> params) {
+		return Math.exp(base + effect(effects, params)) * sampleSize * days;
+	}
+
+	/**
+	 * Sum of the effects of the given parameter values.
+	 */
+	private static double effect(Map<String, Map<String, Double>> effects, Map<String, String> params) {
+		double sum = 0;
+		for (Map.Entry<String, String> e : params.entrySet()) {
+			Map<String, Double> values = effects.get(e.getKey());
+			if (values != null)
+				sum += values.getOrDefault(e.getValue(), 0.0);
+		}
+		return sum;
+	}
+
+	/**
+	 * Distribute runs to jobs, so that the predicted wall time of the jobs is balanced (longest processing time first).
+	 * Each job runs as many tasks concurrently as the memory of its runs allows, see {@link #tasks(List, double[], double)}.
+	 *
+	 * @param costs      predicted cost of each run
+	 * @param memory     memory needed by each run
+	 * @param nodeMemory memory available to each job
+	 * @param jobs       number of jobs
+	 * @param capacity   maximum number of runs per job
+	 * @return run indices for each job
+	 */
+	static List<List<Integer>> pack(double[] costs, double[] memory, double nodeMemory, int jobs, int capacity) {
+
+		Integer[] order = new Integer[costs.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+
+		Arrays.sort(order, (a, b) -> Double.compare(costs[b], costs[a]));
+
+		List<List<Integer>> result = new ArrayList<>();
+		for (int j = 0; j < jobs; j++)
+			result.add(new ArrayList<>());
+
+		for (int i : order) {
+			int best = -1;
+			double bestTime = Double.POSITIVE_INFINITY;
+			double bestLoad = Double.POSITIVE_INFINITY;
+
+			for (int j = 0; j < jobs; j++) {
+				List<Integer> job = result.get(j);
+				if (job.size() >= capacity)
+					continue;
+
+				// wall time of the job if the run was added, ties are resolved by the job with less work
+				job.add(i);
+				double time = wallTime(job, costs, tasks(job, memory, nodeMemory));
+				job.remove(job.size() - 1);
+
+				double load = job.stream().mapToDouble(r -> costs[r]).sum();
+				if (time < bestTime || (time == bestTime && load < bestLoad)) {
+					best = j;
+					bestTime = time;
+					bestLoad = load;
+				}
+			}
+
+			result.get(best).add(i);
+		}
+
+		result.forEach(Collections::sort);
+		result.removeIf(List::isEmpty);
+
+		return result;
+	}
+
+	/**
+	 * Number of runs of a job that can be executed concurrently, limited by the memory of its largest run.
+	 */
+	static int tasks(List<Integer> job, double[] memory, double nodeMemory) {
+		double maxMemory = job.stream().mapToDouble(i -> memory[i]).max().orElse(0);
+		return (int) Math.max(1, Math.min(job.size(), Math.floor(nodeMemory / maxMemory)));
+	}
+
+	/**
+	 * Predicted wall time of a job. Runs are executed in order, which is approximated by distributing the total cost on all tasks,
+	 * but a job takes at least as long as its longest run.
+	 */
+	static double wallTime(List<Integer> job, double[] costs, int tasks) {
+		double sum = 0;
+		double max = 0;
+		for (int i : job) {
+			sum += costs[i];
+			max = Math.max(max, costs[i]);
+		}
+
+		return Math.max(max, sum / tasks);
+	}
+
+	private static double median(DoubleArrayList values) {
+		double[] v = values.toDoubleArray();
+		Arrays.sort(v);
+		int n = v.length;
+		return n % 2 == 1 ? v[n / 2] : (v[n / 2 - 1] + v[n / 2]) / 2;
+	}
+}
@@ -28,11 +28,13 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
+import com.google.inject.Module;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.episim.BatchRun;
+import org.matsim.episim.EpisimConfigGroup;
 import org.matsim.episim.EpisimUtils;
 import org.matsim.episim.PreparedRun;
 import picocli.CommandLine;
@@ -43,6 +45,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -90,6 +96,26 @@ public class CreateBatteryForCluster<T> implements Callable<Integer> {
 	@CommandLine.Option(names = "--params", defaultValue = "org.matsim.run.batch.StarterBatchCologne$Params")
 	private Class<T> params;
 
+	@CommandLine.Option(names = "--prefix-report", defaultValue = "false", description = "Write _prefix.tsv, which groups runs by the prefix they share " +
+			"and reports the first date at which they can differ, as well as the dates declared by their bindings, e.g. campaign starts.")
+	private boolean prefixReport;
+
+	@CommandLine.Option(names = "--branch-min-days", defaultValue = "28", description = "Minimum length of a shared prefix in the report.")
+	private int branchMinDays;
+
+	@CommandLine.Option(names = "--timings", description = "Previous batteries, whose recorded runtimes are used to pack runs into jobs by predicted cost. " +
+			"The cost is fitted on the parameter values of their runs. Writes start_packed_slurm.sh.")
+	private List<Path> timings = new ArrayList<>();
+
+	@CommandLine.Option(names = "--iterations", defaultValue = "360", description = "Number of simulated days used to predict the cost of runs.")
+	private int iterations;
+
+	@CommandLine.Option(names = "--node-memory", defaultValue = "82", description = "Memory available on one node in GB.")
+	private int nodeMemory;
+
+	@CommandLine.Option(names = "--run-memory", defaultValue = "2,80", split = ",", description = "Memory of one run in GB, as base and per sample size.")
+	private double[] runMemory;
+
 	@SuppressWarnings("rawtypes")
 	public static void main(String[] args) {
 		System.exit(new CommandLine(new CreateBatteryForCluster()).execute(args));
@@ -112,7 +138,7 @@ public class CreateBatteryForCluster<T> implements Callable<Integer> {
 		Files.createDirectories(dir);
 
 		// Copy all resources
-		for (String name : Lists.newArrayList("collect.sh", "run.sh", "runSlurm.sh", "runParallel.sh", "postProcess.sh", "jvm.options")) {
+		for (String name : Lists.newArrayList("collect.sh", "run.sh", "runSlurm.sh", "runParallel.sh", "runPacked.sh", "postProcess.sh", "jvm.options")) {
 			Files.copy(Resources.getResource(name).openStream(), dir.resolve(name), StandardCopyOption.REPLACE_EXISTING);
 		}
 
@@ -198,6 +224,12 @@ public class CreateBatteryForCluster<T> implements Callable<Integer> {
 
 		infoWriter.close();
 
+		if (!timings.isEmpty())
+			writePackedJobs(dir, prepare, runName);
+
+		if (prefixReport)
+			writePrefixReport(dir, prepare, runName);
+
 		if (!noBindings) {
 			log.warn("This run defines custom bindings. Run from config will not be available.");
 		}
@@ -205,6 +237,128 @@ public class CreateBatteryForCluster<T> implements Callable<Integer> {
 		return 0;
 	}
 
+	/**
+	 * Pack runs into jobs, so that the predicted wall time of all jobs is balanced, and write start_packed_slurm.sh into {@code dir}.
+	 * Each job gets as many concurrent tasks and as much memory as its runs need.
+	 */
+	private void writePackedJobs(Path dir, PreparedRun prepare, String runName) throws IOException {
+
+		CostModel model = CostModel.fit(timings);
+
+		int n = prepare.runs.size();
+		double[] costs = new double[n];
+		double[] memory = new double[n];
+		for (int i = 0; i < n; i++) {
+			PreparedRun.Run run = prepare.runs.get(i);
+			EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(run.config, EpisimConfigGroup.class);
+
+			// parameters are matched by name and value with the runs of previous batteries
+			Map<String, String> params = new HashMap<>();
+			for (int j = 0; j < prepare.parameter.size(); j++)
+				params.put(prepare.parameter.get(j), EpisimUtils.asString(run.params.get(j)));
+
+			costs[i] = model.predict(episimConfig.getSampleSize(), iterations, params);
+			memory[i] = runMemory[0] + runMemory[1] * episimConfig.getSampleSize();
+		}
+
+		List<List<Integer>> jobs = CostModel.pack(costs, memory, nodeMemory, (int) Math.ceil((double) n / stepSize), stepSize);
+
+		List<String> lines = Lists.newArrayList(
+				"#!/bin/bash\n",
+				"export EPISIM_SETUP='" + this.setup.getName() + "'",
+				"export EPISIM_PARAMS='" + params.getName() + "'",
+				"export EPISIM_INPUT='/scratch/projects/bzz0020/episim-input'",
+				"export EPISIM_OUTPUT='" + batchOutput.toString() + "'",
+				"",
+				"jids=\"\""
+		);
+
+		try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("_packing.tsv"))) {
+
+			writer.write(Joiner.on("\t").join("job", "runs", "tasks", "memory", "predictedHours"));
+			writer.newLine();
+
+			for (int j = 0; j < jobs.size(); j++) {
+				List<Integer> job = jobs.get(j);
+
+				double maxMemory = job.stream().mapToDouble(i -> memory[i]).max().orElse(0);
+				int tasks = CostModel.tasks(job, memory, nodeMemory);
+				int xmx = (int) Math.ceil(tasks * maxMemory);
+
+				double hours = CostModel.wallTime(job, costs, tasks) / 3600;
+				int limit = (int) Math.min(24, Math.max(1, Math.ceil(hours * 1.5)));
+
+				String opts = this.jvmOpts.replaceAll("-Xm[sx]\\S+", "").trim();
+
+				lines.add("");
+				lines.add(String.format("export EPISIM_JOBS=%s EPISIM_TASKS=%d JAVA_OPTS='-Xms%dG -Xmx%dG %s'",
+						Joiner.on(",").join(job), tasks, xmx, xmx, opts));
+				lines.add(String.format("jids=\"$jids:$(sbatch --parsable --export=ALL --mem=%dG --time=%d:00:00 --job-name=%s_%d runPacked.sh)\"",
+						xmx + 4, limit, runName, j));
+
+				writer.write(Joiner.on("\t").join(j, Joiner.on(",").join(job), tasks, xmx, String.format("%.2f", hours)));
+				writer.newLine();
+			}
+		}
+
+		lines.add("");
+		lines.add("sbatch --export=ALL --dependency=afterok$jids postProcess.sh");
+
+		FileUtils.writeLines(dir.resolve("start_packed_slurm.sh").toFile(), lines, "\n");
+
+		log.info("Packed {} runs into {} jobs", n, jobs.size());
+	}
+
+	/**
+	 * Group runs by shared prefix and write the report into {@code dir}. Runs are compared by their config and bindings,
+	 * the dates declared by bound objects are listed for each run.
+	 */
+	private void writePrefixReport(Path dir, PreparedRun prepare, String runName) throws IOException {
+
+		BatchRun setup = prepare.setup;
+		Map<PreparedRun.Run, Module> bindings = new IdentityHashMap<>();
+		for (PreparedRun.Run run : prepare.runs) {
+			bindings.put(run, setup.getBindings(run.id, run.args));
+		}
+
+		List<Divergence.Group<PreparedRun.Run>> groups = Divergence.group(prepare.runs, r -> r.config, r -> r.args, bindings::get, branchMinDays);
+
+		long saved = 0;
+		try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("_prefix.tsv"))) {
+
+			writer.write(Joiner.on("\t").join("group", "runId", "output", "bindingDates", "branchDate", "prefixDays", "firstDifference"));
+			writer.newLine();
+
+			for (int g = 0; g < groups.size(); g++) {
+				Divergence.Group<PreparedRun.Run> group = groups.get(g);
+				PreparedRun.Run first = group.getMembers().get(0);
+				LocalDate start = ConfigUtils.addOrGetModule(first.config, EpisimConfigGroup.class).getStartDate();
+
+				boolean shared = group.getMembers().size() > 1;
+				boolean identical = group.getDate().equals(LocalDate.MAX);
+				long days = shared && !identical ? ChronoUnit.DAYS.between(start, group.getDate()) : 0;
+
+				if (shared)
+					saved += days * (group.getMembers().size() - 1);
+
+				for (PreparedRun.Run run : group.getMembers()) {
+					String difference = group.getDifference(run);
+
+					// dates of the bound objects, e.g. the start of vaccination campaigns
+					String dates = Joiner.on(";").withKeyValueSeparator("=").join(Divergence.dates(bindings.get(run)));
+
+					writer.write(Joiner.on("\t").useForNull("").join(
+							g, runName + run.id, prepare.getOutputName(run), dates,
+							shared ? (identical ? "identical" : group.getDate()) : "", days, difference
+					));
+					writer.newLine();
+				}
+			}
+		}
+
+		log.info("Runs form {} groups with shared prefix, which saves {} simulated days", groups.size(), saved);
+	}
+
 	/**
 	 * Writes the header of _info.txt into {@code dir}.
 	 */
@@ -0,0 +1,47 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the date from which an object bound in the bindings of a run influences the simulation, e.g. the start of a vaccination campaign.
+ * Runs whose bindings differ only in such objects share a common prefix, which can be simulated once with <em>--branch</em>.
+ * Differences in bound objects without an annotated field are assumed to influence the simulation from the start.
+ * <p>
+ * Either the date is given explicitly, or the field itself is a date. If the bindings of runs are not known,
+ * the fields of the batch params class are compared in the same way.
+ *
+ * @see RunParallel
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DateEffective {
+
+	/**
+	 * First date (yyyy-mm-dd) at which the field is used. If empty, the value of the field is this date.
+	 */
+	String value() default "";
+
+}
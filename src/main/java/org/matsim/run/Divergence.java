@@ -0,0 +1,667 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.inject.Binding;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.spi.Element;
+import com.google.inject.spi.Elements;
+import com.google.inject.spi.InstanceBinding;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import com.google.inject.spi.ProvidesMethodBinding;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigObject;
+import com.typesafe.config.ConfigValue;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.EpisimConfigGroup;
+
+import javax.annotation.Nullable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Determines the first date at which two runs can differ. Values of the config that are keyed by date, such as policies or daily imports,
+ * only diverge at the first date with differing entries. Any other difference lets the runs diverge from the start date.
+ * <p>
+ * Bound instances and provider modules of the bindings are compared reflectively. A differing instance takes effect at the date of its fields
+ * annotated with {@link DateEffective}, e.g. the start of a vaccination campaign, otherwise the runs diverge from the start.
+ * If the bindings of the runs are not known, the params they would be created from are compared instead, see {@link DateEffective}.
+ */
+final class Divergence {
+
+	/**
+	 * Parameters that are different for each run, but do not influence the simulation.
+	 */
+	private static final Set<String> IGNORED = Set.of(
+			"controler.outputDirectory", "controler.runId",
+			"episim.snapshotInterval", "episim.snapshotPrefix", "episim.threads", "episim.writeEvents"
+	);
+
+	private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+
+	private static final int MAX_DEPTH = 12;
+
+	private final LocalDate start;
+
+	/**
+	 * First date where the runs differ.
+	 */
+	private LocalDate date;
+
+	/**
+	 * Description of the first difference.
+	 */
+	private String reason;
+
+	private Divergence(LocalDate start) {
+		this.start = start;
+		this.date = LocalDate.MAX;
+	}
+
+	/**
+	 * Group runs that are identical up to a date. Runs are added to the first group with which they share a prefix of at least {@code minDays}.
+	 *
+	 * @param config   config of a run
+	 * @param params   params object of a run, from which its bindings are created, may return null
+	 * @param bindings bindings of a run, may return null, in which case the params are compared
+	 * @throws IllegalArgumentException if a {@link DateEffective} annotation is invalid
+	 */
+	static <T> List<Group<T>> group(Collection<T> runs, Function<T, Config> config, Function<T, Object> params, Function<T, Module> bindings, int minDays) {
+
+		List<Group<T>> groups = new ArrayList<>();
+
+		for (T run : runs) {
+
+			LocalDate start = ConfigUtils.addOrGetModule(config.apply(run), EpisimConfigGroup.class).getStartDate();
+
+			boolean added = false;
+			for (Group<T> group : groups) {
+				T first = group.members.get(0);
+				Divergence d = new Divergence(start);
+				d.config(config.apply(first), config.apply(run));
+
+				Module ba = bindings.apply(first);
+				Module bb = bindings.apply(run);
+				if (ba != null && bb != null)
+					d.bindings(ba, bb);
+				else
+					d.params(params.apply(first), params.apply(run));
+
+
+				LocalDate prefix = d.date.isBefore(group.date) ? d.date : group.date;
+				if (ChronoUnit.DAYS.between(start, prefix) >= minDays) {
+					group.members.add(run);
+					group.differences.put(run, d.reason);
+					if (d.date.isBefore(group.date)) {
+						group.date = d.date;
+						group.reason = d.reason;
+					}
+					added = true;
+					break;
+				}
+			}
+
+			if (!added)
+				groups.add(new Group<>(run));
+		}
+
+		return groups;
+	}
+
+	/**
+	 * Dates of the bound instances at which they take effect, by class and field name.
+	 *
+	 * @see DateEffective
+	 */
+	static Map<String, LocalDate> dates(@Nullable Module module) {
+
+		Map<String, LocalDate> dates = new TreeMap<>();
+		if (module == null)
+			return dates;
+
+		for (List<Object> targets : targets(module).values()) {
+			for (Object target : targets) {
+				String name = target.getClass().getName();
+				effective(target).forEach((field, date) -> dates.put(name.substring(name.lastIndexOf('.') + 1) + "." + field, date));
+			}
+		}
+
+		return dates;
+	}
+
+	/**
+	 * Fingerprint of all values that influence a run, i.e. its config and params.
+	 */
+	static String fingerprint(Config config, @Nullable Object params) {
+
+		StringBuilder fp = new StringBuilder();
+		for (Map.Entry<String, ConfigGroup> e : new TreeMap<>(config.getModules()).entrySet())
+			fingerprint(fp, e.getKey(), e.getValue());
+
+		if (params != null) {
+			fp.append(params.getClass().getName()).append('\n');
+			for (Class<?> c = params.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic())
+						continue;
+
+					try {
+						field.setAccessible(true);
+						fp.append("params.").append(field.getName()).append('=').append(Arrays.deepToString(new Object[]{field.get(params)})).append('\n');
+					} catch (IllegalAccessException e) {
+						throw new IllegalStateException("Could not read parameter " + field, e);
+					}
+				}
+			}
+		}
+
+		return fp.toString();
+	}
+
+	private static void fingerprint(StringBuilder fp, String path, ConfigGroup group) {
+
+		for (Map.Entry<String, String> e : new TreeMap<>(group.getParams()).entrySet()) {
+			if (!IGNORED.contains(path + "." + e.getKey()))
+				fp.append(path).append('.').append(e.getKey()).append('=').append(e.getValue()).append('\n');
+		}
+
+		for (String type : new TreeSet<>(group.getParameterSets().keySet())) {
+			List<ConfigGroup> sets = parameterSets(group, type);
+			for (int i = 0; i < sets.size(); i++)
+				fingerprint(fp, path + "." + type + "[" + i + "]", sets.get(i));
+		}
+	}
+
+	private void diverge(LocalDate at, String what) {
+		if (at.isBefore(start))
+			at = start;
+
+		if (at.isBefore(date)) {
+			date = at;
+			reason = what;
+		}
+	}
+
+	private void config(Config a, Config b) {
+
+		Set<String> modules = new TreeSet<>(a.getModules().keySet());
+		modules.addAll(b.getModules().keySet());
+
+		for (String name : modules) {
+			ConfigGroup ga = a.getModules().get(name);
+			ConfigGroup gb = b.getModules().get(name);
+
+			if (ga == null || gb == null)
+				diverge(start, "module " + name);
+			else
+				group(name, ga, gb);
+		}
+	}
+
+	private void group(String path, ConfigGroup a, ConfigGroup b) {
+
+		Map<String, String> pa = a.getParams();
+		Map<String, String> pb = b.getParams();
+
+		Set<String> keys = new TreeSet<>(pa.keySet());
+		keys.addAll(pb.keySet());
+
+		for (String key : keys) {
+			if (IGNORED.contains(path + "." + key))
+				continue;
+
+			value(path + "." + key, pa.get(key), pb.get(key));
+		}
+
+		Set<String> sets = new TreeSet<>(a.getParameterSets().keySet());
+		sets.addAll(b.getParameterSets().keySet());
+
+		for (String type : sets) {
+			List<ConfigGroup> la = parameterSets(a, type);
+			List<ConfigGroup> lb = parameterSets(b, type);
+
+			if (la.size() != lb.size()) {
+				diverge(start, path + "." + type);
+				continue;
+			}
+
+			for (int i = 0; i < la.size(); i++)
+				group(path + "." + type + "[" + i + "]", la.get(i), lb.get(i));
+		}
+	}
+
+	/**
+	 * Compare string values, which may contain date keyed entries.
+	 */
+	private void value(String path, @Nullable String a, @Nullable String b) {
+
+		if (Objects.equals(a, b))
+			return;
+
+		if (a == null || b == null) {
+			diverge(start, path);
+			return;
+		}
+
+		// policies and other structured values
+		ConfigObject ca = parseObject(a);
+		ConfigObject cb = parseObject(b);
+		if (ca != null && cb != null) {
+			typesafe(path, ca, cb, start);
+			return;
+		}
+
+		// lists of entries that start with a date
+		NavigableMap<LocalDate, String> ea = datedEntries(a);
+		NavigableMap<LocalDate, String> eb = datedEntries(b);
+		if (ea != null && eb != null) {
+			for (LocalDate d : union(ea.keySet(), eb.keySet())) {
+				if (!Objects.equals(ea.get(d), eb.get(d))) {
+					diverge(d, path);
+					return;
+				}
+			}
+			return;
+		}
+
+		diverge(start, path);
+	}
+
+	private void typesafe(String path, ConfigValue a, ConfigValue b, LocalDate context) {
+
+		if (Objects.equals(a, b))
+			return;
+
+		if (a instanceof ConfigObject && b instanceof ConfigObject) {
+			ConfigObject oa = (ConfigObject) a;
+			ConfigObject ob = (ConfigObject) b;
+
+			Set<String> keys = new TreeSet<>(oa.keySet());
+			keys.addAll(ob.keySet());
+
+			for (String key : keys) {
+				LocalDate d = parseDate(key);
+				ConfigValue va = oa.get(key);
+				ConfigValue vb = ob.get(key);
+
+				if (va == null || vb == null)
+					diverge(d != null ? d : context, path + "." + key);
+				else
+					typesafe(path + "." + key, va, vb, d != null ? d : context);
+			}
+			return;
+		}
+
+		diverge(context, path);
+	}
+
+	/**
+	 * Compare the bound instances and provider modules of two runs.
+	 */
+	private void bindings(Module a, Module b) {
+
+		Map<String, List<Object>> ta = targets(a);
+		Map<String, List<Object>> tb = targets(b);
+
+		Set<String> keys = new TreeSet<>(ta.keySet());
+		keys.addAll(tb.keySet());
+
+		for (String key : keys) {
+			List<Object> la = ta.getOrDefault(key, List.of());
+			List<Object> lb = tb.getOrDefault(key, List.of());
+
+			String path = "bindings." + key;
+			if (la.size() != lb.size()) {
+				diverge(start, path);
+				continue;
+			}
+
+			for (int i = 0; i < la.size(); i++) {
+				Object va = la.get(i);
+				Object vb = lb.get(i);
+				if (same(va, vb, new IdentityHashMap<>(), 0))
+					continue;
+
+				Map<String, LocalDate> da = va.getClass() == vb.getClass() ? effective(va) : Map.of();
+				Map<String, LocalDate> db = va.getClass() == vb.getClass() ? effective(vb) : Map.of();
+
+				if (da.isEmpty() || db.isEmpty())
+					diverge(start, path);
+				else
+					diverge(min(Collections.min(da.values()), Collections.min(db.values())), path);
+			}
+		}
+	}
+
+	/**
+	 * Targets of all bindings in a module, i.e. the bound instance, the module of a provider method, or the linked key.
+	 * Bindings of the same key are kept in order, because elements of multibinders are annotated with unique ids.
+	 */
+	private static Map<String, List<Object>> targets(Module module) {
+
+		Map<String, List<Object>> targets = new TreeMap<>();
+		for (Element element : Elements.getElements(module)) {
+			if (!(element instanceof Binding))
+				continue;
+
+			Binding<?> binding = (Binding<?>) element;
+			Object target;
+			if (binding instanceof InstanceBinding)
+				target = ((InstanceBinding<?>) binding).getInstance();
+			else if (binding instanceof ProviderInstanceBinding) {
+				Object provider = ((ProviderInstanceBinding<?>) binding).getUserSuppliedProvider();
+				if (provider instanceof ProvidesMethodBinding)
+					target = ((ProvidesMethodBinding<?>) provider).getEnclosingInstance();
+				else if (provider.getClass().getName().startsWith("com.google.inject."))
+					// bindings created by guice itself, e.g. the set of a multibinder, are derived from the other elements
+					continue;
+				else
+					target = provider;
+			} else if (binding instanceof LinkedKeyBinding)
+				target = key(((LinkedKeyBinding<?>) binding).getLinkedKey());
+			else if (binding instanceof ProviderKeyBinding)
+				target = key(((ProviderKeyBinding<?>) binding).getProviderKey());
+			else
+				target = binding.getClass().getSimpleName();
+
+			targets.computeIfAbsent(key(binding.getKey()), k -> new ArrayList<>()).add(target);
+		}
+
+		return targets;
+	}
+
+	private static String key(Key<?> key) {
+
+		String type = key.getTypeLiteral().toString();
+		Annotation annotation = key.getAnnotation();
+
+		if (annotation != null && annotation.annotationType().getSimpleName().equals("Element")
+				&& annotation.annotationType().getName().startsWith("com.google.inject."))
+			return type + "@Element";
+
+		if (annotation != null)
+			return type + "@" + annotation;
+
+		return key.getAnnotationType() != null ? type + "@" + key.getAnnotationType().getName() : type;
+	}
+
+	/**
+	 * Compare two objects structurally, using their equals method if they declare one.
+	 */
+	private static boolean same(@Nullable Object a, @Nullable Object b, IdentityHashMap<Object, Object> visited, int depth) {
+
+		if (a == b)
+			return true;
+
+		if (a == null || b == null || a.getClass() != b.getClass())
+			return false;
+
+		if (a.getClass().isArray()) {
+			int n = Array.getLength(a);
+			if (n != Array.getLength(b))
+				return false;
+
+			for (int i = 0; i < n; i++) {
+				if (!same(Array.get(a, i), Array.get(b, i), visited, depth + 1))
+					return false;
+			}
+			return true;
+		}
+
+		try {
+			if (a.getClass().getMethod("equals", Object.class).getDeclaringClass() != Object.class)
+				return a.equals(b);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+
+		if (depth > MAX_DEPTH)
+			return false;
+
+		// objects that are already compared further up
+		if (visited.put(a, b) != null)
+			return true;
+
+		for (Class<?> c = a.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()))
+					continue;
+
+				try {
+					field.setAccessible(true);
+					if (!same(field.get(a), field.get(b), visited, depth + 1))
+						return false;
+				} catch (IllegalAccessException | RuntimeException e) {
+					// fields that can not be read, e.g. of jdk internals
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Dates of the fields of an object that are annotated with {@link DateEffective}.
+	 */
+	private static Map<String, LocalDate> effective(Object o) {
+
+		Map<String, LocalDate> dates = new LinkedHashMap<>();
+		for (Class<?> c = o.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				DateEffective effective = field.getAnnotation(DateEffective.class);
+				if (effective == null || Modifier.isStatic(field.getModifiers()))
+					continue;
+
+				try {
+					field.setAccessible(true);
+					dates.put(field.getName(), effective.value().isEmpty() ? date(field, field.get(o)) : date(field, effective.value()));
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException("Could not read field " + field, e);
+				}
+			}
+		}
+
+		return dates;
+	}
+
+	/**
+	 * Compare the fields of two params objects, if their bindings are not known. Differences take effect as declared by {@link DateEffective}.
+	 */
+	private void params(@Nullable Object a, @Nullable Object b) {
+
+		if (a == null && b == null)
+			return;
+
+		if (a == null || b == null || a.getClass() != b.getClass()) {
+			diverge(start, "params");
+			return;
+		}
+
+		for (Class<?> c = a.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic())
+					continue;
+
+				Object va;
+				Object vb;
+				try {
+					field.setAccessible(true);
+					va = field.get(a);
+					vb = field.get(b);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException("Could not read parameter " + field, e);
+				}
+
+				if (Objects.deepEquals(va, vb))
+					continue;
+
+				String path = "params." + field.getName();
+				DateEffective effective = field.getAnnotation(DateEffective.class);
+
+				if (effective == null)
+					diverge(start, path);
+				else if (!effective.value().isEmpty())
+					diverge(date(field, effective.value()), path);
+				else
+					diverge(min(date(field, va), date(field, vb)), path);
+			}
+		}
+	}
+
+	/**
+	 * Date of a parameter annotated with {@link DateEffective}.
+	 */
+	private static LocalDate date(Field field, @Nullable Object value) {
+
+		if (value instanceof LocalDate)
+			return (LocalDate) value;
+
+		LocalDate d = value == null ? null : parseDate(value.toString());
+		if (d == null)
+			throw new IllegalArgumentException(String.format("Parameter %s is declared date effective, but %s is not a date", field, value));
+
+		return d;
+	}
+
+	/**
+	 * Runs that are identical up to a date.
+	 */
+	static final class Group<T> {
+
+		private final List<T> members = new ArrayList<>();
+		private final Map<T, String> differences = new IdentityHashMap<>();
+		private LocalDate date = LocalDate.MAX;
+		@Nullable
+		private String reason;
+
+		private Group(T first) {
+			members.add(first);
+		}
+
+		List<T> getMembers() {
+			return members;
+		}
+
+		/**
+		 * First date at which the runs can differ, {@link LocalDate#MAX} if they are identical.
+		 */
+		LocalDate getDate() {
+			return date;
+		}
+
+		/**
+		 * Difference that determines the date, null if all runs are identical.
+		 */
+		@Nullable
+		String getReason() {
+			return reason;
+		}
+
+		/**
+		 * First difference of a member to the first run of the group, null if they are identical.
+		 */
+		@Nullable
+		String getDifference(T member) {
+			return differences.get(member);
+		}
+	}
+
+	private static List<ConfigGroup> parameterSets(ConfigGroup group, String type) {
+		Collection<? extends ConfigGroup> sets = group.getParameterSets().get(type);
+		return sets == null ? List.of() : new ArrayList<>(sets);
+	}
+
+	@Nullable
+	private static ConfigObject parseObject(String value) {
+		String v = value.strip();
+		if (!v.startsWith("{"))
+			return null;
+
+		try {
+			return ConfigFactory.parseString(v).root();
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parse entries separated by semicolon or comma, which all start with a date.
+	 *
+	 * @return null if the value is not of this format
+	 */
+	@Nullable
+	private static NavigableMap<LocalDate, String> datedEntries(String value) {
+
+		NavigableMap<LocalDate, String> entries = new TreeMap<>();
+		for (String entry : value.split("[;,]")) {
+			String e = entry.strip();
+			if (e.isEmpty())
+				continue;
+
+			Matcher m = DATE.matcher(e);
+			if (!m.lookingAt())
+				return null;
+
+			LocalDate d = parseDate(m.group());
+			if (d == null || entries.put(d, e.substring(m.end())) != null)
+				return null;
+		}
+
+		return entries.isEmpty() ? null : entries;
+	}
+
+	@Nullable
+	private static LocalDate parseDate(String value) {
+		if (!DATE.matcher(value).matches())
+			return null;
+
+		try {
+			return LocalDate.parse(value);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private static SortedSet<LocalDate> union(Set<LocalDate> a, Set<LocalDate> b) {
+		SortedSet<LocalDate> all = new TreeSet<>(a);
+		all.addAll(b);
+		return all;
+	}
+
+	private static LocalDate min(LocalDate a, LocalDate b) {
+		return a.isBefore(b) ? a : b;
+	}
+}
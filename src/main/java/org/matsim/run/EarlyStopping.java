@@ -0,0 +1,334 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.common.base.Joiner;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.episim.EpisimPerson;
+import org.matsim.episim.InfectionEventHandler;
+import org.matsim.episim.model.SimulationListener;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.vehicles.Vehicle;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Listener that evaluates {@link Criterion}s after each simulated day and stops the simulation once one of them is met.
+ * Stopped runs are marked with a {@value #STOPPED} file in their output directory, which is also reported in the <em>_info.txt</em>.
+ */
+public final class EarlyStopping implements SimulationListener {
+
+	private static final Logger log = LogManager.getLogger(EarlyStopping.class);
+
+	/**
+	 * Marker file containing the reason why a run was stopped.
+	 */
+	static final String STOPPED = ".stopped";
+
+	private final List<Criterion> criteria;
+	private final int warmup;
+	private final double sampleSize;
+
+	/**
+	 * Cumulative number of infections for each evaluated day.
+	 */
+	private final DoubleArrayList cumulative = new DoubleArrayList();
+
+	private Map<Id<Person>, EpisimPerson> persons;
+
+	@Nullable
+	private String reason;
+
+	/**
+	 * @param criteria   criteria to evaluate, the first one that is met stops the run
+	 * @param warmup     number of days before criteria are evaluated
+	 * @param sampleSize sample size of the population, used to scale the infections to the whole population
+	 */
+	EarlyStopping(List<Criterion> criteria, int warmup, double sampleSize) {
+		this.criteria = criteria;
+		this.warmup = warmup;
+		this.sampleSize = sampleSize;
+	}
+
+	@Override
+	public void init(SplittableRandom rnd, Map<Id<Person>, EpisimPerson> persons, Map<Id<ActivityFacility>, InfectionEventHandler.EpisimFacility> facilities,
+					 Map<Id<Vehicle>, InfectionEventHandler.EpisimVehicle> vehicles) {
+		this.persons = persons;
+	}
+
+	@Override
+	public void onIterationEnd(int iteration, LocalDate date) {
+
+		double infections = 0;
+		for (EpisimPerson person : persons.values()) {
+			infections += person.getNumInfections();
+		}
+
+		cumulative.add(infections / sampleSize);
+
+		if (cumulative.size() <= warmup)
+			return;
+
+		Progress progress = new Progress(iteration, date);
+		for (Criterion criterion : criteria) {
+			String r = criterion.check(progress);
+			if (r != null) {
+				reason = date + ": " + r;
+				log.info("Stopping run early on {}", reason);
+				throw new Stopped(reason);
+			}
+		}
+	}
+
+	/**
+	 * Whether the simulation was stopped.
+	 */
+	boolean isStopped() {
+		return reason != null;
+	}
+
+	/**
+	 * Whether an exception thrown by the runner was caused by stopping the run. The runner may wrap the exception of the listener,
+	 * any other exception is a real failure, even if it occurs after a run was stopped.
+	 */
+	static boolean isStop(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof Stopped)
+				return true;
+			if (t.getCause() == t)
+				break;
+		}
+		return false;
+	}
+
+	/**
+	 * Write the marker for a stopped run.
+	 */
+	void markStopped(Path output) {
+		try {
+			Files.writeString(output.resolve(STOPPED), reason);
+		} catch (IOException e) {
+			log.warn("Could not mark {} as stopped", output, e);
+		}
+	}
+
+	/**
+	 * Add or update the <em>Stopped</em> column in the <em>_info.txt</em> of a battery, using the markers of all runs in the output directory.
+	 * Workers may update the file concurrently, so the file is locked while rewriting it.
+	 */
+	static void updateInfo(Path output) throws IOException {
+
+		Path info = output.resolve("_info.txt");
+		if (!Files.exists(info))
+			return;
+
+		try (FileChannel lockChannel = FileChannel.open(output.resolve("_info.txt.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			 FileLock ignored = lockChannel.lock()) {
+
+			List<String> lines = Files.readAllLines(info);
+			if (lines.isEmpty())
+				return;
+
+			List<String> header = new ArrayList<>(Arrays.asList(lines.get(0).split(";", -1)));
+			int outputIdx = header.indexOf("Output");
+			int stoppedIdx = header.indexOf("Stopped");
+			if (stoppedIdx == -1) {
+				header.add("Stopped");
+				stoppedIdx = header.size() - 1;
+			}
+
+			List<String> result = new ArrayList<>();
+			result.add(Joiner.on(";").join(header));
+
+			for (String line : lines.subList(1, lines.size())) {
+				List<String> row = new ArrayList<>(Arrays.asList(line.split(";", -1)));
+				while (row.size() <= stoppedIdx)
+					row.add("");
+
+				// output column contains the path relative to the batch, only its name is relevant here
+				String run = Path.of(row.get(outputIdx)).getFileName().toString();
+				Path marker = output.resolve(run).resolve(STOPPED);
+				row.set(stoppedIdx, Files.exists(marker) ? Files.readString(marker).replace(";", ",").strip() : "");
+
+				result.add(Joiner.on(";").join(row));
+			}
+
+			Path tmp = info.resolveSibling("_info.txt.tmp");
+			Files.write(tmp, result);
+			Files.move(tmp, info, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Criterion that stops a run when the ratio of simulated to reference cumulative infections leaves a band.
+	 *
+	 * @param reference tsv file with a <em>date</em> column and a column with the number of daily cases
+	 * @param column    name of the column with daily cases
+	 */
+	static Criterion band(Path reference, String column, double lower, double upper) throws IOException {
+
+		NavigableMap<LocalDate, Double> cases = readCumulativeCases(reference, column);
+
+		log.info("Read {} days of reference cases from {}", cases.size(), reference);
+
+		return progress -> {
+			Double ref = cases.get(progress.getDate());
+			if (ref == null || ref <= 0)
+				return null;
+
+			double ratio = progress.getCumulativeInfections() / ref;
+			if (ratio < lower || ratio > upper)
+				return String.format(Locale.US, "cumulative infections ratio %.2f outside [%.2f, %.2f]", ratio, lower, upper);
+
+			return null;
+		};
+	}
+
+	/**
+	 * Read daily cases from a tsv file with a <em>date</em> column and sum them up to cumulative cases.
+	 */
+	static NavigableMap<LocalDate, Double> readCumulativeCases(Path file, String column) throws IOException {
+
+		NavigableMap<LocalDate, Double> cases = new TreeMap<>();
+		try (Reader reader = Files.newBufferedReader(file);
+			 CSVParser parser = CSVFormat.DEFAULT.withDelimiter('\t').withFirstRecordAsHeader().parse(reader)) {
+
+			double sum = 0;
+			for (CSVRecord record : parser) {
+				sum += Double.parseDouble(record.get(column));
+				cases.put(LocalDate.parse(record.get("date")), sum);
+			}
+		}
+
+		return cases;
+	}
+
+	/**
+	 * Criterion that stops a run when the 7-day incidence goes below or above the thresholds.
+	 */
+	static Criterion incidence(double min, double max) {
+		return progress -> {
+			double incidence = progress.getIncidence();
+			if (Double.isNaN(incidence))
+				return null;
+
+			if (incidence < min)
+				return String.format(Locale.US, "incidence %.1f below %.1f", incidence, min);
+			if (incidence > max)
+				return String.format(Locale.US, "incidence %.1f above %.1f", incidence, max);
+
+			return null;
+		};
+	}
+
+	/**
+	 * Condition under which a simulation is stopped. Criteria are shared between runs and must not hold any state of a run.
+	 * Custom implementations need a public constructor without arguments.
+	 */
+	@FunctionalInterface
+	public interface Criterion {
+
+		/**
+		 * Evaluated after each simulated day.
+		 *
+		 * @return reason for stopping the run, or null if it should continue
+		 */
+		@Nullable
+		String check(Progress progress);
+
+	}
+
+	/**
+	 * State of the simulation at the end of a day.
+	 */
+	public final class Progress {
+
+		private final int iteration;
+		private final LocalDate date;
+
+		private Progress(int iteration, LocalDate date) {
+			this.iteration = iteration;
+			this.date = date;
+		}
+
+		public int getIteration() {
+			return iteration;
+		}
+
+		public LocalDate getDate() {
+			return date;
+		}
+
+		/**
+		 * Number of days evaluated so far, which is less than the iteration if the run was started from a snapshot.
+		 */
+		public int getDays() {
+			return cumulative.size();
+		}
+
+		/**
+		 * Cumulative infections since start of the simulation, scaled to the whole population.
+		 */
+		public double getCumulativeInfections() {
+			return cumulative.getDouble(cumulative.size() - 1);
+		}
+
+		/**
+		 * New infections within the last seven days per 100,000 persons, or NaN if not enough days were simulated yet.
+		 */
+		public double getIncidence() {
+			int n = cumulative.size();
+			if (n < 8)
+				return Double.NaN;
+
+			double population = persons.size() / sampleSize;
+			return (cumulative.getDouble(n - 1) - cumulative.getDouble(n - 8)) / population * 100_000;
+		}
+	}
+
+	/**
+	 * Thrown to abort the simulation.
+	 */
+	static final class Stopped extends RuntimeException {
+
+		private Stopped(String reason) {
+			super(reason, null, false, false);
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import java.util.List;
+
+/**
+ * Minimal Gaussian process regression with squared exponential kernel, used as surrogate for the objective of runs.
+ * Inputs are expected to be normalized to [0, 1], observations are standardized internally.
+ * The length scale is chosen by maximizing the marginal likelihood over a fixed set of candidates.
+ */
+final class GaussianProcess {
+
+	private static final double[] LENGTH_SCALES = {0.05, 0.1, 0.2, 0.35, 0.5, 1, 2};
+
+	/**
+	 * Noise relative to the variance of the observations, which accounts for the variation between seeds.
+	 */
+	private final double noise;
+
+	private double[][] x;
+	private double mean;
+	private double std;
+	private double lengthScale;
+
+	/**
+	 * Cholesky factor of the kernel matrix.
+	 */
+	private double[][] l;
+
+	/**
+	 * Kernel matrix inverse multiplied with the standardized observations.
+	 */
+	private double[] alpha;
+
+	GaussianProcess(double noise) {
+		this.noise = noise;
+	}
+
+	/**
+	 * Fit the process to observations.
+	 */
+	void fit(List<double[]> points, double[] y) {
+
+		int n = y.length;
+		x = points.toArray(new double[0][]);
+
+		mean = 0;
+		for (double v : y) mean += v;
+		mean /= n;
+
+		double var = 0;
+		for (double v : y) var += (v - mean) * (v - mean);
+		std = n > 1 && var > 0 ? Math.sqrt(var / (n - 1)) : 1;
+
+		double[] z = new double[n];
+		for (int i = 0; i < n; i++)
+			z[i] = (y[i] - mean) / std;
+
+		double best = Double.NEGATIVE_INFINITY;
+		for (double ls : LENGTH_SCALES) {
+			double[][] chol = cholesky(kernel(ls));
+			double[] a = solve(chol, z);
+
+			// log marginal likelihood without constant term
+			double ll = 0;
+			for (int i = 0; i < n; i++)
+				ll -= 0.5 * z[i] * a[i] + Math.log(chol[i][i]);
+
+			if (ll > best) {
+				best = ll;
+				lengthScale = ls;
+				l = chol;
+				alpha = a;
+			}
+		}
+	}
+
+	/**
+	 * Predicted mean and standard deviation at a point.
+	 */
+	double[] predict(double[] p) {
+
+		int n = x.length;
+		double[] k = new double[n];
+		for (int i = 0; i < n; i++)
+			k[i] = rbf(x[i], p, lengthScale);
+
+		double mu = 0;
+		for (int i = 0; i < n; i++)
+			mu += k[i] * alpha[i];
+
+		double[] v = forward(l, k);
+		double var = 1;
+		for (double vi : v)
+			var -= vi * vi;
+
+		return new double[]{mean + mu * std, Math.sqrt(Math.max(var, 1e-12)) * std};
+	}
+
+	/**
+	 * Expected improvement over the best observed value, when minimizing.
+	 */
+	double expectedImprovement(double[] p, double best) {
+		double[] pred = predict(p);
+		double sigma = pred[1];
+		double z = (best - pred[0]) / sigma;
+		return (best - pred[0]) * cdf(z) + sigma * pdf(z);
+	}
+
+	double getLengthScale() {
+		return lengthScale;
+	}
+
+	private double[][] kernel(double ls) {
+		int n = x.length;
+		double[][] k = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				k[i][j] = k[j][i] = rbf(x[i], x[j], ls);
+			}
+			k[i][i] += noise;
+		}
+		return k;
+	}
+
+	private static double rbf(double[] a, double[] b, double ls) {
+		double d = 0;
+		for (int i = 0; i < a.length; i++)
+			d += (a[i] - b[i]) * (a[i] - b[i]);
+
+		return Math.exp(-0.5 * d / (ls * ls));
+	}
+
+	private static double[][] cholesky(double[][] a) {
+		int n = a.length;
+		double[][] l = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = a[i][j];
+				for (int k = 0; k < j; k++)
+					sum -= l[i][k] * l[j][k];
+
+				if (i == j)
+					l[i][i] = Math.sqrt(Math.max(sum, 1e-10));
+				else
+					l[i][j] = sum / l[j][j];
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * Solve L * v = b.
+	 */
+	private static double[] forward(double[][] l, double[] b) {
+		int n = b.length;
+		double[] v = new double[n];
+		for (int i = 0; i < n; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++)
+				sum -= l[i][k] * v[k];
+			v[i] = sum / l[i][i];
+		}
+		return v;
+	}
+
+	/**
+	 * Solve L * L^T * v = b.
+	 */
+	private static double[] solve(double[][] l, double[] b) {
+		double[] y = forward(l, b);
+		int n = b.length;
+		double[] v = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = y[i];
+			for (int k = i + 1; k < n; k++)
+				sum -= l[k][i] * v[k];
+			v[i] = sum / l[i][i];
+		}
+		return v;
+	}
+
+	private static double pdf(double z) {
+		return Math.exp(-0.5 * z * z) / Math.sqrt(2 * Math.PI);
+	}
+
+	/**
+	 * Normal cdf using the approximation by Abramowitz and Stegun (7.1.26).
+	 */
+	private static double cdf(double z) {
+		double t = 1 / (1 + 0.3275911 * Math.abs(z) / Math.sqrt(2));
+		double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))))
+				* Math.exp(-z * z / 2);
+		return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+	}
+}
@@ -0,0 +1,306 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.episim.EpisimPerson;
+import org.matsim.episim.InfectionEventHandler;
+import org.matsim.episim.model.SimulationListener;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Job queue shared between multiple {@link RunParallel} processes, which only relies on a shared file system.
+ * The state is kept in the <em>.queue</em> folder of the output directory, all modifications are guarded by an exclusive lock on one file.
+ * <p>
+ * A claimed job holds a lease, which is renewed periodically while this process is alive.
+ * Jobs of crashed workers will be claimed again by other workers after their lease expired. If this happens to a worker that is
+ * only slow, it notices on the next renewal that the claim is held by another worker and gives up the job, see {@link #isLost(int)}.
+ * <p>
+ * Finished and failed jobs are recorded in the queue folder and are skipped by all workers started later with the same output,
+ * which allows to restart crashed workers. The queue folder has to be deleted to run the jobs of a battery again.
+ */
+final class JobQueue implements Closeable {
+
+	private static final Logger log = LogManager.getLogger(JobQueue.class);
+
+	private final Path dir;
+	private final FileChannel lockChannel;
+	private final List<Integer> jobs;
+	private final Duration lease;
+
+	/**
+	 * Unique identifier of this process.
+	 */
+	private final String worker;
+
+	/**
+	 * Jobs currently claimed by this process.
+	 */
+	private final Set<Integer> active = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Jobs that were claimed by this process, but have been taken over by another worker.
+	 */
+	private final Set<Integer> lost = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Jobs observed as completed by any worker, and those that have not been returned by {@link #drainCompleted()} yet.
+	 */
+	private final Set<Integer> completed = new HashSet<>();
+	private final Set<Integer> undrained = new LinkedHashSet<>();
+
+	private final ScheduledExecutorService heartbeat;
+
+	/**
+	 * Open or create queue.
+	 *
+	 * @param output output directory shared by all workers
+	 * @param jobs   job indices this worker is allowed to process
+	 * @param lease  duration after which a claimed job without heartbeat is considered abandoned
+	 */
+	JobQueue(Path output, Collection<Integer> jobs, Duration lease) throws IOException {
+		this(output, jobs, lease, ManagementFactory.getRuntimeMXBean().getName());
+	}
+
+	/**
+	 * Open or create queue with given worker name, which must be unique among all workers.
+	 */
+	JobQueue(Path output, Collection<Integer> jobs, Duration lease, String worker) throws IOException {
+		this.dir = output.resolve(".queue");
+		this.jobs = new ArrayList<>(jobs);
+		this.lease = lease;
+		this.worker = worker;
+
+		Files.createDirectories(dir);
+		lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+		heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "job-queue-heartbeat");
+			t.setDaemon(true);
+			return t;
+		});
+
+		long done = this.jobs.stream().filter(j -> Files.exists(marker(j, "done")) || Files.exists(marker(j, "failed"))).count();
+		if (done > 0)
+			log.info("{} of {} jobs are already completed in {}, delete it to run them again", done, this.jobs.size(), dir);
+
+		long period = Math.max(1000, lease.toMillis() / 4);
+		heartbeat.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Claim the next job, that is neither finished nor claimed by another worker with valid lease.
+	 *
+	 * @return index of the job or empty if no job is left
+	 */
+	synchronized OptionalInt claim() {
+
+		// file locks are held per process, threads have to be synchronized additionally
+		try (FileLock lock = lockChannel.lock()) {
+
+			long now = System.currentTimeMillis();
+
+			for (int job : jobs) {
+
+				if (Files.exists(marker(job, "done")) || Files.exists(marker(job, "failed"))) {
+					if (completed.add(job))
+						undrained.add(job);
+
+					continue;
+				}
+
+				Path claim = marker(job, "claim");
+				if (Files.exists(claim)) {
+					if (now - Files.getLastModifiedTime(claim).toMillis() < lease.toMillis())
+						continue;
+
+					log.warn("Lease of job {} held by {} expired, claiming it again.", job, Files.readString(claim));
+				}
+
+				Files.writeString(claim, worker);
+				Files.setLastModifiedTime(claim, FileTime.fromMillis(now));
+				active.add(job);
+
+				log.info("Worker {} claimed job {}", worker, job);
+				return OptionalInt.of(job);
+			}
+
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not claim job from " + dir, e);
+		}
+
+		return OptionalInt.empty();
+	}
+
+	/**
+	 * Mark job as finished. Failed jobs are not claimed again.
+	 * Jobs that have been taken over by another worker are not marked, because the other worker completes them.
+	 *
+	 * @return whether the job was marked
+	 */
+	synchronized boolean complete(int job, boolean success) {
+
+		active.remove(job);
+
+		try (FileLock lock = lockChannel.lock()) {
+
+			if (!holds(job)) {
+				lost.add(job);
+				log.warn("Job {} has been taken over by another worker and is not completed by {}", job, worker);
+				return false;
+			}
+
+			Files.writeString(marker(job, success ? "done" : "failed"), worker);
+			Files.deleteIfExists(marker(job, "claim"));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not complete job " + job, e);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Give up a job without completing it, e.g. after the worker ran out of memory. Its lease is not renewed anymore
+	 * and the claim is removed, so that another worker can claim the job right away.
+	 */
+	synchronized void release(int job) {
+
+		active.remove(job);
+
+		try (FileLock lock = lockChannel.lock()) {
+			if (holds(job))
+				Files.deleteIfExists(marker(job, "claim"));
+		} catch (IOException e) {
+			log.warn("Could not release claim of job {}, it will be recovered after the lease expired", job, e);
+		}
+
+		log.info("Worker {} released job {}", worker, job);
+	}
+
+	/**
+	 * Jobs that have been found completed, by this or other workers, since the last call.
+	 * Jobs are found while claiming, so that resources prepared for them can be released.
+	 */
+	synchronized Set<Integer> drainCompleted() {
+		Set<Integer> result = new LinkedHashSet<>(undrained);
+		undrained.clear();
+		return result;
+	}
+
+	/**
+	 * Whether the claim of a job has been taken over by another worker. The job should be aborted then.
+	 */
+	boolean isLost(int job) {
+		return lost.contains(job);
+	}
+
+	/**
+	 * Renew the lease of all active jobs, which are still claimed by this worker.
+	 */
+	synchronized void renew() {
+
+		try (FileLock lock = lockChannel.lock()) {
+
+			FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+			for (int job : active) {
+				if (holds(job))
+					Files.setLastModifiedTime(marker(job, "claim"), now);
+				else {
+					active.remove(job);
+					lost.add(job);
+					log.warn("Lease of job {} expired and it has been claimed by another worker, {} stops renewing it", job, worker);
+				}
+			}
+
+		} catch (IOException e) {
+			log.warn("Could not renew leases in {}", dir, e);
+		}
+	}
+
+	/**
+	 * Whether the claim file of a job names this worker. Must be called while holding the lock.
+	 */
+	private boolean holds(int job) throws IOException {
+		Path claim = marker(job, "claim");
+		return Files.exists(claim) && Files.readString(claim).equals(worker);
+	}
+
+	/**
+	 * Listener that aborts the simulation of a job, once the job has been taken over by another worker.
+	 */
+	SimulationListener watch(int job) {
+		return new SimulationListener() {
+			@Override
+			public void init(SplittableRandom rnd, Map<Id<Person>, EpisimPerson> persons, Map<Id<ActivityFacility>, InfectionEventHandler.EpisimFacility> facilities,
+							 Map<Id<Vehicle>, InfectionEventHandler.EpisimVehicle> vehicles) {
+				// nothing to do
+			}
+
+			@Override
+			public void onIterationEnd(int iteration, LocalDate date) {
+				if (isLost(job))
+					throw new LeaseLost(job);
+			}
+		};
+	}
+
+	private Path marker(int job, String state) {
+		return dir.resolve(job + "." + state);
+	}
+
+	@Override
+	public void close() throws IOException {
+		heartbeat.shutdownNow();
+		lockChannel.close();
+	}
+
+	/**
+	 * Thrown to abort the simulation of a job, that has been taken over by another worker.
+	 */
+	static final class LeaseLost extends RuntimeException {
+
+		private LeaseLost(int job) {
+			super("Job " + job + " has been taken over by another worker", null, false, false);
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.common.base.Joiner;
+import com.google.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.episim.EpisimPerson;
+import org.matsim.episim.InfectionEventHandler;
+import org.matsim.episim.events.EpisimContactEvent;
+import org.matsim.episim.model.SimulationListener;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Listener that records the performance of each simulated day: wall time, allocated bytes, gc time, heap after gc,
+ * new infections and processed contacts. The rows are written to <em>[runId].perf.tsv</em> in the output directory.
+ * <p>
+ * Memory and gc metrics are measured for the whole JVM, as the threads of a simulation are not known. They include concurrent tasks of the same worker
+ * and are named with a <em>jvm</em> prefix.
+ * Contacts are counted from contact events, which are only available if an events manager is bound. Otherwise the column is <em>NA</em>.
+ */
+public final class PerformanceTelemetry implements SimulationListener, BasicEventHandler, AutoCloseable {
+
+	private static final Logger log = LogManager.getLogger(PerformanceTelemetry.class);
+
+	/**
+	 * Suffix of the files written for each run.
+	 */
+	static final String SUFFIX = ".perf.tsv";
+
+	/**
+	 * Summary of all runs in a battery.
+	 */
+	static final String SUMMARY = "_perf.tsv";
+
+	private static final String[] HEADER = {"day", "date", "wallSeconds", "jvmAllocatedMB", "jvmGcSeconds", "jvmHeapAfterGcMB", "infections", "contacts"};
+
+	private static final String NA = "NA";
+
+	private final Path file;
+	private final LongAdder contacts = new LongAdder();
+
+	private Map<Id<Person>, EpisimPerson> persons;
+	private BufferedWriter writer;
+
+	/**
+	 * Whether contact events are received.
+	 */
+	private boolean countContacts;
+
+	private long lastTime;
+	private long lastAllocated;
+	private long lastGc;
+	private long lastInfections;
+
+	PerformanceTelemetry(Path output, String runId) {
+		this.file = output.resolve(runId + SUFFIX);
+	}
+
+	/**
+	 * Count contacts, if events are available in the simulation.
+	 */
+	@Inject(optional = true)
+	void setEventsManager(EventsManager manager) {
+		manager.addHandler(this);
+		countContacts = true;
+	}
+
+	@Override
+	public void init(SplittableRandom rnd, Map<Id<Person>, EpisimPerson> persons, Map<Id<ActivityFacility>, InfectionEventHandler.EpisimFacility> facilities,
+					 Map<Id<Vehicle>, InfectionEventHandler.EpisimVehicle> vehicles) {
+		this.persons = persons;
+
+		if (!countContacts)
+			log.warn("No events manager is bound, contacts will not be recorded in {}", file);
+
+		try {
+			Files.createDirectories(file.getParent());
+			writer = Files.newBufferedWriter(file);
+			writer.write(String.join("\t", HEADER));
+			writer.newLine();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		lastInfections = infections();
+		lastAllocated = allocatedBytes();
+		lastGc = gcMillis();
+		lastTime = System.nanoTime();
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		if (event instanceof EpisimContactEvent)
+			contacts.increment();
+	}
+
+	@Override
+	public void onIterationEnd(int iteration, LocalDate date) {
+
+		long time = System.nanoTime();
+		long allocated = allocatedBytes();
+		long gc = gcMillis();
+		long infections = infections();
+
+		try {
+			writer.write(Joiner.on("\t").join(iteration, date,
+					(time - lastTime) / 1e9,
+					(allocated - lastAllocated) / (1024 * 1024),
+					(gc - lastGc) / 1e3,
+					heapAfterGc() / (1024 * 1024),
+					infections - lastInfections,
+					countContacts ? contacts.sumThenReset() : NA));
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			log.warn("Could not write telemetry to {}", file, e);
+		}
+
+		lastAllocated = allocated;
+		lastGc = gc;
+		lastInfections = infections;
+
+		// the time for writing is accounted to the next day
+		lastTime = time;
+	}
+
+	@Override
+	public void close() {
+		if (writer == null)
+			return;
+
+		try {
+			writer.close();
+		} catch (IOException e) {
+			log.warn("Could not close {}", file, e);
+		}
+	}
+
+	private long infections() {
+		long n = 0;
+		for (EpisimPerson person : persons.values()) {
+			n += person.getNumInfections();
+		}
+		return n;
+	}
+
+	/**
+	 * Bytes allocated by all live threads of the JVM.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean))
+			return 0;
+
+		long n = 0;
+		for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+			// -1 for threads that terminated in between
+			if (bytes > 0)
+				n += bytes;
+		}
+		return n;
+	}
+
+	private static long gcMillis() {
+		long n = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, bean.getCollectionTime());
+		}
+		return n;
+	}
+
+	private static long heapAfterGc() {
+		long n = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (pool.getType() == MemoryType.HEAP && usage != null)
+				n += usage.getUsed();
+		}
+		return n;
+	}
+
+	/**
+	 * Summarize the telemetry of all runs in the output directory of a battery into {@value #SUMMARY}.
+	 */
+	static void summarize(Path output) throws IOException {
+
+		List<Path> files;
+		try (Stream<Path> stream = Files.walk(output, 3)) {
+			files = stream.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().collect(Collectors.toList());
+		}
+
+		if (files.isEmpty())
+			return;
+
+		try (BufferedWriter writer = Files.newBufferedWriter(output.resolve(SUMMARY))) {
+
+			writer.write(String.join("\t", "run", "output", "days", "wallSeconds", "secondsPerDay", "maxSecondsPerDay",
+					"jvmAllocatedMB", "jvmGcSeconds", "jvmMaxHeapAfterGcMB", "infections", "contacts"));
+			writer.newLine();
+
+			for (Path file : files) {
+
+				List<String> lines = Files.readAllLines(file);
+				int days = 0;
+				double wall = 0, maxWall = 0, gc = 0;
+				long allocated = 0, maxHeap = 0, infections = 0, contacts = 0;
+				boolean counted = true;
+
+				for (String line : lines.subList(1, lines.size())) {
+					String[] row = line.split("\t", -1);
+					double w = Double.parseDouble(row[2]);
+
+					days++;
+					wall += w;
+					maxWall = Math.max(maxWall, w);
+					allocated += Long.parseLong(row[3]);
+					gc += Double.parseDouble(row[4]);
+					maxHeap = Math.max(maxHeap, Long.parseLong(row[5]));
+					infections += Long.parseLong(row[6]);
+					if (row[7].equals(NA))
+						counted = false;
+					else
+						contacts += Long.parseLong(row[7]);
+				}
+
+				String name = file.getFileName().toString();
+				writer.write(Joiner.on("\t").join(name.substring(0, name.length() - SUFFIX.length()), output.relativize(file.getParent()),
+						days, wall, days > 0 ? wall / days : 0, maxWall, allocated, gc, maxHeap, infections, counted ? contacts : NA));
+				writer.newLine();
+			}
+		}
+
+		log.info("Summarized telemetry of {} runs", files.size());
+	}
+}
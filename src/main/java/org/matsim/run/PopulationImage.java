@@ -0,0 +1,279 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.VehicleCapacity;
+import org.matsim.vehicles.VehicleType;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary image of a population with person attributes, which is the state of an episim {@link Scenario} after loading.
+ * Together with a {@link ReplayStore} this allows workers to start without parsing any xml input.
+ * The capacities of the vehicle types are stored as well, since scenario providers may change them after loading the vehicles.
+ * <p>
+ * Only populations without plans and with attributes of primitive types or strings are supported.
+ */
+public final class PopulationImage {
+
+	private static final Logger log = LogManager.getLogger(PopulationImage.class);
+
+	private static final int MAGIC = 0x45505049;
+	private static final int VERSION = 2;
+
+	private static final byte STRING = 0;
+	private static final byte NEW_STRING = 1;
+	private static final byte INT = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte FLOAT = 5;
+	private static final byte BOOLEAN = 6;
+
+	private PopulationImage() {
+	}
+
+	/**
+	 * Path of the image for a fingerprint within a directory.
+	 *
+	 * @see ReplayStore#fingerprint(Config)
+	 */
+	public static Path path(Path dir, String fingerprint) {
+		return dir.resolve("population-" + Hashing.sha256().hashString(fingerprint, StandardCharsets.UTF_8).toString().substring(0, 16) + ".bin");
+	}
+
+	/**
+	 * Write the population and vehicle type capacities of a scenario, which should be the scenario created by the scenario provider.
+	 *
+	 * @throws IllegalArgumentException if the population can not be represented by the image
+	 */
+	public static void write(Scenario scenario, String fingerprint, Path file) throws IOException {
+
+		Population population = scenario.getPopulation();
+
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp" + ProcessHandle.current().pid());
+
+		// strings are written once and referenced afterwards
+		Object2IntMap<String> strings = new Object2IntOpenHashMap<>();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, fingerprint);
+			out.writeInt(population.getPersons().size());
+
+			for (Person person : population.getPersons().values()) {
+
+				if (!person.getPlans().isEmpty())
+					throw new IllegalArgumentException("Persons with plans are not supported: " + person.getId());
+
+				writeValue(out, person.getId().toString(), strings);
+
+				Map<String, Object> attributes = person.getAttributes().getAsMap();
+				out.writeInt(attributes.size());
+				for (Map.Entry<String, Object> e : attributes.entrySet()) {
+					writeValue(out, e.getKey(), strings);
+					writeValue(out, e.getValue(), strings);
+				}
+			}
+
+			Collection<VehicleType> types = scenario.getVehicles().getVehicleTypes().values();
+			out.writeInt(types.size());
+			for (VehicleType type : types) {
+				writeString(out, type.getId().toString());
+				writeCapacity(out, type.getCapacity().getSeats());
+				writeCapacity(out, type.getCapacity().getStandingRoom());
+			}
+
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		log.info("Written population image {} with {} persons", file, population.getPersons().size());
+	}
+
+	/**
+	 * Create a scenario for the config with the population from the image. Vehicles are loaded from the config and
+	 * their capacities are set as in the image, other inputs are not read.
+	 *
+	 * @throws IllegalStateException if the image was written for other inputs
+	 */
+	public static Scenario read(Config config, Path file, String fingerprint) throws IOException {
+
+		Scenario scenario = ScenarioUtils.createScenario(config);
+
+		if (config.vehicles().getVehiclesFile() != null)
+			new MatsimVehicleReader(scenario.getVehicles()).readURL(ConfigGroup.getInputFileURL(config.getContext(), config.vehicles().getVehiclesFile()));
+
+		Population population = scenario.getPopulation();
+		PopulationFactory fac = population.getFactory();
+
+		List<String> strings = new ArrayList<>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20))) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IllegalStateException("Not a population image of version " + VERSION + ": " + file);
+
+			String fp = readString(in);
+			if (!fp.equals(fingerprint))
+				throw new IllegalStateException("Population image " + file + " was created for different inputs: " + fp);
+
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+
+				Person person = fac.createPerson(Id.createPersonId((String) readValue(in, strings)));
+
+				int attributes = in.readInt();
+				for (int j = 0; j < attributes; j++) {
+					String key = (String) readValue(in, strings);
+					person.getAttributes().putAttribute(key, readValue(in, strings));
+				}
+
+				population.addPerson(person);
+			}
+
+			int types = in.readInt();
+			for (int i = 0; i < types; i++) {
+				String id = readString(in);
+				VehicleType type = scenario.getVehicles().getVehicleTypes().get(Id.create(id, VehicleType.class));
+				if (type == null)
+					throw new IllegalStateException("Vehicle type " + id + " of population image " + file + " is not in the vehicles file");
+
+				VehicleCapacity capacity = type.getCapacity();
+				Integer seats = readCapacity(in);
+				Integer standingRoom = readCapacity(in);
+				if (seats != null)
+					capacity.setSeats(seats);
+				if (standingRoom != null)
+					capacity.setStandingRoom(standingRoom);
+			}
+		}
+
+		log.info("Read population image {} with {} persons", file, population.getPersons().size());
+
+		return scenario;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value, Object2IntMap<String> strings) throws IOException {
+		if (value instanceof String) {
+			String s = (String) value;
+			if (strings.containsKey(s)) {
+				out.writeByte(STRING);
+				out.writeInt(strings.getInt(s));
+			} else {
+				strings.put(s, strings.size());
+				out.writeByte(NEW_STRING);
+				writeString(out, s);
+			}
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else
+			throw new IllegalArgumentException("Unsupported attribute type: " + (value == null ? "null" : value.getClass()));
+	}
+
+	private static Object readValue(DataInputStream in, List<String> strings) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case STRING:
+				return strings.get(in.readInt());
+			case NEW_STRING:
+				String s = readString(in);
+				strings.add(s);
+				return s;
+			case INT:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case DOUBLE:
+				return in.readDouble();
+			case FLOAT:
+				return in.readFloat();
+			case BOOLEAN:
+				return in.readBoolean();
+			default:
+				throw new IllegalStateException("Unknown attribute type in population image: " + type);
+		}
+	}
+
+	private static void writeCapacity(DataOutputStream out, @Nullable Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeInt(value);
+	}
+
+	@Nullable
+	private static Integer readCapacity(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
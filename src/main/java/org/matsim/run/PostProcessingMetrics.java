@@ -0,0 +1,385 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.events.handler.EventHandler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput of reading events in {@link AnalysisCommand#forEachEvent}.
+ * Events are counted per event class and the time is measured for whole event files.
+ * Handlers are attached through {@link #wrap(EventHandler)}, which times every {@value #HANDLER_SAMPLE}th event of each handler.
+ * The time needed to inflate and decode the files is estimated as read time minus the extrapolated handler time.
+ * <p>
+ * Recording is disabled by default and has to be enabled with {@link #setEnabled(boolean)}.
+ * Metrics of each pass over the events are then written to {@value #FILE} in the scenario directory,
+ * where a pass replaces the previous one with the same handlers.
+ * {@link #summarize(Path)} aggregates these files for a whole battery.
+ */
+final class PostProcessingMetrics implements BasicEventHandler {
+
+	/**
+	 * Name of the metrics file in each scenario directory.
+	 */
+	static final String FILE = "post.metrics.json";
+
+	/**
+	 * Name of the summary file in the battery output directory.
+	 */
+	static final String SUMMARY = "post.metrics.summary.json";
+
+	private static final Logger log = LogManager.getLogger(PostProcessingMetrics.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	/**
+	 * Sample heap usage every n events.
+	 */
+	private static final int HEAP_SAMPLE = 1 << 20;
+
+	/**
+	 * Measure the time of handlers every n events.
+	 */
+	static final int HANDLER_SAMPLE = 64;
+
+	/**
+	 * Maximum number of passes kept in {@value #FILE}.
+	 */
+	static final int MAX_PASSES = 32;
+
+	private static volatile boolean enabled;
+
+	/**
+	 * Counter by event class.
+	 */
+	private final Map<Class<?>, long[]> events = new IdentityHashMap<>();
+
+	/**
+	 * Handlers in order of registration.
+	 */
+	private final List<TimedHandler> handlers = new ArrayList<>();
+
+	/**
+	 * Class and counter of the previous event, consecutive events are often of the same type.
+	 */
+	private Class<?> lastType;
+	private long[] lastCount;
+
+	private long bytesInflated;
+	private long readNanos;
+	private long totalEvents;
+	private long peakHeap;
+	private int files;
+
+	/**
+	 * Enable or disable recording of metrics for all following passes over events.
+	 */
+	static void setEnabled(boolean enabled) {
+		PostProcessingMetrics.enabled = enabled;
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Wraps a handler, which will then be called through its own events manager.
+	 * The returned handler has to be added to the events manager instead of {@code handler}.
+	 */
+	BasicEventHandler wrap(EventHandler handler) {
+		TimedHandler timed = new TimedHandler(handler);
+		handlers.add(timed);
+		return timed;
+	}
+
+	/**
+	 * Finish processing of the wrapped handlers.
+	 */
+	void finishProcessing() {
+		for (TimedHandler h : handlers) {
+			h.manager.finishProcessing();
+		}
+		sampleHeap();
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+
+		Class<?> type = event.getClass();
+		if (type != lastType) {
+			lastCount = events.computeIfAbsent(type, k -> new long[1]);
+			lastType = type;
+		}
+
+		lastCount[0]++;
+
+		if (++totalEvents % HEAP_SAMPLE == 0)
+			sampleHeap();
+	}
+
+	/**
+	 * Wraps the decompressed stream of an event file to count inflated bytes.
+	 */
+	InputStream countBytes(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) bytesInflated++;
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) bytesInflated += n;
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * Record that one event file has been read completely.
+	 *
+	 * @param nanos time needed for reading, including all handlers
+	 */
+	void fileRead(long nanos) {
+		files++;
+		readNanos += nanos;
+		sampleHeap();
+	}
+
+	private void sampleHeap() {
+		Runtime rt = Runtime.getRuntime();
+		peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+	}
+
+	/**
+	 * Writes metrics of this pass to {@value #FILE}.
+	 *
+	 * @param scenario scenario directory or events file within it
+	 */
+	void write(Path scenario) {
+
+		Path dir = Files.isDirectory(scenario) ? scenario : scenario.toAbsolutePath().getParent();
+		Path file = dir.resolve(FILE);
+
+		String analysis = handlers.stream().map(h -> h.name).collect(Collectors.joining(","));
+		double handlerSeconds = handlers.stream().mapToDouble(TimedHandler::estimateSeconds).sum();
+
+		ObjectNode pass = mapper.createObjectNode();
+		pass.put("analysis", analysis);
+		pass.put("timestamp", LocalDateTime.now().toString());
+		pass.put("files", files);
+		pass.put("eventsTotal", totalEvents);
+		pass.put("bytesInflated", bytesInflated);
+		pass.put("readSeconds", readNanos / 1e9);
+		pass.put("decodeSeconds", Math.max(0, readNanos / 1e9 - handlerSeconds));
+		pass.put("eventsPerSecond", readNanos > 0 ? totalEvents / (readNanos / 1e9) : 0);
+		pass.put("peakHeapMB", peakHeap / (1024 * 1024));
+
+		ObjectNode handler = pass.putObject("handlerSeconds");
+		for (TimedHandler h : handlers) {
+			handler.put(h.name, h.estimateSeconds());
+		}
+
+		Map<String, Long> byType = new TreeMap<>();
+		events.forEach((type, n) -> byType.merge(type.getSimpleName(), n[0], Long::sum));
+
+		ObjectNode types = pass.putObject("events");
+		byType.forEach(types::put);
+
+		// Several analyses may write into the same directory
+		synchronized (PostProcessingMetrics.class) {
+			try {
+				ObjectNode root = Files.exists(file) ? (ObjectNode) mapper.readTree(file.toFile()) : mapper.createObjectNode();
+				ArrayNode passes = root.has("passes") ? (ArrayNode) root.get("passes") : root.putArray("passes");
+
+				// a repeated analysis replaces its previous pass
+				for (int i = passes.size() - 1; i >= 0; i--) {
+					if (passes.get(i).path("analysis").asText().equals(analysis))
+						passes.remove(i);
+				}
+
+				passes.add(pass);
+				while (passes.size() > MAX_PASSES)
+					passes.remove(0);
+
+				mapper.writeValue(file.toFile(), root);
+			} catch (IOException | ClassCastException e) {
+				log.warn("Could not write post-processing metrics to {}", file, e);
+			}
+		}
+	}
+
+	/**
+	 * Aggregates the metrics of all scenarios in {@code output} and writes them to {@value #SUMMARY}.
+	 * Does nothing if recording is disabled or no scenario contains metrics.
+	 */
+	static void summarize(Path output) {
+
+		if (!enabled)
+			return;
+
+		List<Path> files;
+		try (Stream<Path> dirs = Files.list(output)) {
+			files = dirs.filter(Files::isDirectory)
+					.map(p -> p.resolve(FILE))
+					.filter(Files::exists)
+					.sorted()
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			log.warn("Could not list scenarios in {}", output, e);
+			return;
+		}
+
+		if (files.isEmpty())
+			return;
+
+		Object2LongMap<String> events = new Object2LongOpenHashMap<>();
+		Map<String, Double> handlerSeconds = new HashMap<>();
+		Map<String, Double> scenarioSeconds = new HashMap<>();
+
+		long passes = 0, totalEvents = 0, bytes = 0, peakHeap = 0;
+		double readSeconds = 0, decodeSeconds = 0;
+
+		for (Path file : files) {
+
+			JsonNode root;
+			try {
+				root = mapper.readTree(file.toFile());
+			} catch (IOException e) {
+				log.warn("Could not read {}", file, e);
+				continue;
+			}
+
+			double scenarioRead = 0;
+			for (JsonNode pass : root.path("passes")) {
+				passes++;
+				totalEvents += pass.path("eventsTotal").asLong();
+				bytes += pass.path("bytesInflated").asLong();
+				peakHeap = Math.max(peakHeap, pass.path("peakHeapMB").asLong());
+				readSeconds += pass.path("readSeconds").asDouble();
+				decodeSeconds += pass.path("decodeSeconds").asDouble();
+				scenarioRead += pass.path("readSeconds").asDouble();
+
+				pass.path("events").fields().forEachRemaining(e -> events.mergeLong(e.getKey(), e.getValue().asLong(), Long::sum));
+				pass.path("handlerSeconds").fields().forEachRemaining(e -> handlerSeconds.merge(e.getKey(), e.getValue().asDouble(), Double::sum));
+			}
+
+			scenarioSeconds.put(file.getParent().getFileName().toString(), scenarioRead);
+		}
+
+		ObjectNode summary = mapper.createObjectNode();
+		summary.put("timestamp", LocalDateTime.now().toString());
+		summary.put("scenarios", files.size());
+		summary.put("passes", passes);
+		summary.put("eventsTotal", totalEvents);
+		summary.put("bytesInflated", bytes);
+		summary.put("readSeconds", readSeconds);
+		summary.put("decodeSeconds", decodeSeconds);
+		summary.put("eventsPerSecond", readSeconds > 0 ? totalEvents / readSeconds : 0);
+		summary.put("peakHeapMB", peakHeap);
+
+		ObjectNode handler = summary.putObject("handlerSeconds");
+		handlerSeconds.entrySet().stream()
+				.sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+				.forEach(e -> handler.put(e.getKey(), e.getValue()));
+
+		ObjectNode types = summary.putObject("events");
+		new TreeMap<>(events).forEach(types::put);
+
+		ObjectNode slowest = summary.putObject("slowestScenarios");
+		scenarioSeconds.entrySet().stream()
+				.sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+				.limit(10)
+				.forEach(e -> slowest.put(e.getKey(), e.getValue()));
+
+		try {
+			mapper.writeValue(output.resolve(SUMMARY).toFile(), summary);
+		} catch (IOException e) {
+			log.warn("Could not write post-processing summary to {}", output, e);
+		}
+
+		log.info("Post-processing of {} scenarios: {} events in {} s", files.size(), totalEvents, Math.round(readSeconds));
+	}
+
+	/**
+	 * Passes events to one handler through its own events manager and measures the time of every {@value #HANDLER_SAMPLE}th event.
+	 */
+	private static final class TimedHandler implements BasicEventHandler {
+
+		private final String name;
+		private final EventsManager manager;
+
+		private long events;
+		private long sampledNanos;
+		private long sampled;
+
+		private TimedHandler(EventHandler handler) {
+			this.name = handler.getClass().getName();
+			this.manager = EventsUtils.createEventsManager();
+			this.manager.addHandler(handler);
+			this.manager.initProcessing();
+		}
+
+		@Override
+		public void handleEvent(Event event) {
+			if (++events % HANDLER_SAMPLE == 0) {
+				long start = System.nanoTime();
+				manager.processEvent(event);
+				sampledNanos += System.nanoTime() - start;
+				sampled++;
+			} else
+				manager.processEvent(event);
+		}
+
+		/**
+		 * Time spent in this handler, extrapolated from the sampled events.
+		 */
+		private double estimateSeconds() {
+			return sampled > 0 ? sampledNanos / 1e9 * events / sampled : 0;
+		}
+	}
+
+}
@@ -0,0 +1,490 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingOutputStream;
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProvidesMethodBinding;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.ReplayHandler;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.vehicles.Vehicle;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Compact binary store of the events of a {@link ReplayHandler}. Decoding this file is much faster than parsing the event xml files,
+ * and the file is memory-mapped so that multiple processes on the same node share it via the page cache.
+ * <p>
+ * Layout: magic and version, followed by the string dictionary and one section of events per distinct day.
+ * A footer at the end contains the offsets of all sections, the mapping of days to sections and the fingerprint of the inputs.
+ * All numbers are big-endian.
+ */
+public final class ReplayStore {
+
+	private static final Logger log = LogManager.getLogger(ReplayStore.class);
+
+	private static final int MAGIC = 0x45505253;
+	private static final int VERSION = 2;
+
+	private static final byte ACT_START = 0;
+	private static final byte ACT_END = 1;
+	private static final byte ENTER_VEHICLE = 2;
+	private static final byte LEAVE_VEHICLE = 3;
+
+	private ReplayStore() {
+	}
+
+	/**
+	 * Fingerprint of the input files of a config, stores are only valid for the same fingerprint.
+	 * Contains the paths of the inputs and the size and modification time of each local file, so that inputs regenerated in place
+	 * invalidate the stores.
+	 */
+	public static String fingerprint(Config config) {
+
+		StringBuilder fp = new StringBuilder(ScenarioCache.Key.of(config).toString());
+
+		EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
+
+		List<String> files = new ArrayList<>();
+		episimConfig.getInputEventsFiles().forEach(p -> files.add(p.getPath()));
+		files.add(config.plans().getInputFile());
+		files.add(config.vehicles().getVehiclesFile());
+
+		files.stream().filter(Objects::nonNull).sorted().forEach(f -> fp.append(", ").append(f).append('=').append(stat(config, f)));
+
+		return fp.toString();
+	}
+
+	/**
+	 * Fingerprint of the input files and the module providing the scenario, which may change the scenario after loading it.
+	 *
+	 * @param injector injector the scenario would be loaded from
+	 * @see #fingerprint(Config)
+	 */
+	public static String fingerprint(Config config, Injector injector) {
+		return fingerprint(config) + ", module=" + scenarioModule(injector);
+	}
+
+	/**
+	 * Class of the module whose provider method creates the scenario, or the source of the binding otherwise.
+	 */
+	static String scenarioModule(Injector injector) {
+
+		Binding<Scenario> binding = injector.getExistingBinding(com.google.inject.Key.get(Scenario.class));
+		if (binding == null)
+			return "none";
+
+		if (binding instanceof ProviderInstanceBinding) {
+			Object provider = ((ProviderInstanceBinding<?>) binding).getUserSuppliedProvider();
+			if (provider instanceof ProvidesMethodBinding)
+				return ((ProvidesMethodBinding<?>) provider).getEnclosingInstance().getClass().getName();
+		}
+
+		return String.valueOf(binding.getSource());
+	}
+
+	/**
+	 * Size and modification time of an input file, or "?" if it is not a local file.
+	 */
+	private static String stat(Config config, String file) {
+		try {
+			URL url = ConfigGroup.getInputFileURL(config.getContext(), file);
+			if ("file".equals(url.getProtocol())) {
+				Path path = Path.of(url.toURI());
+				return Files.size(path) + "@" + Files.getLastModifiedTime(path).toMillis();
+			}
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			log.warn("Could not read attributes of {}", file, e);
+		}
+
+		return "?";
+	}
+
+	/**
+	 * Path of the store for a fingerprint within a directory.
+	 */
+	public static Path path(Path dir, String fingerprint) {
+		return dir.resolve("replay-" + Hashing.sha256().hashString(fingerprint, StandardCharsets.UTF_8).toString().substring(0, 16) + ".bin");
+	}
+
+	/**
+	 * Write events of the replay handler. The file is first written to a temporary location and moved afterwards, so that
+	 * concurrent readers never see incomplete stores.
+	 */
+	public static void write(ReplayHandler replay, String fingerprint, Path file) throws IOException {
+
+		Map<DayOfWeek, List<Event>> events = replay.getEvents();
+
+		// days often share the same list of events
+		Map<List<Event>, Integer> lists = new IdentityHashMap<>();
+		List<List<Event>> sections = new ArrayList<>();
+		for (DayOfWeek day : DayOfWeek.values()) {
+			List<Event> l = events.get(day);
+			if (l != null && !lists.containsKey(l)) {
+				lists.put(l, sections.size());
+				sections.add(l);
+			}
+		}
+
+		Object2IntMap<String> dict = new Object2IntOpenHashMap<>();
+		List<String> strings = new ArrayList<>();
+		for (List<Event> l : sections) {
+			for (Event e : l) {
+				for (String s : strings(e)) {
+					if (s != null && !dict.containsKey(s)) {
+						dict.put(s, strings.size());
+						strings.add(s);
+					}
+				}
+			}
+		}
+
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp" + ProcessHandle.current().pid());
+
+		try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20));
+			 DataOutputStream out = new DataOutputStream(counter)) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			long dictOffset = counter.getCount();
+			out.writeInt(strings.size());
+			for (String s : strings) {
+				byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.flush();
+			long dictLength = counter.getCount() - dictOffset;
+
+			long[] offsets = new long[sections.size()];
+			long[] lengths = new long[sections.size()];
+
+			for (int i = 0; i < sections.size(); i++) {
+				offsets[i] = counter.getCount();
+				for (Event e : sections.get(i)) {
+					writeEvent(out, e, dict);
+				}
+				out.flush();
+				lengths[i] = counter.getCount() - offsets[i];
+			}
+
+			long footer = counter.getCount();
+			out.writeLong(dictOffset);
+			out.writeLong(dictLength);
+			out.writeInt(sections.size());
+			for (int i = 0; i < sections.size(); i++) {
+				out.writeLong(offsets[i]);
+				out.writeLong(lengths[i]);
+				out.writeInt(sections.get(i).size());
+			}
+
+			for (DayOfWeek day : DayOfWeek.values()) {
+				out.writeInt(lists.getOrDefault(events.get(day), -1));
+			}
+
+			byte[] fp = fingerprint.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(fp.length);
+			out.write(fp);
+
+			out.writeLong(footer);
+		}
+
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		log.info("Written replay store {} with {} strings and {} sections", file, strings.size(), sections.size());
+	}
+
+	/**
+	 * Read a replay handler from a store.
+	 *
+	 * @throws IllegalStateException if the store was written for other inputs
+	 */
+	public static ReplayHandler read(Path file, String fingerprint) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+			long size = channel.size();
+
+			ByteBuffer tail = ByteBuffer.allocate(Long.BYTES);
+			channel.read(tail, size - Long.BYTES);
+			tail.flip();
+			long footerOffset = tail.getLong();
+
+			MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Integer.BYTES * 2);
+			if (head.getInt() != MAGIC || head.getInt() != VERSION)
+				throw new IllegalStateException("Not a replay store of version " + VERSION + ": " + file);
+
+			MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, size - footerOffset);
+
+			long dictOffset = footer.getLong();
+			long dictLength = footer.getLong();
+			int n = footer.getInt();
+
+			long[] offsets = new long[n];
+			long[] lengths = new long[n];
+			int[] counts = new int[n];
+			for (int i = 0; i < n; i++) {
+				offsets[i] = footer.getLong();
+				lengths[i] = footer.getLong();
+				counts[i] = footer.getInt();
+			}
+
+			int[] days = new int[DayOfWeek.values().length];
+			for (int i = 0; i < days.length; i++) {
+				days[i] = footer.getInt();
+			}
+
+			String fp = readString(footer);
+			if (!fp.equals(fingerprint))
+				throw new IllegalStateException("Replay store " + file + " was created for different inputs: " + fp);
+
+			MappedByteBuffer dictBuffer = channel.map(FileChannel.MapMode.READ_ONLY, dictOffset, dictLength);
+			String[] strings = new String[dictBuffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString(dictBuffer);
+			}
+
+			IdTable dict = new IdTable(strings);
+
+			MappedByteBuffer[] buffers = new MappedByteBuffer[n];
+			for (int i = 0; i < n; i++) {
+				buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]);
+			}
+
+			// sections are independent and decoded in parallel
+			List<List<Event>> sections = Arrays.asList(new List[n]);
+			IntStream.range(0, n).parallel().forEach(i -> {
+				List<Event> events = new ArrayList<>(counts[i]);
+				for (int j = 0; j < counts[i]; j++) {
+					events.add(readEvent(buffers[i], dict));
+				}
+				sections.set(i, events);
+			});
+
+			Map<DayOfWeek, List<Event>> all = new EnumMap<>(DayOfWeek.class);
+			for (DayOfWeek day : DayOfWeek.values()) {
+				int idx = days[day.ordinal()];
+				if (idx >= 0)
+					all.put(day, sections.get(idx));
+			}
+
+			log.info("Read replay store {} with {} strings and {} sections", file, strings.length, n);
+
+			return new ReplayHandler(all);
+		}
+	}
+
+	private static String[] strings(Event e) {
+		if (e instanceof ActivityStartEvent) {
+			ActivityStartEvent ev = (ActivityStartEvent) e;
+			return new String[]{ev.getPersonId().toString(), toString(ev.getLinkId()), toString(ev.getFacilityId()), ev.getActType()};
+		} else if (e instanceof ActivityEndEvent) {
+			ActivityEndEvent ev = (ActivityEndEvent) e;
+			return new String[]{ev.getPersonId().toString(), toString(ev.getLinkId()), toString(ev.getFacilityId()), ev.getActType()};
+		} else if (e instanceof PersonEntersVehicleEvent) {
+			PersonEntersVehicleEvent ev = (PersonEntersVehicleEvent) e;
+			return new String[]{ev.getPersonId().toString(), ev.getVehicleId().toString()};
+		} else if (e instanceof PersonLeavesVehicleEvent) {
+			PersonLeavesVehicleEvent ev = (PersonLeavesVehicleEvent) e;
+			return new String[]{ev.getPersonId().toString(), ev.getVehicleId().toString()};
+		}
+
+		throw new IllegalArgumentException("Unsupported event type for replay store: " + e.getEventType());
+	}
+
+	private static String toString(Id<?> id) {
+		return id == null ? null : id.toString();
+	}
+
+	private static int index(Object2IntMap<String> dict, Id<?> id) {
+		return id == null ? -1 : dict.getInt(id.toString());
+	}
+
+	private static void writeEvent(DataOutputStream out, Event e, Object2IntMap<String> dict) throws IOException {
+
+		if (e instanceof ActivityStartEvent) {
+			ActivityStartEvent ev = (ActivityStartEvent) e;
+			out.writeByte(ACT_START);
+			out.writeDouble(ev.getTime());
+			out.writeInt(index(dict, ev.getPersonId()));
+			out.writeInt(index(dict, ev.getLinkId()));
+			out.writeInt(index(dict, ev.getFacilityId()));
+			out.writeInt(dict.getInt(ev.getActType()));
+			writeCoord(out, ev.getCoord());
+
+		} else if (e instanceof ActivityEndEvent) {
+			ActivityEndEvent ev = (ActivityEndEvent) e;
+			out.writeByte(ACT_END);
+			out.writeDouble(ev.getTime());
+			out.writeInt(index(dict, ev.getPersonId()));
+			out.writeInt(index(dict, ev.getLinkId()));
+			out.writeInt(index(dict, ev.getFacilityId()));
+			out.writeInt(dict.getInt(ev.getActType()));
+			writeCoord(out, ev.getCoord());
+
+		} else if (e instanceof PersonEntersVehicleEvent) {
+			PersonEntersVehicleEvent ev = (PersonEntersVehicleEvent) e;
+			out.writeByte(ENTER_VEHICLE);
+			out.writeDouble(ev.getTime());
+			out.writeInt(index(dict, ev.getPersonId()));
+			out.writeInt(index(dict, ev.getVehicleId()));
+
+		} else if (e instanceof PersonLeavesVehicleEvent) {
+			PersonLeavesVehicleEvent ev = (PersonLeavesVehicleEvent) e;
+			out.writeByte(LEAVE_VEHICLE);
+			out.writeDouble(ev.getTime());
+			out.writeInt(index(dict, ev.getPersonId()));
+			out.writeInt(index(dict, ev.getVehicleId()));
+
+		} else
+			throw new IllegalArgumentException("Unsupported event type for replay store: " + e.getEventType());
+	}
+
+	private static Event readEvent(ByteBuffer buf, IdTable dict) {
+
+		byte type = buf.get();
+		double time = buf.getDouble();
+		Id<Person> person = dict.person(buf.getInt());
+
+		switch (type) {
+			case ACT_START: {
+				Id<Link> link = dict.link(buf.getInt());
+				Id<ActivityFacility> facility = dict.facility(buf.getInt());
+				String actType = dict.string(buf.getInt());
+				return new ActivityStartEvent(time, person, link, facility, actType, readCoord(buf));
+			}
+			case ACT_END: {
+				Id<Link> link = dict.link(buf.getInt());
+				Id<ActivityFacility> facility = dict.facility(buf.getInt());
+				String actType = dict.string(buf.getInt());
+				return new ActivityEndEvent(time, person, link, facility, actType, readCoord(buf));
+			}
+			case ENTER_VEHICLE:
+				return new PersonEntersVehicleEvent(time, person, dict.vehicle(buf.getInt()));
+			case LEAVE_VEHICLE:
+				return new PersonLeavesVehicleEvent(time, person, dict.vehicle(buf.getInt()));
+			default:
+				throw new IllegalStateException("Unknown event type in replay store: " + type);
+		}
+	}
+
+	private static void writeCoord(DataOutputStream out, @Nullable Coord coord) throws IOException {
+		out.writeBoolean(coord != null);
+		if (coord != null) {
+			out.writeDouble(coord.getX());
+			out.writeDouble(coord.getY());
+		}
+	}
+
+	@Nullable
+	private static Coord readCoord(ByteBuffer buf) {
+		return buf.get() != 0 ? new Coord(buf.getDouble(), buf.getDouble()) : null;
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Strings of the store and ids created from them. Ids are created lazily, because the same string may be used for different id types.
+	 * Concurrent creation is harmless, since ids are interned.
+	 */
+	private static final class IdTable {
+
+		private final String[] strings;
+		private final Id<Person>[] persons;
+		private final Id<Link>[] links;
+		private final Id<ActivityFacility>[] facilities;
+		private final Id<Vehicle>[] vehicles;
+
+		@SuppressWarnings("unchecked")
+		private IdTable(String[] strings) {
+			this.strings = strings;
+			this.persons = new Id[strings.length];
+			this.links = new Id[strings.length];
+			this.facilities = new Id[strings.length];
+			this.vehicles = new Id[strings.length];
+		}
+
+		private String string(int i) {
+			return i < 0 ? null : strings[i];
+		}
+
+		private Id<Person> person(int i) {
+			if (i < 0) return null;
+			if (persons[i] == null) persons[i] = Id.createPersonId(strings[i]);
+			return persons[i];
+		}
+
+		private Id<Link> link(int i) {
+			if (i < 0) return null;
+			if (links[i] == null) links[i] = Id.createLinkId(strings[i]);
+			return links[i];
+		}
+
+		private Id<ActivityFacility> facility(int i) {
+			if (i < 0) return null;
+			if (facilities[i] == null) facilities[i] = Id.create(strings[i], ActivityFacility.class);
+			return facilities[i];
+		}
+
+		private Id<Vehicle> vehicle(int i) {
+			if (i < 0) return null;
+			if (vehicles[i] == null) vehicles[i] = Id.createVehicleId(strings[i]);
+			return vehicles[i];
+		}
+	}
+}
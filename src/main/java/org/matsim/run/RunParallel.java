@@ -20,10 +20,12 @@
  */
 package org.matsim.run;
 
+import com.google.common.hash.Hashing;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Module;
+import com.google.inject.multibindings.Multibinder;
 import com.google.inject.util.Modules;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -34,6 +36,8 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.episim.*;
 import org.matsim.episim.analysis.OutputAnalysis;
+import org.matsim.episim.model.CommonRandomNumbers;
+import org.matsim.episim.model.SimulationListener;
 import org.matsim.episim.reporting.AsyncEpisimWriter;
 import org.matsim.episim.reporting.EpisimWriter;
 import picocli.CommandLine;
@@ -43,21 +47,29 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * Execute one {@link BatchRun} run in parallel. The work can also be distributed across multiple runners,
- * by using the <em>--worker-index</em> and <em>--total-worker</em> options.
+ * by using the <em>--worker-index</em> and <em>--total-worker</em> options. Alternatively, with <em>--job-queue</em>
+ * all runners claim jobs from a {@link JobQueue} in the shared output directory.
  *
  * @param <T> type to match batch run and params
  * @see CreateBatteryForCluster
@@ -92,6 +104,26 @@ public class RunParallel<T> implements Callable<Integer> {
 	@CommandLine.Option(names = OPTION_TASK_THREADS, defaultValue = "-1", description = "Overwrite Number of threads per simulation")
 	private int taskThreads;
 
+	public static final String OPTION_AUTO_SIZE = "--auto-size";
+	@CommandLine.Option(names = OPTION_AUTO_SIZE, defaultValue = "false", description = "Choose number of tasks and threads per task automatically. " +
+			"The first job is probed alone to measure its memory usage, --tasks is ignored.")
+	private boolean autoSize;
+
+	@CommandLine.Option(names = "--probe-days", defaultValue = "14", description = "Number of simulated days of the probe job for auto sizing.")
+	private int probeDays;
+
+	@CommandLine.Option(names = "--probe-seconds", defaultValue = "1800", description = "Maximum duration of probing the memory usage for auto sizing.")
+	private int probeSeconds;
+
+	@CommandLine.Option(names = "--auto-size-margin", defaultValue = "1.5", description = "Safety factor on the probed memory per task.")
+	private double autoSizeMargin;
+
+	public static final String OPTION_POST_TASKS = "--post-tasks";
+	@CommandLine.Option(names = OPTION_POST_TASKS, defaultValue = "2", description = "Number of post-processing analyses to run concurrently. " +
+			"Post-processing runs in its own pool, so that the next simulation can start meanwhile. " +
+			"At most as many finished runs wait for post-processing, further simulation tasks block until one is started.")
+	private int postTasks;
+
 	@CommandLine.Option(names = "--total-worker", defaultValue = "1", description = "Total number of worker processes available for this run." +
 			"The tasks will be split evenly between all processes using the index.")
 	private int totalWorker;
@@ -99,6 +131,19 @@ public class RunParallel<T> implements Callable<Integer> {
 	@CommandLine.Option(names = "--worker-index", defaultValue = "0", description = "Index of this worker process")
 	private int workerIndex;
 
+	public static final String OPTION_JOB_QUEUE = "--job-queue";
+	@CommandLine.Option(names = OPTION_JOB_QUEUE, defaultValue = "false", description = "Claim jobs dynamically from a queue shared by all workers " +
+			"in the output directory, instead of the static assignment by worker index. Completed jobs are skipped when workers are started again " +
+			"with the same output, delete the .queue folder to run them again.")
+	private boolean jobQueue;
+
+	@CommandLine.Option(names = "--job-lease", defaultValue = "30", description = "Minutes after which a job claimed by an unresponsive worker can be claimed again.")
+	private int jobLease;
+
+	public static final String OPTION_JOBS = "--jobs";
+	@CommandLine.Option(names = OPTION_JOBS, split = ",", description = "Indices of the jobs to execute, starting at 0. Used for batteries packed by cost.")
+	private Set<Integer> selectedJobs = new HashSet<>();
+
 	@CommandLine.Option(names = "--min-job", defaultValue = "${env:EPISIM_MIN_JOB:-0}", description = "Job to start at (skip first n jobs).")
 	private int minJob;
 
@@ -112,6 +157,11 @@ public class RunParallel<T> implements Callable<Integer> {
 	@CommandLine.Option(names = "--no-reuse", defaultValue = "false", description = "Don't reuse the scenario and events for the runs.")
 	private boolean noReuse;
 
+	public static final String OPTION_WARM_IMAGE = "--warm-image";
+	@CommandLine.Option(names = {OPTION_WARM_IMAGE, "--replay-store"}, description = "Directory of warm images, i.e. pre-decoded replay events and populations. " +
+			"Images are read from there if present, otherwise they are created after loading the scenario.")
+	private Path warmImage;
+
 	@CommandLine.Option(names = "--async-io", defaultValue = "false", description = "Write files asynchronously.")
 	private boolean asyncIO;
 
@@ -122,6 +172,60 @@ public class RunParallel<T> implements Callable<Integer> {
 	@CommandLine.Option(names = OPTION_POST_ONLY, defaultValue = "false", description = "Run only the post-processing")
 	private boolean postOnly;
 
+	public static final String OPTION_RESUME = "--resume";
+	@CommandLine.Option(names = OPTION_RESUME, defaultValue = "false", description = "Write snapshots periodically and resume runs from their latest snapshot. " +
+			"Finished runs are skipped.")
+	private boolean resume;
+
+	@CommandLine.Option(names = "--snapshot-interval", defaultValue = "30", description = "Interval in days for writing snapshots, when resuming is enabled.")
+	private int snapshotInterval;
+
+	@CommandLine.Option(names = "--keep-snapshots", defaultValue = "false", description = "Keep the snapshots of finished runs, when resuming is enabled.")
+	private boolean keepSnapshots;
+
+	public static final String OPTION_BRANCH = "--branch";
+	@CommandLine.Option(names = OPTION_BRANCH, defaultValue = "false", description = "Simulate the common prefix of runs, which are identical up to a date, " +
+			"only once and start the runs from its snapshot. Differing bound objects need to declare their date with @DateEffective.")
+	private boolean branch;
+
+	@CommandLine.Option(names = "--branch-min-days", defaultValue = "28", description = "Minimum length of a common prefix to be simulated separately.")
+	private int branchMinDays;
+
+	public static final String OPTION_CRN = "--common-random-numbers";
+	@CommandLine.Option(names = OPTION_CRN, defaultValue = "false", description = "Align random streams of runs with the same seed, so that " +
+			"parameter combinations form common random number pairs. All combinations with the same seed value must use the same random seed.")
+	private boolean commonRandomNumbers;
+
+	public static final String OPTION_STOP_REFERENCE = "--stop-reference";
+	@CommandLine.Option(names = OPTION_STOP_REFERENCE, description = "Stop runs early when their cumulative infections leave a band around the cases of this reference tsv.")
+	private Path stopReference;
+
+	@CommandLine.Option(names = "--stop-reference-column", defaultValue = "cases", description = "Column with daily cases in the reference tsv.")
+	private String stopReferenceColumn;
+
+	public static final String OPTION_STOP_BAND = "--stop-band";
+	@CommandLine.Option(names = OPTION_STOP_BAND, defaultValue = "0.5,2", split = ",", description = "Lower and upper bound of the ratio to the reference cases.")
+	private double[] stopBand;
+
+	public static final String OPTION_STOP_INCIDENCE = "--stop-incidence";
+	@CommandLine.Option(names = OPTION_STOP_INCIDENCE, split = ",", description = "Stop runs early when the 7-day incidence goes below or above min,max.")
+	private double[] stopIncidence;
+
+	@CommandLine.Option(names = "--stop-criterion", description = "Custom stopping criteria, which are evaluated each day.")
+	private List<Class<? extends EarlyStopping.Criterion>> stopCriteria = new ArrayList<>();
+
+	public static final String OPTION_STOP_WARMUP = "--stop-warmup";
+	@CommandLine.Option(names = OPTION_STOP_WARMUP, defaultValue = "14", description = "Number of days before stopping criteria are evaluated.")
+	private int stopWarmup;
+
+	public static final String OPTION_TELEMETRY = "--telemetry";
+	@CommandLine.Option(names = OPTION_TELEMETRY, defaultValue = "false", description = "Record wall time, memory, infections and contacts of each simulated day " +
+			"in a .perf.tsv file per run. Summarized for the battery with --write-metadata.")
+	private boolean telemetry;
+
+	@CommandLine.Option(names = "--post-metrics", defaultValue = "false", description = "Record throughput metrics of reading events in the post-processing.")
+	private boolean postMetrics;
+
 	public static final String OPTION_METADATA = "--write-metadata";
 	@CommandLine.Option(names = OPTION_METADATA, description = "Write metadata to output directory.", defaultValue = "false")
 	private boolean writeMetadata;
@@ -131,6 +235,12 @@ public class RunParallel<T> implements Callable<Integer> {
 	 */
 	private PreparedRun prepare;
 
+	/**
+	 * Cache of scenarios shared with other invocations, see {@link #createCache(PreparedRun, Path)}.
+	 */
+	@Nullable
+	private ScenarioCache sharedCache;
+
 	/**
 	 * Constructor for a predefined run.
 	 */
@@ -138,6 +248,38 @@ public class RunParallel<T> implements Callable<Integer> {
 		this.prepare = prepare;
 	}
 
+	/**
+	 * Constructor for a predefined run, which takes its scenarios from a cache that is kept across invocations.
+	 */
+	RunParallel(PreparedRun prepare, ScenarioCache cache) {
+		this.prepare = prepare;
+		this.sharedCache = cache;
+	}
+
+	/**
+	 * Create a cache that holds the scenarios of all runs of a batch until the process ends, so that they are loaded only once,
+	 * even if the runs are simulated by several invocations of {@link RunParallel}.
+	 *
+	 * @param warmImage directory of warm images or null
+	 */
+	static ScenarioCache createCache(PreparedRun prepare, @Nullable Path warmImage) throws IOException {
+
+		URL context = new File("./input").toURI().toURL();
+		ScenarioCache cache = new ScenarioCache(warmImage);
+
+		for (PreparedRun.Run run : prepare.runs) {
+			run.config.setContext(context);
+			Module bindings = ((BatchRun) prepare.setup).getBindings(run.id, run.args);
+
+			// the registration is never released
+			cache.register(run.config, () -> Guice.createInjector(Modules.override(Task.base(bindings)).with(new ParallelModule(run.config, null, null, null, false))));
+		}
+
+		log.info("Created shared cache for {} distinct set(s) of input files", cache.size());
+
+		return cache;
+	}
+
 	public RunParallel() {
 	}
 
@@ -163,7 +305,10 @@ public class RunParallel<T> implements Callable<Integer> {
 		// Same context as if would be run from config
 		URL context = new File("./input").toURI().toURL();
 
-		ExecutorService executor = Executors.newFixedThreadPool(tasks);
+		ExecutorService postExecutor = createPostExecutor(Math.max(1, postTasks));
+
+		if (postMetrics)
+			PostProcessingMetrics.setEnabled(true);
 
 		// prepare run only if not given via constructor
 		if (prepare == null)
@@ -171,34 +316,54 @@ public class RunParallel<T> implements Callable<Integer> {
 
 		List<CompletableFuture<Void>> futures = new ArrayList<>();
 
-		// All config need to have the same base config (population, events, etc..)
+		// Runs with the same input files as the base config (population, events, etc..) share the base scenario
 		Config baseConfig = prepare.runs.get(0).config;
 		baseConfig.setContext(context);
-		EpisimConfigGroup episimBase = ConfigUtils.addOrGetModule(baseConfig, EpisimConfigGroup.class);
 
-		Scenario scenario = null;
-		ReplayHandler replay = null;
-		AsyncEpisimWriter writer = asyncIO ? new AsyncEpisimWriter(tasks) : null;
+		ScenarioCache cache = null;
+		// with auto sizing, the writer is created when the number of tasks is known
+		AsyncEpisimWriter writer = asyncIO && !autoSize ? new AsyncEpisimWriter(tasks) : null;
+
+		AutoSizing sizing = autoSize ? new AutoSizing(autoSizeMargin) : null;
+		if (sizing != null)
+			sizing.measureIdle();
 
 		if (noReuse) {
 			log.info("Reusing scenario and events is disabled.");
+		} else if (sharedCache != null) {
+			log.info("Using shared scenarios...");
+			cache = sharedCache;
 		} else {
 			log.info("Creating base scenario...");
 
 			Module base = prepare.setup.getBindings(0, null);
 
-			Injector injector = Guice.createInjector(Modules.override(new EpisimModule()).with(base));
+			cache = new ScenarioCache(warmImage);
+			cache.preload(baseConfig, () -> Guice.createInjector(Modules.override(new EpisimModule()).with(base)));
 
-			scenario = injector.getInstance(Scenario.class);
-			replay = injector.getInstance(ReplayHandler.class);
+			if (sizing != null)
+				sizing.measureEntry();
 		}
 
+		if (commonRandomNumbers)
+			checkSeeds(prepare);
+
+		List<EarlyStopping.Criterion> criteria = createStoppingCriteria();
+		if (!criteria.isEmpty())
+			log.info("Runs will be stopped early by {} criteria after {} days", criteria.size(), stopWarmup);
+
 		BufferedWriter infoWriter = null;
 		if (writeMetadata) {
 			CreateBatteryForCluster.writeMetadata(output, prepare);
 			infoWriter = CreateBatteryForCluster.writeInfoHeader(output, prepare);
 		}
 
+		// tasks by job index
+		Map<Integer, Task> jobs = new LinkedHashMap<>();
+
+		// params of each task, which determine whether runs can be branched
+		Map<Task, Object> params = new IdentityHashMap<>();
+
 		int i = 0;
 		for (PreparedRun.Run run : prepare.runs) {
 
@@ -206,7 +371,11 @@ public class RunParallel<T> implements Callable<Integer> {
 				CreateBatteryForCluster.writeRunToInfo(infoWriter, output, prepare, run, prepare.getName());
 			}
 
-			if (i++ % totalWorker != workerIndex)
+			// with the queue, jobs are distributed among workers dynamically
+			if (i++ % totalWorker != workerIndex && !jobQueue)
+				continue;
+
+			if (!selectedJobs.isEmpty() && !selectedJobs.contains(i - 1))
 				continue;
 
 			if (i < minJob)
@@ -220,43 +389,164 @@ public class RunParallel<T> implements Callable<Integer> {
 				episimConfig.setThreads(taskThreads);
 			}
 
-			boolean sameInput = episimBase.getInputEventsFiles().containsAll(episimConfig.getInputEventsFiles()) &&
-			episimConfig.getInputEventsFiles().containsAll(episimBase.getInputEventsFiles());
-
-			sameInput &= Objects.equals(baseConfig.vehicles().getVehiclesFile(), run.config.vehicles().getVehiclesFile());
-			sameInput &= Objects.equals(baseConfig.plans().getInputFile(), run.config.plans().getInputFile());
-
-			if (!noReuse && !sameInput) {
-				log.error("Input files differs for run {}", run.id);
-				return 1;
-			}
-
 			String outputPath = output + "/" + prepare.getOutputName(run);
 			run.config.controler().setOutputDirectory(outputPath);
 			run.config.controler().setRunId(prepare.setup.getMetadata().name + run.id);
 			run.config.setContext(context);
 
-			Collection<OutputAnalysis> post = prepare.setup.postProcessing();
+			if (resume) {
+				Path runOutput = Path.of(outputPath);
+				if (Checkpoints.isFinished(runOutput)) {
+					log.info("Skipping finished run {}", outputPath);
+					continue;
+				}
 
-			futures.add(CompletableFuture.runAsync(
-					new Task(
-							((BatchRun) prepare.setup).getBindings(run.id, run.args),
-							new ParallelModule(run.config, scenario, replay, writer),
-							maxIterations,
-							postOnly,
-							post
-					), executor)
-					.exceptionally(t -> {
-						log.error("Task {} failed", outputPath, t);
-						return null;
-					}));
+				episimConfig.setSnapshotInterval(snapshotInterval);
+
+				Optional<Path> snapshot = Checkpoints.latestSnapshot(runOutput);
+				if (snapshot.isPresent()) {
+					log.info("Resuming run {} from {}", outputPath, snapshot.get());
+					episimConfig.setStartFromSnapshot(snapshot.get().toString());
+					episimConfig.setSnapshotSeed(EpisimConfigGroup.SnapshotSeed.restore);
+				}
+			}
+
+			Collection<OutputAnalysis> post = prepare.setup.postProcessing();
+			Module bindings = ((BatchRun) prepare.setup).getBindings(run.id, run.args);
+
+			// runs with different input files get their own shared scenario
+			ScenarioCache.Key key = cache == null ? null :
+					cache.register(run.config, () -> Guice.createInjector(Modules.override(Task.base(bindings)).with(new ParallelModule(run.config, null, null, null, commonRandomNumbers))));
+
+			Task task = new Task(
+					bindings,
+					run.config,
+					writer,
+					cache,
+					key,
+					maxIterations,
+					postOnly,
+					post,
+					resume || episimConfig.getSnapshotInterval() > 0,
+					resume && !keepSnapshots,
+					criteria,
+					stopWarmup,
+					telemetry,
+					commonRandomNumbers
+			);
+
+			jobs.put(i - 1, task);
+			params.put(task, run.args);
 		}
 
 		if (writeMetadata) {
 			infoWriter.close();
 		}
 
-		log.info("Created {} (out of {}) tasks for worker {} ({} max tasks available)", futures.size(), prepare.runs.size(), workerIndex, tasks);
+		if (cache != null) {
+			cache.evictUnused();
+			log.info("Runs use {} distinct set(s) of input files", cache.size());
+		}
+
+		if (branch && !postOnly && jobQueue)
+			log.warn("Branching is not supported with the job queue, because every worker would simulate the prefixes.");
+
+		List<CompletableFuture<Void>> postFutures = Collections.synchronizedList(new ArrayList<>());
+		JobQueue queue = jobQueue ? new JobQueue(output, jobs.keySet(), Duration.ofMinutes(jobLease)) : null;
+
+		// tasks that still need to be submitted, if not using the queue
+		List<Task> pending = new ArrayList<>(jobs.values());
+
+		int poolSize = tasks;
+		CompletableFuture<Void> probe = null;
+		boolean probeSlot = false;
+		if (sizing != null && !jobs.isEmpty()) {
+
+			// entries of other input sets are loaded later and need the same memory
+			sizing.plan(cache == null ? 0 : cache.size());
+
+			// the first job runs alone until the sizing is known, it writes synchronously because the writer is not created yet
+			ExecutorService probeExecutor = Executors.newSingleThreadExecutor();
+			Task probeTask = null;
+			if (queue != null) {
+				OptionalInt first = queue.claim();
+				JobQueue q = queue;
+				if (first.isPresent()) {
+					probeTask = jobs.get(first.getAsInt());
+					probeTask.addListener(sizing.listener());
+					Task t = probeTask;
+					probe = CompletableFuture.runAsync(() -> processJob(q, first.getAsInt(), t, postExecutor, postFutures), probeExecutor);
+				} else
+					probe = CompletableFuture.completedFuture(null);
+			} else {
+				probeTask = pending.remove(0);
+				probeTask.addListener(sizing.listener());
+
+				probe = submit(probeTask, probeExecutor, postExecutor);
+			}
+
+			futures.add(probe);
+
+			AutoSizing.Result result = sizing.probe(probe, probeDays, Duration.ofSeconds(probeSeconds), jobs.size());
+			probeExecutor.shutdown();
+
+			// probe task is still occupying one slot, which is added to the pool when it finishes
+			boolean running = !probe.isDone();
+			poolSize = running ? Math.max(1, result.tasks - 1) : result.tasks;
+			probeSlot = running && result.tasks > 1;
+
+			if (asyncIO)
+				writer = new AsyncEpisimWriter(result.tasks);
+
+			for (Task task : jobs.values()) {
+				if (task == probeTask)
+					continue;
+
+				task.setWriter(writer);
+				if (taskThreads == -1)
+					ConfigUtils.addOrGetModule(task.config, EpisimConfigGroup.class).setThreads(result.threads);
+			}
+		}
+
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(poolSize);
+
+		if (probeSlot) {
+			int size = poolSize + 1;
+			JobQueue q = queue;
+
+			// the slot of the probe is added to the pool once it finished, with the queue the new slot needs its own claiming loop
+			futures.add(probe.handle((v, t) -> null).thenCompose(v -> {
+				executor.setMaximumPoolSize(size);
+				executor.setCorePoolSize(size);
+				log.info("Probe finished, increased number of task slots to {}", size);
+
+				return q == null ? CompletableFuture.<Void>completedFuture(null) :
+						CompletableFuture.runAsync(() -> processQueue(q, jobs, postExecutor, postFutures), executor);
+			}));
+		}
+
+		if (queue != null) {
+
+			// every executor thread claims jobs until the queue is exhausted
+			for (int t = 0; t < poolSize; t++) {
+				JobQueue q = queue;
+				futures.add(CompletableFuture.runAsync(() -> processQueue(q, jobs, postExecutor, postFutures), executor));
+			}
+
+			log.info("Started {} task slots claiming from queue with {} (out of {}) jobs", poolSize, jobs.size(), prepare.runs.size());
+
+		} else {
+
+			// prefixes are simulated by the same executor, the runs of a group are submitted once its prefix is finished
+			Map<Task, CompletableFuture<Void>> prefixes = branch && !postOnly ? branchRuns(pending, params, writer, cache, executor) : Map.of();
+
+			for (Task task : pending) {
+				CompletableFuture<Void> prefix = prefixes.get(task);
+				futures.add(prefix == null ? submit(task, executor, postExecutor) : prefix.thenCompose(v -> submit(task, executor, postExecutor)));
+			}
+
+			log.info("Created {} (out of {}) tasks for worker {} ({} max tasks available)", futures.size(), prepare.runs.size(), workerIndex, poolSize);
+		}
 
 		// Wait for all futures to complete
 		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally( e -> {
@@ -265,8 +555,23 @@ public class RunParallel<T> implements Callable<Integer> {
 		}
 		).join();
 
+		// post-processing tasks submitted by the queue are only known after all jobs are claimed
+		CompletableFuture.allOf(postFutures.toArray(new CompletableFuture[0])).join();
+
 		log.info("Finished all tasks");
 		executor.shutdown();
+		postExecutor.shutdown();
+
+		if (queue != null)
+			queue.close();
+
+		PostProcessingMetrics.summarize(output);
+
+		if (!criteria.isEmpty())
+			EarlyStopping.updateInfo(output);
+
+		if (telemetry && writeMetadata)
+			PerformanceTelemetry.summarize(output);
 
 		if (writer != null)
 			writer.close();
@@ -274,80 +579,532 @@ public class RunParallel<T> implements Callable<Integer> {
 		return 0;
 	}
 
+	/**
+	 * Group runs that are identical up to a date, simulate this prefix once for each group and let the runs of the group start from its snapshot.
+	 * Runs that already start from a snapshot are not considered. Runs with differing bindings are only branched if the differing objects
+	 * declare a date with {@link DateEffective}.
+	 *
+	 * @return future of the prefix for each run that is branched, which completes also if the prefix failed
+	 */
+	private Map<Task, CompletableFuture<Void>> branchRuns(Collection<Task> runs, Map<Task, Object> params, @Nullable AsyncEpisimWriter writer, @Nullable ScenarioCache cache, ExecutorService executor) {
+
+		// runs already starting from a snapshot can not be branched
+		List<Task> candidates = runs.stream()
+				.filter(t -> ConfigUtils.addOrGetModule(t.config, EpisimConfigGroup.class).getStartFromSnapshot() == null)
+				.collect(Collectors.toList());
+
+		List<Divergence.Group<Task>> groups = Divergence.group(candidates, t -> t.config, params::get, t -> t.bindings, branchMinDays);
+
+		Map<Task, CompletableFuture<Void>> prefixes = new IdentityHashMap<>();
+
+		for (Divergence.Group<Task> g : groups) {
+			List<Task> group = g.getMembers();
+			if (group.size() < 2)
+				continue;
+
+			LocalDate start = ConfigUtils.addOrGetModule(group.get(0).config, EpisimConfigGroup.class).getStartDate();
+
+			// iteration 1 is the start date, the snapshot is taken before the day of the first difference
+			int iteration = (int) Math.min(ChronoUnit.DAYS.between(start, g.getDate()) - 1, maxIterations);
+
+			log.info("Branching {} runs after {} days, at {} (first difference: {})", group.size(), iteration, start.plusDays(iteration - 1), g.getReason());
+
+			String fingerprint = Divergence.fingerprint(group.get(0).config, params.get(group.get(0)));
+
+			CompletableFuture<Void> prefix = CompletableFuture.runAsync(() -> simulatePrefix(group, fingerprint, iteration, writer, cache), executor)
+					.exceptionally(t -> {
+						log.error("Prefix of {} failed, runs will be simulated completely", group.get(0).getOutput(), t);
+						return null;
+					});
+
+			group.forEach(t -> prefixes.put(t, prefix));
+		}
+
+		return prefixes;
+	}
+
+	/**
+	 * Simulate the prefix of a group, using the config of its first run, and set the snapshot for all runs of the group.
+	 * The prefix is stored by the fingerprint of this run, so that it is only reused by runs with the same config and params.
+	 */
+	private void simulatePrefix(List<Task> group, String fingerprint, int iteration, @Nullable AsyncEpisimWriter writer, @Nullable ScenarioCache cache) {
+
+		Task first = group.get(0);
+		Config config = first.config;
+		EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
+
+		String runOutput = config.controler().getOutputDirectory();
+		String hash = Hashing.sha256().hashString(fingerprint, StandardCharsets.UTF_8).toString().substring(0, 16);
+		Path prefixOutput = output.resolve(".prefix").resolve(hash + "-" + iteration);
+
+		Optional<Path> snapshot = Checkpoints.latestSnapshot(prefixOutput).filter(p -> Checkpoints.iteration(p) == iteration);
+
+		if (snapshot.isEmpty()) {
+
+			int interval = episimConfig.getSnapshotInterval();
+
+			config.controler().setOutputDirectory(prefixOutput.toString());
+			episimConfig.setSnapshotInterval(iteration);
+
+			ScenarioCache.Key key = cache == null ? null :
+					cache.register(config, () -> Guice.createInjector(Modules.override(Task.base(first.bindings)).with(new ParallelModule(config, null, null, null, commonRandomNumbers))));
+
+			Task prefix = new Task(first.bindings, config, writer, cache, key, iteration, false, List.of(), false, false, List.of(), 0, false, commonRandomNumbers);
+
+			try {
+				prefix.run();
+			} finally {
+				if (cache != null)
+					cache.release(key);
+
+				config.controler().setOutputDirectory(runOutput);
+				episimConfig.setSnapshotInterval(interval);
+			}
+
+			snapshot = Checkpoints.latestSnapshot(prefixOutput).filter(p -> Checkpoints.iteration(p) == iteration);
+		}
+
+		if (snapshot.isEmpty())
+			throw new IllegalStateException("No snapshot was written for prefix " + prefixOutput);
+
+		for (Task task : group) {
+			EpisimConfigGroup c = ConfigUtils.addOrGetModule(task.config, EpisimConfigGroup.class);
+			c.setStartFromSnapshot(snapshot.get().toString());
+			c.setSnapshotSeed(EpisimConfigGroup.SnapshotSeed.restore);
+		}
+	}
+
+	/**
+	 * Check that all runs with the same value of the seed parameter use the same random seed, otherwise they do not form common random number pairs.
+	 *
+	 * @throws IllegalArgumentException if the batch sets different random seeds for the same seed parameter
+	 */
+	private static void checkSeeds(PreparedRun prepare) {
+
+		int idx = prepare.parameter.indexOf("seed");
+		if (idx == -1) {
+			log.warn("Batch has no seed parameter, all runs share the seed of their config");
+			return;
+		}
+
+		Map<Object, Long> seeds = new HashMap<>();
+		for (PreparedRun.Run run : prepare.runs) {
+			long seed = seeds.computeIfAbsent(run.params.get(idx), k -> run.config.global().getRandomSeed());
+			if (run.config.global().getRandomSeed() != seed)
+				throw new IllegalArgumentException(String.format("Run %d uses random seed %d, but other runs with seed parameter %s use %d",
+						run.id, run.config.global().getRandomSeed(), EpisimUtils.asString(run.params.get(idx)), seed));
+		}
+
+		log.info("Using common random numbers with {} distinct seeds", seeds.size());
+	}
+
+	/**
+	 * Create the stopping criteria given by the options.
+	 */
+	private List<EarlyStopping.Criterion> createStoppingCriteria() throws ReflectiveOperationException, IOException {
+
+		List<EarlyStopping.Criterion> criteria = new ArrayList<>();
+
+		if (stopReference != null) {
+			if (stopBand.length != 2)
+				throw new IllegalArgumentException(OPTION_STOP_BAND + " needs lower and upper bound");
+
+			criteria.add(EarlyStopping.band(stopReference, stopReferenceColumn, stopBand[0], stopBand[1]));
+		}
+
+		if (stopIncidence != null) {
+			if (stopIncidence.length != 2)
+				throw new IllegalArgumentException(OPTION_STOP_INCIDENCE + " needs min and max incidence");
+
+			criteria.add(EarlyStopping.incidence(stopIncidence[0], stopIncidence[1]));
+		}
+
+		for (Class<? extends EarlyStopping.Criterion> c : stopCriteria) {
+			criteria.add(c.getDeclaredConstructor().newInstance());
+		}
+
+		return criteria;
+	}
+
+	/**
+	 * Create the pool for post-processing. Its queue is bounded, because every waiting task holds the scenario of its run.
+	 * Submitting to a full queue blocks the simulation thread, until a post-processing task has been started.
+	 */
+	static ThreadPoolExecutor createPostExecutor(int threads) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads), (r, executor) -> {
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("Post-processing pool has been shut down");
+
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for post-processing", e);
+			}
+		});
+	}
+
+	/**
+	 * Submit simulation and post-processing of a task.
+	 */
+	private static CompletableFuture<Void> submit(Task task, ExecutorService executor, ExecutorService postExecutor) {
+		// post-processing is skipped if the simulation failed
+		return CompletableFuture.runAsync(task, executor)
+				.thenRunAsync(task::postProcess, postExecutor)
+				.exceptionally(t -> {
+					log.error("Task {} failed", task.getOutput(), t);
+					return null;
+				});
+	}
+
+	/**
+	 * Claim and run jobs from the queue until no job is left.
+	 */
+	private static void processQueue(JobQueue queue, Map<Integer, Task> jobs, ExecutorService postExecutor, List<CompletableFuture<Void>> postFutures) {
+		OptionalInt job;
+		while ((job = queue.claim()).isPresent()) {
+			releaseCompleted(queue, jobs);
+			processJob(queue, job.getAsInt(), jobs.get(job.getAsInt()), postExecutor, postFutures);
+		}
+
+		releaseCompleted(queue, jobs);
+	}
+
+	/**
+	 * All jobs are registered in the cache by every worker, those completed by other workers need to be released here.
+	 */
+	private static void releaseCompleted(JobQueue queue, Map<Integer, Task> jobs) {
+		for (int id : queue.drainCompleted()) {
+			Task task = jobs.get(id);
+			if (task != null)
+				task.discard();
+		}
+	}
+
+	/**
+	 * Run one claimed job and complete it after the post-processing.
+	 */
+	private static void processJob(JobQueue queue, int id, Task task, ExecutorService postExecutor, List<CompletableFuture<Void>> postFutures) {
+
+		try {
+			task.run(queue.watch(id));
+		} catch (RuntimeException e) {
+			if (queue.isLost(id)) {
+				log.warn("Task {} aborted, because job {} has been taken over by another worker", task.getOutput(), id);
+				return;
+			}
+
+			log.error("Task {} failed", task.getOutput(), e);
+			queue.complete(id, false);
+			return;
+		} catch (Error e) {
+			// e.g. out of memory, the job is given back so that another worker can recover it
+			log.error("Task {} failed with error, releasing job {}", task.getOutput(), id, e);
+			queue.release(id);
+			throw e;
+		}
+
+		if (queue.isLost(id)) {
+			log.warn("Task {} is not post-processed, because job {} has been taken over by another worker", task.getOutput(), id);
+			task.discard();
+			return;
+		}
+
+		// job is only completed after the post-processing, so that it will be recovered if the worker crashes
+		postFutures.add(CompletableFuture.runAsync(task::postProcess, postExecutor)
+				.whenComplete((v, t) -> queue.complete(id, t == null))
+				.exceptionally(t -> {
+					log.error("Post-processing of {} failed", task.getOutput(), t);
+					return null;
+				}));
+	}
+
 	private static final class ParallelModule extends AbstractModule {
 
 		private final Config config;
 		private final Scenario scenario;
 		private final ReplayHandler replay;
 		private final AsyncEpisimWriter writer;
+		private final List<SimulationListener> listeners;
+		private final boolean commonRandomNumbers;
+
+		private ParallelModule(Config config, @Nullable Scenario scenario, @Nullable ReplayHandler replay, @Nullable AsyncEpisimWriter writer,
+							   boolean commonRandomNumbers) {
+			this(config, scenario, replay, writer, List.of(), commonRandomNumbers);
+		}
 
-		private ParallelModule(Config config, @Nullable Scenario scenario, ReplayHandler replay, AsyncEpisimWriter writer) {
+		private ParallelModule(Config config, @Nullable Scenario scenario, @Nullable ReplayHandler replay, @Nullable AsyncEpisimWriter writer,
+							   List<SimulationListener> listeners, boolean commonRandomNumbers) {
 			this.scenario = scenario;
 			this.config = config;
 			this.replay = replay;
 			this.writer = writer;
+			this.listeners = listeners;
+			this.commonRandomNumbers = commonRandomNumbers;
 		}
 
 		@Override
 		protected void configure() {
 			bind(Config.class).toInstance(config);
 
-			if (scenario != null) {
+			if (scenario != null)
 				bind(Scenario.class).toInstance(scenario);
+
+			if (replay != null)
 				bind(ReplayHandler.class).toInstance(replay);
-			}
 
 			if (writer != null) {
 				bind(EpisimWriter.class).toInstance(writer);
 			}
+
+			if (commonRandomNumbers)
+				bind(CommonRandomNumbers.class).toInstance(new CommonRandomNumbers(config.global().getRandomSeed(), true));
+
+			// added to the listeners of the scenario
+			if (!listeners.isEmpty()) {
+				Multibinder<SimulationListener> binder = Multibinder.newSetBinder(binder(), SimulationListener.class);
+				listeners.forEach(l -> binder.addBinding().toInstance(l));
+			}
 		}
 	}
 
+	/**
+	 * Runs one simulation. The post-processing is executed separately by {@link #postProcess()}, which only retains
+	 * the scenario of the simulation and not the whole simulation state.
+	 */
 	private static final class Task implements Runnable {
 
 		private static final AtomicInteger i = new AtomicInteger(0);
 
 		@Nullable
 		private final Module bindings;
-		private final ParallelModule module;
+		private final Config config;
+		@Nullable
+		private AsyncEpisimWriter writer;
+		@Nullable
+		private final ScenarioCache cache;
+		@Nullable
+		private final ScenarioCache.Key key;
 		private final int maxIterations;
 		private final boolean postOnly;
 		private final Collection<OutputAnalysis> post;
 
-		private Task(@Nullable Module bindings, ParallelModule module, int maxIterations, boolean postOnly, Collection<OutputAnalysis> post) {
+		/**
+		 * Write the marker for finished runs, which is only needed to resume.
+		 */
+		private final boolean markFinished;
+
+		/**
+		 * Delete snapshots when the run is finished.
+		 */
+		private final boolean deleteSnapshots;
+
+		private final List<EarlyStopping.Criterion> criteria;
+		private final int stopWarmup;
+
+		/**
+		 * Record performance of each simulated day.
+		 */
+		private final boolean telemetry;
+
+		/**
+		 * Draw random numbers of model components from streams aligned between runs.
+		 */
+		private final boolean commonRandomNumbers;
+
+		/**
+		 * Whether the cache entry has been released.
+		 */
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		/**
+		 * Additional listeners of the simulation.
+		 */
+		private final List<SimulationListener> extraListeners = new ArrayList<>();
+
+		/**
+		 * Scenario used by the simulation, which is needed by the analyses.
+		 */
+		@Nullable
+		private Scenario scenario;
+
+		private Task(@Nullable Module bindings, Config config, @Nullable AsyncEpisimWriter writer, @Nullable ScenarioCache cache, @Nullable ScenarioCache.Key key,
+					 int maxIterations, boolean postOnly, Collection<OutputAnalysis> post, boolean markFinished, boolean deleteSnapshots,
+					 List<EarlyStopping.Criterion> criteria, int stopWarmup, boolean telemetry, boolean commonRandomNumbers) {
 			this.bindings = bindings;
-			this.module = module;
+			this.config = config;
+			this.writer = writer;
+			this.cache = cache;
+			this.key = key;
 			this.maxIterations = maxIterations;
 			this.postOnly = postOnly;
 			this.post = post;
+			this.markFinished = markFinished;
+			this.deleteSnapshots = deleteSnapshots;
+			this.criteria = criteria;
+			this.stopWarmup = stopWarmup;
+			this.telemetry = telemetry;
+			this.commonRandomNumbers = commonRandomNumbers;
 		}
 
-		@Override
-		public void run() {
+		/**
+		 * Set the writer, before the task is started.
+		 */
+		void setWriter(@Nullable AsyncEpisimWriter writer) {
+			this.writer = writer;
+		}
+
+		/**
+		 * Add a listener to the simulation, before the task is started.
+		 */
+		void addListener(SimulationListener listener) {
+			extraListeners.add(listener);
+		}
+
+		String getOutput() {
+			return config.controler().getOutputDirectory();
+		}
 
-			Module base;
+		private static Module base(@Nullable Module bindings) {
 			if (bindings == null)
-				base = new EpisimModule();
+				return new EpisimModule();
 			else
-				base = Modules.override(new EpisimModule()).with(bindings);
+				return Modules.override(new EpisimModule()).with(bindings);
+		}
+
+		@Override
+		public void run() {
+			run(null);
+		}
+
+		/**
+		 * Run the simulation with an additional listener.
+		 */
+		void run(@Nullable SimulationListener guard) {
+			try {
+				simulate(guard);
+			} catch (RuntimeException | Error e) {
+				// post-processing will not be run
+				releaseScenario();
+				throw e;
+			}
+		}
+
+		/**
+		 * Release the scenario without post-processing.
+		 */
+		void discard() {
+			releaseScenario();
+			scenario = null;
+		}
+
+		/**
+		 * Release the entry of this task in the cache, which is done only once.
+		 */
+		private void releaseScenario() {
+			if (cache != null && released.compareAndSet(false, true))
+				cache.release(key);
+		}
+
+		private void simulate(@Nullable SimulationListener guard) {
+
+			String output = getOutput();
+			List<SimulationListener> listeners = new ArrayList<>();
+
+			if (guard != null)
+				listeners.add(guard);
+
+			listeners.addAll(extraListeners);
+
+			// days that are actually simulated, which are fewer than the iterations when starting from a snapshot
+			AtomicInteger days = new AtomicInteger();
+			listeners.add(new SimulationListener() {
+				@Override
+				public void onIterationEnd(int iteration, LocalDate date) {
+					days.incrementAndGet();
+				}
+			});
+
+			EarlyStopping stopping = criteria.isEmpty() ? null :
+					new EarlyStopping(criteria, stopWarmup, ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class).getSampleSize());
+
+			if (stopping != null)
+				listeners.add(stopping);
+
+			PerformanceTelemetry perf = telemetry ? new PerformanceTelemetry(Path.of(output), config.controler().getRunId()) : null;
+			if (perf != null)
+				listeners.add(perf);
 
+			ParallelModule module;
+			if (cache != null) {
+				ScenarioCache.Entry entry = cache.acquire(key);
+				module = new ParallelModule(config, entry.getScenario(), entry.getReplay(), writer, listeners, commonRandomNumbers);
+			} else
+				module = new ParallelModule(config, null, null, writer, listeners, commonRandomNumbers);
 
 			// overwrite the scenario definition
-			Injector injector = Guice.createInjector(Modules.override(base).with(this.module));
+			Injector injector = Guice.createInjector(Modules.override(base(bindings)).with(module));
 
 			if (i.getAndIncrement() == 0) {
 				RunEpisim.printBindings(injector);
 			}
 
-			String output = this.module.config.controler().getOutputDirectory();
-
 			log.info("Starting task: {}", output);
 
 			if (!postOnly) {
 				EpisimRunner runner = injector.getInstance(EpisimRunner.class);
-				runner.run(maxIterations);
+				long start = System.nanoTime();
+				try {
+					runner.run(maxIterations);
+
+					EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
+					CostModel.record(Path.of(output), (System.nanoTime() - start) / 1e9, days.get(),
+							episimConfig.getSampleSize(), episimConfig.getThreads());
+
+				} catch (RuntimeException e) {
+					if (stopping == null || !EarlyStopping.isStop(e))
+						throw e;
+
+					stopping.markStopped(Path.of(output));
+					log.info("Task stopped early: {}", output);
+				} finally {
+					if (perf != null)
+						perf.close();
+				}
+			}
+
+			if (!post.isEmpty())
+				scenario = injector.getInstance(Scenario.class);
+
+			log.info("Task finished: {}", output);
+		}
+
+		/**
+		 * Run all analyses on the output of this task and mark it as finished, if resuming or snapshots are enabled.
+		 */
+		void postProcess() {
+
+			String output = getOutput();
+
+			try {
+				if (!post.isEmpty())
+					analyze(output);
+			} finally {
+				releaseScenario();
 			}
 
+			if (markFinished)
+				Checkpoints.markFinished(Path.of(output));
+
+			if (deleteSnapshots)
+				Checkpoints.deleteSnapshots(Path.of(output));
+		}
+
+		private void analyze(String output) {
+
+			// fresh injector, which does not hold references to the simulation anymore
+			Injector injector = Guice.createInjector(Modules.override(base(bindings)).with(new ParallelModule(config, scenario, null, null, commonRandomNumbers)));
+
 			for (OutputAnalysis analysis : post) {
 				log.info("Running analysis {} on {}", analysis.getClass().getSimpleName(), output);
 
@@ -360,8 +1117,9 @@ public class RunParallel<T> implements Callable<Integer> {
 				}
 			}
 
+			scenario = null;
 
-			log.info("Task finished: {}", output);
+			log.info("Post-processing finished: {}", output);
 		}
 	}
 
@@ -0,0 +1,258 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.run;
+
+import com.google.inject.Injector;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.ReplayHandler;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Holds one {@link Scenario} and {@link ReplayHandler} for each distinct set of input files (events, plans and vehicles).
+ * Runs with the same input files share the same instances. Entries are loaded when first needed, and are reference counted
+ * so that they are released once the last run using them has finished.
+ * <p>
+ * If a directory for warm images is given, the events and population are read from a {@link ReplayStore} and {@link PopulationImage}
+ * for the inputs if present, otherwise the images are created after loading the scenario.
+ */
+final class ScenarioCache {
+
+	private static final Logger log = LogManager.getLogger(ScenarioCache.class);
+
+	private final Map<Key, Entry> entries = new HashMap<>();
+
+	@Nullable
+	private final Path warmImage;
+
+	/**
+	 * @param warmImage directory of replay stores and population images, or null to always load the scenario from its input files
+	 */
+	ScenarioCache(@Nullable Path warmImage) {
+		this.warmImage = warmImage;
+	}
+
+	/**
+	 * Register a run that will use the inputs of given config.
+	 *
+	 * @param config config of the run
+	 * @param loader creates an injector, from which the scenario will be loaded if this entry is not present yet
+	 * @return key to acquire and release the entry
+	 */
+	synchronized Key register(Config config, Supplier<Injector> loader) {
+		Key key = Key.of(config);
+		entries.computeIfAbsent(key, k -> new Entry(k, config, loader)).refs++;
+		return key;
+	}
+
+	/**
+	 * Load an entry eagerly, even if no run has been registered yet.
+	 */
+	void preload(Config config, Supplier<Injector> loader) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.computeIfAbsent(Key.of(config), k -> new Entry(k, config, loader));
+		}
+		entry.load();
+	}
+
+	/**
+	 * Removes all entries without registered runs.
+	 */
+	synchronized void evictUnused() {
+		entries.values().removeIf(e -> e.refs == 0);
+	}
+
+	/**
+	 * Number of distinct input sets.
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the entry for a registered run and load it if necessary. Other runs requesting the same entry will wait until loading is done.
+	 */
+	Entry acquire(Key key) {
+		Entry entry;
+		synchronized (this) {
+			entry = Objects.requireNonNull(entries.get(key), "Run was not registered or already released");
+		}
+		entry.load();
+		return entry;
+	}
+
+	/**
+	 * Release one run of the entry. The entry will be removed when no run is left.
+	 */
+	synchronized void release(Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return;
+
+		if (--entry.refs <= 0) {
+			entries.remove(key);
+			log.info("Released scenario for {}", key);
+		}
+	}
+
+	/**
+	 * Identifies the set of input files of a config.
+	 */
+	static final class Key {
+
+		private final List<String> events;
+		private final String plans;
+		private final String vehicles;
+
+		private Key(List<String> events, String plans, String vehicles) {
+			this.events = events;
+			this.plans = plans;
+			this.vehicles = vehicles;
+		}
+
+		static Key of(Config config) {
+			EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
+
+			// order of the event files is irrelevant
+			List<String> events = episimConfig.getInputEventsFiles().stream()
+					.map(p -> new TreeMap<>(p.getParams()).toString())
+					.sorted()
+					.collect(Collectors.toList());
+
+			return new Key(events, config.plans().getInputFile(), config.vehicles().getVehiclesFile());
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return events.equals(key.events) && Objects.equals(plans, key.plans) && Objects.equals(vehicles, key.vehicles);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(events, plans, vehicles);
+		}
+
+		@Override
+		public String toString() {
+			return "events=" + events + ", plans=" + plans + ", vehicles=" + vehicles;
+		}
+	}
+
+	/**
+	 * Shared scenario and events.
+	 */
+	final class Entry {
+
+		private final Key key;
+		private final Config config;
+		private final Supplier<Injector> loader;
+
+		/**
+		 * Number of runs that will still use this entry.
+		 */
+		private int refs;
+
+		private Scenario scenario;
+		private ReplayHandler replay;
+
+		private Entry(Key key, Config config, Supplier<Injector> loader) {
+			this.key = key;
+			this.config = config;
+			this.loader = loader;
+		}
+
+		private synchronized void load() {
+			if (scenario != null)
+				return;
+
+			log.info("Creating shared scenario...");
+
+			if (warmImage == null) {
+				Injector injector = loader.get();
+				scenario = injector.getInstance(Scenario.class);
+				replay = injector.getInstance(ReplayHandler.class);
+				return;
+			}
+
+			// the injector is needed for the fingerprint, the scenario is only loaded when requested
+			Injector injector = loader.get();
+
+			String fingerprint = ReplayStore.fingerprint(config, injector);
+			Path population = PopulationImage.path(warmImage, fingerprint);
+			Path store = ReplayStore.path(warmImage, fingerprint);
+
+			try {
+				if (Files.exists(population))
+					scenario = PopulationImage.read(config, population, fingerprint);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Could not read population image {}, population will be loaded", population, e);
+			}
+
+			try {
+				if (Files.exists(store))
+					replay = ReplayStore.read(store, fingerprint);
+			} catch (IOException | RuntimeException e) {
+				log.warn("Could not read replay store {}, events will be parsed", store, e);
+			}
+
+			if (scenario == null) {
+				scenario = injector.getInstance(Scenario.class);
+				try {
+					PopulationImage.write(scenario, fingerprint, population);
+				} catch (IOException | RuntimeException e) {
+					log.warn("Could not write population image {}", population, e);
+				}
+			}
+
+			if (replay == null) {
+				replay = injector.getInstance(ReplayHandler.class);
+				try {
+					ReplayStore.write(replay, fingerprint, store);
+				} catch (IOException | RuntimeException e) {
+					log.warn("Could not write replay store {}", store, e);
+				}
+			}
+		}
+
+		Scenario getScenario() {
+			return scenario;
+		}
+
+		ReplayHandler getReplay() {
+			return replay;
+		}
+	}
+}
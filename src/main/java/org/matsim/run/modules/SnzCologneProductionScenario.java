@@ -29,6 +29,7 @@
  import org.matsim.episim.model.activity.DefaultParticipationModel;
  import org.matsim.episim.model.activity.LocationBasedParticipationModel;
  import org.matsim.episim.model.input.CreateRestrictionsFromCSV;
+ import org.matsim.episim.model.input.RestrictionCache;
  import org.matsim.episim.model.listener.HouseholdSusceptibility;
  import org.matsim.episim.model.listener.WriteAntibodies;
  import org.matsim.episim.model.progression.AgeDependentDiseaseStatusTransitionModel;
@@ -393,7 +394,8 @@
 
 		 CreateRestrictionsFromCSV activityParticipation = new CreateRestrictionsFromCSV(episimConfig);
 
-		 activityParticipation.setInput(INPUT.resolve("CologneSnzData_daily_until20221231.csv"));
+		 Path participationInput = INPUT.resolve("CologneSnzData_daily_until20221231.csv");
+		 activityParticipation.setInput(participationInput);
 
 		 activityParticipation.setScale(this.scale);
 		 activityParticipation.setLeisureAsNightly(this.leisureNightly);
@@ -401,7 +403,10 @@
 
 		 ConfigBuilder builder;
 		 try {
-			 builder = activityParticipation.createPolicy();
+			 // the participation is the same for all runs with these settings and activities
+			 builder = RestrictionCache.createPolicy(activityParticipation, participationInput,
+					 this.scale, this.leisureNightly, this.leisureNightlyScale,
+					 episimConfig.getInfectionParams().stream().map(EpisimConfigGroup.InfectionParams::getContainerName).sorted().collect(Collectors.toList()));
 		 } catch (IOException e1) {
 			 throw new UncheckedIOException(e1);
 		 }
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * MATSim Episim
+ * %%
+ * Copyright (C) 2020 matsim-org
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.matsim.scenarioCreation;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.util.Modules;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.episim.BatchRun;
+import org.matsim.episim.EpisimModule;
+import org.matsim.episim.PreparedRun;
+import org.matsim.episim.ReplayHandler;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.run.PopulationImage;
+import org.matsim.run.ReplayStore;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Pre-decodes the input events and population of all runs of a batch into {@link ReplayStore}s and {@link PopulationImage}s,
+ * which can be used by RunParallel with <em>--warm-image</em>.
+ */
+@CommandLine.Command(
+		name = "createReplayStore",
+		description = "Pre-decode input events and populations of a batch run into warm images.",
+		mixinStandardHelpOptions = true
+)
+@SuppressWarnings("unchecked, rawtypes")
+public class CreateReplayStore<T> implements Callable<Integer> {
+
+	private static final Logger log = LogManager.getLogger(CreateReplayStore.class);
+
+	@CommandLine.Option(names = "--setup", defaultValue = "${env:EPISIM_SETUP:-org.matsim.run.batch.StarterBatchCologne}")
+	private Class<? extends BatchRun<T>> setup;
+
+	@CommandLine.Option(names = "--params", defaultValue = "${env:EPISIM_PARAMS:-org.matsim.run.batch.StarterBatchCologne$Params}")
+	private Class<T> params;
+
+	@CommandLine.Option(names = "--output", description = "Directory of the warm images", defaultValue = "warm-image")
+	private Path output;
+
+	@CommandLine.Option(names = "--force", defaultValue = "false", description = "Overwrite existing images")
+	private boolean force;
+
+	public static void main(String[] args) {
+		System.exit(new CommandLine(new CreateReplayStore()).execute(args));
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		PreparedRun prepare = BatchRun.prepare(setup, params);
+
+		// Same context as if would be run from config
+		URL context = new File("./input").toURI().toURL();
+
+		Set<String> done = new HashSet<>();
+
+		for (PreparedRun.Run run : prepare.runs) {
+
+			run.config.setContext(context);
+
+			Module bindings = ((BatchRun) prepare.setup).getBindings(run.id, run.args);
+			Module base = bindings == null ? new EpisimModule() : Modules.override(new EpisimModule()).with(bindings);
+
+			Config config = run.config;
+			Injector injector = Guice.createInjector(Modules.override(base).with(binder -> binder.bind(Config.class).toInstance(config)));
+
+			String fingerprint = ReplayStore.fingerprint(config, injector);
+			if (!done.add(fingerprint))
+				continue;
+
+			Path store = ReplayStore.path(output, fingerprint);
+			Path population = PopulationImage.path(output, fingerprint);
+			if (Files.exists(store) && Files.exists(population) && !force) {
+				log.info("Images already exist for {}", fingerprint);
+				continue;
+			}
+
+			log.info("Creating images {}, {} for {}", store, population, fingerprint);
+
+			if (!Files.exists(population) || force)
+				PopulationImage.write(injector.getInstance(Scenario.class), fingerprint, population);
+
+			if (!Files.exists(store) || force)
+				ReplayStore.write(injector.getInstance(ReplayHandler.class), fingerprint, store);
+		}
+
+		log.info("Created images for {} distinct input(s)", done.size());
+
+		return 0;
+	}
+}
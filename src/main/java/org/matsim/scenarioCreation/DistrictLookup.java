@@ -26,18 +26,24 @@ import org.geotools.data.FeatureReader;
 import org.geotools.data.FileDataStoreFactorySpi;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Envelope;
-import org.locationtech.jts.geom.MultiPolygon;
+import org.geotools.referencing.CRS;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.utils.collections.Tuple;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.geometry.transformations.TransformationFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
 import picocli.CommandLine;
 
 import java.io.File;
@@ -47,11 +53,10 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
 
 /**
  * Preprocessing step that takes the home ids of each person in a population and looks up their district from a shape file.
@@ -96,28 +101,34 @@ public class DistrictLookup implements Callable<Integer> {
 		Population population = PopulationUtils.readPopulation(input.toString());
 		String crs = inputCRS.equals("null") ? (String) population.getAttributes().getAttribute("coordinateReferenceSystem") : inputCRS;
 
-		CoordinateTransformation ct = TransformationFactory.getCoordinateTransformation(crs, shapeCRS);
+		Index index = new Index(shapeFile.toFile(), crs, shapeCRS, attr);
 
-		Index index = new Index(shapeFile.toFile(), ct, attr);
+		List<Person> persons = new ArrayList<>(population.getPersons().values());
+		double[] xs = new double[persons.size()];
+		double[] ys = new double[persons.size()];
 
-		// Count errors
-		AtomicInteger unknown = new AtomicInteger(0);
+		for (int i = 0; i < persons.size(); i++) {
+			Object x = persons.get(i).getAttributes().getAttribute("homeX");
+			Object y = persons.get(i).getAttributes().getAttribute("homeY");
 
-		population.getPersons().values().parallelStream().forEach(p -> {
-			try {
-				double x = (double) p.getAttributes().getAttribute("homeX");
-				double y = (double) p.getAttributes().getAttribute("homeY");
+			// persons without home are not located
+			xs[i] = x instanceof Double ? (double) x : Double.NaN;
+			ys[i] = y instanceof Double ? (double) y : Double.NaN;
+		}
 
-				String district = index.query(x, y);
+		String[] districts = index.query(xs, ys);
 
-				p.getAttributes().putAttribute("district", district);
-			} catch (RuntimeException e) {
-				unknown.incrementAndGet();
-			}
-		});
+		// Count errors
+		int unknown = 0;
+		for (int i = 0; i < persons.size(); i++) {
+			if (districts[i] == null)
+				unknown++;
+			else
+				persons.get(i).getAttributes().putAttribute("district", districts[i]);
+		}
 
 		// Simple check if the lookup might be wrong
-		if (unknown.get() >= population.getPersons().size() * 0.5) {
+		if (unknown >= population.getPersons().size() * 0.5) {
 			log.error("District lookup failed for {} out of {} persons.", unknown, population.getPersons().size());
 			return 1;
 		}
@@ -131,12 +142,38 @@ public class DistrictLookup implements Callable<Integer> {
 
 	/**
 	 * Helper class to provide an index for a shapefile lookup.
+	 * <p>
+	 * The extent of the shapefile is divided into a grid of cells. Cells lying entirely inside one feature answer
+	 * queries directly, other cells only test the features intersecting them with an indexed point locator.
+	 * Cells are evaluated on first use and published as immutable objects, so the index can be queried concurrently.
 	 */
 	public static final class Index {
 
+		/**
+		 * Number of grid cells along the longer side of the shapefile extent.
+		 */
+		private static final int GRID = 512;
+
+		/**
+		 * Number of points transformed and located together by {@link #query(double[], double[])}.
+		 */
+		private static final int CHUNK = 4096;
+
 		private final STRtree index = new STRtree();
-		private final CoordinateTransformation ct;
-		private final String attr;
+		private final List<PreparedGeometry> geometries = new ArrayList<>();
+		private final List<IndexedPointInAreaLocator> locators = new ArrayList<>();
+		private final List<String> values;
+		private final Transform transform;
+
+		private final Envelope extent = new Envelope();
+		private final double cellSize;
+		private final int cols;
+		private final int rows;
+
+		/**
+		 * Evaluated cells, null if not evaluated yet.
+		 */
+		private final AtomicReferenceArray<Cell> cells;
 
 		/**
 		 * Constructor.
@@ -146,25 +183,77 @@ public class DistrictLookup implements Callable<Integer> {
 		 */
 		public Index(File shapeFile, CoordinateTransformation ct, String attr)
 				throws IOException {
+			this(read(shapeFile, attr), createTransform(ct));
+		}
+
+		/**
+		 * Constructor, where points are transformed in bulk without creating intermediate coordinates.
+		 *
+		 * @param fromCRS crs of the queries
+		 * @param toCRS   crs of the shapefile
+		 * @param attr    attribute for the result of {@link #query(double, double)}
+		 */
+		public Index(File shapeFile, String fromCRS, String toCRS, String attr) throws IOException {
+			this(read(shapeFile, attr), createTransform(fromCRS, toCRS));
+		}
+
+		private Index(Tuple<List<Geometry>, List<String>> features, Transform transform) {
+
+			for (Geometry polygon : features.getFirst()) {
+				Envelope env = polygon.getEnvelopeInternal();
+				index.insert(env, geometries.size());
+				extent.expandToInclude(env);
+
+				geometries.add(PreparedGeometryFactory.prepare(polygon));
+				locators.add(new IndexedPointInAreaLocator(polygon));
+			}
+
+			values = features.getSecond();
+
+			// the tree is otherwise built lazily by the first query, which is not thread-safe
+			index.build();
+
+			double size = Math.max(extent.getWidth(), extent.getHeight()) / GRID;
+			cellSize = size > 0 ? size : 1;
+			cols = Math.max(1, (int) Math.ceil(extent.getWidth() / cellSize));
+			rows = Math.max(1, (int) Math.ceil(extent.getHeight() / cellSize));
+
+			cells = new AtomicReferenceArray<>(cols * rows);
+
+			log.info("Created index with size: {}, depth: {}, grid: {}x{}", index.size(), index.depth(), cols, rows);
+
+			this.transform = transform;
+		}
+
+		/**
+		 * Create an index of polygons, which are queried in their own crs.
+		 */
+		static Index create(List<Geometry> polygons, List<String> values) {
+			return new Index(new Tuple<>(polygons, values), (xy, n) -> {
+			});
+		}
+
+		/**
+		 * Read the geometries and attribute values of all features.
+		 */
+		private static Tuple<List<Geometry>, List<String>> read(File shapeFile, String attr) throws IOException {
 			ShapefileDataStore ds = openDataStore(shapeFile.toPath());
 			ds.setCharset(StandardCharsets.UTF_8);
 
+			List<Geometry> polygons = new ArrayList<>();
+			List<String> values = new ArrayList<>();
+
 			FeatureReader<SimpleFeatureType, SimpleFeature> it = ds.getFeatureReader();
 			while (it.hasNext()) {
 				SimpleFeature ft = it.next();
-				MultiPolygon polygon = (MultiPolygon) ft.getDefaultGeometry();
-
-				Envelope env = polygon.getEnvelopeInternal();
-				index.insert(env, ft);
+				polygons.add((Geometry) ft.getDefaultGeometry());
+				values.add(Objects.toString(ft.getAttribute(attr), null));
 			}
 
 			it.close();
 			ds.dispose();
 
-			log.info("Created index with size: {}, depth: {}", index.size(), index.depth());
-
-			this.ct = ct;
-			this.attr = attr;
+			return new Tuple<>(polygons, values);
 		}
 
 		/**
@@ -172,21 +261,168 @@ public class DistrictLookup implements Callable<Integer> {
 		 *
 		 * @throws NoSuchElementException when no entry matched the query.
 		 */
-		@SuppressWarnings("unchecked")
 		public String query(double x, double y) {
-			Coord coord = new Coord(x, y);
+			double[] p = {x, y};
 
 			// Because we can not easily transform the feature geometry with MATSim we have to do it the other way around...
-			Coordinate p = MGC.coord2Coordinate(ct.transform(coord));
+			transform.apply(p, 1);
+
+			int id = locate(p[0], p[1]);
+			if (id < 0)
+				throw new NoSuchElementException(String.format("No matching entry found for x:%f y:%f (%f, %f)", x, y, p[0], p[1]));
+
+			return values.get(id);
+		}
 
-			List<SimpleFeature> result = index.query(new Envelope(p));
-			for (SimpleFeature ft : result) {
-				MultiPolygon polygon = (MultiPolygon) ft.getDefaultGeometry();
-				if (polygon.contains(MGC.coordinate2Point(p)))
-					return (String) ft.getAttribute(attr);
+		/**
+		 * Query the index for many points at once, which is done in parallel.
+		 *
+		 * @return attribute of the first feature including each point, or null if no entry matched.
+		 */
+		public String[] query(double[] xs, double[] ys) {
+			if (xs.length != ys.length)
+				throw new IllegalArgumentException("Coordinate arrays must have same length");
+
+			String[] result = new String[xs.length];
+			IntStream.range(0, (xs.length + CHUNK - 1) / CHUNK).parallel().forEach(c -> {
+
+				int from = c * CHUNK;
+				int n = Math.min(CHUNK, xs.length - from);
+
+				double[] xy = new double[2 * n];
+				for (int i = 0; i < n; i++) {
+					xy[2 * i] = xs[from + i];
+					xy[2 * i + 1] = ys[from + i];
+				}
+
+				transform.apply(xy, n);
+
+				for (int i = 0; i < n; i++) {
+					int id = locate(xy[2 * i], xy[2 * i + 1]);
+					result[from + i] = id < 0 ? null : values.get(id);
+				}
+			});
+
+			return result;
+		}
+
+		/**
+		 * Find the feature containing a point in the crs of the shapefile.
+		 *
+		 * @return index of the feature, or negative if there is none
+		 */
+		private int locate(double x, double y) {
+			if (!extent.contains(x, y))
+				return -1;
+
+			int cx = Math.min((int) ((x - extent.getMinX()) / cellSize), cols - 1);
+			int cy = Math.min((int) ((y - extent.getMinY()) / cellSize), rows - 1);
+			int i = cy * cols + cx;
+
+			Cell cell = cells.get(i);
+			if (cell == null) {
+				// threads evaluating the same cell concurrently create equal cells, the first one is kept
+				cells.compareAndSet(i, null, evaluate(cx, cy));
+				cell = cells.get(i);
+			}
+
+			if (cell.owner >= 0)
+				return cell.owner;
+
+			Coordinate p = new Coordinate(x, y);
+			for (int c : cell.candidates) {
+				if (locators.get(c).locate(p) == Location.INTERIOR)
+					return c;
 			}
 
-			throw new NoSuchElementException(String.format("No matching entry found for x:%f y:%f %s", x, y, p));
+			return -1;
+		}
+
+		/**
+		 * Determine the candidates of a cell and whether it is fully inside one feature.
+		 */
+		@SuppressWarnings("unchecked")
+		private Cell evaluate(int cx, int cy) {
+
+			double minX = extent.getMinX() + cx * cellSize;
+			double minY = extent.getMinY() + cy * cellSize;
+			Envelope env = new Envelope(minX, minX + cellSize, minY, minY + cellSize);
+			Geometry rect = new GeometryFactory().toGeometry(env);
+
+			List<Integer> result = index.query(env);
+			int[] candidates = new int[result.size()];
+
+			for (int i = 0; i < candidates.length; i++) {
+				candidates[i] = result.get(i);
+				// points on the boundary are not contained, so the cell must not touch it
+				if (geometries.get(candidates[i]).containsProperly(rect))
+					return new Cell(candidates[i], null);
+			}
+
+			return new Cell(-1, candidates);
+		}
+
+		/**
+		 * Grid cell, which is either owned by one feature or has candidates that need to be tested.
+		 */
+		private static final class Cell {
+
+			/**
+			 * Feature that contains the whole cell, or -1 if there is none.
+			 */
+			private final int owner;
+
+			/**
+			 * Features intersecting the cell, null if it has an owner.
+			 */
+			private final int[] candidates;
+
+			private Cell(int owner, int[] candidates) {
+				this.owner = owner;
+				this.candidates = candidates;
+			}
+		}
+
+		private static Transform createTransform(CoordinateTransformation ct) {
+			return (xy, n) -> {
+				for (int i = 0; i < n; i++) {
+					Coord c = ct.transform(new Coord(xy[2 * i], xy[2 * i + 1]));
+					xy[2 * i] = c.getX();
+					xy[2 * i + 1] = c.getY();
+				}
+			};
+		}
+
+		/**
+		 * Bulk transformation with geotools, which is equivalent to the MATSim transformation between these crs.
+		 */
+		private static Transform createTransform(String fromCRS, String toCRS) {
+			if (fromCRS.equals(toCRS))
+				return (xy, n) -> {
+				};
+
+			MathTransform mt;
+			try {
+				mt = CRS.findMathTransform(MGC.getCRS(fromCRS), MGC.getCRS(toCRS), true);
+			} catch (FactoryException e) {
+				throw new IllegalArgumentException("Could not create transformation from " + fromCRS + " to " + toCRS, e);
+			}
+
+			return (xy, n) -> {
+				try {
+					mt.transform(xy, 0, xy, 0, n);
+				} catch (TransformException e) {
+					throw new IllegalStateException("Could not transform coordinates", e);
+				}
+			};
+		}
+
+		/**
+		 * Transforms interleaved x and y coordinates in place.
+		 */
+		@FunctionalInterface
+		private interface Transform {
+			void apply(double[] xy, int n);
 		}
 	}
 
@@ -21,13 +21,13 @@
 package org.matsim.scenarioCreation;
 
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.matsim.episim.model.input.GoogleMobilityReport;
 import picocli.CommandLine;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -35,6 +35,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.zip.GZIPInputStream;
 
@@ -80,32 +82,44 @@ public class DownloadGoogleMobilityReport implements Callable<Integer> {
 
 		log.info("Loading mobility data for {} - {}", region, subRegion);
 
-		try (var in = new InputStreamReader(new URL(URL).openStream())) {
+		try (var in = new BufferedReader(new InputStreamReader(new URL(URL).openStream()))) {
 
-			CSVParser parser = new CSVParser(in, CSVFormat.DEFAULT.withFirstRecordAsHeader());
+			String[] header = GoogleMobilityReport.splitLine(in.readLine());
+			List<String> names = Arrays.asList(header);
+			int regionIdx = names.indexOf("country_region_code");
+			int subRegionIdx = names.indexOf("iso_3166_2_code");
+			int dateIdx = names.indexOf("date");
 
 			BufferedWriter writer = Files.newBufferedWriter(output, StandardOpenOption.CREATE);
 			CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withCommentMarker('#').withHeaderComments(
 					"Source: Google - " + URL
-					).withHeader(parser.getHeaderNames().toArray(new String[0]))
+					).withHeader(header)
 			);
 
 
 			int i = 0;
+			String prefix = region + ",";
+			String line;
 
-			for (CSVRecord record : parser) {
+			while ((line = in.readLine()) != null) {
 
-				String regionCode = record.get("country_region_code");
+				// rows of other countries are skipped without parsing them
+				if (regionIdx == 0 && !line.startsWith(prefix))
+					continue;
+
+				String[] record = GoogleMobilityReport.splitLine(line);
+
+				String regionCode = record[regionIdx];
 
 				if (!regionCode.equals(region))
 					continue;
 
-				String subRegionCode = record.get("iso_3166_2_code");
+				String subRegionCode = record[subRegionIdx];
 
 				if (subRegion != null && !subRegion.equals(subRegionCode))
 					continue;
 
-				LocalDate date = LocalDate.parse(record.get("date"));
+				LocalDate date = LocalDate.parse(record[dateIdx]);
 
 				if (date.isBefore(fromDate))
 					continue;
@@ -114,7 +128,7 @@ public class DownloadGoogleMobilityReport implements Callable<Integer> {
 					continue;
 
 				i++;
-				printer.printRecord(record);
+				printer.printRecord((Object[]) record);
 			}
 
 			log.info("Done writing {} entries", i);
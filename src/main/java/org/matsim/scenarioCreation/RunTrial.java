@@ -102,6 +102,15 @@ public final class RunTrial implements Callable<Integer> {
 	@CommandLine.Option(names = "--snapshot", description = "Path to snapshot to start from")
 	private Path snapshot;
 
+	@CommandLine.Option(names = "--stop-reference", description = "Stop runs early when their cumulative infections leave the band around the cases in this tsv")
+	private Path stopReference;
+
+	@CommandLine.Option(names = "--stop-band", description = "Lower and upper bound of the ratio to the reference cases", defaultValue = "0.5,2")
+	private String stopBand;
+
+	@CommandLine.Option(names = "--stop-incidence", description = "Stop runs early when the 7-day incidence goes below or above min,max")
+	private String stopIncidence;
+
 	@CommandLine.Option(names = "--unconstrained",
 			description = "Removes the restrictions completely in order to calibrate for unconstrained exponential growth.",
 			defaultValue = "false")
@@ -155,11 +164,20 @@ public final class RunTrial implements Callable<Integer> {
 
 		PreparedRun prepare = new PreparedRun(trial, List.of("run"), paramValues, preparedRuns);
 		RunParallel<TrialBatch> batch = new RunParallel<>(prepare);
-		int ret = new CommandLine(batch).execute(
+
+		List<String> runArgs = new ArrayList<>(List.of(
 				RunParallel.OPTION_TASKS, String.valueOf(Math.min(maxTasks, preparedRuns.size())),
 				RunParallel.OPTION_ITERATIONS, String.valueOf(days),
 				"--output", String.format("output-%s/%d", name, number)
-		);
+		));
+
+		if (stopReference != null)
+			runArgs.addAll(List.of(RunParallel.OPTION_STOP_REFERENCE, stopReference.toString(), RunParallel.OPTION_STOP_BAND, stopBand));
+
+		if (stopIncidence != null)
+			runArgs.addAll(List.of(RunParallel.OPTION_STOP_INCIDENCE, stopIncidence));
+
+		int ret = new CommandLine(batch).execute(runArgs.toArray(new String[0]));
 
 		return ret;
 	}
@@ -39,9 +39,7 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.scenario.ScenarioUtils;
-import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.geotools.MGC;
-import org.matsim.core.utils.geometry.transformations.TransformationFactory;
 import org.matsim.facilities.*;
 import org.matsim.utils.objectattributes.attributable.Attributable;
 import org.opengis.feature.simple.SimpleFeature;
@@ -54,11 +52,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Preprocessing step that takes the home ids of each person in a population and looks up their district from a shape file.
@@ -120,16 +117,23 @@ public class ZipcodeAndSubdistrictLookup implements Callable<Integer> {
 
 		String crs = inputCRS.equals("null") ? (String) population.getAttributes().getAttribute("coordinateReferenceSystem") : inputCRS;
 
-		CoordinateTransformation ct = TransformationFactory.getCoordinateTransformation(crs, shapeCRS);
+		DistrictLookup.Index index = new DistrictLookup.Index(shapeFile.toFile(), crs, shapeCRS, attr);
 
-		DistrictLookup.Index index = new DistrictLookup.Index(shapeFile.toFile(), ct, attr);
 
+		// Subdistrict of each zip code, -1 if the zip code is not in Berlin
+		List<String> names = new ArrayList<>(subdistricts.keySet());
+		short[] subdistrictOfZip = new short[100_000];
+		Arrays.fill(subdistrictOfZip, (short) -1);
+		for (int i = 0; i < names.size(); i++) {
+			for (int zip : subdistricts.get(names.get(i)))
+				subdistrictOfZip[zip] = (short) i;
+		}
 
 		// Adds zipcode and subdistrict attributes to population (based on home location)
-		Map<String, String> personIdToNeighborhoodMap = new HashMap<>();
+		Map<String, String> personIdToNeighborhoodMap = new ConcurrentHashMap<>();
 		// Count errors
-		int unknown = 0;
-		for (Person p : population.getPersons().values()) {
+		AtomicInteger unknown = new AtomicInteger(0);
+		population.getPersons().values().parallelStream().forEach(p -> {
 
 			try {
 				double x = (double) p.getAttributes().getAttribute("homeX");
@@ -138,23 +142,19 @@ public class ZipcodeAndSubdistrictLookup implements Callable<Integer> {
 				String plz = index.query(x, y);
 				p.getAttributes().putAttribute("zipcode", plz);
 
-				for (String neighborhoodName : subdistricts.keySet()) {
-					if (subdistricts.get(neighborhoodName).contains(Integer.parseInt(plz))) {
-						p.getAttributes().putAttribute("subdistrict", neighborhoodName);
-						personIdToNeighborhoodMap.put(p.getId().toString(), neighborhoodName);
-
-
-					}
+				short subdistrict = subdistrictOfZip[Integer.parseInt(plz)];
+				if (subdistrict >= 0) {
+					p.getAttributes().putAttribute("subdistrict", names.get(subdistrict));
+					personIdToNeighborhoodMap.put(p.getId().toString(), names.get(subdistrict));
 				}
 
-
 			} catch (RuntimeException e) {
-				unknown++;
+				unknown.incrementAndGet();
 			}
-		}
+		});
 
 		// Simple check if the lookup might be wrong
-		if (unknown >= population.getPersons().size() * 0.5) {
+		if (unknown.get() >= population.getPersons().size() * 0.5) {
 			log.error("zipcode lookup failed for {} out of {} persons.", unknown, population.getPersons().size());
 			return 1;
 		}
@@ -181,9 +181,8 @@ public class ZipcodeAndSubdistrictLookup implements Callable<Integer> {
 		Scenario scenario = ScenarioUtils.loadScenario(config);
 
 		// Count errors
-		int unknownFac = 0;
-		Map<String, String> facilityIdToNeighborhoodMap = new HashMap<>();
-		for (Facility f : scenario.getActivityFacilities().getFacilities().values()) {
+		AtomicInteger unknownFac = new AtomicInteger(0);
+		scenario.getActivityFacilities().getFacilities().values().parallelStream().forEach(f -> {
 
 			try {
 				double x = f.getCoord().getX();
@@ -192,16 +191,14 @@ public class ZipcodeAndSubdistrictLookup implements Callable<Integer> {
 				String plz = index.query(x, y);
 				((Attributable) f).getAttributes().putAttribute("zipcode", plz);
 
+				short subdistrict = subdistrictOfZip[Integer.parseInt(plz)];
+				if (subdistrict >= 0)
+					((Attributable) f).getAttributes().putAttribute("subdistrict", names.get(subdistrict));
 
-				for (String neighborhoodName : subdistricts.keySet()) {
-					if (subdistricts.get(neighborhoodName).contains(Integer.parseInt(plz))) {
-						((Attributable) f).getAttributes().putAttribute("subdistrict", neighborhoodName);
-					}
-				}
 			} catch (RuntimeException e) {
-				unknownFac++;
+				unknownFac.incrementAndGet();
 			}
-		}
+		});
 		log.info("Finished with failed lookup for {} out of {} facilities.", unknownFac, scenario.getActivityFacilities().getFacilities().values().size());
 
 		new FacilitiesWriter(scenario.getActivityFacilities()).write("../shared-svn/projects/episim/matsim-files/snz/BerlinV2/episim-input/be_2020-facilities_assigned_simplified_grid_WithNeighborhoodAndPLZ.xml.gz");
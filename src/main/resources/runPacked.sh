@@ -0,0 +1,35 @@
+#!/bin/bash
+#SBATCH --time=12:00:00
+#SBATCH --nodes=1
+#SBATCH -A bzz0020
+
+# This job is submitted by start_packed_slurm.sh, which sets
+# EPISIM_JOBS, EPISIM_TASKS and JAVA_OPTS for each job
+
+date
+hostname
+
+cd $SLURM_SUBMIT_DIR
+
+classpath="matsim-episim-*.jar"
+
+echo "***"
+echo "classpath: $classpath"
+echo "***"
+
+# main
+main="org.matsim.run.RunParallel"
+
+module load java/11
+java -version
+
+echo "jobs=$EPISIM_JOBS, tasks=$EPISIM_TASKS"
+echo "setup=$EPISIM_SETUP, params=$EPISIM_PARAMS"
+
+arguments="--tasks $EPISIM_TASKS --jobs $EPISIM_JOBS"
+command="java -cp $classpath $JAVA_OPTS @jvm.options -Dlog4j2.contextSelector=org.apache.logging.log4j.core.async.AsyncLoggerContextSelector $main $arguments"
+
+echo ""
+echo "command is $command"
+
+$command
@@ -0,0 +1,94 @@
+package org.matsim.episim.analysis;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class CompareMobilityInputsTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void read() throws IOException {
+
+		Path file = tmp.newFile("input.tsv").toPath();
+		Files.write(file, List.of(
+				"date\twork\tleisure",
+				"20200301\t-10.0\t5",
+				"20200302\t\t-20",
+				""
+		));
+
+		NavigableMap<LocalDate, Map<String, Double>> values = CompareMobilityInputs.read(file);
+
+		assertThat(values).hasSize(2);
+		assertThat(values.get(LocalDate.of(2020, 3, 1))).containsEntry("work", -10.0).containsEntry("leisure", 5.0);
+		assertThat(values.get(LocalDate.of(2020, 3, 2))).doesNotContainKey("work").containsEntry("leisure", -20.0);
+	}
+
+	@Test
+	public void relativeChange() {
+
+		// the same change in percentage points is larger when the activity level is low
+		assertThat(CompareMobilityInputs.relativeChange(0, 10)).isCloseTo(0.1, within(1e-9));
+		assertThat(CompareMobilityInputs.relativeChange(-50, -40)).isCloseTo(0.2, within(1e-9));
+		assertThat(CompareMobilityInputs.relativeChange(-50, -60)).isCloseTo(0.2, within(1e-9));
+
+		// small percent changes are not blown up
+		assertThat(CompareMobilityInputs.relativeChange(1, 2)).isCloseTo(1 / 101d, within(1e-9));
+
+		// no activity at all
+		assertThat(CompareMobilityInputs.relativeChange(-100, -90)).isCloseTo(10, within(1e-9));
+	}
+
+	@Test
+	public void simulatedDays() {
+
+		NavigableSet<LocalDate> flagged = new TreeSet<>(List.of(
+				LocalDate.of(2020, 3, 1), LocalDate.of(2020, 6, 1), LocalDate.of(2021, 3, 1)
+		));
+
+		assertThat(CompareMobilityInputs.simulatedDays(flagged, LocalDate.of(2020, 2, 15), 360))
+				.containsExactly(LocalDate.of(2020, 3, 1), LocalDate.of(2020, 6, 1));
+
+		assertThat(CompareMobilityInputs.simulatedDays(flagged, LocalDate.of(2020, 3, 2), 92))
+				.containsExactly(LocalDate.of(2020, 6, 1));
+
+		// last simulated day is one day before
+		assertThat(CompareMobilityInputs.simulatedDays(flagged, LocalDate.of(2020, 3, 2), 91))
+				.isEmpty();
+	}
+
+	@Test
+	public void findStartDate() throws IOException {
+
+		Path config = tmp.newFile("config.xml").toPath();
+		Files.write(config, List.of(
+				"<module name=\"episim\" >",
+				"\t<param name=\"inputDays\" value=\"\" />",
+				"\t<param name=\"startDate\" value=\"2020-02-25\" />",
+				"</module>"
+		));
+
+		assertThat(CompareMobilityInputs.findStartDate(config)).hasValue(LocalDate.of(2020, 2, 25));
+
+		Path other = tmp.newFile("other.xml").toPath();
+		Files.write(other, List.of("<module name=\"episim\" />"));
+
+		assertThat(CompareMobilityInputs.findStartDate(other)).isEmpty();
+	}
+}
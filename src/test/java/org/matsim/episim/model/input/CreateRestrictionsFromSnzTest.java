@@ -0,0 +1,152 @@
+package org.matsim.episim.model.input;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+public class CreateRestrictionsFromSnzTest {
+
+	private static final DateTimeFormatter FMT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void incrementalEqualsRebuild() throws Exception {
+
+		Path full = tmp.newFolder("full").toPath();
+		Path partial = tmp.newFolder("partial").toPath();
+
+		LocalDate start = LocalDate.of(2020, 3, 1);
+		for (int i = 0; i < 17; i++) {
+			writeDay(full, start.plusDays(i), i);
+			if (i < 9)
+				writeDay(partial, start.plusDays(i), i);
+		}
+
+		IntSet zipCodes = new IntOpenHashSet(new int[]{10115, 10117});
+		Set<LocalDate> holidays = Set.of(LocalDate.of(2020, 3, 11));
+
+		Path rebuild = tmp.newFolder("rebuild").toPath();
+		CreateRestrictionsFromSnz snz = new CreateRestrictionsFromSnz();
+		snz.setInput(full);
+		snz.writeDataForCertainArea(rebuild.resolve("BerlinSnzData_daily_until.csv"), zipCodes, true, List.of(), Set.of(), holidays);
+
+		Path continued = tmp.newFolder("continued").toPath();
+		Path output = continued.resolve("BerlinSnzData_daily_until.csv");
+
+		CreateRestrictionsFromSnz inc = new CreateRestrictionsFromSnz();
+		inc.setIncremental(true);
+		inc.setInput(partial);
+		inc.writeDataForCertainArea(output, zipCodes, true, List.of(), Set.of(), holidays);
+
+		assertThat(continued.resolve("BerlinSnzData_daily_until20200309.csv")).exists();
+
+		// new days arrive and are appended to the existing output
+		inc.setInput(full);
+		inc.writeDataForCertainArea(output, zipCodes, true, List.of(), Set.of(), holidays);
+
+		Path expected = rebuild.resolve("BerlinSnzData_daily_until20200317.csv");
+		Path actual = continued.resolve("BerlinSnzData_daily_until20200317.csv");
+
+		assertThat(Files.readAllLines(actual)).isEqualTo(Files.readAllLines(expected));
+		assertThat(continued.resolve("BerlinSnzData_daily_until20200309.csv")).doesNotExist();
+	}
+
+	@Test
+	public void storeEqualsFiles() throws Exception {
+
+		Path input = tmp.newFolder("input").toPath();
+		LocalDate date = LocalDate.of(2020, 3, 2);
+		writeDay(input, date, 3);
+
+		List<File> files;
+		try (Stream<Path> s = Files.walk(input)) {
+			files = s.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+		}
+
+		Path store = tmp.newFolder("store").toPath();
+		for (SnzMobilityStore.Source source : List.of(SnzMobilityStore.Source.durations, SnzMobilityStore.Source.activities))
+			SnzMobilityStore.ingest(source, files, store.resolve(source.name()), 1);
+
+		IntSet zipCodes = new IntOpenHashSet(new int[]{10115, 10117});
+
+		File file = CreateRestrictionsFromSnz.findInputFiles(input.toFile()).get(0);
+		File activityFile = new File(file.toString().replace("zipCode", "tagesgang"));
+
+		try (SnzMobilityStore durations = SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.durations.name()));
+			 SnzMobilityStore activities = SnzMobilityStore.open(store.resolve(SnzMobilityStore.Source.activities.name()))) {
+
+			Object2DoubleMap<String> actual = CreateRestrictionsFromSnz.readFromStore(durations, activities, date, zipCodes);
+			assertThat(actual.getDouble("notAtHome_22")).isEqualTo(10 + 3 + 5 + 3 + 2 + 4 + 6 + 1);
+
+			// the last area has only a work record and no activities, the empty one has no records at all
+			for (IntSet zips : List.<IntSet>of(zipCodes, new IntOpenHashSet(new int[]{10117}), new IntOpenHashSet(new int[]{10119}), new IntOpenHashSet(new int[]{99999}))) {
+
+				Object2DoubleMap<String> expected = CreateRestrictionsFromSnz.readDurations(file, zips);
+				expected.putAll(CreateRestrictionsFromSnz.readActivitiesCounts(activityFile, zips));
+
+				actual = CreateRestrictionsFromSnz.readFromStore(durations, activities, date, zips);
+
+				assertThat(actual.keySet()).as(zips.toString()).isEqualTo(expected.keySet());
+				for (String key : expected.keySet())
+					assertThat(actual.getDouble(key)).as(key).isCloseTo(expected.getDouble(key), within(1e-6));
+			}
+
+			assertThatThrownBy(() -> CreateRestrictionsFromSnz.readFromStore(durations, activities, date.plusDays(1), zipCodes))
+					.isInstanceOf(IllegalArgumentException.class);
+		}
+	}
+
+	/**
+	 * Writes the duration and activity files of one day, with values depending on {@code i}.
+	 */
+	private static void writeDay(Path input, LocalDate date, int i) throws IOException {
+
+		Path folder = Files.createDirectories(input.resolve(date.format(FMT)));
+		String day = date.format(FMT);
+
+		try (BufferedWriter writer = gzip(folder.resolve(day + "_zipCode.csv.gz"))) {
+			writer.write("zipCode,actType,durationSum\n");
+			writer.write("10115,home," + (1000 + i * 13) + "\n");
+			writer.write("10115,work," + (400 + (i % 7) * 31) + "\n");
+			writer.write("10117,leisure," + (200 + i * 7) + "\n");
+			writer.write("10117,education," + (100 + (i % 3) * 17) + "\n");
+			writer.write("10119,work,999\n");
+			writer.write("NULL,work,999\n");
+		}
+
+		try (BufferedWriter writer = gzip(folder.resolve(day + "_tagesgang.csv.gz"))) {
+			writer.write("zipCode,type,<0h,21-22h,22-23h,23-24h,>30h\n");
+			writer.write("10115,endNonHomeActs,3,50," + (10 + i) + "," + (5 + i % 4) + ",2\n");
+			writer.write("10117,endNonHomeActs,1,20,4,6,1\n");
+			writer.write("10117,endHomeActs,7,50,20,30,0\n");
+		}
+	}
+
+	private static BufferedWriter gzip(Path path) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(path)), StandardCharsets.UTF_8));
+	}
+}
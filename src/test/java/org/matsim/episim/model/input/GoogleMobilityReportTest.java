@@ -0,0 +1,81 @@
+package org.matsim.episim.model.input;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GoogleMobilityReportTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private Path fixture() throws Exception {
+
+		Path input = tmp.getRoot().toPath().resolve("Global_Mobility_Report.csv");
+		Files.write(input, List.of(
+				"country_region_code,country_region,sub_region_1,sub_region_2,metro_area,iso_3166_2_code,census_fips_code,place_id,date,workplaces_percent_change_from_baseline,residential_percent_change_from_baseline",
+				"AT,Austria,,,,,,x,2020-02-15,1,2",
+				"DE,Germany,,,,,,a,2020-02-15,-1,3",
+				"DE,Germany,,,,,,a,2020-02-16,-2,",
+				"DE,Germany,,,,,,a,2020-02-18,-4,5",
+				"DE,Germany,Berlin,,,DE-BE,,b,2020-02-15,-10,30",
+				"DE,Germany,Berlin,,,DE-BE,,b,2020-02-16,-20,40",
+				"DE,Germany,Bavaria,Munich,,,,c,2020-02-15,-50,60",
+				"DE,Germany,,,\"Berlin, Metro\",,,d,2020-02-16,-70,80"
+		));
+
+		return input;
+	}
+
+	@Test
+	public void country() throws Exception {
+
+		Path input = fixture();
+		GoogleMobilityReport report = GoogleMobilityReport.read(input, "DE", null);
+
+		assertThat(report.getStart()).isEqualTo(LocalDate.of(2020, 2, 15));
+		assertThat(report.getCategories()).containsExactly("workplaces", "residential");
+
+		// only rows without sub-region, missing days and values are NaN
+		assertThat(report.getSeries("workplaces")).containsExactly(-1.0, -2.0, Double.NaN, -4.0);
+		assertThat(report.getSeries("residential")).containsExactly(3.0, Double.NaN, Double.NaN, 5.0);
+
+		// the extract contains the same values
+		GoogleMobilityReport extract = GoogleMobilityReport.read(input, "DE", null);
+		assertThat(input.resolveSibling(input.getFileName() + ".DE_country.csv")).exists();
+		assertThat(extract.getSeries("workplaces")).containsExactly(report.getSeries("workplaces"));
+		assertThat(extract.getSeries("residential")).containsExactly(report.getSeries("residential"));
+	}
+
+	@Test
+	public void extractNotWritable() throws Exception {
+
+		Path input = fixture();
+		Path extract = input.resolveSibling(input.getFileName() + ".DE_country.csv");
+
+		// the temporary file of the extract can not be created
+		Path blocked = extract.resolveSibling(extract.getFileName() + ".tmp" + ProcessHandle.current().pid());
+		Files.createDirectories(blocked.resolve("dir"));
+
+		GoogleMobilityReport report = GoogleMobilityReport.read(input, "DE", null);
+
+		assertThat(report.getSeries("workplaces")).containsExactly(-1.0, -2.0, Double.NaN, -4.0);
+		assertThat(extract).doesNotExist();
+	}
+
+	@Test
+	public void subRegion() throws Exception {
+
+		GoogleMobilityReport report = GoogleMobilityReport.read(fixture(), "DE", "DE-BE");
+
+		assertThat(report.getSeries("workplaces")).containsExactly(-10.0, -20.0);
+		assertThat(report.getSeries("residential")).containsExactly(30.0, 40.0);
+	}
+}
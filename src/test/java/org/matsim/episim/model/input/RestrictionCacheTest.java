@@ -0,0 +1,88 @@
+package org.matsim.episim.model.input;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.episim.policy.FixedPolicy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RestrictionCacheTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void key() throws Exception {
+
+		Path file = tmp.newFile("input.csv").toPath();
+		Files.writeString(file, "date;home\n");
+
+		CountingInput input = new CountingInput();
+		String key = RestrictionCache.key(input, file, 1.0, true);
+
+		assertThat(RestrictionCache.key(input, file, 1.0, true)).isEqualTo(key);
+		assertThat(RestrictionCache.key(input, file, 1.0, false)).isNotEqualTo(key);
+		assertThat(RestrictionCache.key(new CountingInput() {
+		}, file, 1.0, true)).isNotEqualTo(key);
+
+		Files.writeString(file, "date;home;work\n");
+		assertThat(RestrictionCache.key(input, file, 1.0, true)).isNotEqualTo(key);
+	}
+
+	@Test
+	public void memory() throws Exception {
+
+		Path file = tmp.newFile("input.csv").toPath();
+		Files.writeString(file, "memory\n");
+
+		CountingInput input = new CountingInput();
+		FixedPolicy.ConfigBuilder a = RestrictionCache.createPolicy(input, file, "memory");
+		FixedPolicy.ConfigBuilder b = RestrictionCache.createPolicy(input, file, "memory");
+
+		assertThat(input.calls).isEqualTo(1);
+		assertThat(a).isNotSameAs(b);
+		assertThat(a.build()).isEqualTo(b.build());
+	}
+
+	@Test
+	public void disk() throws Exception {
+
+		Path file = tmp.newFile("input.csv").toPath();
+		Files.writeString(file, "disk\n");
+
+		File dir = tmp.newFolder("cache");
+
+		System.setProperty(RestrictionCache.PROPERTY, dir.toString());
+		try {
+			CountingInput input = new CountingInput();
+			RestrictionCache.createPolicy(input, file, "disk");
+
+			assertThat(input.calls).isEqualTo(1);
+			assertThat(dir.list()).containsExactly("policy-" + RestrictionCache.key(input, file, "disk") + ".conf");
+		} finally {
+			System.clearProperty(RestrictionCache.PROPERTY);
+		}
+	}
+
+	private static class CountingInput implements RestrictionInput {
+
+		private int calls;
+
+		@Override
+		public RestrictionInput setInput(Path input) {
+			return this;
+		}
+
+		@Override
+		public FixedPolicy.ConfigBuilder createPolicy() {
+			calls++;
+			return FixedPolicy.config().restrict(LocalDate.of(2020, 3, 1), 0.5, "work");
+		}
+	}
+}
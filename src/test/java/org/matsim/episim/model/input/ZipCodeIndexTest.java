@@ -0,0 +1,92 @@
+package org.matsim.episim.model.input;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZipCodeIndexTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void areas() {
+
+		Map<String, IntSet> zipCodes = new HashMap<>();
+		zipCodes.put("A", new IntOpenHashSet(new int[]{10115, 10117}));
+		zipCodes.put("B", new IntOpenHashSet(new int[]{10117, 1067}));
+
+		ZipCodeIndex index = ZipCodeIndex.create(zipCodes, Map.of("Berlin", Set.of("A"), "Sachsen", Set.of("B")));
+
+		assertThat(names(index, index.areas(10115))).containsExactly("A");
+		assertThat(names(index, index.areas(10117))).containsExactlyInAnyOrder("A", "B");
+		assertThat(names(index, index.areas("01067"))).containsExactly("B");
+		assertThat(index.areas("NULL")).isEmpty();
+		assertThat(index.areas(99999)).isEmpty();
+
+		boolean[] mask = index.holidayMask(List.of("Sachsen"));
+		for (int i = 0; i < index.size(); i++)
+			assertThat(mask[i]).isEqualTo(index.getArea(i).equals("B"));
+	}
+
+	@Test
+	public void sameAsPerArea() throws Exception {
+
+		File file = tmp.newFile("day.csv");
+		Files.write(file.toPath(), List.of(
+				"zipCode,actType,durationSum",
+				"10115,home,100",
+				"10115,work,20",
+				"10117,leisure,5",
+				"10117,education,0",
+				"01067,home,50",
+				"01067,shop_daily,7.5",
+				"NULL,work,1000",
+				"80331,work,3",
+				"10119,home,30"
+		));
+
+		Map<String, IntSet> zipCodes = new HashMap<>();
+		zipCodes.put("A", new IntOpenHashSet(new int[]{10115, 10117}));
+		zipCodes.put("B", new IntOpenHashSet(new int[]{10117, 1067}));
+		zipCodes.put("C", new IntOpenHashSet(new int[]{1067}));
+		zipCodes.put("D", new IntOpenHashSet(new int[]{20095}));
+		zipCodes.put("E", new IntOpenHashSet(new int[]{10119}));
+
+		ZipCodeIndex index = ZipCodeIndex.create(zipCodes, null);
+
+		HashMap<String, Object2DoubleMap<String>> all = CreateRestrictionsFromSnz.readDurations(file, index,
+				new HashMap<>(), null, new HashMap<>());
+
+		for (Map.Entry<String, IntSet> e : zipCodes.entrySet()) {
+			Object2DoubleMap<String> expected = CreateRestrictionsFromSnz.readDurations(file, e.getValue());
+			assertThat(all.get(e.getKey())).isEqualTo(expected);
+		}
+
+		// only keys of rows in the area are present
+		assertThat(all.get("A")).doesNotContainKey("shop_daily");
+		assertThat(all.get("C")).doesNotContainKey("work");
+		assertThat(all.get("E").keySet()).containsExactly("home");
+		assertThat(all.get("D")).isEmpty();
+	}
+
+	private static List<String> names(ZipCodeIndex index, int[] areas) {
+		List<String> names = new ArrayList<>();
+		for (int area : areas)
+			names.add(index.getArea(area));
+		return names;
+	}
+}
@@ -0,0 +1,140 @@
+package org.matsim.run;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class AdaptiveSearchTest {
+
+	@Test
+	public void features() {
+
+		List<List<Object>> params = List.of(
+				List.of(1, 0.5, "a", "x"),
+				List.of(2, 1.0, "b", "x"),
+				List.of(3, 1.5, "a", "x")
+		);
+
+		List<double[]> features = AdaptiveSearch.features(List.of("seed", "ci", "variant", "fixed"), params);
+
+		// seed and parameters with a single value are ignored, strings are one-hot encoded
+		assertThat(features).hasSize(3);
+		assertThat(features.get(0)).containsExactly(0, 1, 0);
+		assertThat(features.get(1)).containsExactly(0.5, 0, 1);
+		assertThat(features.get(2)).containsExactly(1, 1, 0);
+	}
+
+	@Test
+	public void spaceFilling() {
+
+		List<double[]> features = grid(5);
+
+		// the corner farthest away from the evaluated run is chosen first
+		List<Integer> selected = AdaptiveSearch.spaceFilling(features, Set.of(0), 2);
+
+		assertThat(selected).hasSize(2);
+		assertThat(features.get(selected.get(0))).containsExactly(1, 1);
+		assertThat(selected).doesNotContain(0).doesNotHaveDuplicates();
+
+		// all runs are selected when n exceeds the remaining runs
+		assertThat(AdaptiveSearch.spaceFilling(features, Set.of(), 100))
+				.hasSize(features.size())
+				.doesNotHaveDuplicates();
+	}
+
+	@Test
+	public void propose() {
+
+		List<double[]> features = grid(5);
+
+		// objective with minimum at (0.5, 0.5), only part of the runs are evaluated
+		Map<Integer, Double> objective = new LinkedHashMap<>();
+		for (int i : AdaptiveSearch.spaceFilling(features, Set.of(), 9)) {
+			objective.put(i, f(features.get(i)));
+		}
+
+		// failed runs are not proposed again and not used for fitting
+		int failed = firstMissing(features, objective);
+		objective.put(failed, Double.NaN);
+
+		List<Integer> proposed = AdaptiveSearch.propose(features, objective, 3, 0.01);
+
+		assertThat(proposed).hasSize(3).doesNotHaveDuplicates();
+		for (int i : proposed) {
+			assertThat(objective).doesNotContainKey(i);
+		}
+
+		// the first proposal is close to the minimum
+		double[] first = features.get(proposed.get(0));
+		assertThat(f(first)).isLessThan(0.5);
+	}
+
+	@Test
+	public void noDuplicateProposals() {
+
+		// every point exists twice, as for runs differing only in the seed
+		List<double[]> features = new ArrayList<>();
+		for (double[] f : grid(4)) {
+			features.add(f);
+			features.add(f.clone());
+		}
+
+		List<Integer> initial = AdaptiveSearch.spaceFilling(features, Set.of(), 100);
+		assertThat(initial).hasSize(16);
+		assertThat(initial.stream().map(i -> Arrays.toString(features.get(i))).collect(Collectors.toList())).doesNotHaveDuplicates();
+
+		Map<Integer, Double> objective = new LinkedHashMap<>();
+		for (int i : initial.subList(0, 6)) {
+			objective.put(i, f(features.get(i)));
+		}
+
+		List<Integer> proposed = AdaptiveSearch.propose(features, objective, 10, 0.01);
+
+		assertThat(proposed).hasSize(10);
+		Set<String> seen = new HashSet<>();
+		objective.keySet().forEach(i -> seen.add(Arrays.toString(features.get(i))));
+		for (int i : proposed) {
+			assertThat(seen.add(Arrays.toString(features.get(i)))).isTrue();
+		}
+	}
+
+	@Test
+	public void objective() {
+
+		double[] ref = {10, 100, 1000};
+
+		assertThat(AdaptiveSearch.Objective.logRmse.evaluate(ref, ref)).isEqualTo(0);
+		assertThat(AdaptiveSearch.Objective.logRmse.evaluate(new double[0], new double[0])).isNaN();
+
+		double[] sim = {10, 100, 1100};
+		assertThat(AdaptiveSearch.Objective.rmse.evaluate(sim, ref)).isCloseTo(Math.sqrt(100 * 100 / 3.0), within(1e-9));
+		assertThat(AdaptiveSearch.Objective.logMae.evaluate(sim, ref)).isCloseTo((Math.log1p(1100) - Math.log1p(1000)) / 3, within(1e-9));
+		assertThat(AdaptiveSearch.Objective.logRmse.evaluate(sim, ref)).isCloseTo(Math.abs(Math.log1p(1100) - Math.log1p(1000)) / Math.sqrt(3), within(1e-9));
+	}
+
+	private static int firstMissing(List<double[]> features, Map<Integer, Double> objective) {
+		for (int i = 0; i < features.size(); i++) {
+			if (!objective.containsKey(i))
+				return i;
+		}
+		throw new AssertionError();
+	}
+
+	private static double f(double[] p) {
+		return (p[0] - 0.5) * (p[0] - 0.5) + (p[1] - 0.5) * (p[1] - 0.5);
+	}
+
+	private static List<double[]> grid(int n) {
+		List<double[]> features = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				features.add(new double[]{i / (n - 1d), j / (n - 1d)});
+			}
+		}
+		return features;
+	}
+}
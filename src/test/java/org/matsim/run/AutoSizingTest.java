@@ -0,0 +1,60 @@
+package org.matsim.run;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AutoSizingTest {
+
+	private static final long MB = 1024 * 1024;
+
+	@Test
+	public void reserveForEachInputSet() {
+
+		// 9000 MB can be planned for
+		AutoSizing sizing = new AutoSizing(1.5, 10_000 * MB, 16);
+
+		sizing.setMeasured(1000 * MB, 2000 * MB, 1);
+		AutoSizing.Result one = sizing.choose(1000 * MB, 100);
+
+		assertThat(one.tasks).isEqualTo(6);
+		assertThat(one.threads).isEqualTo(2);
+
+		// second input set is loaded later and reduces the number of tasks
+		sizing.setMeasured(1000 * MB, 2000 * MB, 2);
+		AutoSizing.Result two = sizing.choose(1000 * MB, 100);
+
+		assertThat(two.tasks).isEqualTo(4);
+		assertThat(two.threads).isEqualTo(4);
+	}
+
+	@Test
+	public void limits() {
+
+		AutoSizing sizing = new AutoSizing(1.5, 10_000 * MB, 16);
+		sizing.setMeasured(1000 * MB, 2000 * MB, 1);
+
+		// not more tasks than jobs
+		AutoSizing.Result jobs = sizing.choose(100 * MB, 3);
+		assertThat(jobs.tasks).isEqualTo(3);
+		assertThat(jobs.threads).isEqualTo(5);
+
+		// not more tasks than cores
+		assertThat(sizing.choose(MB, 100).tasks).isEqualTo(16);
+
+		// at least one task, even if it does not fit
+		AutoSizing.Result large = sizing.choose(20_000 * MB, 100);
+		assertThat(large.tasks).isEqualTo(1);
+		assertThat(large.threads).isEqualTo(16);
+
+		// input sets exceeding the heap
+		sizing.setMeasured(1000 * MB, 5000 * MB, 2);
+		assertThat(sizing.choose(100 * MB, 100).tasks).isEqualTo(1);
+	}
+
+	@Test
+	public void reserve() {
+		assertThat(AutoSizing.reserve(100, 50, 0)).isEqualTo(100);
+		assertThat(AutoSizing.reserve(100, 50, 3)).isEqualTo(250);
+	}
+}
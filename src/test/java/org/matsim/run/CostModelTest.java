@@ -0,0 +1,136 @@
+package org.matsim.run;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class CostModelTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void fitParameters() throws IOException {
+
+		Path battery = tmp.newFolder("battery").toPath();
+
+		List<String> info = new ArrayList<>(List.of("RunScript;Config;RunId;Output;seed;vaccination;testing"));
+
+		// vaccination doubles the cost, testing increases it by half, seed has no influence
+		int id = 0;
+		for (String seed : List.of("1", "2", "3")) {
+			for (String vaccination : List.of("off", "on")) {
+				for (String testing : List.of("0.0", "0.5")) {
+					String output = "output/run" + id;
+					info.add(String.join(";", "run.sh", "config_" + id + ".xml", "run" + id++, output, seed, vaccination, testing));
+
+					double seconds = 10 * 100 * 0.25 * (vaccination.equals("on") ? 2 : 1) * (testing.equals("0.5") ? 1.5 : 1);
+					Files.createDirectories(battery.resolve(output));
+					CostModel.record(battery.resolve(output), seconds, 100, 0.25, 4);
+				}
+			}
+		}
+
+		Files.write(battery.resolve("_info.txt"), info);
+
+		CostModel model = CostModel.fit(List.of(battery));
+
+		assertThat(model.predict(0.25, 100, Map.of("seed", "1", "vaccination", "off", "testing", "0.0")))
+				.isCloseTo(250, within(1e-6));
+		assertThat(model.predict(0.5, 200, Map.of("seed", "4", "vaccination", "on", "testing", "0.5")))
+				.isCloseTo(250 * 4 * 3, within(1e-6));
+
+		// unknown parameters
+		assertThat(model.predict(0.25, 100, Map.of())).isGreaterThan(0);
+	}
+
+	@Test
+	public void noRecords() throws IOException {
+
+		CostModel model = CostModel.fit(List.of(tmp.newFolder("empty").toPath()));
+
+		assertThat(model.predict(1, 10, Map.of("seed", "1"))).isCloseTo(600, within(1e-6));
+	}
+
+	@Test
+	public void balanced() {
+
+		double[] costs = {8, 7, 6, 5, 4, 3, 2, 1};
+		double[] memory = new double[costs.length];
+		Arrays.fill(memory, 10);
+
+		// node memory allows only one task per job
+		List<List<Integer>> jobs = CostModel.pack(costs, memory, 10, 2, 4);
+
+		assertThat(jobs).hasSize(2);
+		assertAll(jobs, costs.length);
+
+		for (List<Integer> job : jobs) {
+			assertThat(CostModel.tasks(job, memory, 10)).isEqualTo(1);
+			assertThat(CostModel.wallTime(job, costs, 1)).isEqualTo(18);
+		}
+	}
+
+	@Test
+	public void tasksPerJob() {
+
+		// the large run can only be executed alone, the small runs run concurrently
+		double[] costs = {10, 10, 10, 10, 10};
+		double[] memory = {40, 10, 10, 10, 10};
+
+		List<List<Integer>> jobs = CostModel.pack(costs, memory, 40, 2, 4);
+
+		assertAll(jobs, costs.length);
+
+		List<Integer> large = jobs.stream().filter(j -> j.contains(0)).findFirst().orElseThrow();
+		List<Integer> small = jobs.stream().filter(j -> !j.contains(0)).findFirst().orElseThrow();
+
+		// balancing the total cost would put two runs into each job, the job with the large run would take twice as long
+		assertThat(large).containsExactly(0);
+		assertThat(small).containsExactly(1, 2, 3, 4);
+
+		assertThat(CostModel.wallTime(large, costs, CostModel.tasks(large, memory, 40))).isEqualTo(10);
+		assertThat(CostModel.wallTime(small, costs, CostModel.tasks(small, memory, 40))).isEqualTo(10);
+	}
+
+	@Test
+	public void capacity() {
+
+		double[] costs = {1, 1, 1, 1, 1, 1, 1};
+		double[] memory = {1, 1, 1, 1, 1, 1, 1};
+
+		List<List<Integer>> jobs = CostModel.pack(costs, memory, 100, 3, 3);
+
+		assertAll(jobs, costs.length);
+		for (List<Integer> job : jobs) {
+			assertThat(job.size()).isLessThanOrEqualTo(3);
+		}
+	}
+
+	@Test
+	public void wallTime() {
+
+		double[] costs = {6, 1, 1};
+
+		// the longest run determines the wall time
+		assertThat(CostModel.wallTime(List.of(0, 1, 2), costs, 3)).isEqualTo(6);
+		assertThat(CostModel.wallTime(List.of(0, 1, 2), costs, 1)).isEqualTo(8);
+	}
+
+	private static void assertAll(List<List<Integer>> jobs, int n) {
+		List<Integer> all = new ArrayList<>();
+		jobs.forEach(all::addAll);
+		assertThat(all).hasSize(n).doesNotHaveDuplicates();
+	}
+}
@@ -0,0 +1,218 @@
+package org.matsim.run;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.Provides;
+import com.google.inject.util.Modules;
+import org.junit.Test;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.policy.FixedPolicy;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DivergenceTest {
+
+	private static final LocalDate START = LocalDate.of(2020, 2, 20);
+
+	@Test
+	public void identical() {
+
+		Run a = new Run(config(), new Params("2020-06-01", 1, 0.5));
+		Run b = new Run(config(), new Params("2020-06-01", 1, 0.5));
+
+		List<Divergence.Group<Run>> groups = group(List.of(a, b), 7);
+
+		assertThat(groups).hasSize(1);
+		assertThat(groups.get(0).getDate()).isEqualTo(LocalDate.MAX);
+		assertThat(groups.get(0).getReason()).isNull();
+		assertThat(groups.get(0).getDifference(b)).isNull();
+	}
+
+	@Test
+	public void dateParameter() {
+
+		Run a = new Run(config(), new Params("2020-06-01", 1, 0.5));
+		Run b = new Run(config(), new Params("2020-05-01", 1, 0.5));
+
+		Divergence.Group<Run> group = group(List.of(a, b), 7).get(0);
+
+		assertThat(group.getMembers()).containsExactly(a, b);
+		assertThat(group.getDate()).isEqualTo(LocalDate.of(2020, 5, 1));
+		assertThat(group.getDifference(b)).isEqualTo("params.campaignStart");
+	}
+
+	@Test
+	public void fixedDate() {
+
+		Run a = new Run(config(), new Params("2020-06-01", 1, 0.5));
+		Run b = new Run(config(), new Params("2020-06-01", 1, 0.8));
+
+		Divergence.Group<Run> group = group(List.of(a, b), 7).get(0);
+
+		assertThat(group.getDate()).isEqualTo(LocalDate.of(2020, 4, 1));
+		assertThat(group.getReason()).isEqualTo("params.ci");
+	}
+
+	@Test
+	public void undeclaredParameter() {
+
+		Run a = new Run(config(), new Params("2020-06-01", 1, 0.5));
+		Run b = new Run(config(), new Params("2020-05-01", 2, 0.5));
+
+		// seed is not date effective, runs differ from the start
+		assertThat(group(List.of(a, b), 7)).hasSize(2);
+		assertThat(group(List.of(a, b), 0).get(0).getDate()).isEqualTo(START);
+	}
+
+	@Test
+	public void policy() {
+
+		Config ca = config();
+		Config cb = config();
+
+		ConfigUtils.addOrGetModule(ca, EpisimConfigGroup.class).setPolicy(FixedPolicy.config()
+				.restrict("2020-03-10", 0.5, "work").build());
+		ConfigUtils.addOrGetModule(cb, EpisimConfigGroup.class).setPolicy(FixedPolicy.config()
+				.restrict("2020-03-10", 0.5, "work")
+				.restrict("2020-03-20", 0.2, "work").build());
+
+		Run a = new Run(ca, new Params("2020-06-01", 1, 0.5));
+		Run b = new Run(cb, new Params("2020-06-01", 1, 0.5));
+
+		assertThat(group(List.of(a, b), 7).get(0).getDate()).isEqualTo(LocalDate.of(2020, 3, 20));
+
+		// prefix is too short
+		assertThat(group(List.of(a, b), 60)).hasSize(2);
+	}
+
+	@Test
+	public void bindings() {
+
+		Run a = new Run(config(), new Params("2020-06-01", 1, 0.5), campaign(0.5, 1));
+		Run b = new Run(config(), new Params("2020-06-01", 2, 0.5), campaign(0.8, 1));
+
+		// params are not compared if the bindings are known
+		Divergence.Group<Run> group = group(List.of(a, b), 7).get(0);
+		assertThat(group.getMembers()).containsExactly(a, b);
+		assertThat(group.getDate()).isEqualTo(LocalDate.of(2020, 5, 1));
+		assertThat(group.getReason()).startsWith("bindings.").contains("Campaign");
+
+		Run c = new Run(config(), new Params("2020-06-01", 1, 0.5), campaign(0.5, 1));
+		assertThat(group(List.of(a, c), 7).get(0).getDate()).isEqualTo(LocalDate.MAX);
+
+		// provider module without date
+		Run d = new Run(config(), new Params("2020-06-01", 1, 0.5), campaign(0.5, 2));
+		assertThat(group(List.of(a, d), 7)).hasSize(2);
+
+		assertThat(Divergence.dates(a.bindings)).isEqualTo(Map.of("DivergenceTest$Campaign.start", LocalDate.of(2020, 5, 1)));
+	}
+
+	@Test
+	public void invalidDate() {
+
+		Run a = new Run(config(), new Invalid("a"));
+		Run b = new Run(config(), new Invalid("b"));
+
+		assertThatThrownBy(() -> group(List.of(a, b), 7))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static List<Divergence.Group<Run>> group(List<Run> runs, int minDays) {
+		Function<Run, Object> params = r -> r.params;
+		return Divergence.group(runs, r -> r.config, params, r -> r.bindings, minDays);
+	}
+
+	private static Module campaign(double compliance, int factor) {
+		return Modules.combine(new FactorModule(factor), new AbstractModule() {
+			@Override
+			protected void configure() {
+				bind(Campaign.class).toInstance(new Campaign(LocalDate.of(2020, 5, 1), compliance));
+			}
+		});
+	}
+
+	private static Config config() {
+		Config config = ConfigUtils.createConfig(new EpisimConfigGroup());
+		ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class).setStartDate(START);
+		return config;
+	}
+
+	private static final class Run {
+
+		private final Config config;
+		private final Object params;
+		private final Module bindings;
+
+		private Run(Config config, Object params) {
+			this(config, params, null);
+		}
+
+		private Run(Config config, Object params, Module bindings) {
+			this.config = config;
+			this.params = params;
+			this.bindings = bindings;
+		}
+	}
+
+	private static final class Campaign {
+
+		@DateEffective
+		private final LocalDate start;
+
+		private final double compliance;
+
+		private Campaign(LocalDate start, double compliance) {
+			this.start = start;
+			this.compliance = compliance;
+		}
+	}
+
+	private static final class FactorModule extends AbstractModule {
+
+		private final int factor;
+
+		private FactorModule(int factor) {
+			this.factor = factor;
+		}
+
+		@Provides
+		Integer factor() {
+			return factor;
+		}
+	}
+
+	private static final class Params {
+
+		@DateEffective
+		private final String campaignStart;
+
+		private final long seed;
+
+		@DateEffective("2020-04-01")
+		private final double ci;
+
+		private Params(String campaignStart, long seed, double ci) {
+			this.campaignStart = campaignStart;
+			this.seed = seed;
+			this.ci = ci;
+		}
+	}
+
+	private static final class Invalid {
+
+		@DateEffective
+		private final String variant;
+
+		private Invalid(String variant) {
+			this.variant = variant;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.matsim.run;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class GaussianProcessTest {
+
+	@Test
+	public void interpolates() {
+
+		List<double[]> x = new ArrayList<>();
+		double[] y = new double[11];
+		for (int i = 0; i <= 10; i++) {
+			x.add(new double[]{i / 10d});
+			y[i] = Math.sin(3 * i / 10d);
+		}
+
+		GaussianProcess gp = new GaussianProcess(1e-6);
+		gp.fit(x, y);
+
+		for (int i = 0; i <= 10; i++) {
+			double[] pred = gp.predict(x.get(i));
+			assertThat(pred[0]).isCloseTo(y[i], within(1e-2));
+			assertThat(pred[1]).isLessThan(0.05);
+		}
+
+		// between observations
+		assertThat(gp.predict(new double[]{0.55})[0]).isCloseTo(Math.sin(1.65), within(0.05));
+	}
+
+	@Test
+	public void uncertaintyGrowsWithDistance() {
+
+		GaussianProcess gp = new GaussianProcess(0.01);
+		gp.fit(List.of(new double[]{0, 0}, new double[]{0.1, 0}, new double[]{0, 0.1}), new double[]{1, 2, 3});
+
+		double near = gp.predict(new double[]{0.05, 0.05})[1];
+		double far = gp.predict(new double[]{1, 1})[1];
+
+		assertThat(far).isGreaterThan(near);
+	}
+
+	@Test
+	public void expectedImprovement() {
+
+		GaussianProcess gp = new GaussianProcess(1e-4);
+		gp.fit(List.of(new double[]{0}, new double[]{0.5}, new double[]{1}), new double[]{1, 0, 1});
+
+		// improvement is expected close to the minimum rather than close to worse observations
+		assertThat(gp.expectedImprovement(new double[]{0.45}, 0))
+				.isGreaterThan(gp.expectedImprovement(new double[]{0.95}, 0));
+
+		assertThat(gp.expectedImprovement(new double[]{0.45}, 0)).isGreaterThanOrEqualTo(0);
+	}
+}
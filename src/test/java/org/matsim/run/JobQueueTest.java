@@ -0,0 +1,147 @@
+package org.matsim.run;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalInt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JobQueueTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void claimAndComplete() throws Exception {
+
+		Path output = tmp.getRoot().toPath();
+
+		try (JobQueue a = new JobQueue(output, List.of(0, 1, 2), Duration.ofMinutes(10), "a");
+			 JobQueue b = new JobQueue(output, List.of(0, 1, 2), Duration.ofMinutes(10), "b")) {
+
+			assertThat(a.claim()).isEqualTo(OptionalInt.of(0));
+			assertThat(b.claim()).isEqualTo(OptionalInt.of(1));
+
+			assertThat(a.complete(0, true)).isTrue();
+			assertThat(b.complete(1, false)).isTrue();
+
+			// failed jobs are not claimed again
+			assertThat(a.claim()).isEqualTo(OptionalInt.of(2));
+			assertThat(b.claim()).isEmpty();
+
+			assertThat(a.complete(2, true)).isTrue();
+		}
+
+		assertThat(Files.readString(output.resolve(".queue/0.done"))).isEqualTo("a");
+		assertThat(output.resolve(".queue/1.failed")).exists();
+		assertThat(output.resolve(".queue/0.claim")).doesNotExist();
+
+		// completed jobs are skipped by workers started later
+		try (JobQueue c = new JobQueue(output, List.of(0, 1, 2), Duration.ofMinutes(10), "c")) {
+			assertThat(c.claim()).isEmpty();
+		}
+	}
+
+	@Test
+	public void expiredLease() throws Exception {
+
+		Path output = tmp.getRoot().toPath();
+
+		try (JobQueue a = new JobQueue(output, List.of(0), Duration.ofMillis(50), "a");
+			 JobQueue b = new JobQueue(output, List.of(0), Duration.ofMillis(50), "b")) {
+
+			assertThat(a.claim()).isEqualTo(OptionalInt.of(0));
+
+			// lease is still valid
+			assertThat(b.claim()).isEmpty();
+
+			Thread.sleep(100);
+
+			assertThat(b.claim()).isEqualTo(OptionalInt.of(0));
+			assertThat(a.isLost(0)).isFalse();
+
+			// slow worker notices that the job was taken over and does not renew the claim of b
+			a.renew();
+			assertThat(a.isLost(0)).isTrue();
+			assertThat(Files.readString(output.resolve(".queue/0.claim"))).isEqualTo("b");
+
+			assertThat(a.complete(0, true)).isFalse();
+			assertThat(output.resolve(".queue/0.done")).doesNotExist();
+
+			b.renew();
+			assertThat(b.isLost(0)).isFalse();
+			assertThat(b.complete(0, true)).isTrue();
+		}
+
+		assertThat(Files.readString(output.resolve(".queue/0.done"))).isEqualTo("b");
+	}
+
+	@Test
+	public void drainCompleted() throws Exception {
+
+		Path output = tmp.getRoot().toPath();
+
+		try (JobQueue a = new JobQueue(output, List.of(0, 1, 2), Duration.ofMinutes(10), "a");
+			 JobQueue b = new JobQueue(output, List.of(0, 1, 2), Duration.ofMinutes(10), "b")) {
+
+			assertThat(a.claim()).isEqualTo(OptionalInt.of(0));
+			assertThat(a.complete(0, true)).isTrue();
+
+			assertThat(b.drainCompleted()).isEmpty();
+			assertThat(b.claim()).isEqualTo(OptionalInt.of(1));
+
+			// jobs completed by other workers are reported once
+			assertThat(b.drainCompleted()).containsExactly(0);
+			assertThat(b.drainCompleted()).isEmpty();
+
+			assertThat(b.claim()).isEqualTo(OptionalInt.of(2));
+			assertThat(b.drainCompleted()).isEmpty();
+		}
+	}
+
+	@Test
+	public void release() throws Exception {
+
+		Path output = tmp.getRoot().toPath();
+
+		try (JobQueue a = new JobQueue(output, List.of(0), Duration.ofMinutes(10), "a");
+			 JobQueue b = new JobQueue(output, List.of(0), Duration.ofMinutes(10), "b")) {
+
+			assertThat(a.claim()).isEqualTo(OptionalInt.of(0));
+			a.release(0);
+
+			// released job can be claimed immediately and is not renewed by a anymore
+			assertThat(b.claim()).isEqualTo(OptionalInt.of(0));
+			a.renew();
+			assertThat(Files.readString(output.resolve(".queue/0.claim"))).isEqualTo("b");
+
+			assertThat(b.complete(0, true)).isTrue();
+		}
+	}
+
+	@Test
+	public void renewKeepsLease() throws Exception {
+
+		Path output = tmp.getRoot().toPath();
+
+		try (JobQueue a = new JobQueue(output, List.of(0), Duration.ofMillis(200), "a");
+			 JobQueue b = new JobQueue(output, List.of(0), Duration.ofMillis(200), "b")) {
+
+			assertThat(a.claim()).isEqualTo(OptionalInt.of(0));
+
+			for (int i = 0; i < 4; i++) {
+				Thread.sleep(100);
+				a.renew();
+				assertThat(b.claim()).isEmpty();
+			}
+
+			assertThat(a.isLost(0)).isFalse();
+		}
+	}
+}
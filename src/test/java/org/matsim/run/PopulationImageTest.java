@@ -0,0 +1,110 @@
+package org.matsim.run;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.vehicles.MatsimVehicleWriter;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PopulationImageTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws Exception {
+
+		Config config = ConfigUtils.createConfig();
+		Scenario original = ScenarioUtils.createScenario(config);
+		Population population = original.getPopulation();
+
+		for (int i = 0; i < 3; i++) {
+			Person person = population.getFactory().createPerson(Id.createPersonId("p" + i));
+			person.getAttributes().putAttribute("district", i % 2 == 0 ? "Berlin" : "Potsdam");
+			person.getAttributes().putAttribute("age", 20 + i);
+			person.getAttributes().putAttribute("income", 1000L * i);
+			person.getAttributes().putAttribute("immunity", 0.5 * i);
+			person.getAttributes().putAttribute("vaccinable", i != 1);
+			population.addPerson(person);
+		}
+
+		Path file = PopulationImage.path(tmp.getRoot().toPath(), "fp");
+		PopulationImage.write(original, "fp", file);
+
+		Scenario scenario = PopulationImage.read(config, file, "fp");
+
+		assertThat(scenario.getPopulation().getPersons().keySet())
+				.containsExactlyInAnyOrderElementsOf(population.getPersons().keySet());
+
+		for (Person person : population.getPersons().values()) {
+			Person read = scenario.getPopulation().getPersons().get(person.getId());
+			assertThat(read.getAttributes().getAsMap()).isEqualTo(person.getAttributes().getAsMap());
+		}
+
+		assertThatThrownBy(() -> PopulationImage.read(config, file, "other"))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void vehicleCapacities() throws Exception {
+
+		Scenario input = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		VehicleType bus = VehicleUtils.createVehicleType(Id.create("bus", VehicleType.class));
+		bus.getCapacity().setSeats(70);
+		bus.getCapacity().setStandingRoom(40);
+		input.getVehicles().addVehicleType(bus);
+
+		Path vehicles = tmp.getRoot().toPath().resolve("vehicles.xml");
+		new MatsimVehicleWriter(input.getVehicles()).writeFile(vehicles.toString());
+
+		Config config = ConfigUtils.createConfig();
+		config.vehicles().setVehiclesFile(vehicles.toString());
+
+		// the scenario provider scales the capacities after loading the vehicles
+		Scenario scenario = ScenarioUtils.loadScenario(config);
+		VehicleType loaded = scenario.getVehicles().getVehicleTypes().get(bus.getId());
+		loaded.getCapacity().setSeats(91);
+		loaded.getCapacity().setStandingRoom(52);
+
+		Path file = PopulationImage.path(tmp.getRoot().toPath(), "fp");
+		PopulationImage.write(scenario, "fp", file);
+
+		VehicleType read = PopulationImage.read(config, file, "fp").getVehicles().getVehicleTypes().get(bus.getId());
+
+		assertThat(read.getCapacity().getSeats()).isEqualTo(91);
+		assertThat(read.getCapacity().getStandingRoom()).isEqualTo(52);
+	}
+
+	@Test
+	public void unsupportedAttribute() {
+
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		Population population = scenario.getPopulation();
+
+		Person person = population.getFactory().createPerson(Id.createPersonId("p"));
+		person.getAttributes().putAttribute("home", new Object());
+		population.addPerson(person);
+
+		Path file = PopulationImage.path(tmp.getRoot().toPath(), "fp");
+
+		assertThatThrownBy(() -> PopulationImage.write(scenario, "fp", file))
+				.isInstanceOf(IllegalArgumentException.class);
+
+		// no partial image is left behind
+		assertThat(file).doesNotExist();
+		assertThat(tmp.getRoot().listFiles()).isEmpty();
+	}
+}
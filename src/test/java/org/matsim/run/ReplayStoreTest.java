@@ -0,0 +1,123 @@
+package org.matsim.run;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.google.inject.util.Modules;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.*;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.episim.EpisimConfigGroup;
+import org.matsim.episim.ReplayHandler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.DayOfWeek;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReplayStoreTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws Exception {
+
+		List<Event> weekday = List.of(
+				new ActivityEndEvent(100, Id.createPersonId("p1"), Id.createLinkId("l1"), null, "home", new Coord(3, 4)),
+				new PersonEntersVehicleEvent(110, Id.createPersonId("p1"), Id.createVehicleId("v1")),
+				new PersonLeavesVehicleEvent(200, Id.createPersonId("p1"), Id.createVehicleId("v1")),
+				new ActivityStartEvent(210, Id.createPersonId("p1"), null, Id.create("f1", org.matsim.facilities.ActivityFacility.class), "work", new Coord(1, 2))
+		);
+
+		List<Event> sunday = List.of(
+				new ActivityEndEvent(300, Id.createPersonId("p2"), null, null, "home", null)
+		);
+
+		Map<DayOfWeek, List<Event>> events = new EnumMap<>(DayOfWeek.class);
+		for (DayOfWeek day : DayOfWeek.values()) {
+			events.put(day, day == DayOfWeek.SUNDAY ? sunday : weekday);
+		}
+
+		Path file = ReplayStore.path(tmp.getRoot().toPath(), "fp");
+		ReplayStore.write(new ReplayHandler(events), "fp", file);
+
+		Map<DayOfWeek, List<Event>> read = ReplayStore.read(file, "fp").getEvents();
+
+		assertThat(read.keySet()).containsExactly(DayOfWeek.values());
+
+		// shared days are stored once and are identical after reading
+		assertThat(read.get(DayOfWeek.MONDAY)).isSameAs(read.get(DayOfWeek.FRIDAY));
+
+		for (DayOfWeek day : DayOfWeek.values()) {
+			assertThat(read.get(day)).hasSameSizeAs(events.get(day));
+			for (int i = 0; i < events.get(day).size(); i++) {
+				assertThat(read.get(day).get(i).getAttributes()).isEqualTo(events.get(day).get(i).getAttributes());
+			}
+		}
+
+		// coordinates of start and end events are kept
+		assertThat(((ActivityEndEvent) read.get(DayOfWeek.MONDAY).get(0)).getCoord()).isEqualTo(new Coord(3, 4));
+		assertThat(((ActivityStartEvent) read.get(DayOfWeek.MONDAY).get(3)).getCoord()).isEqualTo(new Coord(1, 2));
+		assertThat(((ActivityEndEvent) read.get(DayOfWeek.SUNDAY).get(0)).getCoord()).isNull();
+
+		assertThatThrownBy(() -> ReplayStore.read(file, "other"))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	public void fingerprintChangesWithInput() throws Exception {
+
+		Path events = tmp.newFile("events.xml").toPath();
+		Files.writeString(events, "<events/>");
+
+		Config config = ConfigUtils.createConfig(new EpisimConfigGroup());
+		EpisimConfigGroup episimConfig = ConfigUtils.addOrGetModule(config, EpisimConfigGroup.class);
+		episimConfig.addInputEventsFile(events.toString()).addDays(DayOfWeek.values());
+
+		String fp = ReplayStore.fingerprint(config);
+		assertThat(ReplayStore.fingerprint(config)).isEqualTo(fp);
+
+		// file regenerated in place with the same name
+		Files.writeString(events, "<events></events>");
+		Files.setLastModifiedTime(events, FileTime.fromMillis(Files.getLastModifiedTime(events).toMillis() + 1000));
+
+		assertThat(ReplayStore.fingerprint(config)).isNotEqualTo(fp);
+	}
+
+	@Test
+	public void fingerprintContainsScenarioModule() {
+
+		Config config = ConfigUtils.createConfig(new EpisimConfigGroup());
+
+		Injector injector = Guice.createInjector(Modules.override(new ScenarioModule()).with(new AbstractModule() {
+		}));
+
+		assertThat(ReplayStore.scenarioModule(injector)).isEqualTo(ScenarioModule.class.getName());
+		assertThat(ReplayStore.fingerprint(config, injector)).isEqualTo(ReplayStore.fingerprint(config) + ", module=" + ScenarioModule.class.getName());
+	}
+
+	static final class ScenarioModule extends AbstractModule {
+
+		@Provides
+		@Singleton
+		Scenario scenario() {
+			return ScenarioUtils.createScenario(ConfigUtils.createConfig());
+		}
+	}
+}
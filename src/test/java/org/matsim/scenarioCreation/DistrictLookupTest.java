@@ -0,0 +1,116 @@
+package org.matsim.scenarioCreation;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.locationtech.jts.triangulate.VoronoiDiagramBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DistrictLookupTest {
+
+	@Test
+	public void gridEqualsTree() {
+
+		GeometryFactory f = new GeometryFactory();
+		Random rnd = new Random(1);
+
+		List<Coordinate> sites = new ArrayList<>();
+		for (int i = 0; i < 60; i++)
+			sites.add(new Coordinate(rnd.nextDouble() * 100, rnd.nextDouble() * 100));
+
+		VoronoiDiagramBuilder builder = new VoronoiDiagramBuilder();
+		builder.setSites(sites);
+		builder.setClipEnvelope(new Envelope(0, 100, 0, 100));
+		Geometry diagram = builder.getDiagram(f);
+
+		int largest = 0;
+		for (int i = 1; i < diagram.getNumGeometries(); i++) {
+			if (diagram.getGeometryN(i).getArea() > diagram.getGeometryN(largest).getArea())
+				largest = i;
+		}
+
+		List<Geometry> polygons = new ArrayList<>();
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < diagram.getNumGeometries(); i++) {
+			if (i == largest)
+				continue;
+
+			polygons.add(diagram.getGeometryN(i));
+			values.add("d" + i);
+		}
+
+		// the largest polygon is replaced by a ring with a hole, which partly contains an island
+		// so that there are points without district inside the extent
+		Geometry cell = diagram.getGeometryN(largest);
+		Geometry ring = cell.difference(cell.buffer(-1.5));
+		Geometry island = cell.buffer(-3);
+
+		assertThat(ring).isInstanceOf(Polygon.class);
+		assertThat(((Polygon) ring).getNumInteriorRing()).isEqualTo(1);
+		assertThat(island.isEmpty()).isFalse();
+
+		polygons.add(ring);
+		values.add("ring");
+		polygons.add(island);
+		values.add("island");
+
+		// lookup of the former implementation
+		STRtree tree = new STRtree();
+		for (int i = 0; i < polygons.size(); i++)
+			tree.insert(polygons.get(i).getEnvelopeInternal(), i);
+
+		DistrictLookup.Index index = DistrictLookup.Index.create(polygons, values);
+
+		int n = 50_000;
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		String[] expected = new String[n];
+
+		for (int i = 0; i < n; i++) {
+			xs[i] = rnd.nextDouble() * 120 - 10;
+			ys[i] = rnd.nextDouble() * 120 - 10;
+
+			Coordinate p = new Coordinate(xs[i], ys[i]);
+			for (Object id : tree.query(new Envelope(p))) {
+				if (polygons.get((int) id).contains(f.createPoint(p))) {
+					expected[i] = values.get((int) id);
+					break;
+				}
+			}
+		}
+
+		assertThat(expected).contains("ring", "island");
+
+		Envelope hole = ((Polygon) ring).getInteriorRingN(0).getEnvelopeInternal();
+		boolean inHole = false;
+		for (int i = 0; i < n; i++) {
+			Coordinate p = new Coordinate(xs[i], ys[i]);
+			if (hole.contains(p) && expected[i] == null)
+				inHole = true;
+		}
+
+		assertThat(inHole).isTrue();
+
+		// queried concurrently in chunks
+		assertThat(index.query(xs, ys)).containsExactly(expected);
+
+		for (int i = 0; i < 1000; i++) {
+			int j = i;
+			if (expected[i] != null)
+				assertThat(index.query(xs[i], ys[i])).isEqualTo(expected[i]);
+			else
+				assertThatThrownBy(() -> index.query(xs[j], ys[j])).isInstanceOf(NoSuchElementException.class);
+		}
+	}
+}